@@ -0,0 +1,357 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Task;
+import org.apache.tools.ant.types.FileSet;
+
+import org.closureant.base.BuildCache;
+import org.closureant.base.BuildRegistry;
+import org.closureant.base.JsClosureSourceFile;
+import org.closureant.base.SealedSourceIndex;
+import org.closureant.base.SourceFileFactory;
+import org.closureant.base.SourceIndex;
+import org.closureant.deps.BatchManifestBuilder;
+import org.closureant.types.EntryPoint;
+import org.closureant.types.RestrictedDirSet;
+import org.closureant.util.AntUtil;
+import org.closureant.util.DirectoryWalker;
+
+/**
+ * Batch Manifest Writer Ant task. Writes the manifests of many program entry
+ * points that share the same sources, such as the pages of a web
+ * application, in a single execution. Each manifest is the same as the
+ * manifest that {@link BuilderPlus} would write with {@code outputMode}
+ * MANIFEST for the entry point, but the sources are scanned and the
+ * dependency graph is built only once for all entry points (see {@link
+ * BatchManifestBuilder}). The default task name is {@code
+ * batch-manifest-writer} as defined in "task-definitions.xml".
+ *
+ * <ul class="blockList">
+ * <li class="blockList">
+ * <h3>Attributes</h3>
+ *
+ * <table class="overviewSummary" border="0" cellpadding="3" cellspacing="0">
+ * <col width="20%"/>
+ * <col width="60%"/>
+ * <col width="20%"/>
+ * <thead>
+ * <tr><th>Attribute Name</th><th>Description</th><th>Required</th></tr>
+ * </thead>
+ * <tbody>
+ * <tr class="altColor"><td id="keepAllSources"><b>keepAllSources</b></td>
+ *     <td>Whether all sources should be kept. See {@link
+ *     BuilderPlus#setKeepAllSources(boolean)}.</td><td>No. Defaults to
+ *     {@code false}.</td></tr>
+ * <tr class="rowColor"><td id="keepMoochers"><b>keepMoochers</b></td>
+ *     <td>Whether sources that do not provide any namespaces are always
+ *     kept. See {@link BuilderPlus#setKeepMoochers(boolean)}.</td><td>No.
+ *     Defaults to {@code false}.</td></tr>
+ * <tr class="altColor"><td id="keepOriginalOrder"><b>keepOriginalOrder</b>
+ *     </td><td>Whether sources should be kept in their original order. See
+ *     {@link BuilderPlus#setKeepOriginalOrder(boolean)}.</td><td>No.
+ *     Defaults to {@code false}.</td></tr>
+ * <tr class="rowColor"><td id="threads"><b>threads</b></td><td>The number
+ *     of threads used to scan source files.</td><td>No. Defaults to the
+ *     number of available processors.</td></tr>
+ * </tbody>
+ * </table>
+ * </li>
+ * </ul>
+ *
+ *
+ * <ul class="blockList">
+ * <li class="blockList">
+ * <h3>Nested Elements</h3>
+ *
+ * <table class="overviewSummary" border="0" cellpadding="3" cellspacing="0">
+ * <col width="20%"/>
+ * <col width="80%"/>
+ * <thead>
+ * <tr><th>Element Name</th><th>Description</th></tr>
+ * </thead>
+ * <tbody>
+ * <tr class="altColor"><td id="entryPoint"><b>entryPoint</b></td><td>A named
+ *     entry point with the manifest file to write. See {@link
+ *     EntryPoint}.</td></tr>
+ * <tr class="rowColor"><td id="roots"><b>roots</b></td><td>Root directories
+ *     to be traversed to build dependencies. See {@link BuilderPlus}.</td>
+ *     </tr>
+ * <tr class="altColor"><td id="sources"><b>sources</b></td><td>JavaScript
+ *     source files that will be used if they are transitively required by
+ *     one of the entry points. The {@literal <sources>} element is an Ant
+ *     <a href="http://ant.apache.org/manual/Types/fileset.html">FileSet</a>.
+ *     </td></tr>
+ * </tbody>
+ * </table>
+ * </li>
+ * </ul>
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ */
+public final class BatchManifestWriter extends Task {
+
+  // Attributes
+  private boolean keepAllSources;
+  private boolean keepMoochers;
+  private boolean keepOriginalOrder;
+  private int threads;
+
+  // Nested elements
+  private final List<EntryPoint> entryPoints;
+  private final List<RestrictedDirSet> roots;
+  private final List<FileSet> sources;
+
+
+  /**
+   * Constructs a new Ant task for Batch Manifest Writer.
+   */
+  public BatchManifestWriter() {
+    // Attributes
+    this.keepAllSources = false;
+    this.keepMoochers = false;
+    this.keepOriginalOrder = false;
+    this.threads = SourceFileFactory.DEFAULT_SCAN_THREADS;
+
+    // Nested elements
+    this.entryPoints = Lists.newArrayList();
+    this.roots = Lists.newArrayList();
+    this.sources = Lists.newArrayList();
+  }
+
+
+  // Attribute setters
+
+  /**
+   * @param keepAllSources whether all sources should be kept. Defaults to
+   *     {@code false}.
+   */
+  public void setKeepAllSources(boolean keepAllSources) {
+    this.keepAllSources = keepAllSources;
+  }
+
+  /**
+   * @param keepMoochers if {@code true}, moochers and their dependencies are
+   *     always kept. Defaults to {@code false}.
+   */
+  public void setKeepMoochers(boolean keepMoochers) {
+    this.keepMoochers = keepMoochers;
+  }
+
+  /**
+   * @param keepOriginalOrder if {@code true}, sources will be kept in their
+   *     original order. Defaults to {@code false}.
+   */
+  public void setKeepOriginalOrder(boolean keepOriginalOrder) {
+    this.keepOriginalOrder = keepOriginalOrder;
+  }
+
+  /**
+   * Sets the number of threads used to scan source files for {@code
+   * goog.provide} and {@code goog.require} statements.
+   *
+   * @param threads the number of threads. Defaults to the number of
+   *     available processors.
+   * @throws BuildException if {@code threads} is less than 1
+   */
+  public void setThreads(int threads) {
+    if (threads < 1) {
+      throw new BuildException("Attribute \"threads\" expected to be at "
+          + "least 1 but was " + threads);
+    }
+    this.threads = threads;
+  }
+
+
+  // Nested element setters
+
+  /**
+   * Adds a named entry point, whose manifest is written to the entry
+   * point's {@code outputManifest}.
+   *
+   * @param entryPoint the entry point
+   */
+  public void addEntryPoint(EntryPoint entryPoint) {
+    this.entryPoints.add(entryPoint);
+  }
+
+  /**
+   * Adds root directories to be recursively scanned for JavaScript source
+   * files. See {@link BuilderPlus#addRoots(RestrictedDirSet)}.
+   *
+   * @param roots directories to be recursively scanned for JavaScript sources
+   */
+  public void addRoots(RestrictedDirSet roots) {
+    this.roots.add(roots);
+  }
+
+  /**
+   * Adds source files that will be used if they are transitively required by
+   * one or more of the entry points.
+   *
+   * @param sourceFiles source files available to the build process
+   */
+  public void addSources(FileSet sourceFiles) {
+    this.sources.add(sourceFiles);
+  }
+
+  /**
+   * Execute the Batch Manifest Writer task.
+   *
+   * @throws BuildException on error.
+   */
+  @Override
+  public void execute() {
+    Set<String> names = Sets.newHashSet();
+    for (EntryPoint entryPoint : this.entryPoints) {
+      if (entryPoint.getName() == null) {
+        throw new BuildException("nested element <entrypoint> requires "
+            + "attribute \"name\"");
+      }
+      if (entryPoint.getOutputManifest() == null) {
+        throw new BuildException("entry point \"" + entryPoint.getName()
+            + "\" requires attribute \"outputManifest\"");
+      }
+      if (!names.add(entryPoint.getName())) {
+        throw new BuildException("entry point \"" + entryPoint.getName()
+            + "\" is defined more than once");
+      }
+    }
+
+    try {
+      BatchManifestBuilder<JsClosureSourceFile> builder = createBuilder();
+      BuildRegistry registry = BuildRegistry.getInstance(getProject());
+      String lineSeparator = String.format("%n");
+
+      for (EntryPoint entryPoint : this.entryPoints) {
+        List<JsClosureSourceFile> manifestList;
+        try {
+          manifestList = builder.toManifestList(entryPoint.getName());
+        } catch (RuntimeException e) {
+          throw new BuildException("entry point \"" + entryPoint.getName()
+              + "\": " + e.getMessage(), e);
+        }
+
+        List<String> manifestFilePaths = Lists.newArrayList();
+        for (JsClosureSourceFile source : manifestList) {
+          if (!source.getAbsolutePath().isEmpty()) {
+            manifestFilePaths.add(source.getAbsolutePath());
+          } else {
+            manifestFilePaths.add(source.getName());
+          }
+        }
+        Files.write(Joiner.on(lineSeparator).join(manifestFilePaths),
+            entryPoint.getOutputManifest(), Charsets.UTF_8);
+        registry.invalidate(entryPoint.getOutputManifest());
+        log(entryPoint.getName() + ": " + manifestFilePaths.size()
+            + " dependencies in manifest ["
+            + entryPoint.getOutputManifest().getAbsolutePath() + "]");
+      }
+    } catch (IOException e) {
+      throw new BuildException(e);
+    }
+  }
+
+  /**
+   * Scans the "main" sources of every entry point and all shared sources in
+   * one batch, and adds them to a new {@link BatchManifestBuilder}.
+   *
+   * @return a new batch manifest builder
+   * @throws IOException if there is an error reading the sources
+   */
+  private BatchManifestBuilder<JsClosureSourceFile> createBuilder()
+      throws IOException {
+    log("Scanning paths...");
+
+    // The "main" sources of the entry points precede the shared sources,
+    // as in BuilderPlus.
+    List<File> allFiles = Lists.newArrayList();
+    List<Integer> mainSourceCounts = Lists.newArrayList();
+    for (EntryPoint entryPoint : this.entryPoints) {
+      List<String> paths = entryPoint.getMainSources();
+      for (String path : paths) {
+        allFiles.add(new File(path));
+      }
+      mainSourceCounts.add(paths.size());
+    }
+    int mainSourceCount = allFiles.size();
+
+    for (String path : AntUtil.getFilePathsFromCollectionOfFileSet(
+        getProject(), this.sources)) {
+      allFiles.add(new File(path));
+    }
+
+    List<JsClosureSourceFile> sealedSources = Lists.newArrayList();
+    BuildRegistry registry = BuildRegistry.getInstance(getProject());
+    DirectoryWalker walker = new DirectoryWalker(
+        /* includes */ ImmutableList.of("**/*.js"),
+        /* excludes */ ImmutableList.of(".*"));
+    for (RestrictedDirSet dirSet : this.roots) {
+      File sealedIndex = dirSet.getSealedIndexFile();
+      if (sealedIndex != null) {
+        sealedSources.addAll(SealedSourceIndex.readSourceFiles(
+            dirSet.getDir(), sealedIndex, registry.getNamespaceTable()));
+      } else {
+        for (File dir : dirSet.getMatchedDirectories()) {
+          for (String path : registry.findFiles(walker, dir)) {
+            allFiles.add(new File(path));
+          }
+        }
+      }
+    }
+
+    SourceIndex sourceIndex = new BuildCache(this).getSourceIndex();
+    List<JsClosureSourceFile> scannedFiles =
+        registry.getLightweightSourceFiles(allFiles, this.threads,
+            sourceIndex);
+    sourceIndex.save();
+
+    BatchManifestBuilder<JsClosureSourceFile> builder =
+        new BatchManifestBuilder<JsClosureSourceFile>();
+    int start = 0;
+    for (int i = 0; i < this.entryPoints.size(); i++) {
+      EntryPoint entryPoint = this.entryPoints.get(i);
+      int end = start + mainSourceCounts.get(i);
+      builder.entryPoint(entryPoint.getName(), scannedFiles.subList(start, end),
+          entryPoint.getNamespaces());
+      start = end;
+    }
+    builder.sources(scannedFiles.subList(mainSourceCount,
+        scannedFiles.size()));
+    builder.sources(sealedSources);
+    builder.keepAllSources(this.keepAllSources)
+        .keepMoochers(this.keepMoochers)
+        .keepOriginalOrder(this.keepOriginalOrder);
+
+    log(scannedFiles.size() + sealedSources.size() + " sources scanned for "
+        + this.entryPoints.size() + " entry points.");
+    return builder;
+  }
+}
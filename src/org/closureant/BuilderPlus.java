@@ -27,26 +27,46 @@ import java.io.File;
 import java.io.IOException;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
 import org.apache.tools.ant.Task;
+import org.apache.tools.ant.taskdefs.Java;
 import org.apache.tools.ant.types.FileSet;
 
 import org.closureant.base.BuildCache;
+import org.closureant.base.BuildRegistry;
 import org.closureant.base.JsClosureSourceFile;
+import org.closureant.base.SealedSourceIndex;
 import org.closureant.base.SharedAntProperty;
 import org.closureant.base.SourceFileFactory;
+import org.closureant.base.SourceIndex;
 import org.closureant.builderplus.BuilderPlusUtil;
 import org.closureant.builderplus.OutputMode;
 import org.closureant.css.CssRenamingMap;
+import org.closureant.deps.BundleSizeReport;
+import org.closureant.deps.CheckShardPartitioner;
+import org.closureant.deps.CompilerModule;
+import org.closureant.deps.DependencyReport;
 import org.closureant.deps.ManifestBuilder;
+import org.closureant.deps.ModulePartitioner;
+import org.closureant.deps.MultipleProvideException;
+import org.closureant.deps.UnreachableSourceReport;
 import org.closureant.types.CompilationLevel;
 import org.closureant.types.CompilerOptionsComplete;
 import org.closureant.types.CompilerOptionsFactory;
+import org.closureant.types.EntryPoint;
 import org.closureant.types.NamespaceList;
 import org.closureant.types.RestrictedDirSet;
+import org.closureant.types.StringNestedElement;
 import org.closureant.util.AntUtil;
-import org.closureant.util.FileUtil;
+import org.closureant.util.CompilerDiagnostics;
+import org.closureant.util.DirectoryWalker;
 
 /**
  * Builder Plus Ant task. Builder Plus is similar to Closure Builder,
@@ -86,6 +106,17 @@ import org.closureant.util.FileUtil;
  * <tr><th>Attribute Name</th><th>Description</th><th>Required</th></tr>
  * </thead>
  * <tbody>
+ * <tr class="altColor"><td id="artifactCache"><b>artifactCache</b></td>
+ *     <td>Determines if the outputs of the Closure Compiler in output mode
+ *     COMPILED are restored from and stored in a content-addressed cache,
+ *     so that sources compiled before, for example on another branch, are
+ *     not recompiled. See {@link ClosureCompiler#setArtifactCache(boolean)}.
+ *     </td><td>No. Defaults to {@code false}.</td></tr>
+ * <tr class="rowColor"><td id="checkProcesses"><b>checkProcesses</b></td>
+ *     <td>The maximum number of Closure Compiler processes run in parallel
+ *     in output mode CHECKS, which is also the maximum number of shards the
+ *     manifest is partitioned into. See {@link CheckShardPartitioner}.</td>
+ *     <td>No. Defaults to the number of available processors.</td></tr>
  * <tr class="altColor"><td id="closureBuilderPythonScript">
  *     <b>closureBuilderPythonScript</b></td><td>The Closure Builder Python
  *     script.</td><td>No, as long as your build file imports
@@ -93,6 +124,12 @@ import org.closureant.util.FileUtil;
  * <tr class="rowColor"><td id="compilerJar"><b>compilerJar</b></td><td>The
  *     Closure Compiler jar file.</td><td>No, as long as your build file
  *     imports closureextensions.xml</td></tr>
+ * <tr class="altColor"><td id="contentDigests"><b>contentDigests</b></td>
+ *     <td>Determines if the contents of the sources and of the output file
+ *     are recorded, so that sources that were touched without being changed
+ *     are not recompiled. See {@link
+ *     ClosureCompiler#setContentDigests(boolean)}.</td><td>No. Defaults to
+ *     {@code false}.</td></tr>
  * <tr class="rowColor"><td id="forceRecompile"><b>forceRecompile</b></td><td>
  *     Determines if the Closure Compiler should always recompile the output
  *     file, even if none of the input files have changed since the output
@@ -101,6 +138,20 @@ import org.closureant.util.FileUtil;
  *     Specifies a file containing a list of file paths to JavaScript sources
  *     to be included in the compilation, where each line in the manifest is
  *     a file path.</td><td>No</td></tr>
+ * <tr class="rowColor"><td id="bundleSizeReport"><b>bundleSizeReport</b>
+ *     </td><td>A file to which a text report is written that attributes the
+ *     bytes of the manifest to its files, namespaces and directories,
+ *     including the cost of requiring each namespace. See {@link
+ *     BundleSizeReport}.</td><td>No</td></tr>
+ * <tr class="altColor"><td id="bundleSizeReportJson">
+ *     <b>bundleSizeReportJson</b></td><td>A file to which the bundle size
+ *     report is written as JSON.</td><td>No</td></tr>
+ * <tr class="rowColor"><td id="minSharedModuleSize">
+ *     <b>minSharedModuleSize</b></td><td>The minimum size in bytes of a
+ *     module shared by some, but not all, {@literal <entrypoint>} elements.
+ *     Smaller shared modules are merged into modules shared by more entry
+ *     points. See {@link ModulePartitioner}.</td><td>No. Defaults to 0.</td>
+ *     </tr>
  * <tr class="altColor"><td id="outputFile"><b>outputFile</b></td><td>Output
  *     file name. If not specified, write to standard output.</td><td>No</td>
  *     </tr>
@@ -112,6 +163,10 @@ import org.closureant.util.FileUtil;
  *     type of output to generate. Options are "script" for a single script
  *     containing the contents of all the files concatenated together or
  *     "compiled" to produce compiled output with the Closure Compiler.
+ *     In "checks" mode, the sources are only checked: the manifest is
+ *     partitioned into shards of independent entry points, which are
+ *     checked by separate Closure Compiler processes in parallel with the
+ *     flag {@code --checks_only}, and their diagnostics are merged.
  *     Unlike the closurebuilder.py command line interface, there is no "list"
  *     output mode. Instead, a manifest may be saved by setting the attribute
  *     "outputManifest".</td>
@@ -119,6 +174,17 @@ import org.closureant.util.FileUtil;
  * <tr class="altColor"><td id="pythonExecutable"><b>pythonExecutable</b></td>
  *     <td>The python interpreter executable.</td><td>No. Defaults to
  *     "python".</td></tr>
+ * <tr class="rowColor"><td id="threads"><b>threads</b></td><td>The number
+ *     of threads used to scan source files for {@code goog.provide} and
+ *     {@code goog.require} statements. The order of the sources is not
+ *     affected.</td><td>No. Defaults to the number of available
+ *     processors.</td></tr>
+ * <tr class="altColor"><td id="unreachableReport">
+ *     <b>unreachableReport</b></td><td>A file to which a report is written
+ *     that lists every scanned source that is not reachable from any entry
+ *     point or moocher, with its size in bytes and rollups by directory, so
+ *     that unused directories may be excluded from the roots. See {@link
+ *     UnreachableSourceReport}.</td><td>No</td></tr>
  * </tbody>
  * </table>
  * </li>
@@ -139,6 +205,19 @@ import org.closureant.util.FileUtil;
  * <tr class="altColor"><td id="compiler"><b>compiler</b></td><td>Options for
  *     the Closure Compiler. For documentation see
  *     {@link org.closureant.types.ClosureCompiler}</td></tr>
+ * <tr class="rowColor"><td id="entryPoint"><b>entryPoint</b></td><td>A named
+ *    program entry point (see {@link EntryPoint}). If one or more entry
+ *    points are specified, the sources are partitioned into Closure Compiler
+ *    modules: a "base" module with the sources required by every entry
+ *    point, a module per entry point with the sources only it requires, and
+ *    shared modules for sources required by several entry points (see
+ *    {@link ModulePartitioner}). The {@code --module} flags and the order of
+ *    the sources are passed to the compiler, which writes each module to
+ *    the file named by the {@code moduleOutputPathPrefix} attribute of
+ *    {@literal <compiler>} and the module name. In MANIFEST mode, the module
+ *    flags are logged. Entry points cannot be combined with {@literal
+ *    <inputs>}, {@literal <namespace>}, {@code inputManifest} or RAW
+ *    mode.</td></tr>
  * <tr class="rowColor"><td id="inputs"><b>inputs</b></td><td>Input files to
  *    be compiled. Each input file and its transitive dependencies will be
  *    included in the compiled output. The {@literal <inputs>} element is an
@@ -156,13 +235,18 @@ import org.closureant.util.FileUtil;
  *     to calculate dependencies for. The {@literal <namespace>} element has a
  *     {@code value} attribute that accepts a Closure namespace. A Closure
  *     namespace is a dot-delimited path expression declared with a call to
- *     {@code goog.provide()} (for example, "goog.array" or "foo.bar").
+ *     {@code goog.provide()} (for example, "goog.array" or "foo.bar"). A
+ *     namespace ending with a "*" wildcard, such as "app.pages.*", is a
+ *     pattern that matches every {@code goog.provided} namespace that starts
+ *     with the text before the wildcard.
  *     Namespaces provided by {@literal <namespace>} elements will be combined
  *     with those provided by {@literal <inputs>}.</td></tr>
  * <tr class="rowColor"><td id="roots"><b>roots</b></td><td>Roots are directory
  *     paths to be traversed to build dependencies. The {@literal <root>}
  *     element has a {@code directory} attribute to specify a directory path.
- *     </td></tr>
+ *     If the {@code immutable} attribute is {@code true}, the sources under
+ *     the root are read from a sealed index created with {@link
+ *     SealedIndexWriter} instead of being scanned.</td></tr>
  * <tr class="altColor"><td id="sources"><b>sources</b></td><td>Sources are
  *     JavaScript source files available to the build process that will be
  *     used if they are transitively required by one of the {@code namespaces}
@@ -179,52 +263,125 @@ import org.closureant.util.FileUtil;
 public final class BuilderPlus extends Task {
 
   // Attributes
+  private boolean artifactCache;
+  private File bundleSizeReport;
+  private File bundleSizeReportJson;
+  private int checkProcesses;
   private File compilerJar;
+  private boolean contentDigests;
   private CssRenamingMap cssRenamingMap;
   private boolean forceRecompile;
   private File inputManifest;
   private boolean keepAllSources;
   private boolean keepMoochers;
   private boolean keepOriginalOrder;
+  private long minSharedModuleSize;
   private File outputFile;
   private File outputManifest;
   private OutputMode outputMode;
+  private int threads;
+  private File unreachableReport;
 
   // Nested elements
   private CompilerOptionsComplete compilerOptions;
+  private final List<EntryPoint> entryPoints;
   private final List<FileSet> mainSources; // Program entry points
   private final List<String> namespaces;
   private final List<RestrictedDirSet> roots;
   private final List<FileSet> sources;
 
+  // Numbers the runs of the checks by this task, since the Ant properties set
+  // to the exit codes of the compiler processes cannot be reset between runs.
+  private int checkRuns;
+
 
   /**
    * Constructs a new Ant task for Closure Builder.
    */
   public BuilderPlus() {
     // Attributes
+    this.artifactCache = false;
+    this.bundleSizeReport = null;
+    this.bundleSizeReportJson = null;
+    this.checkProcesses = Runtime.getRuntime().availableProcessors();
     this.compilerJar = null;
+    this.contentDigests = false;
     this.cssRenamingMap =null;
     this.forceRecompile = false;
     this.inputManifest = null;
     this.keepAllSources = false;
     this.keepMoochers = false;
     this.keepOriginalOrder = false;
+    this.minSharedModuleSize = 0;
     this.outputFile = null;
     this.outputManifest = null;
     this.outputMode = OutputMode.COMPILED;
+    this.threads = SourceFileFactory.DEFAULT_SCAN_THREADS;
+    this.unreachableReport = null;
 
     // Nested elements
     this.compilerOptions = null;
+    this.entryPoints = Lists.newArrayList();
     this.mainSources = Lists.newArrayList();
     this.namespaces = Lists.newArrayList();
     this.roots = Lists.newArrayList();
     this.sources = Lists.newArrayList();
+
+    this.checkRuns = 0;
   }
 
 
   // Attribute setters
 
+  /**
+   * Determines if the outputs of the Closure Compiler are restored from and
+   * stored in a content-addressed cache. See {@link
+   * ClosureCompiler#setArtifactCache(boolean)}.
+   *
+   * @param artifactCache if {@code true}, the artifact cache is used.
+   *     Defaults to {@code false}.
+   */
+  public void setArtifactCache(boolean artifactCache) {
+    this.artifactCache = artifactCache;
+  }
+
+  /**
+   * Sets a file to which a text report is written that attributes the bytes
+   * of the manifest to its files, namespaces and directories. See {@link
+   * BundleSizeReport}.
+   *
+   * @param bundleSizeReport the report file
+   */
+  public void setBundleSizeReport(File bundleSizeReport) {
+    this.bundleSizeReport = bundleSizeReport;
+  }
+
+  /**
+   * Sets a file to which the bundle size report is written as JSON. See
+   * {@link #setBundleSizeReport(File)}.
+   *
+   * @param bundleSizeReportJson the JSON report file
+   */
+  public void setBundleSizeReportJson(File bundleSizeReportJson) {
+    this.bundleSizeReportJson = bundleSizeReportJson;
+  }
+
+  /**
+   * Sets the maximum number of Closure Compiler processes run in parallel in
+   * output mode CHECKS. See {@link CheckShardPartitioner}.
+   *
+   * @param checkProcesses the maximum number of processes. Defaults to the
+   *     number of available processors.
+   * @throws BuildException if {@code checkProcesses} is less than 1
+   */
+  public void setCheckProcesses(int checkProcesses) {
+    if (checkProcesses < 1) {
+      throw new BuildException("Attribute \"checkProcesses\" expected to be "
+          + "at least 1 but was " + checkProcesses);
+    }
+    this.checkProcesses = checkProcesses;
+  }
+
   /**
    * Sets the Closure Compiler jar file.
    *
@@ -234,6 +391,18 @@ public final class BuilderPlus extends Task {
     this.compilerJar = file;
   }
 
+  /**
+   * Determines if the contents of the sources and of the output file are
+   * recorded, so that sources that were touched without being changed are not
+   * recompiled. See {@link ClosureCompiler#setContentDigests(boolean)}.
+   *
+   * @param contentDigests if {@code true}, the contents of the files are
+   *     recorded and compared. Defaults to {@code false}.
+   */
+  public void setContentDigests(boolean contentDigests) {
+    this.contentDigests = contentDigests;
+  }
+
   /**
    * Creates a new {@link CssRenamingMap} populated from the JSON in
    * the specified file. The JSON object must have keys and values of type
@@ -378,6 +547,22 @@ public final class BuilderPlus extends Task {
     this.keepOriginalOrder = keepOriginalOrder;
   }
 
+  /**
+   * Sets the minimum size in bytes of a module shared by some, but not all,
+   * of the {@literal <entrypoint>} nested elements. Smaller shared modules
+   * are merged into modules shared by more entry points.
+   *
+   * @param minSharedModuleSize the minimum size in bytes. Defaults to 0.
+   * @throws BuildException if {@code minSharedModuleSize} is negative
+   */
+  public void setMinSharedModuleSize(long minSharedModuleSize) {
+    if (minSharedModuleSize < 0) {
+      throw new BuildException("Attribute \"minSharedModuleSize\" expected "
+          + "to be at least 0 but was " + minSharedModuleSize);
+    }
+    this.minSharedModuleSize = minSharedModuleSize;
+  }
+
   /**
    * Sets an output file to use instead of standard output.
    *
@@ -401,14 +586,17 @@ public final class BuilderPlus extends Task {
    * Sets the output mode. Output is sent to standard out by default. In
    * COMPILED and RAW mode, output may be sent to a file by setting {@link
    * #outputFile}. In MANIFEST mode, output may be sent to a file by settings
-   * {@link #outputManifest}.
+   * {@link #outputManifest}. In CHECKS mode, the sources are checked by the
+   * Closure Compiler without producing output.
    *
-   * @param mode the output mode. Options: COMPILED, MANIFEST, RAW. Defaults
-   *     to COMPILED.
+   * @param mode the output mode. Options: CHECKS, COMPILED, MANIFEST, RAW.
+   *     Defaults to COMPILED.
    * @throws BuildException if {@code mode} is not a valid option
    */
   public void setOutputMode(String mode) {
-    if (OutputMode.COMPILED.toString().equalsIgnoreCase(mode)) {
+    if (OutputMode.CHECKS.toString().equalsIgnoreCase(mode)) {
+      this.outputMode = OutputMode.CHECKS;
+    } else if (OutputMode.COMPILED.toString().equalsIgnoreCase(mode)) {
       this.outputMode = OutputMode.COMPILED;
     } else if (OutputMode.MANIFEST.toString().equalsIgnoreCase(mode)) {
       this.outputMode = OutputMode.MANIFEST;
@@ -416,8 +604,37 @@ public final class BuilderPlus extends Task {
       this.outputMode = OutputMode.RAW;
     } else {
       throw new BuildException("Attribute \"outputMode\" expected to be "
-          + "one of COMPILED, MANIFEST, or RAW but was \"" + mode + "\"");
+          + "one of CHECKS, COMPILED, MANIFEST, or RAW but was \"" + mode
+          + "\"");
+    }
+  }
+
+  /**
+   * Sets the number of threads used to scan source files for {@code
+   * goog.provide} and {@code goog.require} statements. The order of the
+   * sources in the manifest does not depend on the number of threads.
+   *
+   * @param threads the number of threads. Defaults to the number of
+   *     available processors.
+   * @throws BuildException if {@code threads} is less than 1
+   */
+  public void setThreads(int threads) {
+    if (threads < 1) {
+      throw new BuildException("Attribute \"threads\" expected to be at "
+          + "least 1 but was " + threads);
     }
+    this.threads = threads;
+  }
+
+  /**
+   * Sets a file to which a report of the scanned sources that are not
+   * reachable from any entry point or moocher is written. See {@link
+   * UnreachableSourceReport}.
+   *
+   * @param unreachableReport the report file
+   */
+  public void setUnreachableReport(File unreachableReport) {
+    this.unreachableReport = unreachableReport;
   }
 
 
@@ -439,6 +656,17 @@ public final class BuilderPlus extends Task {
     return this.compilerOptions;
   }
 
+  /**
+   * Adds a named program entry point. If entry points are added, the sources
+   * are partitioned into Closure Compiler modules. See {@link
+   * ModulePartitioner}.
+   *
+   * @param entryPoint the entry point
+   */
+  public void addEntryPoint(EntryPoint entryPoint) {
+    this.entryPoints.add(entryPoint);
+  }
+
   /**
    * Adds "main" sources (that is, program entry points) for which transitive
    * dependencies will be calculated.
@@ -452,8 +680,11 @@ public final class BuilderPlus extends Task {
   /**
    * A list of namespaces separated by whitespace and/or commas that represent
    * program entry points for which transitive dependencies will be calculated.
+   * A namespace may be a pattern ending with a "*" wildcard, such as
+   * "app.pages.*", which matches every {@code goog.provided} namespace that
+   * starts with "app.pages.".
    *
-   * @param namespaces a list of Closure namespaces
+   * @param namespaces a list of Closure namespaces or namespace patterns
    */
   public void addConfiguredNamespaceList(NamespaceList namespaces) {
     this.namespaces.addAll(namespaces.getNamespaces());
@@ -490,25 +721,23 @@ public final class BuilderPlus extends Task {
    */
   @Override
   public void execute() {
+    if (!this.entryPoints.isEmpty()) {
+      executeWithModules();
+      return;
+    }
+
     try {// execute() cannot throw checked IOException due to parent definition
-      File manifestFile;
-      List<String> manifestList = createManifest();
+      List<JsClosureSourceFile> manifest = createManifest();
+      List<String> manifestList = getManifestFilePaths(manifest);
       String manifestString = Joiner.on(String.format("%n")).skipNulls()
           .join(manifestList);
+      File manifestFile = writeManifest(manifestString);
 
-      if (this.outputManifest != null) {
-        Files.write(manifestString, this.outputManifest, Charsets.UTF_8);
-        manifestFile = this.outputManifest;
-      } else {
-        // Save a copy of the manifest in directory '.closure-ant'.
-        BuildCache cache = new BuildCache(this);
-        manifestFile = cache.createTempFile("manifest_for_target["
-            + getOwningTarget().getName() + "].txt");
-        Files.write(manifestString, manifestFile, Charsets.UTF_8);
+      if (OutputMode.CHECKS == this.outputMode) {
+        runChecks(manifest);
       }
-
       if (OutputMode.COMPILED == this.outputMode) {
-        runClosureCompiler(manifestFile);
+        runClosureCompiler(manifestFile, null);
       }
       if (OutputMode.MANIFEST == this.outputMode) {
         if (this.outputManifest == null) {
@@ -523,6 +752,80 @@ public final class BuilderPlus extends Task {
     }
   }
 
+  /**
+   * Executes the task for the {@literal <entrypoint>} nested elements by
+   * partitioning the sources into Closure Compiler modules.
+   *
+   * @throws BuildException on error.
+   */
+  private void executeWithModules() {
+    if (this.inputManifest != null || !this.mainSources.isEmpty()
+        || !this.namespaces.isEmpty()) {
+      throw new BuildException("nested element <entrypoint> may not be "
+          + "combined with attribute \"inputManifest\" or nested elements "
+          + "<inputs> and <namespace>");
+    }
+    if (OutputMode.RAW == this.outputMode) {
+      throw new BuildException("nested element <entrypoint> is not "
+          + "supported in output mode RAW");
+    }
+    if (OutputMode.COMPILED == this.outputMode && this.outputFile != null) {
+      throw new BuildException("attribute \"outputFile\" may not be used "
+          + "with nested element <entrypoint>. Use attribute "
+          + "\"moduleOutputPathPrefix\" of nested element <compiler>.");
+    }
+
+    try {
+      List<CompilerModule<JsClosureSourceFile>> modules = createModules();
+      List<JsClosureSourceFile> manifestList = Lists.newArrayList();
+      List<String> moduleFlags = Lists.newArrayList();
+      for (CompilerModule<JsClosureSourceFile> module : modules) {
+        manifestList.addAll(module.getSources());
+        moduleFlags.add(module.toModuleFlag());
+        log("--module " + module.toModuleFlag());
+      }
+      String manifestString = Joiner.on(String.format("%n")).skipNulls()
+          .join(getManifestFilePaths(manifestList));
+      File manifestFile = writeManifest(manifestString);
+
+      if (OutputMode.CHECKS == this.outputMode) {
+        runChecks(manifestList);
+      }
+      if (OutputMode.COMPILED == this.outputMode) {
+        runClosureCompiler(manifestFile, moduleFlags);
+      }
+      if (OutputMode.MANIFEST == this.outputMode) {
+        if (this.outputManifest == null) {
+          log(manifestString);
+        }
+      }
+    } catch (IOException e) {
+      throw new BuildException(e);
+    }
+  }
+
+  /**
+   * Writes the manifest to {@link #outputManifest} if set, otherwise to a
+   * temporary file in the build cache directory.
+   *
+   * @param manifestString the manifest with one file path per line
+   * @return the manifest file
+   * @throws IOException if the manifest cannot be written
+   */
+  private File writeManifest(String manifestString) throws IOException {
+    if (this.outputManifest != null) {
+      Files.write(manifestString, this.outputManifest, Charsets.UTF_8);
+      BuildRegistry.getInstance(getProject()).invalidate(this.outputManifest);
+      return this.outputManifest;
+    }
+    // Save a copy of the manifest in directory '.closure-ant'.
+    BuildCache cache = new BuildCache(this);
+    File manifestFile = cache.createTempFile("manifest_for_target["
+        + getOwningTarget().getName() + "].txt");
+    Files.write(manifestString, manifestFile, Charsets.UTF_8);
+    return manifestFile;
+  }
+
   /**
    * Create a script comprised of the concatenated contents of {@code sources}.
    * The script will be written to {@link #outputFile} if set, otherwise to
@@ -540,6 +843,7 @@ public final class BuilderPlus extends Task {
     }
     if (this.outputFile != null) {
       Files.write(rawScript.toString(), this.outputFile, Charsets.UTF_8);
+      BuildRegistry.getInstance(getProject()).invalidate(this.outputFile);
     } else {
       System.out.println(rawScript.toString());
     }
@@ -549,9 +853,11 @@ public final class BuilderPlus extends Task {
    * Run the Closure Compiler with the help of the {@link ClosureCompiler}.
    *
    * @param manifest a manifest file listing all of the sources for the build
+   * @param moduleFlags the {@code --module} flags if the sources are
+   *     partitioned into modules, otherwise {@code null}
    * @throws BuildException if the manifest file is {@code null}
    */
-  private void runClosureCompiler(File manifest) {
+  private void runClosureCompiler(File manifest, List<String> moduleFlags) {
     if (this.compilerJar == null) {
       String closureCompilerPath =
           SharedAntProperty.CLOSURE_COMPILER_JAR.getValue(getProject());
@@ -570,10 +876,22 @@ public final class BuilderPlus extends Task {
       compilerTask.protectedSetCompilerOptions(this.compilerOptions);
     }
 
+    compilerTask.setArtifactCache(this.artifactCache);
+    compilerTask.setContentDigests(this.contentDigests);
     compilerTask.setForceRecompile(this.forceRecompile);
     if (this.outputFile != null) {
       compilerTask.setOutputFile(this.outputFile.getAbsolutePath());
     }
+    if (moduleFlags != null) {
+      for (String moduleFlag : moduleFlags) {
+        StringNestedElement module = new StringNestedElement();
+        module.setValue(moduleFlag);
+        compilerTask.addModule(module);
+      }
+      // The up-to-date check of the Closure Compiler task only applies to a
+      // single output file.
+      compilerTask.setForceRecompile(true);
+    }
     if (this.compilerJar != null) {
       compilerTask.setCompilerJar(this.compilerJar);
     }
@@ -585,6 +903,116 @@ public final class BuilderPlus extends Task {
     compilerTask.execute();
   }
 
+  /**
+   * Checks the sources of the manifest with the Closure Compiler in CHECKS
+   * mode. The manifest is partitioned into at most {@link #checkProcesses}
+   * shards (see {@link CheckShardPartitioner}), each shard is checked by a
+   * separate compiler process with the flag {@code --checks_only}, at most
+   * {@link #checkProcesses} at a time, and the diagnostics of the processes
+   * are merged and logged (see {@link CompilerDiagnostics}). The flag is
+   * only supported by versions of the Closure Compiler released since
+   * 2013.
+   *
+   * @param manifest the sources of the manifest
+   * @throws BuildException if a compiler process fails, for example because
+   *     of an error in the sources
+   * @throws IOException if a shard manifest cannot be written or the output
+   *     of a compiler process cannot be read
+   */
+  private void runChecks(List<JsClosureSourceFile> manifest)
+      throws IOException {
+    List<List<JsClosureSourceFile>> shards =
+        CheckShardPartitioner.partition(manifest, this.checkProcesses);
+    log("Checking " + manifest.size() + " sources in " + shards.size()
+        + " shard(s)...");
+
+    // The flag files are written by this thread, so that only the compiler
+    // processes run in parallel.
+    BuildCache cache = new BuildCache(this);
+    String target = getOwningTarget().getName();
+    final List<Java> runners = Lists.newArrayList();
+    List<File> outputFiles = Lists.newArrayList();
+    List<String> exitCodeProperties = Lists.newArrayList();
+    // The exit code properties are named after this task instance, as a new
+    // instance may be created each time the target is executed.
+    String runName = Integer.toHexString(System.identityHashCode(this))
+        + ".run[" + (++this.checkRuns) + "]";
+    for (int i = 0; i < shards.size(); i++) {
+      String shardName = "target[" + target + "]_shard[" + i + "]";
+      File shardManifest = cache.createTempFile(
+          "checks_manifest_for_" + shardName + ".txt");
+      Files.write(Joiner.on(String.format("%n")).join(
+          getManifestFilePaths(shards.get(i))), shardManifest,
+          Charsets.UTF_8);
+      File outputFile = cache.createTempFile(
+          "checks_output_for_" + shardName + ".txt");
+      outputFiles.add(outputFile);
+      String exitCodeProperty = "closure-ant.checks." + runName + "."
+          + shardName + ".exit-code";
+      exitCodeProperties.add(exitCodeProperty);
+
+      ClosureCompiler compilerTask = new ClosureCompiler(this);
+      if (this.compilerOptions != null) {
+        compilerTask.protectedSetCompilerOptions(this.compilerOptions);
+      }
+      if (this.compilerJar != null) {
+        compilerTask.setCompilerJar(this.compilerJar);
+      }
+      compilerTask.setInputManifest(shardManifest.getAbsolutePath());
+      runners.add(compilerTask.createChecksOnlyRunner(
+          "checks_flag_file_for_" + shardName + ".txt", outputFile,
+          exitCodeProperty));
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(
+        Math.min(this.checkProcesses, runners.size()));
+    try {
+      List<Future<Void>> futures = Lists.newArrayList();
+      for (final Java runner : runners) {
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() {
+            runner.execute();
+            return null;
+          }
+        }));
+      }
+      for (Future<Void> future : futures) {
+        try {
+          future.get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new BuildException("interrupted while checking shards", e);
+        } catch (ExecutionException e) {
+          throw new BuildException(e.getCause());
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    CompilerDiagnostics diagnostics = new CompilerDiagnostics();
+    int failedShards = 0;
+    for (int i = 0; i < runners.size(); i++) {
+      diagnostics.add(Files.toString(outputFiles.get(i), Charsets.UTF_8));
+      String exitCode = getProject().getProperty(exitCodeProperties.get(i));
+      if (exitCode == null || Integer.parseInt(exitCode) != 0) {
+        failedShards++;
+      }
+    }
+    for (String line : diagnostics.getOtherOutput()) {
+      log(line, Project.MSG_ERR);
+    }
+    for (String diagnostic : diagnostics.getDiagnostics()) {
+      log(diagnostic, Project.MSG_WARN);
+    }
+    log(diagnostics.getSummary());
+    if (failedShards > 0) {
+      throw new BuildException("Error: " + failedShards + " of "
+          + shards.size() + " shard(s) failed the Closure Compiler checks");
+    }
+  }
+
   /**
    * Creates a manifest suitable for the Closure Compiler. Such a manifest is
    * an ordered list of JavaScript source files derived from the transitive
@@ -603,20 +1031,16 @@ public final class BuilderPlus extends Task {
    * <p>If a CSS renaming map is specified, it will be written to a temporary
    * file and added to the manifest. See {@link #setCssRenamingMap(String)}.</p>
    *
-   * @return a manifest list of sources after dependency management
+   * @return the sources of the manifest after dependency management
    * @throws BuildException if {@link ManifestBuilder} throws a dependency
    *     related exception such as {@link
    *     org.closureant.deps.CircularDependencyException}
    * @throws IOException if there errors reading source files or writing the
    *     manifest file
    */
-  private List<String> createManifest() throws IOException {
+  private List<JsClosureSourceFile> createManifest() throws IOException {
     // Source-file entry points.
-    List<JsClosureSourceFile> sourceEntryPoints = Lists.newArrayList();
-
-    // Additional sources (may be pruned if not transitively required by the
-    // entry points).
-    List<JsClosureSourceFile> sources = Lists.newArrayList();
+    List<File> entryPointFiles = Lists.newArrayList();
 
     log("Scanning paths...");
 
@@ -626,9 +1050,7 @@ public final class BuilderPlus extends Task {
     if (this.inputManifest != null) {
       paths = Files.readLines(this.inputManifest, Charsets.UTF_8);
       for (String path : paths) {
-        JsClosureSourceFile sourceFile =
-            SourceFileFactory.newJsClosureSourceFile(new File(path));
-        sourceEntryPoints.add(sourceFile);
+        entryPointFiles.add(new File(path));
       }
     }
 
@@ -636,47 +1058,33 @@ public final class BuilderPlus extends Task {
     paths = AntUtil.getFilePathsFromCollectionOfFileSet(
         getProject(), this.mainSources);
     for (String path : paths) {
-      JsClosureSourceFile sourceFile =
-          SourceFileFactory.newJsClosureSourceFile(new File(path));
-      sourceEntryPoints.add(sourceFile);
+      entryPointFiles.add(new File(path));
     }
 
-    // Process <sources> nested elements.
-    paths =
-        AntUtil.getFilePathsFromCollectionOfFileSet(getProject(), this.sources);
-    for (String path : paths) {
-      JsClosureSourceFile sourceFile =
-          SourceFileFactory.newJsClosureSourceFile(new File(path));
-      sources.add(sourceFile);
-    }
-
-    // Process <roots> nested elements.
-    List<File> rootDirectories = Lists.newArrayList();
-    for (RestrictedDirSet dirSet : this.roots) {
-      rootDirectories.addAll(dirSet.getMatchedDirectories());
-    }
-
-    for (File dir : rootDirectories) {
-      paths = FileUtil.scanDirectory(dir,
-          /* includes */ ImmutableList.of("**/*.js"),
-          /* excludes */ ImmutableList.of(".*"));
-      for (String path : paths) {
-        JsClosureSourceFile sourceFile =
-            SourceFileFactory.newJsClosureSourceFile(new File(path));
-        sources.add(sourceFile);
-      }
-    }
+    List<JsClosureSourceFile> allSources = scanSources(entryPointFiles);
+    List<JsClosureSourceFile> sourceEntryPoints =
+        allSources.subList(0, entryPointFiles.size());
+    List<JsClosureSourceFile> sources =
+        allSources.subList(entryPointFiles.size(), allSources.size());
 
     ManifestBuilder<JsClosureSourceFile> builder =
         new ManifestBuilder<JsClosureSourceFile>();
-    builder.mainSources(sourceEntryPoints);
-    builder.sources(sources);
+    try {
+      builder.mainSources(sourceEntryPoints);
+      builder.sources(sources);
+    } catch (MultipleProvideException e) {
+      throw reportDependencyErrors(allSources, sourceEntryPoints,
+          this.namespaces, e);
+    }
     builder.namespaces(this.namespaces)
         .keepAllSources(this.keepAllSources)
         .keepMoochers(this.keepMoochers)
-        .keepOriginalOrder(this.keepOriginalOrder);
+        .keepOriginalOrder(this.keepOriginalOrder)
+        .snapshotFile(new BuildCache(this).getSnapshotFile(
+            getSnapshotKey(entryPointFiles)));
 
     log(builder.getAllSourcesInOriginalOrder().size() + " sources scanned.");
+    writeUnreachableReport(allSources, sourceEntryPoints, this.namespaces);
 
     log("Building dependency tree...");
 
@@ -686,43 +1094,325 @@ public final class BuilderPlus extends Task {
       manifestList = builder.toManifestList();
     } catch (Exception e) {
       // If needed, at soyutils_usegoog.js to the manifest.
-      if (e.getMessage()
-          .contains("goog.required namespace \"soy\" never provided")) {
-
-        String soyutilsCode = Resources.toString(
-            Resources.getResource(getClass(), "/soyutils_usegoog.js"),
-            Charsets.UTF_8);
-        File outputDir = new BuildCache(this).getBaseDirectory();
-        File tempSoyUtilsUseGoog = new File(outputDir, "soyutils_usegoog.js");
-        Files.write(soyutilsCode, tempSoyUtilsUseGoog, Charsets.UTF_8);
-        log("Adding soyutils_usegoog.js to manifest... ["
-            + tempSoyUtilsUseGoog.getAbsolutePath() + "]");
-        JsClosureSourceFile soyUtilsUseGoog = SourceFileFactory
-            .newJsClosureSourceFile(tempSoyUtilsUseGoog);
-        builder.source(soyUtilsUseGoog);
+      if (isSoyNeverProvided(e)) {
+        builder.source(createSoyUtilsUseGoog());
         try {
           manifestList = builder.toManifestList();
         } catch (Exception e2) {
-          throw new BuildException(e2);
+          throw reportDependencyErrors(
+              builder.getAllSourcesInOriginalOrder(), sourceEntryPoints,
+              this.namespaces, e2);
         }
       } else {
-        throw new BuildException(e);
+        throw reportDependencyErrors(allSources, sourceEntryPoints,
+            this.namespaces, e);
+      }
+    }
+
+    writeBundleSizeReport(manifestList, sourceEntryPoints, this.namespaces);
+    addCssRenamingMap(manifestList);
+
+    log(manifestList.size() + " dependencies in final manifest.");
+
+    return manifestList;
+  }
+
+  /**
+   * Partitions the transitive dependencies of the {@literal <entrypoint>}
+   * nested elements into Closure Compiler modules. See {@link
+   * ModulePartitioner}.
+   *
+   * @return the modules in the order they must be passed to the compiler
+   * @throws BuildException if there is a dependency related error
+   * @throws IOException if there errors reading source files
+   */
+  private List<CompilerModule<JsClosureSourceFile>> createModules()
+      throws IOException {
+    log("Scanning paths...");
+
+    // The "main" sources of the entry points precede the other sources.
+    List<File> entryPointFiles = Lists.newArrayList();
+    List<Integer> mainSourceCounts = Lists.newArrayList();
+    for (EntryPoint entryPoint : this.entryPoints) {
+      if (entryPoint.getName() == null) {
+        throw new BuildException("nested element <entrypoint> requires "
+            + "attribute \"name\"");
+      }
+      List<String> paths = entryPoint.getMainSources();
+      for (String path : paths) {
+        entryPointFiles.add(new File(path));
+      }
+      mainSourceCounts.add(paths.size());
+    }
+
+    List<JsClosureSourceFile> allSources = scanSources(entryPointFiles);
+    ModulePartitioner<JsClosureSourceFile> partitioner =
+        new ModulePartitioner<JsClosureSourceFile>();
+    int start = 0;
+    for (int i = 0; i < this.entryPoints.size(); i++) {
+      EntryPoint entryPoint = this.entryPoints.get(i);
+      int end = start + mainSourceCounts.get(i);
+      try {
+        partitioner.entryPoint(entryPoint.getName(),
+            allSources.subList(start, end), entryPoint.getNamespaces());
+      } catch (IllegalArgumentException e) {
+        throw new BuildException(e.getMessage(), e);
+      }
+      start = end;
+    }
+    partitioner.sources(allSources.subList(start, allSources.size()))
+        .keepAllSources(this.keepAllSources)
+        .keepMoochers(this.keepMoochers)
+        .minSharedSize(this.minSharedModuleSize);
+
+    log(allSources.size() + " sources scanned.");
+    List<String> namespaces = Lists.newArrayList();
+    for (EntryPoint entryPoint : this.entryPoints) {
+      namespaces.addAll(entryPoint.getNamespaces());
+    }
+    writeUnreachableReport(allSources, allSources.subList(0, start),
+        namespaces);
+
+    log("Partitioning " + this.entryPoints.size() + " entry points into "
+        + "modules...");
+
+    List<CompilerModule<JsClosureSourceFile>> modules;
+    try {
+      modules = partitioner.toModules();
+    } catch (IllegalStateException e) {
+      throw new BuildException(e.getMessage(), e);
+    } catch (RuntimeException e) {
+      // If needed, add soyutils_usegoog.js to the base module.
+      if (isSoyNeverProvided(e)) {
+        JsClosureSourceFile soyUtilsUseGoog = createSoyUtilsUseGoog();
+        partitioner.source(soyUtilsUseGoog);
+        try {
+          modules = partitioner.toModules();
+        } catch (RuntimeException e2) {
+          List<JsClosureSourceFile> sources = Lists.newArrayList(allSources);
+          sources.add(soyUtilsUseGoog);
+          throw reportDependencyErrors(sources, allSources.subList(0, start),
+              namespaces, e2);
+        }
+      } else {
+        throw reportDependencyErrors(allSources, allSources.subList(0, start),
+            namespaces, e);
+      }
+    }
+
+    List<JsClosureSourceFile> manifestList = Lists.newArrayList();
+    for (CompilerModule<JsClosureSourceFile> module : modules) {
+      manifestList.addAll(module.getSources());
+    }
+    writeBundleSizeReport(manifestList, allSources.subList(0, start),
+        namespaces);
+
+    // The CSS renaming map is added to the first (base) module.
+    CompilerModule<JsClosureSourceFile> baseModule = modules.get(0);
+    List<JsClosureSourceFile> baseSources =
+        Lists.newArrayList(baseModule.getSources());
+    if (addCssRenamingMap(baseSources)) {
+      modules.set(0, new CompilerModule<JsClosureSourceFile>(
+          baseModule.getName(), baseSources, baseModule.getDependencies()));
+    }
+
+    log(modules.size() + " modules created.");
+
+    return modules;
+  }
+
+  /**
+   * Writes the bundle size report of a manifest to {@link #bundleSizeReport}
+   * and {@link #bundleSizeReportJson}, if set.
+   *
+   * @param manifest the sources of the manifest
+   * @param mainSources the "main" sources of all entry points
+   * @param namespaces the namespace entry points
+   * @throws IOException if a report cannot be written
+   */
+  private void writeBundleSizeReport(List<JsClosureSourceFile> manifest,
+      List<JsClosureSourceFile> mainSources, List<String> namespaces)
+      throws IOException {
+    if (this.bundleSizeReport == null && this.bundleSizeReportJson == null) {
+      return;
+    }
+    BundleSizeReport<JsClosureSourceFile> report =
+        BundleSizeReport.create(manifest, mainSources, namespaces);
+    if (this.bundleSizeReport != null) {
+      Files.write(report.toString(), this.bundleSizeReport, Charsets.UTF_8);
+    }
+    if (this.bundleSizeReportJson != null) {
+      Files.write(report.toJson(), this.bundleSizeReportJson,
+          Charsets.UTF_8);
+    }
+    log("Manifest size: " + report.getTotalSize() + " bytes.");
+  }
+
+  /**
+   * Writes a report of the sources that are not reachable from any entry
+   * point to {@link #unreachableReport}, if set.
+   *
+   * @param allSources all scanned sources
+   * @param mainSources the "main" sources of all entry points
+   * @param namespaces the namespace entry points
+   * @throws IOException if the report cannot be written
+   */
+  private void writeUnreachableReport(List<JsClosureSourceFile> allSources,
+      List<JsClosureSourceFile> mainSources, List<String> namespaces)
+      throws IOException {
+    if (this.unreachableReport == null) {
+      return;
+    }
+    UnreachableSourceReport<JsClosureSourceFile> report =
+        UnreachableSourceReport.create(allSources, mainSources, namespaces);
+    Files.write(report.toString(), this.unreachableReport, Charsets.UTF_8);
+    log(report.getUnreachableSources().size() + " unreachable sources ("
+        + report.getUnreachableSize() + " bytes) reported in "
+        + this.unreachableReport.getAbsolutePath());
+  }
+
+  /**
+   * Scans the given entry point files, the {@literal <sources>} and the
+   * {@literal <roots>} for {@code goog.provide} and {@code goog.require}
+   * statements.
+   *
+   * @param entryPointFiles the source-file entry points
+   * @return the scanned entry points, followed by the other sources in
+   *     their original order. The sources under immutable roots are read
+   *     from their sealed indexes and follow all scanned sources.
+   * @throws IOException if there errors reading source files
+   */
+  private List<JsClosureSourceFile> scanSources(List<File> entryPointFiles)
+      throws IOException {
+    // Additional sources (may be pruned if not transitively required by the
+    // entry points).
+    List<File> sourceFiles = Lists.newArrayList();
+
+    // Process <sources> nested elements.
+    List<String> paths =
+        AntUtil.getFilePathsFromCollectionOfFileSet(getProject(), this.sources);
+    for (String path : paths) {
+      sourceFiles.add(new File(path));
+    }
+
+    // Process <roots> nested elements.
+    List<File> rootDirectories = Lists.newArrayList();
+    List<JsClosureSourceFile> sealedSources = Lists.newArrayList();
+    BuildRegistry registry = BuildRegistry.getInstance(getProject());
+    for (RestrictedDirSet dirSet : this.roots) {
+      File sealedIndex = dirSet.getSealedIndexFile();
+      if (sealedIndex != null) {
+        sealedSources.addAll(SealedSourceIndex.readSourceFiles(
+            dirSet.getDir(), sealedIndex, registry.getNamespaceTable()));
+      } else {
+        rootDirectories.addAll(dirSet.getMatchedDirectories());
       }
     }
 
-    if (this.cssRenamingMap != null && !this.cssRenamingMap.isEmpty()) {
-      CompilationLevel level = (this.compilerOptions == null) ?
-          CompilationLevel.SIMPLE_OPTIMIZATIONS :
-          this.compilerOptions.getCompilationLevel();
-      File outputDir = new BuildCache(this).getBaseDirectory();
-      JsClosureSourceFile tempRenamingMap =
-          BuilderPlusUtil.createRenamingMapFileAndAddToManifest(
-              this.cssRenamingMap, this.outputMode, level, manifestList,
-              outputDir);
-      log("Adding temporary CSS renaming map to manifest... ["
-          + tempRenamingMap.getAbsolutePath() + "]");
+    DirectoryWalker walker = new DirectoryWalker(
+        /* includes */ ImmutableList.of("**/*.js"),
+        /* excludes */ ImmutableList.of(".*"));
+    for (File dir : rootDirectories) {
+      paths = registry.findFiles(walker, dir);
+      for (String path : paths) {
+        sourceFiles.add(new File(path));
+      }
     }
 
+    // Scan all files in one batch so that the work is spread evenly over the
+    // threads.
+    List<File> allFiles = Lists.newArrayList(entryPointFiles);
+    allFiles.addAll(sourceFiles);
+    SourceIndex sourceIndex = new BuildCache(this).getSourceIndex();
+    List<JsClosureSourceFile> scannedFiles =
+        registry.getLightweightSourceFiles(allFiles, this.threads,
+            sourceIndex);
+    sourceIndex.save();
+
+    List<JsClosureSourceFile> allSources = Lists.newArrayList(scannedFiles);
+    allSources.addAll(sealedSources);
+    return allSources;
+  }
+
+  /**
+   * @return {@code true} if the dependency error {@code e} is due to
+   *     goog.required namespace "soy" not being provided
+   */
+  private static boolean isSoyNeverProvided(Exception e) {
+    return e.getMessage() != null && e.getMessage()
+        .contains("goog.required namespace \"soy\" never provided");
+  }
+
+  /**
+   * Writes soyutils_usegoog.js to the build cache directory.
+   *
+   * @return the soyutils_usegoog.js source file
+   * @throws IOException if the file cannot be written
+   */
+  private JsClosureSourceFile createSoyUtilsUseGoog() throws IOException {
+    String soyutilsCode = Resources.toString(
+        Resources.getResource(getClass(), "/soyutils_usegoog.js"),
+        Charsets.UTF_8);
+    File outputDir = new BuildCache(this).getBaseDirectory();
+    File tempSoyUtilsUseGoog = new File(outputDir, "soyutils_usegoog.js");
+    Files.write(soyutilsCode, tempSoyUtilsUseGoog, Charsets.UTF_8);
+    log("Adding soyutils_usegoog.js to manifest... ["
+        + tempSoyUtilsUseGoog.getAbsolutePath() + "]");
+    return SourceFileFactory.newJsClosureSourceFile(tempSoyUtilsUseGoog);
+  }
+
+  /**
+   * If a CSS renaming map is specified, writes it to a temporary file and
+   * adds it to the manifest. See {@link #setCssRenamingMap(String)}.
+   *
+   * @param manifestList the manifest list
+   * @return {@code true} if the CSS renaming map was added
+   * @throws IOException if the renaming map file cannot be written
+   */
+  private boolean addCssRenamingMap(List<JsClosureSourceFile> manifestList)
+      throws IOException {
+    if (this.cssRenamingMap == null || this.cssRenamingMap.isEmpty()) {
+      return false;
+    }
+    CompilationLevel level = (this.compilerOptions == null) ?
+        CompilationLevel.SIMPLE_OPTIMIZATIONS :
+        this.compilerOptions.getCompilationLevel();
+    File outputDir = new BuildCache(this).getBaseDirectory();
+    JsClosureSourceFile tempRenamingMap =
+        BuilderPlusUtil.createRenamingMapFileAndAddToManifest(
+            this.cssRenamingMap, this.outputMode, level, manifestList,
+            outputDir);
+    log("Adding temporary CSS renaming map to manifest... ["
+        + tempRenamingMap.getAbsolutePath() + "]");
+    return true;
+  }
+
+  /**
+   * Identifies the manifest snapshot of this task by its outputs and entry
+   * points, so that tasks of the same target do not share a snapshot.
+   *
+   * @param entryPointFiles the main sources
+   * @return the key of the manifest snapshot
+   */
+  private String getSnapshotKey(List<File> entryPointFiles) {
+    List<String> key = Lists.newArrayList();
+    key.add((this.outputFile != null) ? this.outputFile.getAbsolutePath()
+        : "");
+    key.add((this.outputManifest != null)
+        ? this.outputManifest.getAbsolutePath() : "");
+    for (File file : entryPointFiles) {
+      key.add(file.getAbsolutePath());
+    }
+    key.addAll(this.namespaces);
+    return Joiner.on('\n').join(key);
+  }
+
+  /**
+   * @return the absolute path of each source in the manifest list, or its
+   *     name if it does not have a path
+   */
+  private static List<String> getManifestFilePaths(
+      List<JsClosureSourceFile> manifestList) {
     List<String> manifestFilePaths = Lists.newArrayList();
 
     for (JsClosureSourceFile jsClosureSourceFile : manifestList) {
@@ -732,9 +1422,44 @@ public final class BuilderPlus extends Task {
         manifestFilePaths.add(jsClosureSourceFile.getName());
       }
     }
-
-    log(manifestFilePaths.size() + " dependencies in final manifest.");
-
     return manifestFilePaths;
   }
+
+  /**
+   * Logs every dependency error among the sources that are reachable from
+   * the entry points (every multiple provide, missing provide and cycle), so
+   * that they can all be fixed before the next build, rather than one error
+   * per build.
+   *
+   * @param sources all sources passed to the {@link ManifestBuilder}
+   * @param mainSources the sources that are entry points
+   * @param namespaces the namespaces that are entry points
+   * @param cause the first error found by the {@link ManifestBuilder}
+   * @return an exception to fail the build
+   */
+  private BuildException reportDependencyErrors(
+      List<JsClosureSourceFile> sources, List<JsClosureSourceFile> mainSources,
+      List<String> namespaces, Exception cause) {
+    List<JsClosureSourceFile> entryPoints = Lists.newArrayList(mainSources);
+    if (this.keepAllSources) {
+      entryPoints = sources;
+    } else if (this.keepMoochers) {
+      for (JsClosureSourceFile source : sources) {
+        if (source.getProvides().isEmpty()) {
+          entryPoints.add(source);
+        }
+      }
+    }
+    DependencyReport<JsClosureSourceFile> report =
+        DependencyReport.create(sources, entryPoints, namespaces);
+    List<RuntimeException> errors = report.getErrors();
+    for (RuntimeException error : errors) {
+      log(error.getMessage(), Project.MSG_ERR);
+    }
+    if (errors.size() > 1) {
+      return new BuildException(errors.size() + " dependency errors found. "
+          + "First error: " + cause.getMessage(), cause);
+    }
+    return new BuildException(cause);
+  }
 }
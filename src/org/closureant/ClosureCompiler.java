@@ -18,11 +18,15 @@ package org.closureant;
 
 import com.google.common.base.Charsets;
 import com.google.common.collect.Lists;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.io.Files;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.tools.ant.BuildException;
@@ -34,9 +38,16 @@ import org.apache.tools.ant.types.FileSet;
 import org.apache.tools.ant.types.Parameter;
 
 import org.closureant.base.SharedAntProperty;
+import org.closureant.base.ArtifactCache;
 import org.closureant.base.BuildCache;
+import org.closureant.base.BuildRegistry;
 import org.closureant.base.BuildSettings;
 import org.closureant.base.CommandLineBuilder;
+import org.closureant.base.JsClosureHeaderScanner;
+import org.closureant.base.JsClosureSourceFile;
+import org.closureant.base.SourceFileFactory;
+import org.closureant.base.SourceIndex;
+import org.closureant.deps.ReverseDependencyIndex;
 import org.closureant.types.CompilationLevel;
 import org.closureant.types.CompilerOptionsComplete;
 import org.closureant.types.CompilerOptionsFactory;
@@ -235,10 +246,24 @@ import org.closureant.util.StringUtil;
 public final class ClosureCompiler extends Task
     implements CompilerOptionsComplete {
 
+  // Flags whose values are files written by the compiler, which are stored
+  // in the artifact cache under the flag name without the leading dashes.
+  private static final Set<String> OUTPUT_FLAGS = ImmutableSet.of(
+      "--js_output_file", "--create_source_map", "--output_manifest",
+      "--property_map_output_file", "--variable_map_output_file");
+
+  // Flags for outputs whose file names are not known before compiling, or
+  // that are printed rather than written to a file.
+  private static final Set<String> UNCACHEABLE_FLAGS = ImmutableSet.of(
+      "--module", "--module_output_path_prefix", "--create_name_map_files",
+      "--print_ast", "--print_tree", "--print_pass_graph");
+
   private CompilerOptionsComplete compilerOptions;
 
   // Attributes
+  private boolean artifactCache;
   private File compilerJar;
+  private boolean contentDigests;
   private boolean forceRecompile;
   private String inputManifest;
   private Boolean manageClosureDependencies;
@@ -276,7 +301,9 @@ public final class ClosureCompiler extends Task
     this.compilerOptions = CompilerOptionsFactory.newCompilerOptionsComplete();
 
     // Attributes
+    this.artifactCache = false;
     this.compilerJar = null;
+    this.contentDigests = false;
     this.forceRecompile = false;
     this.inputManifest = null;
     this.manageClosureDependencies = null;
@@ -300,6 +327,43 @@ public final class ClosureCompiler extends Task
 
   // Attribute setters
 
+  /**
+   * Determines if the outputs of the compiler (the output file, source map,
+   * output manifest and renaming maps) are stored in a content-addressed
+   * cache, keyed by the contents of the sources, externs and other input
+   * files, the compiler flags and the compiler jar. If the outputs are not
+   * up-to-date, but the same inputs were compiled before, for example on
+   * another branch, the outputs are restored from the cache instead of being
+   * recompiled. Compilations with modules, name map files or printed
+   * output are not cached. Paths in the key are relative to the project
+   * base directory, so checkouts in different directories share entries,
+   * except for compilations that create a source map or output manifest,
+   * which contain the paths of the sources. See {@link ArtifactCache}.
+   *
+   * @param artifactCache if {@code true}, outputs are restored from and
+   *     stored in the artifact cache. Defaults to {@code false}.
+   */
+  public void setArtifactCache(boolean artifactCache) {
+    this.artifactCache = artifactCache;
+  }
+
+  /**
+   * Determines if the contents of the sources and of the output file are
+   * recorded after each successful compilation, so that a source whose
+   * last-modified time is later than that of the output file, but whose
+   * contents did not change, does not cause a recompilation. This is useful
+   * when tools such as version control systems or build caches touch files
+   * without changing them. The size and last-modified time of each file are
+   * compared first, so that only files that were touched are read.
+   *
+   * @param contentDigests if {@code true}, the contents of the files are
+   *     compared when their last-modified times are later than that of the
+   *     output file. Defaults to {@code false}.
+   */
+  public void setContentDigests(boolean contentDigests) {
+    this.contentDigests = contentDigests;
+  }
+
   /** @param file the Closure Compiler jar file */
   public void setCompilerJar(File file) {
     this.compilerJar = file;
@@ -610,9 +674,278 @@ public final class ClosureCompiler extends Task
    */
   @Override
   public void execute() {
+    Java runner = createRunner();
+
+    // Write temporary flag file to pass the compiler flags. This prevents 
+    // errors on Windows when the command line would otherwise exceed the 
+    // character limit.
+    BuildCache cache = new BuildCache(this);
+    SourceIndex sourceIndex = cache.getSourceIndex();
+    List<String> currentSources = getAllSources();
+    CommandLineBuilder cmdlineFlags =
+        getCommandLineOptionsExcludingSources(sourceIndex);
+    StringBuilder compilerFlags = getCompilerFlags(cmdlineFlags,
+        currentSources);
+    writeFlagFile(runner, compilerFlags, cache.createTempFile(String.format(
+        "compiler_flag_file_for_target[%s].txt",
+        this.getOwningTarget().getName())));
+
+    boolean skipCompilation = false;
+    BuildSettings previousBuildSettings = null;
+    BuildSettings currentBuildSettings = null;
+
+    if (!this.forceRecompile) {
+      // Check if the output file is up-to-date.
+
+      String currentCommandLineAndCompilerFlags =
+          runner.getCommandLine().toString() + " " + compilerFlags.toString();
+      previousBuildSettings = cache.get();
+      currentBuildSettings = new BuildSettings(
+          currentCommandLineAndCompilerFlags, currentSources);
+      // Save current build settings for the comparison with the next build.
+      cache.put(currentBuildSettings);
+
+      if (previousBuildSettings != null) {
+        List<String> modifiedSources =
+            ClosureBuildUtil.getSourcesModifiedAfterOutputFile(
+                new File(this.outputFile), previousBuildSettings,
+                currentBuildSettings);
+        if (modifiedSources != null && modifiedSources.isEmpty()) {
+          skipCompilation = true;
+          log("Output file up-to-date. Compilation skipped.");
+        } else if (modifiedSources != null && !isRequiredByEntryPoints(
+            currentSources, modifiedSources, sourceIndex)) {
+          skipCompilation = true;
+          log("Modified sources not required by the entry points. "
+              + "Compilation skipped.");
+        }
+      }
+    }
+
+    String artifactKey = null;
+    Map<String, File> outputs = null;
+    if (this.artifactCache) {
+      outputs = getCacheableOutputs(cmdlineFlags);
+    }
+    if (outputs != null && !skipCompilation) {
+      try {
+        artifactKey = getArtifactKey(cmdlineFlags, currentSources, outputs);
+        if (!this.forceRecompile
+            && cache.getArtifactCache().restore(artifactKey, outputs)) {
+          skipCompilation = true;
+          invalidateOutputs(outputs.values());
+          log("Outputs restored from the artifact cache. Compilation "
+              + "skipped.");
+        }
+      } catch (IOException e) {
+        throw new BuildException(e);
+      }
+    }
+
+    List<File> outputFiles = getOutputFiles(cmdlineFlags);
+
+    if (!skipCompilation) {
+      if (this.printCommandLine) {
+        log("Compiling with the following command: "
+            + runner.getCommandLine().toString(), Project.MSG_INFO);
+      } else {
+        log("Compiling " + currentSources.size() + " file(s) with "
+            + this.compilerOptions.getExterns(getProject()).size()
+            + " extern(s)");
+      }
+
+      int exitCode = runner.executeJava();
+      invalidateOutputs(outputFiles);
+      if (exitCode != 0) {
+        throw new BuildException("Error: " + getTaskName()
+            + " finished with exit code " + exitCode);
+      }
+      if (artifactKey != null) {
+        try {
+          cache.getArtifactCache().store(artifactKey, outputs);
+        } catch (IOException e) {
+          log("Unable to store outputs in the artifact cache: "
+              + e.getMessage(), Project.MSG_WARN);
+        }
+      }
+    }
+
+    if (this.contentDigests && currentBuildSettings != null) {
+      try {
+        ClosureBuildUtil.recordContentDigests(currentBuildSettings,
+            previousBuildSettings, outputFiles);
+      } catch (IOException e) {
+        throw new BuildException(e);
+      }
+      cache.put(currentBuildSettings);
+    }
+  }
+
+  /**
+   * Gets the files written by the compilation, including the source map and
+   * the renaming maps, so that all of them are invalidated in the {@link
+   * BuildRegistry} and recorded with their content digests.
+   *
+   * @param cmdlineFlags the compiler flags, excluding the sources
+   * @return the output files
+   */
+  private List<File> getOutputFiles(CommandLineBuilder cmdlineFlags) {
+    Set<File> outputFiles = Sets.newLinkedHashSet();
+    if (this.outputFile != null) {
+      outputFiles.add(new File(this.outputFile));
+    }
+    if (this.outputManifest != null) {
+      outputFiles.add(new File(this.outputManifest));
+    }
+    for (NameValuePair flag : cmdlineFlags.getFlagsAsListOfNameValuePair()) {
+      String value = flag.getValue();
+      if (OUTPUT_FLAGS.contains(flag.getName()) && value != null
+          && !value.contains("%outname%")) {
+        outputFiles.add(new File(value));
+      }
+    }
+    return Lists.newArrayList(outputFiles);
+  }
+
+  /**
+   * Gets the outputs of the compilation that are stored in the artifact
+   * cache.
+   *
+   * @param cmdlineFlags the compiler flags, excluding the sources
+   * @return map from the role of each output to the output file, or {@code
+   *     null} if the compilation has no output file or has outputs that
+   *     cannot be cached
+   */
+  private Map<String, File> getCacheableOutputs(
+      CommandLineBuilder cmdlineFlags) {
+    Map<String, File> outputs = Maps.newLinkedHashMap();
+    for (NameValuePair flag : cmdlineFlags.getFlagsAsListOfNameValuePair()) {
+      String name = flag.getName();
+      String value = flag.getValue();
+      if (UNCACHEABLE_FLAGS.contains(name) && !"false".equals(value)) {
+        return null;
+      }
+      if (OUTPUT_FLAGS.contains(name)) {
+        if (value == null || value.contains("%outname%")) {
+          return null;
+        }
+        outputs.put(name.substring(2), new File(value));
+      }
+    }
+    return outputs.containsKey("js_output_file") ? outputs : null;
+  }
 
-    // Verify task preconditions
+  /**
+   * Builds the key of the outputs in the artifact cache from the compiler
+   * flags, the contents of the input files passed as flags (such as externs
+   * and renaming maps from previous compilations), the contents of the
+   * sources and the contents of the compiler jar. The paths of the input and
+   * output files are put relative to the base directory of the project, so
+   * that a shared artifact cache is hit by checkouts of the project in
+   * different directories. Since the source map and the output manifest list
+   * the paths of the sources as passed to the compiler, the base directory
+   * itself is put when either is an output.
+   *
+   * @param cmdlineFlags the compiler flags, excluding the sources
+   * @param currentSources the sources of the current build
+   * @param outputs the cacheable outputs of the compilation
+   * @return the key
+   * @throws IOException if an input file cannot be read
+   */
+  private String getArtifactKey(CommandLineBuilder cmdlineFlags,
+      List<String> currentSources, Map<String, File> outputs)
+      throws IOException {
+    File baseDir = getProject().getBaseDir();
+    ArtifactCache.KeyBuilder key = ArtifactCache.newKeyBuilder()
+        .putFile(this.compilerJar);
+    if (outputs.containsKey("create_source_map")
+        || outputs.containsKey("output_manifest")) {
+      key.putString(baseDir.getAbsolutePath());
+    }
+    for (NameValuePair flag : cmdlineFlags.getFlagsAsListOfNameValuePair()) {
+      String value = flag.getValue();
+      key.putString(flag.getName());
+      if (value == null) {
+        key.putString("");
+      } else if (OUTPUT_FLAGS.contains(flag.getName())) {
+        key.putPath(new File(value), baseDir);
+      } else if (new File(value).isFile()) {
+        key.putFile(new File(value), baseDir);
+      } else {
+        key.putString(value);
+      }
+    }
+    for (String arg : cmdlineFlags.getArgumentsNotPrecededByFlags()) {
+      key.putString(arg);
+    }
+    for (String source : currentSources) {
+      if (source != null) {
+        key.putFile(new File(source), baseDir);
+      }
+    }
+    return key.build();
+  }
 
+  /**
+   * Invalidates the outputs of the compilation in the {@link BuildRegistry},
+   * since they were rewritten.
+   *
+   * @param outputFiles the output files
+   */
+  private void invalidateOutputs(Iterable<File> outputFiles) {
+    BuildRegistry registry = BuildRegistry.getInstance(getProject());
+    for (File file : outputFiles) {
+      registry.invalidate(file);
+    }
+  }
+
+  /**
+   * Creates a forked Java task that runs the Closure Compiler with the flag
+   * {@code --checks_only}, so that the sources are checked without writing
+   * any output. The standard output and error of the compiler are written
+   * to {@code diagnosticsFile} instead of the log. The flag file is written
+   * before the task is returned, so that tasks created one after the other
+   * may be executed concurrently, as {@link BuilderPlus} does to check the
+   * shards of a manifest in parallel.
+   *
+   * @param flagFileName the name of the flag file in the build cache
+   *     directory, which must differ between tasks executed concurrently
+   * @param diagnosticsFile the file to which the output of the compiler is
+   *     written
+   * @param resultProperty the Ant property set to the exit code of the
+   *     compiler, which must differ between tasks since Ant properties are
+   *     immutable
+   * @return the task, whose {@link Java#execute()} method does not fail if
+   *     the compiler exits with an error
+   * @throws BuildException if the compiler jar is not set or the flag file
+   *     cannot be written
+   */
+  Java createChecksOnlyRunner(String flagFileName, File diagnosticsFile,
+      String resultProperty) {
+    Java runner = createRunner();
+    // Java.executeJava() skips the setup of the output redirection, so the
+    // task must be run with Java.execute(), which only reports the exit code
+    // through the result property.
+    runner.setFailonerror(false);
+    runner.setLogError(false);
+    runner.setOutput(diagnosticsFile);
+    runner.setResultProperty(resultProperty);
+    BuildCache cache = new BuildCache(this);
+    StringBuilder compilerFlags = getCompilerFlags(
+        getCommandLineOptionsExcludingSources(cache.getSourceIndex()),
+        getAllSources());
+    compilerFlags.append("--checks_only").append(String.format("%n"));
+    writeFlagFile(runner, compilerFlags, cache.createTempFile(flagFileName));
+    return runner;
+  }
+
+  /**
+   * Creates a forked Java task for the Closure Compiler jar.
+   *
+   * @return a new Java task
+   * @throws BuildException if the compiler jar is not set
+   */
+  private Java createRunner() {
     if (this.compilerJar == null) {
       String closureCompilerPath =
           SharedAntProperty.CLOSURE_COMPILER_JAR.getValue(getProject());
@@ -625,22 +958,26 @@ public final class ClosureCompiler extends Task
       }
     }
 
-    // Execute Closure Compiler.
-
     Java runner = new Java(this);
     runner.setJar(this.compilerJar);
     runner.setFailonerror(true);
     runner.setFork(true);
     runner.setLogError(true);
     runner.setTaskName(getTaskName());
+    return runner;
+  }
 
-    // Write temporary flag file to pass the compiler flags. This prevents 
-    // errors on Windows when the command line would otherwise exceed the 
-    // character limit.
-    BuildCache cache = new BuildCache(this);
+  /**
+   * Gets the compiler flags in the format of a flag file, one flag per line.
+   *
+   * @param cmdlineFlags the compiler flags, excluding the sources
+   * @param currentSources the sources of the current build
+   * @return the compiler flags, including a {@code --js} flag per source
+   */
+  private StringBuilder getCompilerFlags(CommandLineBuilder cmdlineFlags,
+      List<String> currentSources) {
     StringBuilder compilerFlags = new StringBuilder();
 
-    CommandLineBuilder cmdlineFlags = getCommandLineOptionsExcludingSources();
     List<NameValuePair> flags = cmdlineFlags.getFlagsAsListOfNameValuePair();
     for (NameValuePair flagPair : flags) {
       compilerFlags.append(flagPair.getName()).append("=")
@@ -655,7 +992,6 @@ public final class ClosureCompiler extends Task
       compilerFlags.append(arg).append(" ");
     }
 
-    List<String> currentSources = getAllSources();
     for (String source : currentSources) {
       if (source != null) {
         compilerFlags.append("--js=");
@@ -663,64 +999,138 @@ public final class ClosureCompiler extends Task
         compilerFlags.append(String.format("%n"));
       }
     }
-    File tempFlagFile = cache.createTempFile(String.format(
-        "compiler_flag_file_for_target[%s].txt",
-        this.getOwningTarget().getName()));
+    return compilerFlags;
+  }
+
+  /**
+   * Writes the compiler flags to a flag file and passes the flag file to the
+   * compiler.
+   *
+   * @param runner the Java task that runs the compiler
+   * @param compilerFlags the compiler flags
+   * @param flagFile the flag file
+   * @throws BuildException if the flag file cannot be written
+   */
+  private static void writeFlagFile(Java runner, StringBuilder compilerFlags,
+      File flagFile) {
     try {
-      Files.write(compilerFlags.toString(), tempFlagFile, Charsets.UTF_8);
+      Files.write(compilerFlags.toString(), flagFile, Charsets.UTF_8);
     } catch (IOException e) {
       throw new BuildException(e);
     }
     runner.createArg().setValue("--flagfile");
-    runner.createArg().setValue(tempFlagFile.getAbsolutePath());
-
-    boolean skipCompilation = false;
-
-    if (!this.forceRecompile) {
-      // Check if the output file is up-to-date.
-
-      String currentCommandLineAndCompilerFlags =
-          runner.getCommandLine().toString() + " " + compilerFlags.toString();
-      BuildSettings previousBuildSettings = cache.get();
-      BuildSettings currentBuildSettings = new BuildSettings(
-          currentCommandLineAndCompilerFlags, currentSources);
-      // Save current build settings for the comparison with the next build.
-      cache.put(currentBuildSettings);
+    runner.createArg().setValue(flagFile.getAbsolutePath());
+  }
 
-      if (previousBuildSettings != null) {
-        if (ClosureBuildUtil.outputFileUpToDate(new File(this.outputFile),
-            previousBuildSettings, currentBuildSettings)) {
-          skipCompilation = true;
-          log("Output file up-to-date. Compilation skipped.");
-        }
-      }
+  /**
+   * Determines if any of the modified sources is transitively required by
+   * the entry points of the compilation (the main sources and namespaces),
+   * in which case the output file must be rebuilt. When the Closure Compiler
+   * manages dependencies, sources that are not required are pruned from the
+   * compilation, so modifying them does not affect the output file, even if
+   * they are in a directory shared with other outputs. See {@link
+   * ReverseDependencyIndex}. Since the sources are only scanned up to the
+   * first line of code, the output file is also rebuilt if a modified source
+   * provides or requires namespaces after its header. A modified source that
+   * drops a namespace still required by the entry points leaves a missing
+   * provide, which also rebuilds the output file, so that the error is
+   * reported.
+   *
+   * @param currentSources the sources of the current build
+   * @param modifiedSources the sources modified since the last build
+   * @param sourceIndex index used to look up the provides and requires of
+   *     the sources
+   * @return {@code false} if dependency management is on and none of the
+   *     modified sources is required by the entry points, otherwise {@code
+   *     true}
+   */
+  private boolean isRequiredByEntryPoints(List<String> currentSources,
+      List<String> modifiedSources, SourceIndex sourceIndex) {
+    boolean onlyClosureDependencies =
+        Boolean.TRUE.equals(this.onlyClosureDependencies);
+    if (!onlyClosureDependencies
+        && !Boolean.TRUE.equals(this.manageClosureDependencies)) {
+      return true;
+    }
+    List<String> mainSourcePaths =
+        AntUtil.getFilePathsFromCollectionOfFileSet(getProject(),
+            this.mainSources);
+    if (mainSourcePaths.isEmpty() && this.namespaces.isEmpty()) {
+      // Without entry points, all sources are kept.
+      return true;
     }
 
-    if (!skipCompilation) {
-      if (this.printCommandLine) {
-        log("Compiling with the following command: "
-            + runner.getCommandLine().toString(), Project.MSG_INFO);
-      } else {
-        log("Compiling " + currentSources.size() + " file(s) with "
-            + this.compilerOptions.getExterns(getProject()).size()
-            + " extern(s)");
+    try {
+      List<File> files = Lists.newArrayList();
+      for (String path : currentSources) {
+        files.add(new File(path));
       }
-
-      int exitCode = runner.executeJava();
-      if (exitCode != 0) {
-        throw new BuildException("Error: " + getTaskName()
-            + " finished with exit code " + exitCode);
+      List<JsClosureSourceFile> scannedFiles =
+          BuildRegistry.getInstance(getProject()).getLightweightSourceFiles(
+              files, SourceFileFactory.DEFAULT_SCAN_THREADS, sourceIndex);
+      sourceIndex.save();
+      Map<String, JsClosureSourceFile> pathToSource = Maps.newHashMap();
+      for (int i = 0; i < currentSources.size(); i++) {
+        pathToSource.put(currentSources.get(i), scannedFiles.get(i));
+      }
+      List<JsClosureSourceFile> mainSourceFiles = Lists.newArrayList();
+      for (String path : mainSourcePaths) {
+        mainSourceFiles.add(pathToSource.get(path));
+      }
+      List<JsClosureSourceFile> modifiedSourceFiles = Lists.newArrayList();
+      for (String path : modifiedSources) {
+        JsClosureSourceFile source = pathToSource.get(path);
+        if (hasDependenciesAfterHeader(source)) {
+          // The dependency graph of the headers is incomplete.
+          return true;
+        }
+        modifiedSourceFiles.add(source);
       }
+
+      // With manageClosureDependencies, sources that do not provide any
+      // namespaces are entry points of the compilation.
+      ReverseDependencyIndex<JsClosureSourceFile> index =
+          ReverseDependencyIndex.create(scannedFiles)
+              .keepMoochers(!onlyClosureDependencies)
+              .entryPoint(this.outputFile, mainSourceFiles, this.namespaces);
+      return !index.getAffectedEntryPoints(modifiedSourceFiles).isEmpty();
+    } catch (IOException e) {
+      return true;
+    } catch (RuntimeException e) {
+      // Dependency errors are reported by the Closure Compiler.
+      return true;
     }
   }
 
+  /**
+   * Determines if a source has {@code goog.provide()} or {@code
+   * goog.require()} statements after the first line of code, which are
+   * missed by the header scan but seen by the Closure Compiler.
+   *
+   * @param source a scanned source
+   * @return {@code true} if the entire file provides or requires namespaces
+   *     that were not found in its header
+   * @throws IOException if the file cannot be read
+   */
+  private static boolean hasDependenciesAfterHeader(JsClosureSourceFile source)
+      throws IOException {
+    JsClosureHeaderScanner.Header entireFile =
+        JsClosureHeaderScanner.scanEntireFile(
+            new File(source.getAbsolutePath()));
+    return !source.getProvides().containsAll(entireFile.getProvides())
+        || !source.getRequires().containsAll(entireFile.getRequires());
+  }
+
   /**
    * Gathers command line options based on the attributes and nested elements
    * set for this task.
    *
+   * @param sourceIndex index used to look up the namespaces provided by the
+   *     main sources
    * @return command line options based on attribute and nested element settings
    */
-  private CommandLineBuilder getCommandLineOptionsExcludingSources() {
+  private CommandLineBuilder getCommandLineOptionsExcludingSources(
+      SourceIndex sourceIndex) {
     CommandLineBuilder cmdline =
         this.compilerOptions.getCommandLineFlags(getProject());
 
@@ -750,13 +1160,15 @@ public final class ClosureCompiler extends Task
         for (File source :
             AntUtil.getListOfFilesFromAntFileSet(getProject(), sources)) {
           List<String> namespaces =
-              ClosureBuildUtil.extractGoogProvidedNamespaces(source);
+              ClosureBuildUtil.extractGoogProvidedNamespaces(source,
+                  sourceIndex);
 
           for (String namespace : namespaces) {
             cmdline.flagAndArgument("--closure_entry_point", namespace);
           }
         }
       }
+      sourceIndex.save();
     } catch (IOException e) {
       throw new BuildException(e);
     }
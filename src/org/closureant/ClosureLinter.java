@@ -46,8 +46,10 @@ import org.apache.tools.ant.taskdefs.LogStreamHandler;
 import org.apache.tools.ant.types.FileSet;
 
 import org.closureant.base.BuildCache;
+import org.closureant.base.BuildRegistry;
 import org.closureant.base.BuildSettings;
 import org.closureant.base.CommandLineBuilder;
+import org.closureant.base.ContentDigests;
 import org.closureant.types.ClosureLinterErrors;
 import org.closureant.types.DocTagList;
 import org.closureant.types.FileExtensionList;
@@ -55,8 +57,10 @@ import org.closureant.types.NamespaceList;
 import org.closureant.types.RestrictedDirSet;
 import org.closureant.base.JsClosureSourceFile;
 import org.closureant.base.SourceFileFactory;
+import org.closureant.base.SourceIndex;
 import org.closureant.util.AntUtil;
-import org.closureant.util.FileUtil;
+import org.closureant.util.ClosureBuildUtil;
+import org.closureant.util.DirectoryWalker;
 
 
 /**
@@ -103,6 +107,8 @@ public final class ClosureLinter extends Task {
   // Corresponds to flag --check_html defined in gjslint.py.
   private Boolean checkJavaScriptInHtmlFiles;
 
+  private boolean contentDigests;
+
   // Corresponds to flag --disable_indentation_fixing defined in error_fixer.py.
   private Boolean disableIndentationFixing;
 
@@ -160,6 +166,7 @@ public final class ClosureLinter extends Task {
     // Attributes
     this.beep = null;
     this.checkJavaScriptInHtmlFiles = null;
+    this.contentDigests = false;
     this.disableIndentationFixing = null;
     this.fixjsstylePythonScript = FIXJSSTYLE;
     this.force = false;
@@ -207,6 +214,20 @@ public final class ClosureLinter extends Task {
     this.checkJavaScriptInHtmlFiles = checkJSInHtmlFiles;
   }
 
+  /**
+   * Whether to record the contents of the source files after each linter
+   * run without errors, so that source files that were touched without being
+   * changed, for example by a version control checkout, do not cause the
+   * linter to run again. Only the files whose size or last-modified time
+   * changed are read. Ignored if {@code force} is {@code true}.
+   *
+   * @param contentDigests {@code true} to compare the contents of source
+   *     files modified since the last run. Defaults to {@code false}.
+   */
+  public void setContentDigests(boolean contentDigests) {
+    this.contentDigests = contentDigests;
+  }
+
   /**
    * Whether to disable automatic fixing of indentation. Only applicable for
    * linter mode {@code FIX}, otherwise ignored.
@@ -463,17 +484,19 @@ public final class ClosureLinter extends Task {
   @Override
   public void execute() {
 
+    BuildCache cache = new BuildCache(this);
     CommandLineBuilder cmdline = null;
     Set<String> allSourcePaths = null;
     try {
-      cmdline = createCommandLineFromTaskSettings();
+      cmdline = createCommandLineFromTaskSettings(cache.getSourceIndex());
       allSourcePaths = getAllSourcePaths();
     } catch (IOException e) {
       throw new BuildException(e);
     }
 
     boolean skipBuild = false;
-    BuildCache cache = new BuildCache(this);
+    long startTime = System.currentTimeMillis();
+    BuildSettings previousBuild = null;
 
     if (!this.force) {
       // The Closure Linter build may be skipped if the following three
@@ -482,17 +505,28 @@ public final class ClosureLinter extends Task {
       // change, and 3) none of the source files for the current build has
       // been modified since the last build.
 
-      BuildSettings previousBuild = cache.get();
+      previousBuild = cache.get();
 
       if (previousBuild != null && !previousBuild.isBuildFailed()) {
-        if (previousBuild.getCommandLineOrConfig().equals(cmdline.toString())) {
-          if (sourcesUpToDate(allSourcePaths, previousBuild.getBuildTime())) {
+        String cmdlineDigest = new BuildSettings(cmdline.toString(),
+            allSourcePaths).getCommandLineOrConfigDigest();
+        if (previousBuild.getCommandLineOrConfigDigest()
+            .equals(cmdlineDigest)) {
+          if (sourcesUpToDate(allSourcePaths, previousBuild)) {
             skipBuild = true;
             log("None of the source files or linter settings changed. " +
                 "Linting skipped.");
           }
         }
       }
+
+      if (skipBuild && this.contentDigests) {
+        // Record the current last-modified times of the unchanged sources,
+        // so that the next build does not read them again.
+        BuildSettings currentBuildSettings = new BuildSettings(
+            cmdline.toString(), allSourcePaths);
+        recordContentDigests(cache, currentBuildSettings, previousBuild);
+      }
     }
 
     if (!skipBuild) {
@@ -559,7 +593,13 @@ public final class ClosureLinter extends Task {
         BuildSettings currentBuildSettings = new BuildSettings(
             cmdline.toString(), allSourcePaths);
         currentBuildSettings.setBuildFailed(runner.isFailure());
-        cache.put(currentBuildSettings);
+        if (this.contentDigests && !runner.isFailure()) {
+          // Sources modified while the linter ran are linted again.
+          currentBuildSettings.setBuildTime(startTime);
+          recordContentDigests(cache, currentBuildSettings, previousBuild);
+        } else {
+          cache.put(currentBuildSettings);
+        }
       }
       if (runner.isFailure()) {
         String executableScript = ClosureLinterMode.LINT.equals(this.linterMode)
@@ -611,11 +651,13 @@ public final class ClosureLinter extends Task {
    * Create the command line to execute either the gjslint or fixjsstyle Python
    * script with the appropriate flags based on the Ant task settings.
    *
+   * @param sourceIndex index used to look up the namespaces provided by the
+   *     main sources
    * @return the command line
    * @throws IOException if one of the main sources cannot be read
    */
-  private CommandLineBuilder createCommandLineFromTaskSettings()
-      throws IOException {
+  private CommandLineBuilder createCommandLineFromTaskSettings(
+      SourceIndex sourceIndex) throws IOException {
     CommandLineBuilder cmdline = new CommandLineBuilder();
 
     if (this.pythonExecutable != null) {
@@ -678,11 +720,16 @@ public final class ClosureLinter extends Task {
     List<String> mainSourcePaths = AntUtil.getFilePathsFromCollectionOfFileSet(
         getProject(), this.mainSources);
 
+    List<File> mainSourceFiles = Lists.newArrayList();
     for (String mainSourcePath : mainSourcePaths) {
-      JsClosureSourceFile jsFile = SourceFileFactory
-          .newJsClosureSourceFile(new File(mainSourcePath));
+      mainSourceFiles.add(new File(mainSourcePath));
+    }
+    for (JsClosureSourceFile jsFile : BuildRegistry.getInstance(getProject())
+        .getLightweightSourceFiles(mainSourceFiles,
+            SourceFileFactory.DEFAULT_SCAN_THREADS, sourceIndex)) {
       this.namespaces.addAll(jsFile.getProvides());
     }
+    sourceIndex.save();
 
     if (!this.namespaces.isEmpty()) {
       cmdline.flagAndArgument("--closurized_namespaces",
@@ -763,45 +810,69 @@ public final class ClosureLinter extends Task {
       rootDirectories.addAll(dirSet.getMatchedDirectories());
     }
 
-    Set<String> jsFileExtensions = Sets.newHashSet();
+    // Match all of the extensions in a single pass over each root.
+    Set<String> includes = Sets.newHashSet("**/*.js");
     for (String ext : this.additionalJSFileExtensions) {
-      jsFileExtensions.add(ext.replaceFirst("^([^\\.]+)", ".$1"));
+      includes.add("**/*" + ext.replaceFirst("^([^\\.]+)", ".$1"));
     }
-    jsFileExtensions.add(".js");
 
+    DirectoryWalker walker = new DirectoryWalker(includes,
+        /* excludes */ ImmutableList.of(".*"));
+    BuildRegistry registry = BuildRegistry.getInstance(getProject());
     for (File dir : rootDirectories) {
-      for (String extension : jsFileExtensions) {
-        List<String> paths = FileUtil.scanDirectory(dir,
-            /* includes */ ImmutableList.of("**/*" + extension),
-            /* excludes */ ImmutableList.of(".*"));
-        allSources.addAll(paths);
-      }
+      allSources.addAll(registry.findFiles(walker, dir));
     }
 
     return allSources;
   }
 
   /**
-   * Check if a collection of source files are up-to-date relative to
-   * some specified time.
+   * Check if a collection of source files are up-to-date relative to the
+   * previous build. A source file is up-to-date if it was last modified
+   * before the previous build or if the previous build recorded its contents
+   * and they did not change.
    *
    * @param sources source files to check
-   * @param timeInMilliseconds the reference time for comparing the source
-   *     files' last modified time
+   * @param previousBuild the settings of the previous build
    * @return {@code true} if the source files are up-to-date relative to the
-   *     specified time
+   *     previous build
    */
   private boolean sourcesUpToDate(Collection<String> sources,
-                                  Long timeInMilliseconds) {
-    for (String filePath : sources) {
-      if (new File(filePath).lastModified() > timeInMilliseconds) {
-        return false;
+                                  BuildSettings previousBuild) {
+    ContentDigests digests = previousBuild.getContentDigests();
+    try {
+      for (String filePath : sources) {
+        if (new File(filePath).lastModified() > previousBuild.getBuildTime()
+            && (digests == null || !digests.isUnchanged(filePath))) {
+          return false;
+        }
       }
+    } catch (IOException e) {
+      return false;
     }
 
     return true;
   }
 
+  /**
+   * Records the contents of the source files in the current build settings
+   * and saves them to the build cache.
+   *
+   * @param cache the build cache
+   * @param currentBuildSettings the settings of the current build
+   * @param previousBuild the settings of the previous build or {@code null}
+   */
+  private void recordContentDigests(BuildCache cache,
+      BuildSettings currentBuildSettings, BuildSettings previousBuild) {
+    try {
+      ClosureBuildUtil.recordContentDigests(currentBuildSettings,
+          previousBuild, ImmutableList.<File>of());
+    } catch (IOException e) {
+      throw new BuildException(e);
+    }
+    cache.put(currentBuildSettings);
+  }
+
   /**
    * Executes gjslint or fixjsstyle depending on the Closure Linter mode.
    *
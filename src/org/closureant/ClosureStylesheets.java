@@ -19,6 +19,7 @@ package org.closureant;
 import com.google.common.base.Charsets;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.css.ExitCodeHandler;
 import com.google.common.css.GssFunctionMapProvider;
 import com.google.common.css.JobDescription;
@@ -33,6 +34,7 @@ import com.google.common.io.Files;
 import java.io.File;
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.tools.ant.AntClassLoader;
 import org.apache.tools.ant.BuildException;
@@ -42,6 +44,7 @@ import org.apache.tools.ant.types.FileSet;
 import org.apache.tools.ant.types.Path;
 import org.apache.tools.ant.types.Reference;
 
+import org.closureant.base.ArtifactCache;
 import org.closureant.base.BuildCache;
 import org.closureant.base.BuildSettings;
 import org.closureant.css.ClosureStylesheetsCompiler;
@@ -75,6 +78,8 @@ public final class ClosureStylesheets extends Task {
 
   // Attributes
   private boolean allowUnrecognizedFunctions;
+  private boolean artifactCache;
+  private boolean contentDigests;
   private String copyrightNotice;
   private boolean forceRecompile;
   private String gssFunctionMapProviderClassName;
@@ -113,6 +118,8 @@ public final class ClosureStylesheets extends Task {
 
     // Attributes
     this.allowUnrecognizedFunctions = false;
+    this.artifactCache = false;
+    this.contentDigests = false;
     this.copyrightNotice = null;
     this.forceRecompile = false;
     this.gssFunctionMapProviderClassName = null;
@@ -147,6 +154,21 @@ public final class ClosureStylesheets extends Task {
     this.allowUnrecognizedFunctions = allowUnrecognizedFunctions;
   }
 
+  /**
+   * Determines if the output file and output renaming map are stored in a
+   * content-addressed cache, keyed by the contents of the CSS sources, the
+   * task settings and the Closure Stylesheets jar. If the outputs are not
+   * up-to-date, but the same sources were compiled before, for example on
+   * another branch, the outputs are restored from the cache instead of being
+   * recompiled. See {@link ArtifactCache}.
+   *
+   * @param artifactCache if {@code true}, outputs are restored from and
+   *     stored in the artifact cache. Defaults to {@code false}.
+   */
+  public void setArtifactCache(boolean artifactCache) {
+    this.artifactCache = artifactCache;
+  }
+
   /**
    * Sets the classpath to use when searching for a custom GSS function map
    * provider. See <a target="_blank" href=
@@ -186,6 +208,21 @@ public final class ClosureStylesheets extends Task {
     createClasspath().setRefid(ref);
   }
 
+  /**
+   * Determines if the contents of the CSS sources, the output file and the
+   * renaming map are recorded after each successful compilation, so that
+   * sources that were touched without being changed, for example by a
+   * version control checkout, are not recompiled. Only the files whose size
+   * or last-modified time changed are read.
+   *
+   * @param contentDigests if {@code true}, the contents of the files are
+   *     compared when their last-modified times are later than that of the
+   *     output file. Defaults to {@code false}.
+   */
+  public void setContentDigests(boolean contentDigests) {
+    this.contentDigests = contentDigests;
+  }
+
   /**
    * Copyright notice to prepend to the output.
    *
@@ -501,13 +538,15 @@ bar=b
     }
 
     boolean skipCompilation = false;
+    BuildCache cache = new BuildCache(this);
+    BuildSettings previousBuildSettings = null;
+    BuildSettings currentBuildSettings = null;
 
     if (!this.forceRecompile && cssOutputFile != null) {
       // Check if the output file and output renaming map are up-to-date.
 
-      BuildCache cache = new BuildCache(this);
-      BuildSettings previousBuildSettings = cache.get();
-      BuildSettings currentBuildSettings = new BuildSettings(
+      previousBuildSettings = cache.get();
+      currentBuildSettings = new BuildSettings(
           taskSettings, cssCurrentSources);
       // Save current build settings for comparison with the next build.
       cache.put(currentBuildSettings);
@@ -520,6 +559,26 @@ bar=b
       }
     }
 
+    String artifactKey = null;
+    Map<String, File> outputs = Maps.newLinkedHashMap();
+    if (this.artifactCache && cssOutputFile != null && !skipCompilation) {
+      outputs.put("output_file", cssOutputFile);
+      if (this.outputRenamingMap != null) {
+        outputs.put("output_renaming_map", new File(this.outputRenamingMap));
+      }
+      try {
+        artifactKey = getArtifactKey(taskSettings, cssCurrentSources);
+        if (!this.forceRecompile
+            && cache.getArtifactCache().restore(artifactKey, outputs)) {
+          skipCompilation = true;
+          log("Output file \"" + cssOutputFile.getName() + "\" restored "
+              + "from the artifact cache. Stylesheet compilation skipped.");
+        }
+      } catch (IOException e) {
+        throw new BuildException(e);
+      }
+    }
+
     if (!skipCompilation) {
       String sheetOrSheets = (cssCurrentSources.size() > 1) ? "stylesheets"
           : "stylesheet";
@@ -540,7 +599,55 @@ bar=b
           throw new BuildException(e);
         }
       }
+      if (artifactKey != null) {
+        try {
+          cache.getArtifactCache().store(artifactKey, outputs);
+        } catch (IOException e) {
+          log("Unable to store outputs in the artifact cache: "
+              + e.getMessage(), Project.MSG_WARN);
+        }
+      }
+    }
+
+    if (this.contentDigests && currentBuildSettings != null) {
+      List<File> outputFiles = Lists.newArrayList(cssOutputFile);
+      if (this.outputRenamingMap != null) {
+        outputFiles.add(new File(this.outputRenamingMap));
+      }
+      try {
+        ClosureBuildUtil.recordContentDigests(currentBuildSettings,
+            previousBuildSettings, outputFiles);
+      } catch (IOException e) {
+        throw new BuildException(e);
+      }
+      cache.put(currentBuildSettings);
+    }
+  }
+
+  /**
+   * Builds the key of the outputs in the artifact cache from the task
+   * settings, the contents of the CSS sources, the contents of the classpath
+   * of a custom GSS function map provider and the Closure Stylesheets jar.
+   *
+   * @param taskSettings the task settings, excluding the sources
+   * @param cssCurrentSources the CSS sources of the current build
+   * @return the key
+   * @throws IOException if a source cannot be read
+   */
+  private String getArtifactKey(String taskSettings,
+      List<String> cssCurrentSources) throws IOException {
+    ArtifactCache.KeyBuilder key = ArtifactCache.newKeyBuilder()
+        .putString(taskSettings)
+        .putClassLocation(JobDescription.class);
+    if (this.gssFunctionMapProviderClasspath != null) {
+      for (String path : this.gssFunctionMapProviderClasspath.list()) {
+        key.putFile(new File(path));
+      }
+    }
+    for (String source : cssCurrentSources) {
+      key.putFile(new File(source));
     }
+    return key.build();
   }
 
   /**
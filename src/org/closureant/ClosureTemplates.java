@@ -40,6 +40,7 @@ import org.apache.tools.ant.types.FileSet;
 import org.apache.tools.ant.types.Path;
 import org.apache.tools.ant.types.Reference;
 
+import org.closureant.base.BuildRegistry;
 import org.closureant.soy.ActiveDelegatePackageList;
 import org.closureant.soy.JavaParseInfo;
 import org.closureant.soy.SoyJsSrcOptionsAntType;
@@ -561,6 +562,7 @@ public final class ClosureTemplates extends Task {
           } catch (IOException e) {
             throw new BuildException(e);
           }
+          BuildRegistry.getInstance(getProject()).invalidate(jsFile);
         }
       }
     }
@@ -660,6 +662,8 @@ public final class ClosureTemplates extends Task {
           } catch (IOException e) {
             throw new BuildException(e);
           }
+          BuildRegistry.getInstance(getProject()).invalidate(
+              new File(outputPath));
         }
       }
     }
@@ -32,8 +32,11 @@ import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.Task;
 import org.apache.tools.ant.types.FileSet;
 
+import org.closureant.base.BuildCache;
+import org.closureant.base.BuildRegistry;
 import org.closureant.base.JsClosureSourceFile;
 import org.closureant.base.SourceFileFactory;
+import org.closureant.base.SourceIndex;
 import org.closureant.deps.DirectoryPathPrefixPair;
 import org.closureant.deps.FilePathDepsPathPair;
 import org.closureant.util.AntUtil;
@@ -57,6 +60,7 @@ public final class DepsWriter extends Task {
 
   // Attributes
   private File outputFile;
+  private int threads;
 
   // Nested elements
   private final List<FilePathDepsPathPair> paths;
@@ -68,6 +72,7 @@ public final class DepsWriter extends Task {
   public DepsWriter() {
     // Attributes
     this.outputFile = null;
+    this.threads = SourceFileFactory.DEFAULT_SCAN_THREADS;
 
     // Nested elements
     this.paths = Lists.newArrayList();
@@ -81,6 +86,19 @@ public final class DepsWriter extends Task {
     this.outputFile = file;
   }
 
+  /**
+   * @param threads the number of threads used to scan source files. Defaults
+   *     to the number of available processors.
+   * @throws BuildException if {@code threads} is less than 1
+   */
+  public void setThreads(int threads) {
+    if (threads < 1) {
+      throw new BuildException("Attribute \"threads\" expected to be at "
+          + "least 1 but was " + threads);
+    }
+    this.threads = threads;
+  }
+
   // Nested element setters
 
   /**
@@ -127,6 +145,7 @@ public final class DepsWriter extends Task {
     if (this.outputFile != null) {
       try {
         Files.write(header + googAddDepsCalls, this.outputFile, Charsets.UTF_8);
+        BuildRegistry.getInstance(getProject()).invalidate(this.outputFile);
       } catch (IOException e) {
         throw new BuildException(e);
       }
@@ -143,26 +162,21 @@ public final class DepsWriter extends Task {
    * @throws BuildException on error
    */
   private Map<String, JsClosureSourceFile> createPathToJsInputMap() {
-    Map<String, JsClosureSourceFile> map = Maps.newTreeMap();
+    // Deps paths and the corresponding files in the order they are found.
+    List<String> depsPaths = Lists.newArrayList();
+    List<File> files = Lists.newArrayList();
 
     for (FilePathDepsPathPair pair : this.paths) {
       if (pair.getFilePath() == null) {
         throw new BuildException("null file path");
       }
-      JsClosureSourceFile input;
-
-      try {
-        input = SourceFileFactory.newJsClosureSourceFile(
-            new File(pair.getFilePath()));
-      } catch (IOException e) {
-        throw new BuildException(e);
-      }
 
       if (pair.getDepsPath() != null) {
-        map.put(normalizePath(pair.getDepsPath()), input);
+        depsPaths.add(normalizePath(pair.getDepsPath()));
       } else {
-        map.put(normalizePath(pair.getFilePath()), input);
+        depsPaths.add(normalizePath(pair.getFilePath()));
       }
+      files.add(new File(pair.getFilePath()));
     }
 
     for (DirectoryPathPrefixPair dirPrefixPair : roots) {
@@ -177,16 +191,26 @@ public final class DepsWriter extends Task {
           /* includes */ ImmutableList.of("**/*.js"),
           /* excludes */ ImmutableList.of(".*"));
 
-      try {
-        for (String relativePath : relativePaths) {
-          JsClosureSourceFile file = SourceFileFactory.newJsClosureSourceFile(
-              new File(dirPrefixPair.getDirPath(), relativePath));
-          map.put(normalizePath(new File(prefix, relativePath).getPath()),file);
-        }
-      } catch (IOException e) {
-        throw new BuildException(e);
+      for (String relativePath : relativePaths) {
+        depsPaths.add(normalizePath(new File(prefix, relativePath).getPath()));
+        files.add(new File(dirPrefixPair.getDirPath(), relativePath));
       }
     }
+
+    List<JsClosureSourceFile> inputs;
+    try {
+      SourceIndex sourceIndex = new BuildCache(this).getSourceIndex();
+      inputs = BuildRegistry.getInstance(getProject())
+          .getLightweightSourceFiles(files, this.threads, sourceIndex);
+      sourceIndex.save();
+    } catch (IOException e) {
+      throw new BuildException(e);
+    }
+
+    Map<String, JsClosureSourceFile> map = Maps.newTreeMap();
+    for (int i = 0; i < inputs.size(); i++) {
+      map.put(depsPaths.get(i), inputs.get(i));
+    }
     return map;
   }
 
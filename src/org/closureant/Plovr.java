@@ -20,6 +20,7 @@ import com.google.common.base.Charsets;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.io.Files;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
@@ -27,6 +28,7 @@ import com.google.gson.GsonBuilder;
 import java.io.File;
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.Project;
@@ -34,6 +36,7 @@ import org.apache.tools.ant.Task;
 import org.apache.tools.ant.taskdefs.Java;
 import org.apache.tools.ant.types.FileSet;
 
+import org.closureant.base.ArtifactCache;
 import org.closureant.base.BuildCache;
 import org.closureant.base.BuildSettings;
 import org.closureant.base.SharedAntProperty;
@@ -98,6 +101,14 @@ import org.closureant.util.FileUtil;
  * <tr><th>Attribute Name</th><th>Description</th><th>Required</th></tr>
  * </thead>
  * <tbody>
+ * <tr class="rowColor"><td id="artifactCache"><b>artifactCache</b></td><td>
+ *     Determines if the outputs of plovr in "build" mode (the output file,
+ *     source map and renaming maps) are restored from and stored in a
+ *     content-addressed cache, keyed by the contents of the config, the
+ *     sources, externs and Closure Library, and the plovr jar, so that
+ *     sources built before, for example on another branch, are not rebuilt.
+ *     Builds with modules or fingerprinting are not cached.</td><td>No.
+ *     Defaults to {@code false}.</td></tr>
  * <tr class="altColor"><td id="closureLibrary"><b>closureLibrary</b></td><td>
  *     Path to the version of the Closure Library that should be used instead
  *     of the version of the Closure Library that is bundled with plovr. The
@@ -121,7 +132,14 @@ import org.closureant.util.FileUtil;
  *     plovr config file. In plovr modes {@code BUILD} and {@code CONFIG} the
  *     config file is rewritten based on the task attributes and nested element
  *     settings.</td><td>No.</td></tr>
- * <tr class="rowColor"><td id="experimentalExcludeClosureLibrary">
+ * <tr class="rowColor"><td id="contentDigests"><b>contentDigests</b></td><td>
+ *     Determines if the contents of the sources and of the output file are
+ *     recorded after each successful build in "build" mode, so that sources
+ *     that were touched without being changed, for example by a version
+ *     control checkout, are not rebuilt. Only the files whose size or
+ *     last-modified time changed are read.</td><td>No. Defaults to {@code
+ *     false}.</td></tr>
+ * <tr class="altColor"><td id="experimentalExcludeClosureLibrary">
  *     <b>experimentalExcludeClosureLibrary</b></td><td>This is an experimental
  *     option to address <a target="_blank"
  *     href="http://code.google.com/p/plovr/issues/detail?id=40">Issue 40</a>.
@@ -323,9 +341,11 @@ public final class Plovr extends Task {
   // custom-externs-only
 
   // Attributes
+  private boolean artifactCache;
   private String closureLibrary;
   private File configFile;
   private String configID;
+  private boolean contentDigests;
   private Boolean experimentalExcludeClosureLibrary;
   private Boolean exportTestFunctions;
   private Boolean fingerprint;
@@ -360,9 +380,11 @@ public final class Plovr extends Task {
   public Plovr() {
 
     // Attributes
+    this.artifactCache = false;
     this.closureLibrary = null;
     this.configFile = null;
     this.configID = null;
+    this.contentDigests = false;
     this.experimentalExcludeClosureLibrary = null;
     this.exportTestFunctions = null;
     this.fingerprint = null;
@@ -394,6 +416,20 @@ public final class Plovr extends Task {
 
   // Attribute setters
 
+  /**
+   * Determines if the outputs of plovr in "build" mode are restored from and
+   * stored in a content-addressed cache. If the output file is not
+   * up-to-date, but the same sources were built before with the same config,
+   * for example on another branch, the outputs are restored from the cache
+   * instead of being rebuilt. See {@link ArtifactCache}.
+   *
+   * @param artifactCache if {@code true}, outputs are restored from and
+   *     stored in the artifact cache. Defaults to {@code false}.
+   */
+  public void setArtifactCache(boolean artifactCache) {
+    this.artifactCache = artifactCache;
+  }
+
   /**
    * Path to the version of the Closure Library that should be used instead of 
    * the version of the Closure Library that is bundled with plovr. The plovr
@@ -438,6 +474,20 @@ public final class Plovr extends Task {
     this.configID = configID;
   }
 
+  /**
+   * Determines if the contents of the sources and of the output file are
+   * recorded after each successful build in "build" mode, so that a source
+   * whose last-modified time is later than that of the output file, but whose
+   * contents did not change, does not cause a rebuild.
+   *
+   * @param contentDigests if {@code true}, the contents of the files are
+   *     compared when their last-modified times are later than that of the
+   *     output file. Defaults to {@code false}.
+   */
+  public void setContentDigests(boolean contentDigests) {
+    this.contentDigests = contentDigests;
+  }
+
   /**
    * This is an experimental option to address <a target="_blank"
    * href="http://code.google.com/p/plovr/issues/detail?id=40">Issue 40</a>.
@@ -857,7 +907,8 @@ public final class Plovr extends Task {
 
       if (PlovrMode.SERVE == this.plovrMode) {
         startPlovrServer(runner);
-      } else if (PlovrMode.BUILD == this.plovrMode && !this.forceRecompile) {
+      } else if (PlovrMode.BUILD == this.plovrMode && (!this.forceRecompile
+          || this.artifactCache)) {
         List<String> currentSources;
         try {
           currentSources = getCurrentSources(config);
@@ -865,21 +916,62 @@ public final class Plovr extends Task {
           throw new BuildException(e);
         }
 
-        BuildSettings previousBuildSettings = cache.get();
-        BuildSettings currentBuildSettings = new BuildSettings(
-            currentPlovrConfig, currentSources);
-        cache.put(currentBuildSettings);
-
         boolean skipBuild = false;
-        if (previousBuildSettings != null) {
-          if (ClosureBuildUtil.outputFileUpToDate(this.outputFile,
-              previousBuildSettings, currentBuildSettings)) {
-            skipBuild = true;
-            log("Output file up-to-date. Build skipped.");
+        BuildSettings previousBuildSettings = null;
+        BuildSettings currentBuildSettings = null;
+        if (!this.forceRecompile) {
+          previousBuildSettings = cache.get();
+          currentBuildSettings = new BuildSettings(
+              currentPlovrConfig, currentSources);
+          cache.put(currentBuildSettings);
+
+          if (previousBuildSettings != null) {
+            if (ClosureBuildUtil.outputFileUpToDate(this.outputFile,
+                previousBuildSettings, currentBuildSettings)) {
+              skipBuild = true;
+              log("Output file up-to-date. Build skipped.");
+            }
+          }
+        }
+
+        String artifactKey = null;
+        Map<String, File> outputs = null;
+        if (this.artifactCache && !skipBuild) {
+          outputs = getCacheableOutputs(config);
+        }
+        if (outputs != null) {
+          try {
+            artifactKey = getArtifactKey(config, currentPlovrConfig,
+                currentSources);
+            if (!this.forceRecompile
+                && cache.getArtifactCache().restore(artifactKey, outputs)) {
+              skipBuild = true;
+              log("Outputs restored from the artifact cache. Build skipped.");
+            }
+          } catch (IOException e) {
+            throw new BuildException(e);
           }
         }
         if (!skipBuild) {
           executePlovrJar(runner);
+          if (artifactKey != null) {
+            try {
+              cache.getArtifactCache().store(artifactKey, outputs);
+            } catch (IOException e) {
+              log("Unable to store outputs in the artifact cache: "
+                  + e.getMessage(), Project.MSG_WARN);
+            }
+          }
+        }
+        if (this.contentDigests && currentBuildSettings != null
+            && this.outputFile != null) {
+          try {
+            ClosureBuildUtil.recordContentDigests(currentBuildSettings,
+                previousBuildSettings, ImmutableList.of(this.outputFile));
+          } catch (IOException e) {
+            throw new BuildException(e);
+          }
+          cache.put(currentBuildSettings);
         }
       } else {
         executePlovrJar(runner);
@@ -887,6 +979,85 @@ public final class Plovr extends Task {
     }
   }
 
+  /**
+   * Gets the outputs of a plovr build that are stored in the artifact cache.
+   *
+   * @param config a plovr config
+   * @return map from the role of each output to the output file, or {@code
+   *     null} if the build has no output file or has modules, whose output
+   *     files are not known before the build
+   */
+  private Map<String, File> getCacheableOutputs(Config config) {
+    if (this.outputFile == null || !this.modules.isEmpty()
+        || Boolean.TRUE.equals(this.fingerprint)) {
+      return null;
+    }
+    Map<String, File> outputs = Maps.newLinkedHashMap();
+    outputs.put("output_file", this.outputFile);
+    if (this.compilerOptions != null
+        && this.compilerOptions.getSourceMapOutputFile() != null) {
+      outputs.put("source_map",
+          new File(this.compilerOptions.getSourceMapOutputFile()));
+    }
+    if (config.variableMapOutputFile != null) {
+      outputs.put("variable_map_output_file",
+          new File(config.variableMapOutputFile));
+    }
+    if (config.propertyMapOutputFile != null) {
+      outputs.put("property_map_output_file",
+          new File(config.propertyMapOutputFile));
+    }
+    return outputs;
+  }
+
+  /**
+   * Builds the key of the outputs in the artifact cache from the plovr
+   * config, the outputs, the contents of the sources, externs, renaming maps
+   * from previous builds, inherited config and Closure Library, and the
+   * contents of the plovr jar.
+   *
+   * @param config a plovr config
+   * @param configJson the plovr config in JSON format
+   * @param currentSources the sources of the current build
+   * @return the key
+   * @throws IOException if an input file cannot be read
+   */
+  private String getArtifactKey(Config config, String configJson,
+      List<String> currentSources) throws IOException {
+    ArtifactCache.KeyBuilder key = ArtifactCache.newKeyBuilder()
+        .putString(configJson)
+        .putFile(this.plovrJar);
+    for (File output : getCacheableOutputs(config).values()) {
+      key.putString(output.getAbsolutePath());
+    }
+    for (String source : currentSources) {
+      key.putFile(new File(source));
+    }
+    if (config.externs != null) {
+      for (String extern : config.externs) {
+        key.putFile(new File(extern));
+      }
+    }
+    if (config.variableMapInputFile != null) {
+      key.putFile(new File(config.variableMapInputFile));
+    }
+    if (config.propertyMapInputFile != null) {
+      key.putFile(new File(config.propertyMapInputFile));
+    }
+    if (this.inherits != null) {
+      key.putFile(this.inherits);
+    }
+    if (config.closureLibrary != null
+        && new File(config.closureLibrary).isDirectory()) {
+      for (String path : FileUtil.scanDirectory(
+          new File(config.closureLibrary), ImmutableList.of("**/*.js"),
+          ImmutableList.of(".*"))) {
+        key.putFile(new File(path));
+      }
+    }
+    return key.build();
+  }
+
   /**
    * Creates a list of all source files (JavaScript, soy [i.e Closure
    * Templates], and coffee script) based on the inputs and paths set in a
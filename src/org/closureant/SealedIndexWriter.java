@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Task;
+
+import org.closureant.base.SealedSourceIndex;
+
+/**
+ * Sealed Index Writer Ant task. Creates a prebuilt index of the {@code
+ * goog.provided} and {@code goog.required} namespaces of all JavaScript
+ * files under a root directory that does not change between builds, such as
+ * the Closure Library. The default task name is {@code sealed-index-writer}
+ * as defined in "task-definitions.xml".
+ *
+ * <p>To use the index, mark the root as immutable in the {@literal <roots>}
+ * of {@link BuilderPlus}:</p>
+ *
+ * <p>{@literal <roots dir="closure-library" immutable="true" />}</p>
+ *
+ * <p>The index must be recreated whenever files are added to, removed from,
+ * or modified under the root directory. See {@link SealedSourceIndex}. The
+ * index may also be created without Ant (see {@link #main(String[])}).</p>
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ */
+public final class SealedIndexWriter extends Task {
+
+  // Attributes
+  private File dir;
+  private File indexFile;
+
+  /**
+   * Constructs a new Ant task for Sealed Index Writer.
+   */
+  public SealedIndexWriter() {
+    // Attributes
+    this.dir = null;
+    this.indexFile = null;
+  }
+
+  // Attribute setters
+
+  /** @param dir the root directory to index */
+  public void setDir(File dir) {
+    this.dir = dir;
+  }
+
+  /**
+   * @param file the index file to write. Defaults to
+   *     "{@value SealedSourceIndex#DEFAULT_INDEX_FILE_NAME}" in the root
+   *     directory.
+   */
+  public void setIndexFile(File file) {
+    this.indexFile = file;
+  }
+
+  /**
+   * Execute the Sealed Index Writer task.
+   *
+   * @throws BuildException on error.
+   */
+  @Override
+  public void execute() {
+    if (this.dir == null) {
+      throw new BuildException("\"dir\" is not set. Verify that your build "
+          + "file contains an attribute named \"dir\".");
+    }
+    if (!this.dir.isDirectory()) {
+      throw new BuildException("\"" + this.dir.getAbsolutePath()
+          + "\" is not a directory");
+    }
+
+    File outputFile = (this.indexFile != null) ? this.indexFile
+        : new File(this.dir, SealedSourceIndex.DEFAULT_INDEX_FILE_NAME);
+
+    try {
+      log(writeIndex(this.dir, outputFile));
+    } catch (IOException e) {
+      throw new BuildException(e);
+    }
+  }
+
+  /**
+   * Creates a sealed index from the command line.
+   *
+   * <p>{@code java -cp closure-ant.jar org.closureant.SealedIndexWriter
+   * <root directory> [<index file>]}</p>
+   *
+   * @param args the root directory to index, optionally followed by the
+   *     index file to write, which defaults to
+   *     "{@value SealedSourceIndex#DEFAULT_INDEX_FILE_NAME}" in the root
+   *     directory
+   * @throws IOException if a file cannot be read or the index file cannot
+   *     be written
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1 || args.length > 2) {
+      System.err.println("java -cp closure-ant.jar "
+          + "org.closureant.SealedIndexWriter <root directory> [<index file>]");
+      System.exit(1);
+    }
+    File root = new File(args[0]);
+    if (!root.isDirectory()) {
+      System.err.println("\"" + root.getAbsolutePath()
+          + "\" is not a directory");
+      System.exit(1);
+    }
+    File outputFile = (args.length == 2) ? new File(args[1])
+        : new File(root, SealedSourceIndex.DEFAULT_INDEX_FILE_NAME);
+    System.out.println(writeIndex(root, outputFile));
+  }
+
+  private static String writeIndex(File root, File outputFile)
+      throws IOException {
+    SealedSourceIndex index = SealedSourceIndex.create(root);
+    index.write(outputFile);
+    return "Indexed " + index.size() + " sources in \""
+        + root.getAbsolutePath() + "\" [" + outputFile.getAbsolutePath()
+        + "]";
+  }
+}
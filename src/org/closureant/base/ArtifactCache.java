@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant.base;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.security.CodeSource;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A content-addressed cache of the output files of a build, such as the
+ * compiled JavaScript, source maps and renaming maps. The outputs are stored
+ * under a key that is the digest of everything that determines them: the
+ * flags or configuration of the tool, the contents of the input files and the
+ * contents of the tool's jar file (see {@link KeyBuilder}). When the same
+ * inputs are built again, for example after switching back to a branch whose
+ * sources have older last-modified times than the outputs of another branch,
+ * the outputs are restored from the cache instead of being rebuilt.
+ *
+ * <p>The entries are kept in an {@link ArtifactStorage}, which may be a
+ * directory in the workspace or a directory shared by several workspaces and
+ * build machines (see {@link DirectoryArtifactStorage}). Each output of an
+ * entry is identified by its role, for example {@code "js_output_file"}.</p>
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ */
+public final class ArtifactCache {
+
+  private final ArtifactStorage storage;
+
+  /**
+   * Constructs an artifact cache that keeps its entries in {@code storage}.
+   *
+   * @param storage the storage of the entries
+   */
+  public ArtifactCache(ArtifactStorage storage) {
+    this.storage = Preconditions.checkNotNull(storage, "storage was null");
+  }
+
+  /**
+   * @return a new key builder
+   */
+  public static KeyBuilder newKeyBuilder() {
+    return new KeyBuilder();
+  }
+
+  /** @return the storage of the entries */
+  public ArtifactStorage getStorage() {
+    return this.storage;
+  }
+
+  /**
+   * Determines if there is an entry for {@code key} that has all of the
+   * {@code outputs}.
+   *
+   * @param key the key built by a {@link KeyBuilder}
+   * @param outputs the roles of the outputs
+   * @return {@code true} if the outputs may be restored
+   */
+  public boolean contains(String key, Iterable<String> outputs) {
+    return this.storage.contains(key, outputs);
+  }
+
+  /**
+   * Restores the outputs stored under {@code key}.
+   *
+   * @param key the key built by a {@link KeyBuilder}
+   * @param outputs map from the role of each output to the file to which it
+   *     is restored
+   * @return {@code true} if all of the outputs were restored, {@code false}
+   *     if there is no entry for {@code key} or it lacks one of the outputs
+   * @throws IOException if an output cannot be copied to its destination
+   */
+  public boolean restore(String key, Map<String, File> outputs)
+      throws IOException {
+    return this.storage.restore(key, outputs);
+  }
+
+  /**
+   * Stores the outputs under {@code key}. If there already is an entry for
+   * {@code key}, it is kept, since the same key always has the same outputs.
+   *
+   * @param key the key built by a {@link KeyBuilder}
+   * @param outputs map from the role of each output to the output file
+   * @throws IOException if an output cannot be copied to the cache
+   */
+  public void store(String key, Map<String, File> outputs)
+      throws IOException {
+    this.storage.store(key, outputs);
+  }
+
+  //----------------------------------------------------------------------------
+
+  /**
+   * Builds the key of a cache entry from the inputs of a build. Everything
+   * that may change the outputs must be put into the key, in a fixed order.
+   * Files are identified by their contents rather than by their last-modified
+   * times, so that the key does not change when a file is rewritten with the
+   * same contents.
+   */
+  public static final class KeyBuilder {
+    private final Hasher hasher;
+
+    private KeyBuilder() {
+      this.hasher = Hashing.md5().newHasher();
+    }
+
+    /**
+     * Puts a string, such as the flags passed to a tool.
+     *
+     * @param value the string
+     * @return this key builder
+     */
+    public KeyBuilder putString(String value) {
+      this.hasher.putBytes(value.getBytes(Charsets.UTF_8)).putByte((byte) 0);
+      return this;
+    }
+
+    /**
+     * Puts the path and the contents of a file. If the file is a directory,
+     * the paths and contents of all files in the directory are put, and if
+     * the file does not exist, only its path is put.
+     *
+     * @param file the file
+     * @return this key builder
+     * @throws IOException if the file cannot be read
+     */
+    public KeyBuilder putFile(File file) throws IOException {
+      return putFile(file, null);
+    }
+
+    /**
+     * Puts the contents of a file like {@link #putFile(File)}, but puts its
+     * path relative to {@code baseDir} (see {@link #putPath(File, File)}), so
+     * that the key is the same for checkouts of a project in different
+     * directories.
+     *
+     * @param file the file
+     * @param baseDir the base directory of the project, or {@code null} to
+     *     put the path of the file as it is
+     * @return this key builder
+     * @throws IOException if the file cannot be read
+     */
+    public KeyBuilder putFile(File file, File baseDir) throws IOException {
+      putPath(file, baseDir);
+      if (file.isFile()) {
+        this.hasher.putByte((byte) 1)
+            .putBytes(Files.hash(file, Hashing.md5()).asBytes());
+      } else if (file.isDirectory()) {
+        this.hasher.putByte((byte) 2);
+        File[] children = file.listFiles();
+        List<File> sortedChildren = Lists.newArrayList();
+        if (children != null) {
+          Collections.addAll(sortedChildren, children);
+        }
+        Collections.sort(sortedChildren);
+        for (File child : sortedChildren) {
+          putFile(child, baseDir);
+        }
+        this.hasher.putByte((byte) 3);
+      } else {
+        this.hasher.putByte((byte) 0);
+      }
+      return this;
+    }
+
+    /**
+     * Puts the path of a file, such as an output file, without its contents.
+     * If the file is in {@code baseDir}, its path relative to {@code baseDir}
+     * is put instead of its absolute path.
+     *
+     * @param file the file
+     * @param baseDir the base directory of the project, or {@code null} to
+     *     put the path of the file as it is
+     * @return this key builder
+     */
+    public KeyBuilder putPath(File file, File baseDir) {
+      if (baseDir != null) {
+        String base = baseDir.getAbsolutePath();
+        String path = file.getAbsolutePath();
+        if (!base.endsWith(File.separator)) {
+          base += File.separator;
+        }
+        if (path.startsWith(base)) {
+          return putString(path.substring(base.length()));
+        }
+      }
+      return putString(file.getPath());
+    }
+
+    /**
+     * Puts the paths and contents of files in the order given.
+     *
+     * @param files the files
+     * @return this key builder
+     * @throws IOException if one of the files cannot be read
+     */
+    public KeyBuilder putFiles(Iterable<File> files) throws IOException {
+      for (File file : files) {
+        putFile(file);
+      }
+      return this;
+    }
+
+    /**
+     * Puts the contents of the jar file (or class directory) from which a
+     * class was loaded, such as the main class of a tool that runs in the
+     * Ant process. If the location of the class is unknown, only the name of
+     * the class is put.
+     *
+     * @param toolClass the class
+     * @return this key builder
+     * @throws IOException if the jar file cannot be read
+     */
+    public KeyBuilder putClassLocation(Class<?> toolClass) throws IOException {
+      putString(toolClass.getName());
+      CodeSource codeSource = toolClass.getProtectionDomain().getCodeSource();
+      if (codeSource != null && codeSource.getLocation() != null
+          && "file".equals(codeSource.getLocation().getProtocol())) {
+        try {
+          putFile(new File(codeSource.getLocation().toURI()));
+        } catch (URISyntaxException e) {
+          putString(codeSource.getLocation().toString());
+        }
+      }
+      return this;
+    }
+
+    /**
+     * @return the key, a string of hexadecimal digits
+     */
+    public String build() {
+      return this.hasher.hash().toString();
+    }
+  }
+}
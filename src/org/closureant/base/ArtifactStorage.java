@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant.base;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * The storage of an {@link ArtifactCache}. An entry maps a key to the files
+ * of its outputs, each identified by its role (for example, {@code
+ * "js_output_file"}). Implementations must be safe to use from multiple
+ * threads and, if the storage is shared, from multiple processes, and must
+ * never restore an output that differs from the output stored.
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ */
+public interface ArtifactStorage {
+
+  /**
+   * Determines if there is an entry for {@code key} that has all of the
+   * outputs.
+   *
+   * @param key the key of the entry
+   * @param roles the roles of the outputs
+   * @return {@code true} if the outputs may be restored
+   */
+  boolean contains(String key, Iterable<String> roles);
+
+  /**
+   * Restores the outputs stored under {@code key}. Either all of the outputs
+   * are restored or none of them.
+   *
+   * @param key the key of the entry
+   * @param outputs map from the role of each output to the file to which it
+   *     is restored
+   * @return {@code true} if all of the outputs were restored, {@code false}
+   *     if there is no intact entry for {@code key} with all of the outputs
+   * @throws IOException if an output cannot be written to its destination
+   */
+  boolean restore(String key, Map<String, File> outputs) throws IOException;
+
+  /**
+   * Stores the outputs under {@code key}, unless there already is an entry
+   * for {@code key} with all of the outputs.
+   *
+   * @param key the key of the entry
+   * @param outputs map from the role of each output to the output file
+   * @throws IOException if an output cannot be stored
+   */
+  void store(String key, Map<String, File> outputs) throws IOException;
+}
@@ -16,18 +16,23 @@
 
 package org.closureant.base;
 
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.nio.channels.FileLock;
 
 import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
 import org.apache.tools.ant.Task;
 
-import org.closureant.util.FileUtil;
-
 /**
  * A file-based cache to temporarily store settings related to a build
  * process, such as the command line and source files. The build settings are
@@ -35,114 +40,311 @@ import org.closureant.util.FileUtil;
  * owning target to uniquely identify it. A directory named ".closure-ant"
  * is created in the current Ant project's base directory to store the settings.
  *
+ * <p>The build settings are stored in a compact, versioned binary format
+ * that only has the digests of the command line and of the sources (see
+ * {@link BuildSettings#isDigestOnly()}). They are written to a temporary
+ * file that then replaces the cache file, while holding a lock on a lock
+ * file next to the cache file, so that tasks run concurrently by Ant's
+ * {@literal <parallel>} task or by separate processes never see a partially
+ * written file. A cache file that is corrupt or was written by a different
+ * version of the format is ignored, as if there were no previous build.
+ * If the build settings record the contents of the files of the build (see
+ * {@link BuildSettings#getContentDigests()}), the content digests are stored
+ * as well.</p>
+ *
+ * <p>Constructing a build cache does no file I/O: the directory is created
+ * when it is first used, and old files are evicted once per build by a
+ * {@link BuildCacheEviction} that the first build cache of the build
+ * schedules.</p>
+ *
  * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
  */
 public final class BuildCache {
 
   private static final String antClosureToolsMetaDirectory =
       ".closure-ant";
-  private static final String fileNamePattern = "task[%s]__target[%s].ser";
-  private static final int CACHE_EXPIRATION_DAYS = 2;
+  private static final String fileNamePattern = "task[%s]__target[%s].bin";
+  private static final String lockFileNamePattern =
+      "task[%s]__target[%s].lock";
+  private static final int MAGIC = 0x434C4253;  // "CLBS"
+  private static final int VERSION = 2;
+  // Stored in a subdirectory so that it is not evicted by
+  // BuildCacheEviction.
+  private static final String sourceIndexFileName = "index/sources.idx";
+  // Evicted by BuildCacheEviction, since a snapshot whose key is no longer
+  // used is never overwritten.
+  static final String snapshotDirectoryName = "snapshots";
+  private static final String snapshotFileNamePattern =
+      snapshotDirectoryName + "/task[%s]__key[%s].bin";
+  private static final String artifactCacheDirectoryName = "artifacts";
 
+  private final Project project;
+  private final String taskName;
   private final File cacheFile;
+  private final File lockFile;
   private final File baseDirectory;
 
   public BuildCache(Task antTask) {
+    this.project = antTask.getProject();
+    this.taskName = antTask.getTaskName();
     this.baseDirectory = new File(antTask.getProject().getBaseDir(),
         antClosureToolsMetaDirectory);
-    baseDirectory.mkdir();
     this.cacheFile = new File(baseDirectory,
         String.format(fileNamePattern, antTask.getTaskName(),
             antTask.getOwningTarget().getName()));
-    cleanUpSettingsOlderThanDays(CACHE_EXPIRATION_DAYS);
+    this.lockFile = new File(baseDirectory,
+        String.format(lockFileNamePattern, antTask.getTaskName(),
+            antTask.getOwningTarget().getName()));
+    BuildCacheEviction.schedule(this.project, this.baseDirectory);
   }
 
   /**
    * Get the build settings for this Ant task and its owning target from the
    * file cache.
    *
-   * @return the build settings or {@code null} if no build settings found
+   * @return the build settings, which only have the digests of the command
+   *     line and of the sources, or {@code null} if no build settings found
    *     for this Ant task and its owning target
+   * @throws BuildException if the lock file cannot be locked
    */
   public BuildSettings get() {
-    if (!this.cacheFile.exists()) {
+    if (!this.baseDirectory.isDirectory()) {
       return null;
     }
-
-    BuildSettings settings = null;
-    ObjectInputStream in = null;
-    try {
-      FileInputStream fis = new FileInputStream(this.cacheFile);
-      in = new ObjectInputStream(fis);
-      settings = (BuildSettings) in.readObject();
-      in.close();
-    } catch (IOException e) {
-      throw new BuildException(e);
-    } catch (ClassNotFoundException e) {
-      throw new BuildException(e);
-    } finally {
+    synchronized (CacheFileLock.getMonitor(this.lockFile)) {
+      FileLock lock = lock();
       try {
-        if (in != null) in.close();
-      } catch (IOException e) {
-        // nothing to see here
+        return read(this.cacheFile);
+      } finally {
+        CacheFileLock.release(lock);
       }
     }
-
-    return settings;
   }
 
   /**
-   * Gets the base directory used to cache temporary files.
+   * Gets the base directory used to cache temporary files, creating it if it
+   * does not exist.
    *
    * @return the base directory for caching temporary files
    */
   public File getBaseDirectory() {
+    this.baseDirectory.mkdirs();
     return this.baseDirectory;
   }
 
+  /**
+   * Gets the index of JavaScript source files scanned for {@code
+   * goog.provide} and {@code goog.require} statements by Ant tasks in the
+   * current Ant project. The index is shared by all tasks and persists across
+   * builds.
+   *
+   * @return the source index for the current Ant project
+   */
+  public SourceIndex getSourceIndex() {
+    return SourceIndex.getSharedInstance(
+        new File(this.baseDirectory, sourceIndexFileName));
+  }
+
+  /**
+   * Gets a file in which the Ant task stores a snapshot of its state between
+   * builds, such as a {@link org.closureant.deps.ManifestSnapshot}, creating
+   * its directory if it does not exist. The file is identified by the task
+   * name and a digest of {@code key}, so tasks in the same target with
+   * different outputs or entry points use different files. Since a snapshot
+   * file is orphaned when the outputs or entry points change, snapshot files
+   * are evicted by {@link BuildCacheEviction} like temporary files.
+   *
+   * @param key a string that identifies the snapshot within the task, such
+   *     as the output file and the entry points
+   * @return the snapshot file
+   */
+  public File getSnapshotFile(String key) {
+    File snapshotFile = new File(this.baseDirectory, String.format(
+        snapshotFileNamePattern, this.taskName,
+        Hashing.md5().hashBytes(key.getBytes(Charsets.UTF_8)).toString()));
+    snapshotFile.getParentFile().mkdirs();
+    return snapshotFile;
+  }
+
+  /**
+   * Gets the content-addressed cache of build outputs for the current Ant
+   * project. The cache is shared by all tasks and persists across builds.
+   * If the Ant property {@link SharedAntProperty#ARTIFACT_CACHE_DIR} is set,
+   * the entries are stored in that directory, which may be shared with other
+   * workspaces and build machines, otherwise in the ".closure-ant" directory.
+   * The maximum size of the cache is set with the Ant property {@link
+   * SharedAntProperty#ARTIFACT_CACHE_MAX_SIZE} and defaults to {@link
+   * DirectoryArtifactStorage#DEFAULT_MAX_BYTES}.
+   *
+   * @return the artifact cache for the current Ant project
+   * @throws BuildException if the maximum size is not a valid size
+   */
+  public ArtifactCache getArtifactCache() {
+    String sharedDirectory =
+        SharedAntProperty.ARTIFACT_CACHE_DIR.getValue(this.project);
+    File directory = (sharedDirectory != null) ? new File(sharedDirectory)
+        : new File(this.baseDirectory, artifactCacheDirectoryName);
+    String maxSize =
+        SharedAntProperty.ARTIFACT_CACHE_MAX_SIZE.getValue(this.project);
+    long maxBytes = (maxSize != null) ? parseSize(maxSize)
+        : DirectoryArtifactStorage.DEFAULT_MAX_BYTES;
+    return new ArtifactCache(new DirectoryArtifactStorage(directory,
+        maxBytes));
+  }
+
+  /**
+   * Parses a size in bytes, optionally followed by the suffix "K", "M" or
+   * "G" (case insensitive).
+   *
+   * @param size the size, or {@code null}
+   * @return the size in bytes, or 0 if {@code size} is {@code null} or empty
+   * @throws BuildException if {@code size} is not a valid size
+   */
+  static long parseSize(String size) {
+    if (size == null || size.trim().isEmpty()) {
+      return 0;
+    }
+    String digits = size.trim().toUpperCase();
+    long multiplier = 1;
+    if (digits.endsWith("K")) {
+      multiplier = 1024L;
+    } else if (digits.endsWith("M")) {
+      multiplier = 1024L * 1024L;
+    } else if (digits.endsWith("G")) {
+      multiplier = 1024L * 1024L * 1024L;
+    }
+    if (multiplier > 1) {
+      digits = digits.substring(0, digits.length() - 1).trim();
+    }
+    try {
+      long bytes = Long.parseLong(digits);
+      if (bytes < 0 || bytes > Long.MAX_VALUE / multiplier) {
+        throw new NumberFormatException();
+      }
+      return bytes * multiplier;
+    } catch (NumberFormatException e) {
+      throw new BuildException("invalid size: \"" + size + "\"");
+    }
+  }
+
   /**
    * Save build settings to a file cache.
    *
    * @param settings the build settings to save
+   * @throws BuildException if the cache file cannot be written
    */
   public void put(BuildSettings settings) {
-    ObjectOutputStream out = null;
-    try {
-      FileOutputStream fos = new FileOutputStream(this.cacheFile);
-      out = new ObjectOutputStream(fos);
-      out.writeObject(settings);
-      out.close();
-    } catch (IOException e) {
-      throw new BuildException(e);
-    } finally {
+    synchronized (CacheFileLock.getMonitor(this.lockFile)) {
+      this.baseDirectory.mkdirs();
+      FileLock lock = lock();
       try {
-        if (out != null) out.close();
+        File tempFile = File.createTempFile(this.cacheFile.getName(), ".tmp",
+            this.baseDirectory);
+        try {
+          write(settings, tempFile);
+          CacheFileLock.replace(tempFile, this.cacheFile);
+        } finally {
+          tempFile.delete();
+        }
       } catch (IOException e) {
-        // nothing to see here
+        throw new BuildException(e);
+      } finally {
+        CacheFileLock.release(lock);
       }
     }
   }
 
   /**
    * Creates a temporary file in the Ant Closure Tools base directory
-   * designated for the current Ant project. The file will be automatically
-   * deleted the next time a BuildCache object is instantiated after {@link
-   * #CACHE_EXPIRATION_DAYS}.
+   * designated for the current Ant project, creating the directory if it
+   * does not exist. The file will be automatically deleted at the end of a
+   * build after {@link BuildCacheEviction#MAX_AGE_DAYS}, or earlier if the
+   * directory exceeds its maximum size. See {@link BuildCacheEviction}.
    *
    * @param fileName the file name to use for the temporary file
    * @return the temporary file
    */
   public File createTempFile(String fileName) {
+    this.baseDirectory.mkdirs();
     return new File(this.baseDirectory, fileName);
   }
 
   /**
-   * Clear cache settings for the current Ant project older than {@code days}
-   * days.
+   * Locks the lock file, waiting until other processes release it.
+   *
+   * @return the lock
+   * @throws BuildException if the lock file cannot be locked
+   */
+  private FileLock lock() {
+    try {
+      return CacheFileLock.lock(this.lockFile);
+    } catch (IOException e) {
+      throw new BuildException(e);
+    }
+  }
+
+  /**
+   * Reads build settings from a cache file.
    *
-   * @param days days after which cache settings will be deleted
+   * @param file the cache file
+   * @return the build settings or {@code null} if the file does not exist,
+   *     is corrupt, or has a different version
    */
-  private void cleanUpSettingsOlderThanDays(int days) {
-    FileUtil.deleteFilesOlderThanNumberOfDays(this.baseDirectory, "*", days);
+  private static BuildSettings read(File file) {
+    if (!file.isFile()) {
+      return null;
+    }
+
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new BufferedInputStream(
+          new FileInputStream(file)));
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        return null;
+      }
+      boolean buildFailed = in.readBoolean();
+      long buildTime = in.readLong();
+      String commandLineOrConfigDigest = in.readUTF();
+      String sourcesDigest = in.readUTF();
+      ContentDigests contentDigests = in.readBoolean()
+          ? ContentDigests.read(in) : null;
+      if (in.read() != -1) {
+        return null;
+      }
+      BuildSettings settings = new BuildSettings(buildFailed, buildTime,
+          commandLineOrConfigDigest, sourcesDigest);
+      settings.setContentDigests(contentDigests);
+      return settings;
+    } catch (IOException e) {
+      // The cache file is corrupt and will be replaced.
+      return null;
+    } finally {
+      try {
+        if (in != null) in.close();
+      } catch (IOException e) {
+        // nothing to see here
+      }
+    }
+  }
+
+  private static void write(BuildSettings settings, File file)
+      throws IOException {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(file)));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeBoolean(settings.isBuildFailed());
+      out.writeLong(settings.getBuildTime());
+      out.writeUTF(settings.getCommandLineOrConfigDigest());
+      out.writeUTF(settings.getSourcesDigest());
+      ContentDigests contentDigests = settings.getContentDigests();
+      out.writeBoolean(contentDigests != null);
+      if (contentDigests != null) {
+        contentDigests.write(out);
+      }
+    } finally {
+      out.close();
+    }
   }
 }
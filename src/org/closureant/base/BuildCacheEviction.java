@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant.base;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileLock;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.tools.ant.BuildEvent;
+import org.apache.tools.ant.BuildListener;
+import org.apache.tools.ant.Project;
+
+/**
+ * Evicts files from the ".closure-ant" directory of an Ant project once per
+ * build, rather than every time a {@link BuildCache} is constructed. The
+ * eviction is scheduled by the first {@link BuildCache} of a build, which
+ * only registers this class as a build listener of the Ant project, and runs
+ * when the build finishes, so that it never deletes a file that a task of
+ * the build is about to read.
+ *
+ * <p>The eviction only considers the files directly in the directory, such
+ * as build settings, lock files, flag files and manifests, and the manifest
+ * snapshots in its "snapshots" subdirectory. Other subdirectories, such as
+ * the source index and the artifact cache, manage their own contents. Files
+ * that were not modified for {@link #MAX_AGE_DAYS} days are deleted. If the
+ * remaining files are larger in total than the maximum size
+ * (see {@link SharedAntProperty#BUILD_CACHE_MAX_SIZE}), the least recently
+ * modified files are deleted until they fit. Lock files are empty and never
+ * deleted: a process that opened a lock file before it was deleted and a
+ * process that created it anew would hold different locks on the same cache
+ * file. A file with a lock file, such as the build settings of a {@link
+ * BuildCache}, is only deleted while the eviction holds the lock, and
+ * skipped if another thread or process holds it.</p>
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ */
+public final class BuildCacheEviction implements BuildListener {
+
+  /** The id of the Ant project reference that holds the eviction. */
+  public static final String REFERENCE_ID = "closure-ant.build-cache-eviction";
+
+  /** Files not modified for this many days are deleted. */
+  public static final int MAX_AGE_DAYS = 2;
+
+  /** The default maximum total size in bytes of the files. */
+  public static final long DEFAULT_MAX_BYTES = 64L * 1024L * 1024L;
+
+  private static final long MILLIS_PER_DAY = 24L * 60L * 60L * 1000L;
+  private static final String LOCK_FILE_SUFFIX = ".lock";
+
+  private final File directory;
+  private final long maxBytes;
+  private boolean evicted;
+
+  /**
+   * Constructs an eviction for {@code directory}.
+   *
+   * @param directory the directory whose files are evicted
+   * @param maxBytes the maximum total size in bytes of the files, or 0 for
+   *     no maximum
+   * @throws IllegalArgumentException if {@code maxBytes} is negative
+   */
+  public BuildCacheEviction(File directory, long maxBytes) {
+    this.directory = Preconditions.checkNotNull(directory,
+        "directory was null");
+    Preconditions.checkArgument(maxBytes >= 0,
+        "maxBytes expected to be non-negative but was %s", maxBytes);
+    this.maxBytes = maxBytes;
+    this.evicted = false;
+  }
+
+  /**
+   * Schedules the eviction of {@code directory} when the build of {@code
+   * project} finishes, unless it was already scheduled. Does no file I/O.
+   *
+   * @param project the Ant project
+   * @param directory the ".closure-ant" directory of the project
+   * @throws org.apache.tools.ant.BuildException if the maximum size set
+   *     with {@link SharedAntProperty#BUILD_CACHE_MAX_SIZE} is not valid
+   */
+  public static void schedule(Project project, File directory) {
+    Preconditions.checkNotNull(project, "project was null");
+
+    synchronized (project) {
+      if (project.getReference(REFERENCE_ID) instanceof BuildCacheEviction) {
+        return;
+      }
+      String maxSize =
+          SharedAntProperty.BUILD_CACHE_MAX_SIZE.getValue(project);
+      BuildCacheEviction eviction = new BuildCacheEviction(directory,
+          (maxSize != null) ? BuildCache.parseSize(maxSize)
+              : DEFAULT_MAX_BYTES);
+      project.addReference(REFERENCE_ID, eviction);
+      project.addBuildListener(eviction);
+    }
+  }
+
+  /**
+   * Runs the eviction scheduled for {@code project} now, for programs that
+   * run Ant tasks without firing the events of a build, such as the Builder
+   * Plus command line interface.
+   *
+   * @param project the Ant project
+   */
+  public static void runScheduled(Project project) {
+    Object reference = project.getReference(REFERENCE_ID);
+    if (reference instanceof BuildCacheEviction) {
+      ((BuildCacheEviction) reference).evict();
+    }
+  }
+
+  /**
+   * Evicts files from the directory, unless they were already evicted by
+   * this instance.
+   */
+  public synchronized void evict() {
+    if (this.evicted) {
+      return;
+    }
+    this.evicted = true;
+    File[] topLevelFiles = this.directory.listFiles();
+    if (topLevelFiles == null) {
+      return;
+    }
+    List<File> files = Lists.newArrayList(topLevelFiles);
+    File[] snapshotFiles = new File(this.directory,
+        BuildCache.snapshotDirectoryName).listFiles();
+    if (snapshotFiles != null) {
+      files.addAll(Arrays.asList(snapshotFiles));
+    }
+
+    long expiration = System.currentTimeMillis()
+        - MAX_AGE_DAYS * MILLIS_PER_DAY;
+    List<File> lockFiles = Lists.newArrayList();
+    for (File file : files) {
+      if (file.isFile() && file.getName().endsWith(LOCK_FILE_SUFFIX)) {
+        lockFiles.add(file);
+      }
+    }
+    final Map<File, Long> lastModified = Maps.newHashMap();
+    List<File> candidates = Lists.newArrayList();
+    long totalBytes = 0;
+    for (File file : files) {
+      if (!file.isFile() || file.getName().endsWith(LOCK_FILE_SUFFIX)) {
+        continue;
+      }
+      long modified = file.lastModified();
+      if (modified < expiration) {
+        deleteUnlessLocked(file, getLockFile(file, lockFiles));
+      } else {
+        lastModified.put(file, modified);
+        candidates.add(file);
+        totalBytes += file.length();
+      }
+    }
+    if (this.maxBytes == 0 || totalBytes <= this.maxBytes) {
+      return;
+    }
+
+    Collections.sort(candidates, new Comparator<File>() {
+      @Override public int compare(File a, File b) {
+        return lastModified.get(a).compareTo(lastModified.get(b));
+      }
+    });
+    for (File file : candidates) {
+      if (totalBytes <= this.maxBytes) {
+        break;
+      }
+      long length = file.length();
+      if (deleteUnlessLocked(file, getLockFile(file, lockFiles))) {
+        totalBytes -= length;
+      }
+    }
+  }
+
+  /**
+   * Gets the lock file that guards {@code file}. A lock file guards the
+   * files whose names start with its name up to the suffix ".lock",
+   * followed by a period, such as the build settings file of a {@link
+   * BuildCache} and its temporary files.
+   *
+   * @param file the file
+   * @param lockFiles the lock files of the directory
+   * @return the lock file of {@code file}, or {@code null} if it has none
+   */
+  private static File getLockFile(File file, List<File> lockFiles) {
+    String name = file.getName();
+    for (File lockFile : lockFiles) {
+      String lockName = lockFile.getName();
+      String prefix = lockName.substring(0,
+          lockName.length() - LOCK_FILE_SUFFIX.length()) + ".";
+      if (name.startsWith(prefix)) {
+        return lockFile;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Deletes {@code file} while holding {@code lockFile}, unless another
+   * thread or process holds it.
+   *
+   * @param file the file to delete
+   * @param lockFile the lock file of {@code file}, or {@code null} if it has
+   *     none
+   * @return {@code true} if the file was deleted
+   */
+  private static boolean deleteUnlessLocked(File file, File lockFile) {
+    if (lockFile == null || !lockFile.exists()) {
+      return file.delete();
+    }
+    synchronized (CacheFileLock.getMonitor(lockFile)) {
+      FileLock lock;
+      try {
+        lock = CacheFileLock.tryLock(lockFile);
+      } catch (IOException e) {
+        return false;
+      }
+      if (lock == null) {
+        return false;
+      }
+      try {
+        return file.delete();
+      } finally {
+        CacheFileLock.release(lock);
+      }
+    }
+  }
+
+  @Override public void buildFinished(BuildEvent event) {
+    evict();
+  }
+
+  @Override public void buildStarted(BuildEvent event) {}
+  @Override public void targetStarted(BuildEvent event) {}
+  @Override public void targetFinished(BuildEvent event) {}
+  @Override public void taskStarted(BuildEvent event) {}
+  @Override public void taskFinished(BuildEvent event) {}
+  @Override public void messageLogged(BuildEvent event) {}
+}
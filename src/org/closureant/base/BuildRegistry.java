@@ -0,0 +1,361 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant.base;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.tools.ant.Project;
+
+import org.closureant.util.DirectoryWalker;
+
+/**
+ * A registry attached to an Ant {@link Project} that shares directory scans
+ * and scanned JavaScript source files between the tasks of one build. A
+ * typical build runs several tasks (for example, the Closure Linter, Deps
+ * Writer, Builder Plus and Closure Compiler) over the same source roots, and
+ * some tasks resolve the same file sets more than once. With the registry,
+ * each root is walked and each source file is scanned once per build unless
+ * it changes.
+ *
+ * <p>Cached results are validated before they are returned:</p>
+ *
+ * <ul>
+ * <li>A directory scan is only reused if none of the directories listed
+ *     during the scan was modified since. Adding, removing or renaming an
+ *     entry of a directory updates its last-modified time.</li>
+ * <li>A source file is only reused if its size and last-modified time are
+ *     unchanged.</li>
+ * </ul>
+ *
+ * <p>Results are not cached if a directory or file was modified so recently
+ * that a later modification might not change its last-modified time (see
+ * {@link SourceIndex}). In addition, tasks that write files call {@link
+ * #invalidate(File)}, which drops the cached scans of every directory tree
+ * containing the file as well as the cached source file itself.</p>
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ */
+public final class BuildRegistry {
+
+  /** The id of the Ant project reference that holds the registry. */
+  public static final String REFERENCE_ID = "closure-ant.build-registry";
+
+  /**
+   * Directories and files modified less than this many milliseconds before
+   * they were scanned are not cached.
+   */
+  private static final long RACY_INTERVAL_MILLIS = 2000;
+
+  private final Map<ScanKey, Scan> scans;
+  private final Map<String, SourceEntry> sourceFiles;
+  private final NamespaceTable namespaceTable;
+
+  private BuildRegistry(NamespaceTable namespaceTable) {
+    this.scans = Maps.newHashMap();
+    this.sourceFiles = Maps.newHashMap();
+    this.namespaceTable = namespaceTable;
+  }
+
+  /**
+   * Gets the registry of an Ant project, creating it and adding it to the
+   * project references the first time.
+   *
+   * @param project the Ant project
+   * @return the registry of {@code project}
+   * @throws NullPointerException if {@code project} is {@code null}
+   */
+  public static BuildRegistry getInstance(Project project) {
+    Preconditions.checkNotNull(project, "project was null");
+
+    synchronized (project) {
+      Object reference = project.getReference(REFERENCE_ID);
+      if (reference instanceof BuildRegistry) {
+        return (BuildRegistry) reference;
+      }
+      BuildRegistry registry =
+          new BuildRegistry(NamespaceTable.getInstance(project));
+      project.addReference(REFERENCE_ID, registry);
+      return registry;
+    }
+  }
+
+  /**
+   * @return the namespace table of the project, in which the namespaces of
+   *     the source files returned by {@link #getLightweightSourceFiles(List,
+   *     int, SourceIndex)} are interned
+   */
+  public NamespaceTable getNamespaceTable() {
+    return this.namespaceTable;
+  }
+
+  /**
+   * Finds the files under {@code dir} that match the patterns of {@code
+   * walker}, reusing the result of a previous scan with an equal walker if
+   * the directory tree did not change. See {@link
+   * DirectoryWalker#findFiles(File)}.
+   *
+   * @param walker the directory walker
+   * @param dir the directory to scan
+   * @return the canonical paths of the matching files
+   * @throws IOException if a canonical path cannot be obtained
+   */
+  public List<String> findFiles(DirectoryWalker walker, File dir)
+      throws IOException {
+    return scan(walker, dir, false);
+  }
+
+  /**
+   * Finds the directories under {@code dir} that match the patterns of
+   * {@code walker}, reusing the result of a previous scan with an equal
+   * walker if the directory tree did not change. See {@link
+   * DirectoryWalker#findDirectories(File)}.
+   *
+   * @param walker the directory walker
+   * @param dir the directory to scan
+   * @return the canonical paths of the matching directories
+   * @throws IOException if a canonical path cannot be obtained
+   */
+  public List<String> findDirectories(DirectoryWalker walker, File dir)
+      throws IOException {
+    return scan(walker, dir, true);
+  }
+
+  /**
+   * Gets lightweight {@link JsClosureSourceFile} instances for the given
+   * files, reusing the instances created earlier in the build for files
+   * that did not change and scanning the others with {@link
+   * SourceFileFactory#newLightweightJsClosureSourceFiles(List, int,
+   * SourceIndex, NamespaceTable)}. The namespaces of the source files are
+   * interned in the namespace table of the project.
+   *
+   * @param files the underlying source files
+   * @param threads the maximum number of threads used to scan the files
+   * @param index the index of previously scanned files or {@code null} to
+   *     scan all files that are not in the registry
+   * @return a new list of {@link JsClosureSourceFile} instances in the same
+   *     order as {@code files}
+   * @throws IllegalArgumentException if {@code threads} is less than 1
+   * @throws IOException if a file cannot be read
+   * @throws NullPointerException if {@code files} is {@code null}
+   */
+  public List<JsClosureSourceFile> getLightweightSourceFiles(List<File> files,
+      int threads, SourceIndex index) throws IOException {
+    Preconditions.checkNotNull(files, "files was null");
+
+    List<JsClosureSourceFile> sources =
+        Lists.newArrayListWithCapacity(files.size());
+    List<File> misses = Lists.newArrayList();
+    List<Integer> missIndexes = Lists.newArrayList();
+    List<SourceEntry> missEntries = Lists.newArrayList();
+
+    for (File file : files) {
+      SourceEntry entry;
+      synchronized (this) {
+        entry = this.sourceFiles.get(file.getPath());
+      }
+      long length = file.length();
+      long lastModified = file.lastModified();
+      if (entry != null && entry.length == length
+          && entry.lastModified == lastModified) {
+        sources.add(entry.sourceFile);
+      } else {
+        // Record the size and last-modified time before the file is scanned
+        // so that a concurrent change causes the file to be rescanned.
+        missIndexes.add(sources.size());
+        misses.add(file);
+        missEntries.add(new SourceEntry(length, lastModified));
+        sources.add(null);
+      }
+    }
+
+    if (!misses.isEmpty()) {
+      List<JsClosureSourceFile> scanned =
+          SourceFileFactory.newLightweightJsClosureSourceFiles(misses,
+              threads, index, this.namespaceTable);
+      long now = System.currentTimeMillis();
+      synchronized (this) {
+        for (int i = 0; i < scanned.size(); i++) {
+          SourceEntry entry = missEntries.get(i);
+          entry.sourceFile = scanned.get(i);
+          sources.set(missIndexes.get(i), entry.sourceFile);
+          if (entry.lastModified + RACY_INTERVAL_MILLIS < now) {
+            this.sourceFiles.put(misses.get(i).getPath(), entry);
+          }
+        }
+      }
+    }
+    return sources;
+  }
+
+  /**
+   * Invalidates cached results affected by a file that was written, created
+   * or deleted: the scans of all directory trees that contain {@code file}
+   * and the cached source file for {@code file}. Tasks call this method for
+   * each file they write.
+   *
+   * @param file the file or directory that was modified
+   * @throws NullPointerException if {@code file} is {@code null}
+   */
+  public synchronized void invalidate(File file) {
+    Preconditions.checkNotNull(file, "file was null");
+
+    String path;
+    try {
+      path = file.getCanonicalPath();
+    } catch (IOException e) {
+      // Without a canonical path it is unknown which scans are affected.
+      this.scans.clear();
+      this.sourceFiles.clear();
+      return;
+    }
+    this.sourceFiles.remove(file.getPath());
+    this.sourceFiles.remove(file.getAbsolutePath());
+    this.sourceFiles.remove(path);
+
+    Iterator<ScanKey> keys = this.scans.keySet().iterator();
+    while (keys.hasNext()) {
+      String root = keys.next().canonicalDir;
+      if (path.equals(root) || path.startsWith(root + File.separator)
+          || root.startsWith(path + File.separator)) {
+        keys.remove();
+      }
+    }
+  }
+
+  private List<String> scan(DirectoryWalker walker, File dir,
+      boolean matchDirectories) throws IOException {
+    Preconditions.checkNotNull(walker, "walker was null");
+    Preconditions.checkNotNull(dir, "dir was null");
+
+    ScanKey key = new ScanKey(walker, dir.getCanonicalPath(),
+        matchDirectories);
+    Scan scan;
+    synchronized (this) {
+      scan = this.scans.get(key);
+    }
+    if (scan != null && scan.isUpToDate()) {
+      return scan.paths;
+    }
+
+    long scanTime = System.currentTimeMillis();
+    List<File> listedDirectories = Lists.newArrayList();
+    List<String> paths = matchDirectories
+        ? walker.findDirectories(dir, listedDirectories)
+        : walker.findFiles(dir, listedDirectories);
+    scan = new Scan(ImmutableList.copyOf(paths), listedDirectories);
+    if (scan.isCacheable(scanTime)) {
+      synchronized (this) {
+        this.scans.put(key, scan);
+      }
+    }
+    return scan.paths;
+  }
+
+
+  //----------------------------------------------------------------------------
+
+
+  private static final class ScanKey {
+    final DirectoryWalker walker;
+    final String canonicalDir;
+    final boolean matchDirectories;
+
+    ScanKey(DirectoryWalker walker, String canonicalDir,
+        boolean matchDirectories) {
+      this.walker = walker;
+      this.canonicalDir = canonicalDir;
+      this.matchDirectories = matchDirectories;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof ScanKey)) {
+        return false;
+      }
+      ScanKey other = (ScanKey) o;
+      return this.matchDirectories == other.matchDirectories
+          && this.canonicalDir.equals(other.canonicalDir)
+          && this.walker.equals(other.walker);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(this.walker, this.canonicalDir,
+          this.matchDirectories);
+    }
+  }
+
+  private static final class Scan {
+    final List<String> paths;
+    final List<File> directories;
+    final long[] lastModifiedTimes;
+
+    Scan(List<String> paths, List<File> directories) {
+      this.paths = paths;
+      this.directories = directories;
+      this.lastModifiedTimes = new long[directories.size()];
+      for (int i = 0; i < directories.size(); i++) {
+        this.lastModifiedTimes[i] = directories.get(i).lastModified();
+      }
+    }
+
+    /**
+     * A scan is only cacheable if no listed directory was modified within
+     * the racy interval before the scan, nor during the scan.
+     */
+    boolean isCacheable(long scanTime) {
+      for (long lastModified : this.lastModifiedTimes) {
+        if (lastModified == 0L
+            || lastModified + RACY_INTERVAL_MILLIS >= scanTime) {
+          return false;
+        }
+      }
+      return isUpToDate();
+    }
+
+    boolean isUpToDate() {
+      for (int i = 0; i < this.directories.size(); i++) {
+        if (this.directories.get(i).lastModified()
+            != this.lastModifiedTimes[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  private static final class SourceEntry {
+    final long length;
+    final long lastModified;
+    JsClosureSourceFile sourceFile;
+
+    SourceEntry(long length, long lastModified) {
+      this.length = length;
+      this.lastModified = lastModified;
+    }
+  }
+}
@@ -16,18 +16,37 @@
 
 package org.closureant.base;
 
+import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 
 import java.io.Serializable;
 import java.util.Collection;
 import java.util.List;
+import java.util.SortedSet;
+
+import javax.annotation.Nullable;
 
 /**
  * Object to store build settings related to a build process, such as the
  * command line and source files.
  *
+ * <p>Two builds are compared by the digests of their command lines and of
+ * their sets of sources (see {@link #getCommandLineOrConfigDigest()} and
+ * {@link #getSourcesDigest()}), which {@link #equals(Object)} also
+ * compares. The {@link BuildCache} only stores the digests, so the build
+ * settings that it returns do not have a command line or sources (see
+ * {@link #isDigestOnly()}).</p>
+ *
+ * <p>Build settings may also record the contents of the files of a build
+ * (see {@link #getContentDigests()}), so that the next build can tell
+ * whether a file whose last-modified time changed has different contents.
+ * The content digests are not part of the comparison of two builds.</p>
+ *
  * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
  */
 public final class BuildSettings implements Serializable {
@@ -38,6 +57,10 @@ public final class BuildSettings implements Serializable {
   private long buildTime;
   private String commandLineOrConfig;
   private final List<String> sources;
+  private final boolean digestOnly;
+  private String commandLineOrConfigDigest;
+  private String sourcesDigest;
+  private ContentDigests contentDigests;
 
   /**
    * Constructs an empty BuildSettings instance.
@@ -47,6 +70,7 @@ public final class BuildSettings implements Serializable {
     this.buildTime = System.currentTimeMillis();
     this.commandLineOrConfig = "";
     this.sources = Lists.newArrayList();
+    this.digestOnly = false;
   }
 
   /**
@@ -62,6 +86,36 @@ public final class BuildSettings implements Serializable {
     this.buildTime = System.currentTimeMillis();
     this.commandLineOrConfig = commandLineOrConfig;
     this.sources = Lists.newArrayList(sources);
+    this.digestOnly = false;
+  }
+
+  /**
+   * Constructs build settings that only have the digests of the command line
+   * and of the sources, as read from the {@link BuildCache}.
+   */
+  BuildSettings(boolean buildFailed, long buildTime,
+      String commandLineOrConfigDigest, String sourcesDigest) {
+    this.buildFailed = buildFailed;
+    this.buildTime = buildTime;
+    this.commandLineOrConfig = null;
+    this.sources = Lists.newArrayList();
+    this.digestOnly = true;
+    this.commandLineOrConfigDigest = Preconditions.checkNotNull(
+        commandLineOrConfigDigest, "commandLineOrConfigDigest was null");
+    this.sourcesDigest = Preconditions.checkNotNull(sourcesDigest,
+        "sourcesDigest was null");
+  }
+
+  /**
+   * Whether these build settings only have the digests of the command line
+   * and of the sources, which is the case for build settings read from the
+   * {@link BuildCache}.
+   *
+   * @return {@code true} if the command line and the sources are not
+   *     available
+   */
+  public boolean isDigestOnly() {
+    return this.digestOnly;
   }
 
   /**
@@ -104,11 +158,27 @@ public final class BuildSettings implements Serializable {
    * Get the command line string.
    *
    * @return the command line
+   * @throws IllegalStateException if these build settings only have digests
    */
   public String getCommandLineOrConfig() {
+    checkNotDigestOnly();
     return this.commandLineOrConfig;
   }
 
+  /**
+   * Gets the digest of the command line string.
+   *
+   * @return the MD5 digest of the command line as a hexadecimal string
+   */
+  public String getCommandLineOrConfigDigest() {
+    if (this.commandLineOrConfigDigest == null) {
+      this.commandLineOrConfigDigest = Hashing.md5().newHasher()
+          .putBytes(this.commandLineOrConfig.getBytes(Charsets.UTF_8))
+          .hash().toString();
+    }
+    return this.commandLineOrConfigDigest;
+  }
+
   /**
    * Set the command line string.
    *
@@ -116,19 +186,44 @@ public final class BuildSettings implements Serializable {
    * @throws NullPointerException if {@code commandLineOrConfig} is {@code null}
    */
   public void setCommandLineOrConfig(String commandLineOrConfig) {
-    Preconditions.checkNotNull(sources, "commandLineOrConfig was null");
+    Preconditions.checkNotNull(commandLineOrConfig,
+        "commandLineOrConfig was null");
+    checkNotDigestOnly();
     this.commandLineOrConfig = commandLineOrConfig;
+    this.commandLineOrConfigDigest = null;
   }
 
   /**
    * Gets an immutable list of the build sources.
    *
    * @return a list of the build sources
+   * @throws IllegalStateException if these build settings only have digests
    */
   public ImmutableList<String> getSources() {
+    checkNotDigestOnly();
     return ImmutableList.copyOf(this.sources);
   }
 
+  /**
+   * Gets the digest of the set of build sources, which does not depend on
+   * the order of the sources or on duplicates.
+   *
+   * @return the MD5 digest of the sorted, distinct source paths as a
+   *     hexadecimal string
+   */
+  public String getSourcesDigest() {
+    if (this.sourcesDigest == null) {
+      SortedSet<String> sortedSources = Sets.newTreeSet(this.sources);
+      Hasher hasher = Hashing.md5().newHasher();
+      for (String source : sortedSources) {
+        hasher.putBytes(source.getBytes(Charsets.UTF_8));
+        hasher.putByte((byte) 0);
+      }
+      this.sourcesDigest = hasher.hash().toString();
+    }
+    return this.sourcesDigest;
+  }
+
   /**
    * Adds a source path to the build sources.
    *
@@ -137,7 +232,9 @@ public final class BuildSettings implements Serializable {
    */
   public void addSource(String source) {
     Preconditions.checkNotNull(source, "source was null");
+    checkNotDigestOnly();
     this.sources.add(source);
+    this.sourcesDigest = null;
   }
 
   /**
@@ -148,7 +245,34 @@ public final class BuildSettings implements Serializable {
    */
   public void addAllSources(Collection<String> sources) {
     Preconditions.checkNotNull(sources, "sources was null");
+    checkNotDigestOnly();
     this.sources.addAll(sources);
+    this.sourcesDigest = null;
+  }
+
+  /**
+   * Gets the recorded contents of the files of the build.
+   *
+   * @return the content digests or {@code null} if the contents of the
+   *     files were not recorded
+   */
+  public @Nullable ContentDigests getContentDigests() {
+    return this.contentDigests;
+  }
+
+  /**
+   * Sets the recorded contents of the files of the build.
+   *
+   * @param contentDigests the content digests or {@code null} to not record
+   *     the contents of the files
+   */
+  public void setContentDigests(@Nullable ContentDigests contentDigests) {
+    this.contentDigests = contentDigests;
+  }
+
+  private void checkNotDigestOnly() {
+    Preconditions.checkState(!this.digestOnly, "the build settings only "
+        + "have the digests of the command line and the sources");
   }
 
   @Override
@@ -168,22 +292,18 @@ public final class BuildSettings implements Serializable {
     if (buildTime != that.buildTime) {
       return false;
     }
-    if (!commandLineOrConfig.equals(that.commandLineOrConfig)) {
-      return false;
-    }
-    if (!sources.equals(that.sources)) {
-      return false;
-    }
-
-    return true;
+    // Build settings are compared by their digests, whether or not they only
+    // have digests, so that equality is transitive.
+    return getCommandLineOrConfigDigest().equals(
+        that.getCommandLineOrConfigDigest())
+        && getSourcesDigest().equals(that.getSourcesDigest());
   }
 
   @Override
   public int hashCode() {
     int result = (buildFailed ? 1 : 0);
     result = 31 * result + (int) (buildTime ^ (buildTime >>> 32));
-    result = 31 * result + commandLineOrConfig.hashCode();
-    result = 31 * result + sources.hashCode();
+    result = 31 * result + getCommandLineOrConfigDigest().hashCode();
     return result;
   }
 }
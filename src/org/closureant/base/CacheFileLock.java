@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant.base;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+
+/**
+ * Utilities to update a cache file atomically while holding a lock on a lock
+ * file next to it, so that threads of the same Java virtual machine and
+ * separate processes never see a partially written cache file. Used by
+ * {@link BuildCache} and {@link SourceIndex}.
+ *
+ * <p>A file lock is held on behalf of the whole Java virtual machine, so the
+ * threads of the virtual machine first synchronize on the monitor returned
+ * by {@link #getMonitor(File)} and then call {@link #lock(File)}.</p>
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ */
+final class CacheFileLock {
+  private CacheFileLock() {}
+
+  // Weak, so that the monitors of lock files that no thread is using are
+  // garbage collected.
+  private static final Interner<File> lockMonitors =
+      Interners.newWeakInterner();
+
+  /**
+   * Gets the monitor on which the threads of this Java virtual machine
+   * synchronize before locking {@code lockFile}. The monitor is the same for
+   * equal lock files as long as a thread holds on to it.
+   *
+   * @param lockFile the lock file
+   * @return the monitor for {@code lockFile}
+   */
+  static Object getMonitor(File lockFile) {
+    return lockMonitors.intern(lockFile);
+  }
+
+  /**
+   * Locks the lock file, waiting until other processes release it.
+   *
+   * @param lockFile the lock file, which is created if it does not exist
+   * @return the lock
+   * @throws IOException if the lock file cannot be locked
+   */
+  static FileLock lock(File lockFile) throws IOException {
+    RandomAccessFile file = new RandomAccessFile(lockFile, "rw");
+    try {
+      return file.getChannel().lock();
+    } catch (IOException e) {
+      try {
+        file.close();
+      } catch (IOException e2) {
+        // nothing to see here
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Locks the lock file unless another process or another thread of this
+   * Java virtual machine holds it.
+   *
+   * @param lockFile the lock file, which is created if it does not exist
+   * @return the lock, or {@code null} if the lock file is held
+   * @throws IOException if the lock file cannot be locked
+   */
+  static FileLock tryLock(File lockFile) throws IOException {
+    RandomAccessFile file = new RandomAccessFile(lockFile, "rw");
+    FileLock lock = null;
+    try {
+      lock = file.getChannel().tryLock();
+      return lock;
+    } catch (OverlappingFileLockException e) {
+      return null;
+    } finally {
+      if (lock == null) {
+        try {
+          file.close();
+        } catch (IOException e) {
+          // nothing to see here
+        }
+      }
+    }
+  }
+
+  /**
+   * Releases a lock returned by {@link #lock(File)} or {@link
+   * #tryLock(File)}.
+   *
+   * @param lock the lock to release
+   */
+  static void release(FileLock lock) {
+    try {
+      // Closing the channel releases the lock.
+      lock.channel().close();
+    } catch (IOException e) {
+      // nothing to see here
+    }
+  }
+
+  /**
+   * Replaces {@code target} with {@code tempFile}.
+   *
+   * @param tempFile the temporary file with the new content
+   * @param target the file to replace
+   * @throws IOException if {@code target} cannot be replaced
+   */
+  static void replace(File tempFile, File target) throws IOException {
+    if (!tempFile.renameTo(target)) {
+      // On Windows, renameTo() fails if the target exists.
+      target.delete();
+      if (!tempFile.renameTo(target)) {
+        throw new IOException("Unable to replace file \""
+            + target.getAbsolutePath() + "\"");
+      }
+    }
+  }
+}
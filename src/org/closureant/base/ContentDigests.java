@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant.base;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * The sizes, last-modified times and content digests of the files of a
+ * build, recorded so that the next build can tell whether a file whose
+ * last-modified time changed, for example because of a {@code git checkout}
+ * or a restored CI cache, still has the same contents. The size and
+ * last-modified time serve as a pre-filter: a file whose size and
+ * last-modified time match the record is unchanged without being read, and
+ * a file whose size differs is changed without being read. Only the other
+ * files are read and compared by their MD5 digests.
+ *
+ * <p>Files are identified by the digests of their paths, so that the
+ * records stored in the {@link BuildCache} stay small.</p>
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ */
+public final class ContentDigests implements Serializable {
+
+  private static final long serialVersionUID = 42L;
+
+  private final Map<String, Entry> entries;
+
+  /**
+   * Constructs an empty record.
+   */
+  public ContentDigests() {
+    this.entries = Maps.newHashMap();
+  }
+
+  /** @return the number of recorded files */
+  public int size() {
+    return this.entries.size();
+  }
+
+  /**
+   * Records the current size, last-modified time and content digest of a
+   * file. If {@code previous} has a record of the file with the same size
+   * and last-modified time, its digest is reused without reading the file.
+   * Files that do not exist are not recorded.
+   *
+   * @param path the path of the file
+   * @param previous the record of the previous build, or {@code null}
+   * @return this record
+   * @throws IOException if the file cannot be read
+   */
+  public ContentDigests put(String path, @Nullable ContentDigests previous)
+      throws IOException {
+    File file = new File(path);
+    if (!file.isFile()) {
+      return this;
+    }
+    String key = getKey(path);
+    long length = file.length();
+    long lastModified = file.lastModified();
+    Entry entry = (previous != null) ? previous.entries.get(key) : null;
+    if (entry == null || entry.length != length
+        || entry.lastModified != lastModified) {
+      entry = new Entry(length, lastModified,
+          Files.hash(file, Hashing.md5()).toString());
+    }
+    this.entries.put(key, entry);
+    return this;
+  }
+
+  /**
+   * Determines if a file has the contents recorded for it.
+   *
+   * @param path the path of the file
+   * @return {@code true} if the file was recorded and has the same contents,
+   *     {@code false} if it was not recorded, no longer exists or has
+   *     different contents
+   * @throws IOException if the file cannot be read
+   */
+  public boolean isUnchanged(String path) throws IOException {
+    Entry entry = this.entries.get(getKey(path));
+    File file = new File(path);
+    if (entry == null || !file.isFile() || file.length() != entry.length) {
+      return false;
+    }
+    if (file.lastModified() == entry.lastModified) {
+      return true;
+    }
+    return Files.hash(file, Hashing.md5()).toString().equals(entry.md5);
+  }
+
+  private static String getKey(String path) {
+    Preconditions.checkNotNull(path, "path was null");
+    return Hashing.md5().hashBytes(path.getBytes(Charsets.UTF_8)).toString();
+  }
+
+  void write(DataOutput out) throws IOException {
+    out.writeInt(this.entries.size());
+    for (Map.Entry<String, Entry> entry : this.entries.entrySet()) {
+      out.writeUTF(entry.getKey());
+      out.writeLong(entry.getValue().length);
+      out.writeLong(entry.getValue().lastModified);
+      out.writeUTF(entry.getValue().md5);
+    }
+  }
+
+  static ContentDigests read(DataInput in) throws IOException {
+    ContentDigests digests = new ContentDigests();
+    int count = in.readInt();
+    for (int i = 0; i < count; i++) {
+      String key = in.readUTF();
+      long length = in.readLong();
+      long lastModified = in.readLong();
+      String md5 = in.readUTF();
+      digests.entries.put(key, new Entry(length, lastModified, md5));
+    }
+    return digests;
+  }
+
+  //----------------------------------------------------------------------------
+
+  /** The recorded size, last-modified time and digest of a file. */
+  private static final class Entry implements Serializable {
+    private static final long serialVersionUID = 42L;
+
+    final long length;
+    final long lastModified;
+    final String md5;
+
+    Entry(long length, long lastModified, String md5) {
+      this.length = length;
+      this.lastModified = lastModified;
+      this.md5 = md5;
+    }
+  }
+}
@@ -0,0 +1,454 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant.base;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * An {@link ArtifactStorage} in a directory, which may be local to a
+ * workspace or on a file system shared by several build machines, such as an
+ * NFS export or a mounted volume.
+ *
+ * <p>Each entry is a directory named after its key, with one file per output
+ * named after the role of the output and a digest file that records the
+ * length and MD5 digest of each output. An entry is written to a temporary
+ * directory that is then renamed, so concurrent writers never see each
+ * other's partially written entries. On restore, every output is copied to a
+ * temporary file next to its destination and checked against the digest
+ * file; only if all of the outputs are intact do the temporary files replace
+ * the destinations. An entry that fails the check is evicted. The previous
+ * destinations are moved aside while they are replaced and moved back if
+ * one of them cannot be replaced, so that a failed restore leaves the
+ * previous outputs.</p>
+ *
+ * <p>The last-modified time of an entry is updated whenever it is stored or
+ * restored. If the storage has a maximum size, storing an entry evicts the
+ * least recently used entries until the total size of the entries is within
+ * the maximum. Evicted entries are renamed before they are deleted, so that
+ * an entry being evicted is never mistaken for an intact entry.</p>
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ */
+public final class DirectoryArtifactStorage implements ArtifactStorage {
+
+  /**
+   * The default maximum total size in bytes of the entries of the artifact
+   * cache of an Ant project. See {@link BuildCache#getArtifactCache()}.
+   */
+  public static final long DEFAULT_MAX_BYTES = 1024L * 1024L * 1024L;
+
+  private static final Pattern ROLE = Pattern.compile("[A-Za-z0-9_\\-]+");
+  private static final Pattern KEY = Pattern.compile("[0-9a-f]+");
+  // Not a valid role, so that it never collides with an output.
+  private static final String DIGEST_FILE_NAME = ".digests";
+  private static final int MAGIC = 0x434C4144;  // "CLAD"
+  private static final int VERSION = 1;
+
+  /**
+   * Temporary directories of writers that crashed are deleted after this
+   * interval.
+   */
+  private static final long STALE_TEMP_DIRECTORY_MILLIS = 60L * 60L * 1000L;
+
+  private final File directory;
+  private final long maxBytes;
+
+  /**
+   * Constructs a storage in {@code directory} without a maximum size. The
+   * directory is created when the first entry is stored.
+   *
+   * @param directory the directory of the storage
+   */
+  public DirectoryArtifactStorage(File directory) {
+    this(directory, 0);
+  }
+
+  /**
+   * Constructs a storage in {@code directory}. The directory is created when
+   * the first entry is stored.
+   *
+   * @param directory the directory of the storage
+   * @param maxBytes the maximum total size in bytes of the entries, or 0 for
+   *     no maximum
+   * @throws IllegalArgumentException if {@code maxBytes} is negative
+   */
+  public DirectoryArtifactStorage(File directory, long maxBytes) {
+    this.directory = Preconditions.checkNotNull(directory,
+        "directory was null");
+    Preconditions.checkArgument(maxBytes >= 0,
+        "maxBytes expected to be non-negative but was %s", maxBytes);
+    this.maxBytes = maxBytes;
+  }
+
+  /** @return the directory of the storage */
+  public File getDirectory() {
+    return this.directory;
+  }
+
+  /** @return the maximum total size in bytes, or 0 for no maximum */
+  public long getMaxBytes() {
+    return this.maxBytes;
+  }
+
+  @Override
+  public boolean contains(String key, Iterable<String> roles) {
+    Map<String, Digest> digests = readDigests(getEntry(key));
+    if (digests == null) {
+      return false;
+    }
+    for (String role : roles) {
+      if (!digests.containsKey(checkRole(role))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public boolean restore(String key, Map<String, File> outputs)
+      throws IOException {
+    File entry = getEntry(key);
+    Map<String, Digest> digests = readDigests(entry);
+    if (digests == null) {
+      return false;
+    }
+    for (String role : outputs.keySet()) {
+      if (!digests.containsKey(checkRole(role))) {
+        return false;
+      }
+    }
+
+    Map<File, File> tempFiles = Maps.newLinkedHashMap();
+    try {
+      for (Map.Entry<String, File> output : outputs.entrySet()) {
+        File destination = output.getValue().getAbsoluteFile();
+        File parent = destination.getParentFile();
+        if (parent != null) {
+          parent.mkdirs();
+        }
+        File tempFile = File.createTempFile(destination.getName(), ".tmp",
+            parent);
+        tempFiles.put(tempFile, destination);
+        try {
+          Files.copy(new File(entry, output.getKey()), tempFile);
+        } catch (IOException e) {
+          // The entry was evicted while it was being read.
+          return false;
+        }
+        if (!digests.get(output.getKey()).matches(tempFile)) {
+          evict(entry);
+          return false;
+        }
+      }
+      replaceAll(tempFiles);
+    } finally {
+      for (File tempFile : tempFiles.keySet()) {
+        tempFile.delete();
+      }
+    }
+    entry.setLastModified(System.currentTimeMillis());
+    return true;
+  }
+
+  @Override
+  public void store(String key, Map<String, File> outputs)
+      throws IOException {
+    File entry = getEntry(key);
+    if (contains(key, outputs.keySet())) {
+      entry.setLastModified(System.currentTimeMillis());
+      return;
+    }
+    this.directory.mkdirs();
+    File tempDirectory = File.createTempFile(key, ".tmp", this.directory);
+    try {
+      if (!tempDirectory.delete() || !tempDirectory.mkdir()) {
+        throw new IOException("Unable to create directory \""
+            + tempDirectory.getAbsolutePath() + "\"");
+      }
+      Map<String, Digest> digests = Maps.newLinkedHashMap();
+      for (Map.Entry<String, File> output : outputs.entrySet()) {
+        File file = new File(tempDirectory, checkRole(output.getKey()));
+        Files.copy(output.getValue(), file);
+        digests.put(output.getKey(), Digest.of(file));
+      }
+      writeDigests(digests, new File(tempDirectory, DIGEST_FILE_NAME));
+      if (!tempDirectory.renameTo(entry)) {
+        // An incomplete entry is replaced; a complete entry stored
+        // concurrently by another writer is kept.
+        if (contains(key, outputs.keySet())) {
+          return;
+        }
+        evict(entry);
+        if (!tempDirectory.renameTo(entry)) {
+          throw new IOException("Unable to store cache entry \""
+              + entry.getAbsolutePath() + "\"");
+        }
+      }
+    } finally {
+      delete(tempDirectory);
+    }
+    if (this.maxBytes > 0) {
+      evictLeastRecentlyUsed(key);
+    }
+  }
+
+  /**
+   * Evicts the least recently used entries, other than the entry for {@code
+   * keptKey}, until the total size of the entries is at most {@link
+   * #maxBytes}. Also deletes temporary directories left behind by writers
+   * that crashed.
+   *
+   * @param keptKey the key of the entry that was just stored
+   */
+  private void evictLeastRecentlyUsed(String keptKey) {
+    File[] files = this.directory.listFiles();
+    if (files == null) {
+      return;
+    }
+    final Map<File, Long> lastModified = Maps.newHashMap();
+    List<File> entries = Lists.newArrayList();
+    long totalBytes = 0;
+    long now = System.currentTimeMillis();
+    for (File file : files) {
+      if (KEY.matcher(file.getName()).matches()) {
+        lastModified.put(file, file.lastModified());
+        entries.add(file);
+        totalBytes += getSize(file);
+      } else if (file.lastModified() < now - STALE_TEMP_DIRECTORY_MILLIS) {
+        delete(file);
+      }
+    }
+    Collections.sort(entries, new Comparator<File>() {
+      @Override public int compare(File a, File b) {
+        return lastModified.get(a).compareTo(lastModified.get(b));
+      }
+    });
+    for (File entry : entries) {
+      if (totalBytes <= this.maxBytes) {
+        break;
+      }
+      if (!entry.getName().equals(keptKey)) {
+        totalBytes -= getSize(entry);
+        evict(entry);
+      }
+    }
+  }
+
+  /**
+   * Renames an entry, so that it is no longer found, and deletes it.
+   *
+   * @param entry the entry
+   */
+  private void evict(File entry) {
+    File evicted = new File(this.directory, entry.getName() + "."
+        + System.nanoTime() + ".evicted");
+    if (entry.renameTo(evicted)) {
+      delete(evicted);
+    } else {
+      delete(entry);
+    }
+  }
+
+  private File getEntry(String key) {
+    Preconditions.checkArgument(KEY.matcher(key).matches(),
+        "invalid key: %s", key);
+    return new File(this.directory, key);
+  }
+
+  private static String checkRole(String role) {
+    Preconditions.checkArgument(ROLE.matcher(role).matches(),
+        "invalid output role: %s", role);
+    return role;
+  }
+
+  private static long getSize(File entry) {
+    long size = 0;
+    File[] files = entry.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        size += file.length();
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Replaces the destinations with the temporary files. Each existing
+   * destination is first moved to a backup file next to it. If a destination
+   * cannot be replaced, the destinations already replaced are restored from
+   * their backups, so either all of the destinations are replaced or none of
+   * them.
+   *
+   * @param tempFiles map from each temporary file to its destination
+   * @throws IOException if a destination cannot be replaced
+   */
+  private static void replaceAll(Map<File, File> tempFiles)
+      throws IOException {
+    // Map from each destination moved aside or replaced to its backup, or
+    // to null if it did not exist.
+    Map<File, File> backups = Maps.newLinkedHashMap();
+    boolean replaced = false;
+    try {
+      for (Map.Entry<File, File> tempFile : tempFiles.entrySet()) {
+        File destination = tempFile.getValue();
+        File backup = null;
+        if (destination.exists()) {
+          backup = File.createTempFile(destination.getName(), ".bak",
+              destination.getParentFile());
+          // On Windows, renameTo() fails if the target exists.
+          backup.delete();
+          if (!destination.renameTo(backup)) {
+            throw new IOException("Unable to replace file \""
+                + destination.getAbsolutePath() + "\"");
+          }
+        }
+        backups.put(destination, backup);
+        if (!tempFile.getKey().renameTo(destination)) {
+          throw new IOException("Unable to replace file \""
+              + destination.getAbsolutePath() + "\"");
+        }
+      }
+      replaced = true;
+    } finally {
+      for (Map.Entry<File, File> backup : backups.entrySet()) {
+        if (replaced) {
+          if (backup.getValue() != null) {
+            backup.getValue().delete();
+          }
+        } else {
+          backup.getKey().delete();
+          if (backup.getValue() != null) {
+            backup.getValue().renameTo(backup.getKey());
+          }
+        }
+      }
+    }
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+  /**
+   * Reads the digest file of an entry.
+   *
+   * @param entry the entry
+   * @return map from the role of each output to its digest, or {@code null}
+   *     if the entry does not exist or its digest file is missing, corrupt,
+   *     or has a different version
+   */
+  private static Map<String, Digest> readDigests(File entry) {
+    File file = new File(entry, DIGEST_FILE_NAME);
+    if (!file.isFile()) {
+      return null;
+    }
+
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new BufferedInputStream(
+          new FileInputStream(file)));
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        return null;
+      }
+      int count = in.readInt();
+      Map<String, Digest> digests = Maps.newLinkedHashMap();
+      for (int i = 0; i < count; i++) {
+        String role = in.readUTF();
+        long length = in.readLong();
+        String md5 = in.readUTF();
+        digests.put(role, new Digest(length, md5));
+      }
+      if (in.read() != -1) {
+        return null;
+      }
+      return digests;
+    } catch (IOException e) {
+      return null;
+    } finally {
+      try {
+        if (in != null) in.close();
+      } catch (IOException e) {
+        // nothing to see here
+      }
+    }
+  }
+
+  private static void writeDigests(Map<String, Digest> digests, File file)
+      throws IOException {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(file)));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(digests.size());
+      for (Map.Entry<String, Digest> digest : digests.entrySet()) {
+        out.writeUTF(digest.getKey());
+        out.writeLong(digest.getValue().length);
+        out.writeUTF(digest.getValue().md5);
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  //----------------------------------------------------------------------------
+
+  /** The length and MD5 digest of an output. */
+  private static final class Digest {
+    final long length;
+    final String md5;
+
+    Digest(long length, String md5) {
+      this.length = length;
+      this.md5 = md5;
+    }
+
+    static Digest of(File file) throws IOException {
+      return new Digest(file.length(),
+          Files.hash(file, Hashing.md5()).toString());
+    }
+
+    boolean matches(File file) throws IOException {
+      return file.length() == this.length
+          && Files.hash(file, Hashing.md5()).toString().equals(this.md5);
+    }
+  }
+}
@@ -0,0 +1,537 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant.base;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Byte-level scanner that extracts the {@code goog.provided} and {@code
+ * goog.required} namespaces from the header of a JavaScript source file and
+ * determines if the file is the Closure Library's base.js.
+ *
+ * <p>The header is the region at the top of a file consisting of blank
+ * lines, comments, and dependency statements such as {@code goog.provide()},
+ * {@code goog.require()}, and {@code goog.setTestOnly()}. Scanning stops at
+ * the first line of code that is not a dependency statement, so only the
+ * first few kilobytes of large files are read. The file is read through a
+ * small buffer without creating a {@link String} per line. Files named
+ * "base.js" are scanned in full, since the base.js marker line follows code
+ * and base.js must be verified not to provide or require namespaces.</p>
+ *
+ * <p>Optionally, a digest of the entire content is computed in the same
+ * pass. Once the end of the header is reached, the remaining bytes are fed
+ * to the digest without being split into lines.</p>
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ */
+public final class JsClosureHeaderScanner {
+  private JsClosureHeaderScanner() {}
+
+  private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+  private static final HashFunction DIGEST_FUNCTION = Hashing.md5();
+
+  private static final byte[] GOOG_BASE_LINE = ascii("var goog = goog || {}; "
+      + "// Identifies this file as the Closure base.");
+  private static final byte[] GOOG_PROVIDE = ascii("goog.provide(");
+  private static final byte[] GOOG_REQUIRE = ascii("goog.require(");
+
+  // Statements other than goog.provide/goog.require that may appear in the
+  // header without ending it.
+  private static final byte[][] OTHER_HEADER_STATEMENTS = {
+      ascii("goog.module("),
+      ascii("goog.module.declareLegacyNamespace("),
+      ascii("goog.setTestOnly("),
+      ascii("goog.forwardDeclare("),
+      ascii("goog.requireType("),
+      ascii("'use strict'"),
+      ascii("\"use strict\""),
+  };
+
+  /**
+   * Scans the header of a JavaScript source file.
+   *
+   * @param file the JavaScript source file
+   * @return the namespaces provided and required by {@code file}
+   * @throws IOException if {@code file} cannot be read
+   * @throws NullPointerException if {@code file} is {@code null}
+   */
+  public static Header scan(File file) throws IOException {
+    return scan(file, false);
+  }
+
+  /**
+   * Scans the header of a JavaScript source file and computes a digest of
+   * the entire file content.
+   *
+   * @param file the JavaScript source file
+   * @return the namespaces provided and required by {@code file} along with
+   *     the content digest
+   * @throws IOException if {@code file} cannot be read
+   * @throws NullPointerException if {@code file} is {@code null}
+   */
+  public static Header scanAndDigest(File file) throws IOException {
+    return scan(file, true);
+  }
+
+  /**
+   * Scans an entire JavaScript source file rather than only its header, so
+   * that {@code goog.provide()} and {@code goog.require()} statements that
+   * follow code are found as well. This reads the whole file.
+   *
+   * @param file the JavaScript source file
+   * @return the namespaces provided and required anywhere in {@code file}
+   * @throws IOException if {@code file} cannot be read
+   * @throws NullPointerException if {@code file} is {@code null}
+   */
+  public static Header scanEntireFile(File file) throws IOException {
+    Preconditions.checkNotNull(file, "file was null");
+    return scan(file, true, false);
+  }
+
+  private static Header scan(File file, boolean computeDigest)
+      throws IOException {
+    Preconditions.checkNotNull(file, "file was null");
+    return scan(file, isNamedBaseJs(file.getName()), computeDigest);
+  }
+
+  private static Header scan(File file, boolean scanEntireFile,
+      boolean computeDigest) throws IOException {
+    LineScanner scanner = new LineScanner(scanEntireFile, computeDigest);
+    FileInputStream in = new FileInputStream(file);
+    try {
+      scanner.scan(in.getChannel());
+    } finally {
+      in.close();
+    }
+    return scanner.toHeader();
+  }
+
+  /**
+   * Scans the header of JavaScript source code.
+   *
+   * @param fileName the name of the source file or {@code null} if unknown.
+   *     If the name is unknown, the code is scanned in full for the base.js
+   *     marker line.
+   * @param code the JavaScript source code
+   * @return the namespaces provided and required by {@code code}
+   * @throws NullPointerException if {@code code} is {@code null}
+   */
+  public static Header scan(String fileName, String code) {
+    return scan(fileName, code, false);
+  }
+
+  /**
+   * Scans the header of JavaScript source code and computes a digest of the
+   * UTF-8 encoded code.
+   *
+   * @param fileName the name of the source file or {@code null} if unknown
+   * @param code the JavaScript source code
+   * @return the namespaces provided and required by {@code code} along with
+   *     the content digest
+   * @throws NullPointerException if {@code code} is {@code null}
+   */
+  public static Header scanAndDigest(String fileName, String code) {
+    return scan(fileName, code, true);
+  }
+
+  private static Header scan(String fileName, String code,
+      boolean computeDigest) {
+    Preconditions.checkNotNull(code, "code was null");
+    return scan(fileName, code.getBytes(Charsets.UTF_8), computeDigest);
+  }
+
+  /**
+   * Scans the header of UTF-8 encoded JavaScript source code and computes a
+   * digest of the content. The digest equals the digest computed by {@link
+   * #scanAndDigest(File)} for a file with the same content.
+   *
+   * @param fileName the name of the source file or {@code null} if unknown
+   * @param content the UTF-8 encoded JavaScript source code
+   * @return the namespaces provided and required by {@code content} along
+   *     with the content digest
+   * @throws NullPointerException if {@code content} is {@code null}
+   */
+  public static Header scanAndDigest(String fileName, byte[] content) {
+    Preconditions.checkNotNull(content, "content was null");
+    return scan(fileName, content, true);
+  }
+
+  private static Header scan(String fileName, byte[] content,
+      boolean computeDigest) {
+    LineScanner scanner = new LineScanner(
+        fileName == null || isNamedBaseJs(fileName), computeDigest);
+    try {
+      scanner.scan(Channels.newChannel(new ByteArrayInputStream(content)));
+    } catch (IOException e) {
+      // Reading from a byte array does not throw IOException.
+      throw new IllegalStateException(e);
+    }
+    return scanner.toHeader();
+  }
+
+  /**
+   * Computes the digest of file content using the same hash function as
+   * {@link #scanAndDigest(File)}.
+   *
+   * @param content the file content
+   * @return the content digest as a string of hexadecimal digits
+   */
+  public static String digest(byte[] content) {
+    return DIGEST_FUNCTION.hashBytes(content).toString();
+  }
+
+  private static boolean isNamedBaseJs(String fileName) {
+    return "base.js".equalsIgnoreCase(fileName);
+  }
+
+  private static byte[] ascii(String s) {
+    return s.getBytes(Charsets.US_ASCII);
+  }
+
+
+  //----------------------------------------------------------------------------
+
+
+  /**
+   * The result of scanning a JavaScript source file header.
+   */
+  public static final class Header {
+    private final ImmutableList<String> provides;
+    private final ImmutableList<String> requires;
+    private final boolean hasBaseJsMarker;
+    private final String digest;
+
+    Header(List<String> provides, List<String> requires,
+        boolean hasBaseJsMarker, String digest) {
+      this.provides = ImmutableList.copyOf(provides);
+      this.requires = ImmutableList.copyOf(requires);
+      this.hasBaseJsMarker = hasBaseJsMarker;
+      this.digest = digest;
+    }
+
+    /**
+     * The digest of the entire content as a string of hexadecimal digits.
+     *
+     * @return the content digest or {@code null} if the source was scanned
+     *     without computing a digest
+     */
+    public String getDigest() {
+      return this.digest;
+    }
+
+    /**
+     * The {@code goog.provided} namespaces in the order they were found.
+     *
+     * @return the provided namespaces
+     */
+    public ImmutableList<String> getProvides() {
+      return this.provides;
+    }
+
+    /**
+     * The {@code goog.required} namespaces in the order they were found.
+     *
+     * @return the required namespaces
+     */
+    public ImmutableList<String> getRequires() {
+      return this.requires;
+    }
+
+    /**
+     * Whether the source contains the line that identifies the Closure
+     * Library's base.js. Note that the file name is not considered.
+     *
+     * @return {@code true} if the base.js marker line was found
+     */
+    public boolean hasBaseJsMarker() {
+      return this.hasBaseJsMarker;
+    }
+  }
+
+  /**
+   * Splits a byte channel into lines and scans each line until the end of
+   * the header is reached.
+   */
+  private static final class LineScanner {
+    private final boolean scanEntireFile;
+    private final List<String> provides;
+    private final List<String> requires;
+    private boolean hasBaseJsMarker;
+    private boolean inBlockComment;
+    private final Hasher hasher;
+
+    LineScanner(boolean scanEntireFile, boolean computeDigest) {
+      this.scanEntireFile = scanEntireFile;
+      this.hasher = computeDigest ? DIGEST_FUNCTION.newHasher() : null;
+      this.provides = Lists.newArrayList();
+      this.requires = Lists.newArrayList();
+      this.hasBaseJsMarker = false;
+      this.inBlockComment = false;
+    }
+
+    Header toHeader() {
+      return new Header(this.provides, this.requires, this.hasBaseJsMarker,
+          (this.hasher != null) ? this.hasher.hash().toString() : null);
+    }
+
+    /**
+     * Reads lines from {@code channel} until the end of the header or the
+     * end of the input. If a digest is being computed, the rest of the input
+     * is then read into the digest.
+     */
+    void scan(ReadableByteChannel channel) throws IOException {
+      byte[] buf = new byte[INITIAL_BUFFER_SIZE];
+      boolean eof = scanLines(channel, buf);
+      if (this.hasher != null && !eof) {
+        while (fill(channel, buf, 0) >= 0) {
+          // The bytes are added to the digest by fill().
+        }
+      }
+    }
+
+    /**
+     * Scans lines from {@code channel} until the end of the header.
+     *
+     * @return {@code true} if the end of the input was reached
+     */
+    private boolean scanLines(ReadableByteChannel channel, byte[] buf)
+        throws IOException {
+      int len = 0;  // Number of valid bytes in buf.
+      int pos = 0;  // Start of the current line.
+      boolean eof = false;
+
+      len = fill(channel, buf, len);
+      if (len < 0) {
+        return true;
+      }
+      // Skip the UTF-8 byte order mark.
+      if (len >= 3 && buf[0] == (byte) 0xEF && buf[1] == (byte) 0xBB
+          && buf[2] == (byte) 0xBF) {
+        pos = 3;
+      }
+
+      while (true) {
+        int lineEnd = indexOfLineTerminator(buf, pos, len);
+        if (lineEnd < 0) {
+          if (eof) {
+            if (pos < len) {
+              processLine(buf, pos, len);
+            }
+            return true;
+          }
+          // Move the partial line to the front of the buffer and read more.
+          if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, len - pos);
+            len -= pos;
+            pos = 0;
+          }
+          if (len == buf.length) {
+            buf = Arrays.copyOf(buf, buf.length * 2);
+          }
+          int newLen = fill(channel, buf, len);
+          if (newLen < 0) {
+            eof = true;
+          } else {
+            len = newLen;
+          }
+          continue;
+        }
+
+        if (!processLine(buf, pos, lineEnd)) {
+          return false;
+        }
+        pos = lineEnd + 1;
+        if (buf[lineEnd] == '\r' && pos < len && buf[pos] == '\n') {
+          pos++;
+        }
+      }
+    }
+
+    /**
+     * Scans a single line.
+     *
+     * @return {@code false} if the end of the header has been reached
+     */
+    private boolean processLine(byte[] buf, int start, int end) {
+      end = trimTrailingWhitespace(buf, start, end);
+      int i = skipWhitespace(buf, start, end);
+
+      // Skip comments, which may be followed by code on the same line.
+      while (i < end) {
+        if (this.inBlockComment) {
+          int close = indexOfBlockCommentClose(buf, i, end);
+          if (close < 0) {
+            return true;
+          }
+          this.inBlockComment = false;
+          i = skipWhitespace(buf, close + 2, end);
+        } else if (startsWith(buf, i, end, '/', '/')) {
+          return true;
+        } else if (startsWith(buf, i, end, '/', '*')) {
+          this.inBlockComment = true;
+          i += 2;
+        } else {
+          break;
+        }
+      }
+      if (i >= end) {
+        return true;
+      }
+
+      if (startsWith(buf, i, end, GOOG_PROVIDE)) {
+        addNamespace(buf, i + GOOG_PROVIDE.length, end, this.provides);
+        return true;
+      }
+      if (startsWith(buf, i, end, GOOG_REQUIRE)) {
+        addNamespace(buf, i + GOOG_REQUIRE.length, end, this.requires);
+        return true;
+      }
+      if (end - i == GOOG_BASE_LINE.length
+          && startsWith(buf, i, end, GOOG_BASE_LINE)) {
+        this.hasBaseJsMarker = true;
+        return true;
+      }
+      for (byte[] statement : OTHER_HEADER_STATEMENTS) {
+        if (startsWith(buf, i, end, statement)) {
+          return true;
+        }
+      }
+      return this.scanEntireFile;
+    }
+
+    /**
+     * Reads from {@code channel} into {@code buf} starting at {@code len} and
+     * adds the bytes read to the digest.
+     *
+     * @return the new number of valid bytes in {@code buf} or -1 at the end
+     *     of the input
+     */
+    private int fill(ReadableByteChannel channel, byte[] buf, int len)
+        throws IOException {
+      ByteBuffer byteBuffer = ByteBuffer.wrap(buf, len, buf.length - len);
+      int read;
+      do {
+        read = channel.read(byteBuffer);
+      } while (read == 0);
+      if (read < 0) {
+        return -1;
+      }
+      if (this.hasher != null) {
+        this.hasher.putBytes(buf, len, read);
+      }
+      return len + read;
+    }
+
+    /**
+     * Parses a quoted namespace following {@code goog.provide(} or {@code
+     * goog.require(} and adds it to {@code namespaces}.
+     */
+    private static void addNamespace(byte[] buf, int start, int end,
+        List<String> namespaces) {
+      int i = skipWhitespace(buf, start, end);
+      if (i >= end || (buf[i] != '\'' && buf[i] != '"')) {
+        return;
+      }
+      byte quote = buf[i];
+      int nameStart = i + 1;
+      int nameEnd = nameStart;
+      while (nameEnd < end && buf[nameEnd] != quote) {
+        nameEnd++;
+      }
+      if (nameEnd == nameStart || nameEnd >= end) {
+        return;
+      }
+      i = skipWhitespace(buf, nameEnd + 1, end);
+      if (i < end && buf[i] == ')') {
+        namespaces.add(new String(buf, nameStart, nameEnd - nameStart,
+            Charsets.UTF_8));
+      }
+    }
+  }
+
+  private static int indexOfLineTerminator(byte[] buf, int start, int end) {
+    for (int i = start; i < end; i++) {
+      if (buf[i] == '\n' || buf[i] == '\r') {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static int indexOfBlockCommentClose(byte[] buf, int start, int end) {
+    for (int i = start; i < end - 1; i++) {
+      if (buf[i] == '*' && buf[i + 1] == '/') {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static boolean isWhitespace(byte b) {
+    return b == ' ' || b == '\t' || b == '\f' || b == 0x0B;
+  }
+
+  private static int skipWhitespace(byte[] buf, int start, int end) {
+    int i = start;
+    while (i < end && isWhitespace(buf[i])) {
+      i++;
+    }
+    return i;
+  }
+
+  private static int trimTrailingWhitespace(byte[] buf, int start, int end) {
+    int i = end;
+    while (i > start && isWhitespace(buf[i - 1])) {
+      i--;
+    }
+    return i;
+  }
+
+  private static boolean startsWith(byte[] buf, int start, int end,
+      char first, char second) {
+    return end - start >= 2 && buf[start] == first && buf[start + 1] == second;
+  }
+
+  private static boolean startsWith(byte[] buf, int start, int end,
+      byte[] prefix) {
+    if (end - start < prefix.length) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length; i++) {
+      if (buf[start + i] != prefix[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant.base;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Sets;
+import com.google.common.collect.UnmodifiableIterator;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.SortedSet;
+
+/**
+ * An immutable set of namespaces in lexicographic order that may be
+ * interned in a {@link NamespaceTable}. Along with each interned namespace,
+ * the set holds its namespace id, so that dependency graphs whose sources
+ * share a table can resolve namespaces with array lookups instead of hashing
+ * strings (see {@link #getId(int)}).
+ *
+ * <p>Source files return their {@link NamespaceSet}s directly from {@link
+ * ProvidesRequiresSourceFile#getProvides()} and {@link
+ * ProvidesRequiresSourceFile#getRequires()}, so that the getters do not
+ * copy.</p>
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ */
+public final class NamespaceSet extends AbstractSet<String> {
+
+  private static final NamespaceSet EMPTY =
+      new NamespaceSet(new String[0], null, null);
+
+  private final String[] namespaces;
+  private final NamespaceTable table;
+  private final int[] ids;
+
+  private NamespaceSet(String[] namespaces, NamespaceTable table, int[] ids) {
+    this.namespaces = namespaces;
+    this.table = table;
+    this.ids = ids;
+  }
+
+  /**
+   * Creates a namespace set whose namespaces are not interned.
+   *
+   * @param namespaces the namespaces, which may contain duplicates
+   * @return a namespace set containing {@code namespaces}
+   * @throws NullPointerException if {@code namespaces} or one of the
+   *     namespaces is {@code null}
+   */
+  public static NamespaceSet of(Collection<String> namespaces) {
+    return of(namespaces, null);
+  }
+
+  /**
+   * Creates a namespace set, interning the namespaces in {@code table}.
+   *
+   * @param namespaces the namespaces, which may contain duplicates
+   * @param table the table in which the namespaces are interned or {@code
+   *     null} to not intern the namespaces
+   * @return a namespace set containing {@code namespaces}
+   * @throws NullPointerException if {@code namespaces} or one of the
+   *     namespaces is {@code null}
+   */
+  public static NamespaceSet of(Collection<String> namespaces,
+      NamespaceTable table) {
+    Preconditions.checkNotNull(namespaces, "namespaces was null");
+    if (namespaces instanceof NamespaceSet
+        && ((NamespaceSet) namespaces).table == table) {
+      return (NamespaceSet) namespaces;
+    }
+    if (namespaces.isEmpty()) {
+      return EMPTY;
+    }
+    SortedSet<String> sorted = Sets.newTreeSet(namespaces);
+    String[] array = sorted.toArray(new String[sorted.size()]);
+    if (table == null) {
+      return new NamespaceSet(array, null, null);
+    }
+    int[] ids = new int[array.length];
+    table.internAll(array, ids);
+    return new NamespaceSet(array, table, ids);
+  }
+
+  /**
+   * @return the empty namespace set
+   */
+  public static NamespaceSet of() {
+    return EMPTY;
+  }
+
+  @Override
+  public int size() {
+    return this.namespaces.length;
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    return (o instanceof String)
+        && Arrays.binarySearch(this.namespaces, o) >= 0;
+  }
+
+  @Override
+  public Iterator<String> iterator() {
+    return new UnmodifiableIterator<String>() {
+      private int index = 0;
+
+      @Override
+      public boolean hasNext() {
+        return this.index < namespaces.length;
+      }
+
+      @Override
+      public String next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return namespaces[this.index++];
+      }
+    };
+  }
+
+  /**
+   * @param index the index of a namespace in lexicographic order
+   * @return the namespace at {@code index}
+   * @throws IndexOutOfBoundsException if {@code index} is out of range
+   */
+  public String get(int index) {
+    return this.namespaces[index];
+  }
+
+  /**
+   * @return the table in which the namespaces are interned or {@code null}
+   *     if they are not interned. The empty set is not interned.
+   */
+  public NamespaceTable getTable() {
+    return this.table;
+  }
+
+  /**
+   * @param index the index of a namespace in lexicographic order
+   * @return the id of the namespace at {@code index} in the table returned
+   *     by {@link #getTable()}
+   * @throws IllegalStateException if the namespaces are not interned
+   * @throws IndexOutOfBoundsException if {@code index} is out of range
+   */
+  public int getId(int index) {
+    Preconditions.checkState(this.ids != null,
+        "namespaces are not interned");
+    return this.ids[index];
+  }
+}
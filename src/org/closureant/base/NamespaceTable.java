@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant.base;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+
+import org.apache.tools.ant.Project;
+
+/**
+ * A table that interns namespaces and assigns each distinct namespace a
+ * small, dense integer id. The ids are assigned in the order in which the
+ * namespaces are first interned and are never reused, so that a namespace
+ * id may be used as an index into an array of size {@link #size()}.
+ *
+ * <p>Each Ant project has its own table (see {@link #getInstance(Project)}),
+ * which is shared by the tasks of the build through the {@link
+ * BuildRegistry} of the project, so that the namespaces of the source files
+ * of a build are in the same table and the table is released along with the
+ * project. The table is thread safe.</p>
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ */
+public final class NamespaceTable {
+
+  /** The id of the Ant project reference that holds the table. */
+  public static final String REFERENCE_ID = "closure-ant.namespace-table";
+
+  private final Map<String, Integer> namespaceToId;
+  private String[] namespaces;
+  private int size;
+
+  /**
+   * Creates an empty namespace table.
+   */
+  public NamespaceTable() {
+    this.namespaceToId = Maps.newHashMap();
+    this.namespaces = new String[1024];
+    this.size = 0;
+  }
+
+  /**
+   * Gets the namespace table of an Ant project, creating it and adding it to
+   * the project references the first time.
+   *
+   * @param project the Ant project
+   * @return the namespace table of {@code project}
+   * @throws NullPointerException if {@code project} is {@code null}
+   */
+  public static NamespaceTable getInstance(Project project) {
+    Preconditions.checkNotNull(project, "project was null");
+
+    synchronized (project) {
+      Object reference = project.getReference(REFERENCE_ID);
+      if (reference instanceof NamespaceTable) {
+        return (NamespaceTable) reference;
+      }
+      NamespaceTable table = new NamespaceTable();
+      project.addReference(REFERENCE_ID, table);
+      return table;
+    }
+  }
+
+  /**
+   * Interns a namespace.
+   *
+   * @param namespace the namespace
+   * @return the id of {@code namespace}
+   * @throws NullPointerException if {@code namespace} is {@code null}
+   */
+  public synchronized int intern(String namespace) {
+    Preconditions.checkNotNull(namespace, "namespace was null");
+    Integer id = this.namespaceToId.get(namespace);
+    if (id == null) {
+      id = this.size;
+      if (this.size == this.namespaces.length) {
+        String[] grown = new String[this.size * 2];
+        System.arraycopy(this.namespaces, 0, grown, 0, this.size);
+        this.namespaces = grown;
+      }
+      this.namespaces[this.size++] = namespace;
+      this.namespaceToId.put(namespace, id);
+    }
+    return id;
+  }
+
+  /**
+   * Gets the id of a namespace without interning it.
+   *
+   * @param namespace the namespace
+   * @return the id of {@code namespace} or -1 if it was never interned
+   */
+  public synchronized int getId(String namespace) {
+    Integer id = this.namespaceToId.get(namespace);
+    return (id != null) ? id : -1;
+  }
+
+  /**
+   * @param id a namespace id
+   * @return the namespace with id {@code id}
+   * @throws IndexOutOfBoundsException if {@code id} was not assigned
+   */
+  public synchronized String getNamespace(int id) {
+    if (id < 0 || id >= this.size) {
+      throw new IndexOutOfBoundsException("namespace id " + id
+          + " was not assigned");
+    }
+    return this.namespaces[id];
+  }
+
+  /**
+   * @return the number of interned namespaces, which is one more than the
+   *     largest namespace id
+   */
+  public synchronized int size() {
+    return this.size;
+  }
+
+  /**
+   * Interns namespaces under a single lock. Each namespace is replaced by its
+   * canonical instance so that equal namespaces of different source files
+   * share one {@link String}.
+   *
+   * @param namespaces the namespaces to intern, which are replaced in place
+   * @param ids receives the id of each namespace at the same index
+   */
+  synchronized void internAll(String[] namespaces, int[] ids) {
+    for (int i = 0; i < namespaces.length; i++) {
+      ids[i] = intern(namespaces[i]);
+      namespaces[i] = this.namespaces[ids[i]];
+    }
+  }
+}
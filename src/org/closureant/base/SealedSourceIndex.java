@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant.base;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import org.closureant.util.FileUtil;
+
+/**
+ * A prebuilt index of the {@code goog.provided} and {@code goog.required}
+ * namespaces of all JavaScript files under a root directory that does not
+ * change between builds, such as the Closure Library. Once the index has
+ * been created with {@link #create(File)} and written to an index file, the
+ * sources under the root may be obtained with {@link
+ * #toSourceFiles(File)} without opening any file under the root.
+ *
+ * <p>The index is sealed with a hash of the relative paths, sizes and
+ * last-modified times of the indexed files. {@link #isValidFor(File)}
+ * compares the hash with that of the current directory contents, which only
+ * requires listing the directory tree, so that an edit that keeps the size
+ * of a file still invalidates the index. Since the last-modified times are
+ * part of the hash, the index must be recreated after the root is checked
+ * out or copied to another location that does not preserve them.</p>
+ *
+ * <p>The index is created with the {@link org.closureant.SealedIndexWriter}
+ * Ant task or from the command line:</p>
+ *
+ * <p>{@code java -cp closure-ant.jar org.closureant.SealedIndexWriter
+ * <root directory> [<index file>]}</p>
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ */
+public final class SealedSourceIndex {
+
+  /** The default name of a sealed index file in the indexed root. */
+  public static final String DEFAULT_INDEX_FILE_NAME = "sealed-deps.idx";
+
+  private static final int MAGIC = 0x434C5353;  // "CLSS"
+  private static final int VERSION = 2;
+
+  private static final List<String> INCLUDES = ImmutableList.of("**/*.js");
+  private static final List<String> EXCLUDES = ImmutableList.of(".*");
+
+  private final String directoryHash;
+  private final List<String> relativePaths;
+  private final List<JsClosureHeaderScanner.Header> headers;
+
+  private SealedSourceIndex(String directoryHash, List<String> relativePaths,
+      List<JsClosureHeaderScanner.Header> headers) {
+    this.directoryHash = directoryHash;
+    this.relativePaths = relativePaths;
+    this.headers = headers;
+  }
+
+  /**
+   * Creates a sealed index by scanning all JavaScript files under {@code
+   * root}, excluding files and directories whose names start with ".".
+   *
+   * @param root the root directory
+   * @return a new sealed index for {@code root}
+   * @throws IOException if a file cannot be read
+   * @throws NullPointerException if {@code root} is {@code null}
+   */
+  public static SealedSourceIndex create(File root) throws IOException {
+    Preconditions.checkNotNull(root, "root was null");
+
+    List<String> relativePaths = scanRoot(root);
+    List<JsClosureHeaderScanner.Header> headers =
+        Lists.newArrayListWithCapacity(relativePaths.size());
+    for (String relativePath : relativePaths) {
+      headers.add(JsClosureHeaderScanner.scanAndDigest(
+          new File(root, relativePath)));
+    }
+    return new SealedSourceIndex(computeDirectoryHash(root, relativePaths),
+        relativePaths, headers);
+  }
+
+  /**
+   * Reads the sealed index of {@code root} from {@code indexFile}, verifies
+   * that the index is valid for the current contents of {@code root}, and
+   * creates source files from the index (see {@link #toSourceFiles(File,
+   * NamespaceTable)}).
+   *
+   * @param root the root directory
+   * @param indexFile the sealed index file created for {@code root}
+   * @param namespaceTable the table in which the namespaces of the source
+   *     files are interned or {@code null} to not intern the namespaces
+   * @return a new list of source files
+   * @throws IOException if the index file cannot be read or is corrupt, or
+   *     if the index does not match the contents of {@code root}
+   * @throws NullPointerException if {@code root} or {@code indexFile} is
+   *     {@code null}
+   */
+  public static List<JsClosureSourceFile> readSourceFiles(File root,
+      File indexFile, NamespaceTable namespaceTable) throws IOException {
+    Preconditions.checkNotNull(root, "root was null");
+    SealedSourceIndex index = read(indexFile);
+    if (!index.isValidFor(root)) {
+      throw new IOException("Sealed index file \""
+          + indexFile.getAbsolutePath() + "\" does not match the contents of "
+          + "\"" + root.getAbsolutePath() + "\". The root directory was "
+          + "modified after the index was created. Please recreate the "
+          + "index.");
+    }
+    return index.toSourceFiles(root.getCanonicalFile(), namespaceTable);
+  }
+
+  /**
+   * Reads a sealed index from an index file.
+   *
+   * @param indexFile the index file
+   * @return the sealed index
+   * @throws IOException if the index file cannot be read, is corrupt, or was
+   *     written by a different version of the index format
+   * @throws NullPointerException if {@code indexFile} is {@code null}
+   */
+  public static SealedSourceIndex read(File indexFile) throws IOException {
+    Preconditions.checkNotNull(indexFile, "indexFile was null");
+
+    DataInputStream in = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(indexFile)));
+    try {
+      if (in.readInt() != MAGIC) {
+        throw new IOException("\"" + indexFile.getAbsolutePath()
+            + "\" is not a sealed index file");
+      }
+      int version = in.readInt();
+      if (version != VERSION) {
+        throw new IOException("Sealed index file \""
+            + indexFile.getAbsolutePath() + "\" has version " + version
+            + " but version " + VERSION + " is required. Please recreate "
+            + "the index.");
+      }
+      String directoryHash = in.readUTF();
+      int count = in.readInt();
+      if (count < 0) {
+        throw new IOException("Sealed index file \""
+            + indexFile.getAbsolutePath() + "\" is corrupt");
+      }
+      List<String> relativePaths = Lists.newArrayListWithCapacity(count);
+      List<JsClosureHeaderScanner.Header> headers =
+          Lists.newArrayListWithCapacity(count);
+      for (int i = 0; i < count; i++) {
+        relativePaths.add(in.readUTF());
+        String digest = in.readUTF();
+        boolean hasBaseJsMarker = in.readBoolean();
+        List<String> provides = SourceIndex.readStrings(in);
+        List<String> requires = SourceIndex.readStrings(in);
+        headers.add(new JsClosureHeaderScanner.Header(provides, requires,
+            hasBaseJsMarker, digest));
+      }
+      return new SealedSourceIndex(directoryHash, relativePaths, headers);
+    } catch (IllegalArgumentException e) {
+      // Thrown for a negative list size.
+      throw new IOException("Sealed index file \""
+          + indexFile.getAbsolutePath() + "\" is corrupt");
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Writes this index to an index file.
+   *
+   * @param indexFile the index file
+   * @throws IOException if the index file cannot be written
+   * @throws NullPointerException if {@code indexFile} is {@code null}
+   */
+  public void write(File indexFile) throws IOException {
+    Preconditions.checkNotNull(indexFile, "indexFile was null");
+
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(indexFile)));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeUTF(this.directoryHash);
+      out.writeInt(this.relativePaths.size());
+      for (int i = 0; i < this.relativePaths.size(); i++) {
+        JsClosureHeaderScanner.Header header = this.headers.get(i);
+        out.writeUTF(this.relativePaths.get(i));
+        out.writeUTF(header.getDigest());
+        out.writeBoolean(header.hasBaseJsMarker());
+        SourceIndex.writeStrings(header.getProvides(), out);
+        SourceIndex.writeStrings(header.getRequires(), out);
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Gets the number of indexed files.
+   *
+   * @return the number of indexed files
+   */
+  public int size() {
+    return this.relativePaths.size();
+  }
+
+  /**
+   * Determines if this index matches the current contents of {@code root},
+   * that is, if the relative paths, sizes and last-modified times of the
+   * JavaScript files under {@code root} are the same as when the index was
+   * created.
+   *
+   * @param root the root directory
+   * @return {@code true} if this index is valid for {@code root}
+   * @throws NullPointerException if {@code root} is {@code null}
+   */
+  public boolean isValidFor(File root) {
+    Preconditions.checkNotNull(root, "root was null");
+    return this.directoryHash.equals(
+        computeDirectoryHash(root, scanRoot(root)));
+  }
+
+  /**
+   * Creates lightweight source files for the indexed files under {@code
+   * root} from the index without opening the files. The source files are in
+   * the lexicographic order of their relative paths.
+   *
+   * @param root the canonical path of the root directory
+   * @param namespaceTable the table in which the namespaces of the source
+   *     files are interned or {@code null} to not intern the namespaces
+   * @return a new list of source files
+   * @throws IllegalStateException if an indexed file is Closure's base.js and
+   *     it {@code goog.provides} or {@code goog.requires} one or more
+   *     namespaces
+   * @throws NullPointerException if {@code root} is {@code null}
+   */
+  public List<JsClosureSourceFile> toSourceFiles(File root,
+      NamespaceTable namespaceTable) {
+    Preconditions.checkNotNull(root, "root was null");
+
+    List<JsClosureSourceFile> sourceFiles =
+        Lists.newArrayListWithCapacity(this.relativePaths.size());
+    for (int i = 0; i < this.relativePaths.size(); i++) {
+      File file = new File(root, this.relativePaths.get(i));
+      // The root is canonical and the index does not contain symbolic links
+      // that would have to be resolved, so the path is canonical as well.
+      sourceFiles.add(SourceFileFactory.newLightweightJsClosureSourceFile(
+          file, file.getPath(), this.headers.get(i), namespaceTable));
+    }
+    return sourceFiles;
+  }
+
+  /**
+   * Lists the relative paths of the JavaScript files under {@code root} in
+   * lexicographic order with "/" as the separator.
+   */
+  private static List<String> scanRoot(File root) {
+    List<String> relativePaths = Lists.newArrayList();
+    for (String path :
+        FileUtil.scanDirectoryRelativePaths(root, INCLUDES, EXCLUDES)) {
+      relativePaths.add(path.replace(File.separatorChar, '/'));
+    }
+    Collections.sort(relativePaths);
+    return relativePaths;
+  }
+
+  private static String computeDirectoryHash(File root,
+      List<String> relativePaths) {
+    Hasher hasher = Hashing.md5().newHasher();
+    for (String relativePath : relativePaths) {
+      File file = new File(root, relativePath);
+      hasher.putBytes(relativePath.getBytes(Charsets.UTF_8));
+      hasher.putByte((byte) 0);
+      hasher.putLong(file.length());
+      hasher.putLong(file.lastModified());
+    }
+    return hasher.hash().toString();
+  }
+}
@@ -46,6 +46,25 @@ public enum SharedAntProperty {
   PLOVR_DIR("plovr.dir"),
   /** The file path to the plovr jar file. */
   PLOVR_JAR("plovr.jar"),
+  /**
+   * A directory shared by several workspaces or build machines, such as a
+   * directory on NFS, in which the artifact cache stores its entries instead
+   * of the ".closure-ant" directory of the Ant project. See {@link
+   * DirectoryArtifactStorage}.
+   */
+  ARTIFACT_CACHE_DIR("closure-ant.artifact-cache.dir"),
+  /**
+   * The maximum size of the artifact cache in bytes, optionally followed by
+   * the suffix "K", "M" or "G", or 0 for no maximum. Defaults to {@link
+   * DirectoryArtifactStorage#DEFAULT_MAX_BYTES}.
+   */
+  ARTIFACT_CACHE_MAX_SIZE("closure-ant.artifact-cache.max-size"),
+  /**
+   * The maximum total size in bytes of the files in the ".closure-ant"
+   * directory of an Ant project, optionally followed by the suffix "K", "M"
+   * or "G". Defaults to {@link BuildCacheEviction#DEFAULT_MAX_BYTES}.
+   */
+  BUILD_CACHE_MAX_SIZE("closure-ant.build-cache.max-size"),
   ;
 
   private final String name;
@@ -18,18 +18,22 @@ package org.closureant.base;
 
 import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Sets;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import com.google.common.io.Files;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.ref.SoftReference;
 import java.util.Collection;
-import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-import org.closureant.util.ClosureBuildUtil;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Static factory class to create new instances of {@link JsClosureSourceFile}.
@@ -39,6 +43,13 @@ import org.closureant.util.ClosureBuildUtil;
 public final class SourceFileFactory {
   private SourceFileFactory() {}
 
+  /**
+   * The default number of threads used to scan source files, which is the
+   * number of processors available to the Java virtual machine.
+   */
+  public static final int DEFAULT_SCAN_THREADS =
+      Runtime.getRuntime().availableProcessors();
+
   /**
    * Constructs a {@link JsClosureSourceFile} for the given file. Namespaces
    * that are {@code goog.provided} and {@code goog.required} are parsed at the
@@ -70,96 +81,244 @@ public final class SourceFileFactory {
    */
   public static JsClosureSourceFile newJsClosureSourceFile(
       String name, String code) {
-    return new BasicJsClosureSourceFile(name, code);
+    return new BasicJsClosureSourceFile(name, code, null);
   }
 
+  /**
+   * Constructs a {@link JsClosureSourceFile} for a file specified by the given
+   * name and source code contents (see {@link #newJsClosureSourceFile(String,
+   * String)}), interning its namespaces in {@code namespaceTable}.
+   *
+   * @param name the source file name
+   * @param code the source code
+   * @param namespaceTable the table in which the {@code goog.provided} and
+   *     {@code goog.required} namespaces are interned
+   * @return a new {@link JsClosureSourceFile} instance
+   * @throws NullPointerException if {@code file} is {@code null}
+   */
+  public static JsClosureSourceFile newJsClosureSourceFile(
+      String name, String code, NamespaceTable namespaceTable) {
+    return new BasicJsClosureSourceFile(name, code, namespaceTable);
+  }
 
-  //----------------------------------------------------------------------------
-
+  /**
+   * Constructs a lightweight {@link JsClosureSourceFile} for the given file
+   * that retains only the file path, the {@code goog.provided} and {@code
+   * goog.required} namespaces, and a digest of the file content. The source
+   * code is not kept in memory after scanning. Instead, {@link
+   * JsClosureSourceFile#getCode()} reads the file on demand and holds the
+   * code through a soft reference, so that it may be reclaimed by the garbage
+   * collector.
+   *
+   * <p>Use this variant when only dependency information and file paths are
+   * needed, for example, to build a manifest of a large number of sources.</p>
+   *
+   * @param file the underlying source file
+   * @return a new {@link JsClosureSourceFile} instance
+   * @throws IOException if file cannot be read
+   * @throws NullPointerException if {@code file} is {@code null}
+   */
+  public static JsClosureSourceFile newLightweightJsClosureSourceFile(File file)
+      throws IOException {
+    return new LightweightJsClosureSourceFile(file);
+  }
 
   /**
-   * Basic implementation of {@link JsClosureSourceFile}.
+   * Constructs a lightweight {@link JsClosureSourceFile} for the given file
+   * from a previously scanned header without opening the file.
+   *
+   * @param file the underlying source file
+   * @param canonicalPath the canonical path of {@code file}
+   * @param header the scanned header of {@code file} including the digest of
+   *     the file content
+   * @param namespaceTable the table in which the namespaces are interned or
+   *     {@code null} to not intern the namespaces
+   * @return a new {@link JsClosureSourceFile} instance
    */
-  private static class BasicJsClosureSourceFile implements JsClosureSourceFile {
+  static JsClosureSourceFile newLightweightJsClosureSourceFile(File file,
+      String canonicalPath, JsClosureHeaderScanner.Header header,
+      NamespaceTable namespaceTable) {
+    return new LightweightJsClosureSourceFile(file, canonicalPath, header,
+        namespaceTable);
+  }
 
-    private static final Pattern GOOG_PROVIDE =
-        Pattern.compile("^\\s*goog\\.provide\\(\\s*['\"](.+)['\"]\\s*\\)");
-    private static final Pattern GOOG_REQUIRE =
-        Pattern.compile("^\\s*goog\\.require\\(\\s*['\"](.+)['\"]\\s*\\)");
+  /**
+   * Constructs lightweight {@link JsClosureSourceFile} instances for the
+   * given files (see {@link #newLightweightJsClosureSourceFile(File)}). The
+   * files are scanned in parallel by a pool of up to {@code threads} threads.
+   * The returned list is in the same order as {@code files} regardless of the
+   * order in which the files finish scanning.
+   *
+   * @param files the underlying source files
+   * @param threads the maximum number of threads used to scan the files. If
+   *     1, the files are scanned on the calling thread.
+   * @return a new list of {@link JsClosureSourceFile} instances in the same
+   *     order as {@code files}
+   * @throws IllegalArgumentException if {@code threads} is less than 1
+   * @throws IOException if a file cannot be read
+   * @throws NullPointerException if {@code files} is {@code null}
+   */
+  public static List<JsClosureSourceFile> newLightweightJsClosureSourceFiles(
+      List<File> files, int threads) throws IOException {
+    return newLightweightJsClosureSourceFiles(files, threads, null);
+  }
 
-    protected final File inputFile;
-    protected final String fileName;
-    protected final String sourceCode;
-    protected final Set<String> provides;
-    protected final Set<String> requires;
-    protected boolean isClosureBaseJs;
+  /**
+   * Constructs lightweight {@link JsClosureSourceFile} instances for the
+   * given files (see {@link #newLightweightJsClosureSourceFiles(List, int)}).
+   * Files that are unchanged since they were recorded in {@code index} are
+   * not scanned. Files that are scanned are recorded in {@code index}, which
+   * is not saved by this method (see {@link SourceIndex#save()}).
+   *
+   * @param files the underlying source files
+   * @param threads the maximum number of threads used to scan the files. If
+   *     1, the files are scanned on the calling thread.
+   * @param index the index of previously scanned files or {@code null} to
+   *     scan all files
+   * @return a new list of {@link JsClosureSourceFile} instances in the same
+   *     order as {@code files}
+   * @throws IllegalArgumentException if {@code threads} is less than 1
+   * @throws IOException if a file cannot be read
+   * @throws NullPointerException if {@code files} is {@code null}
+   */
+  public static List<JsClosureSourceFile> newLightweightJsClosureSourceFiles(
+      List<File> files, int threads, SourceIndex index) throws IOException {
+    return newLightweightJsClosureSourceFiles(files, threads, index, null);
+  }
 
-    /**
-     * Constructs a {@link JsClosureSourceFile} for the given file. Namespaces
-     * that are {@code goog.provided} and {@code goog.required} are parsed at
-     * the time of construction.
-     *
-     * @param file the underlying source file
-     * @throws IllegalStateException if the underlying source file is Closure's
-     *     base.js and it {@code goog.provides} or {@code goog.requires} one
-     *     or more namespaces
-     * @throws IOException if unable to read {@code file}
-     * @throws NullPointerException if {@code file} is {@code null}
-     */
-    public BasicJsClosureSourceFile(File file) throws IOException {
-      Preconditions.checkNotNull(file, "file was null");
-      this.fileName = file.getName();
-      this.sourceCode = Files.toString(file, Charsets.UTF_8);
-      this.provides = Sets.newTreeSet();
-      this.requires = Sets.newTreeSet();
-      this.inputFile = file;
-      this.scanInputFile();
+  /**
+   * Constructs lightweight {@link JsClosureSourceFile} instances for the
+   * given files (see {@link #newLightweightJsClosureSourceFiles(List, int,
+   * SourceIndex)}), interning their namespaces in {@code namespaceTable}, so
+   * that a {@link org.closureant.deps.DependencyGraph} of the files resolves
+   * namespaces by their ids.
+   *
+   * @param files the underlying source files
+   * @param threads the maximum number of threads used to scan the files. If
+   *     1, the files are scanned on the calling thread.
+   * @param index the index of previously scanned files or {@code null} to
+   *     scan all files
+   * @param namespaceTable the table in which the namespaces are interned or
+   *     {@code null} to not intern the namespaces
+   * @return a new list of {@link JsClosureSourceFile} instances in the same
+   *     order as {@code files}
+   * @throws IllegalArgumentException if {@code threads} is less than 1
+   * @throws IOException if a file cannot be read
+   * @throws NullPointerException if {@code files} is {@code null}
+   */
+  public static List<JsClosureSourceFile> newLightweightJsClosureSourceFiles(
+      List<File> files, int threads, final SourceIndex index,
+      final NamespaceTable namespaceTable) throws IOException {
+    Preconditions.checkNotNull(files, "files was null");
+    Preconditions.checkArgument(threads > 0,
+        "threads must be at least 1 but was %s", threads);
+
+    List<JsClosureSourceFile> sourceFiles =
+        Lists.newArrayListWithCapacity(files.size());
+    int poolSize = Math.min(threads, files.size());
+
+    if (poolSize <= 1) {
+      for (File file : files) {
+        sourceFiles.add(new LightweightJsClosureSourceFile(file, index,
+            namespaceTable));
+      }
+      return sourceFiles;
     }
 
-    /**
-     * Constructs a {@link JsClosureSourceFile} for the given file. Namespaces
-     * that are {@code goog.provided} and {@code goog.required} are parsed at
-     * the time of construction.
-     *
-     * @param name the source file name
-     * @param code the source code
-     * @throws IllegalStateException if the underlying source file is Closure's
-     *     base.js and it {@code goog.provides} or {@code goog.requires} one
-     *     or more namespaces
-     * @throws NullPointerException if {@code file} is {@code null}
-     */
-    public BasicJsClosureSourceFile(String name, String code) {
-      Preconditions.checkNotNull(name, "name was null");
-      Preconditions.checkNotNull(code, "code was null");
-      this.fileName = name;
-      this.sourceCode = code;
-      this.provides = Sets.newTreeSet();
-      this.requires = Sets.newTreeSet();
-      this.inputFile = null;
-      this.scanInputFile();
+    ExecutorService executor = Executors.newFixedThreadPool(poolSize);
+    try {
+      List<Future<JsClosureSourceFile>> futures =
+          Lists.newArrayListWithCapacity(files.size());
+      for (final File file : files) {
+        futures.add(executor.submit(new Callable<JsClosureSourceFile>() {
+          @Override
+          public JsClosureSourceFile call() throws IOException {
+            return new LightweightJsClosureSourceFile(file, index,
+                namespaceTable);
+          }
+        }));
+      }
+      for (Future<JsClosureSourceFile> future : futures) {
+        try {
+          sourceFiles.add(Uninterruptibles.getUninterruptibly(future));
+        } catch (ExecutionException e) {
+          Throwables.propagateIfPossible(e.getCause(), IOException.class);
+          throw Throwables.propagate(e.getCause());
+        }
+      }
+    } finally {
+      executor.shutdownNow();
     }
+    return sourceFiles;
+  }
+
+
+  //----------------------------------------------------------------------------
+
+
+  /**
+   * Base class for implementations of {@link JsClosureSourceFile} that holds
+   * the file name and the namespaces extracted from the source.
+   *
+   * <p>The identity of a source file is its canonical path (or its name if
+   * there is no underlying file) together with a digest of its content. Both
+   * are computed once when the source is scanned, so {@link #equals(Object)}
+   * and {@link #hashCode()} do not depend on the size of the source code.</p>
+   */
+  private abstract static class AbstractJsClosureSourceFile
+      implements JsClosureSourceFile {
+
+    protected final File inputFile;
+    protected final String fileName;
+    protected final NamespaceSet provides;
+    protected final NamespaceSet requires;
+    protected final boolean isClosureBaseJs;
+    protected final String identityPath;
+    protected final String digest;
+    private final int hashCode;
 
     /**
-     * Constructs a {@link JsClosureSourceFile} for the given file. Namespaces
-     * that are {@code goog.provided} and {@code goog.required} are parsed at
-     * the time of construction.
-     *
-     * @param file the underlying source file
-     * @param code the source code
+     * @param file the underlying source file or {@code null} if there is no
+     *     underlying source file
+     * @param fileName the source file name
+     * @param identityPath the canonical path of the underlying source file or
+     *     the source file name if there is no underlying source file
+     * @param header the scanned header of the source including the digest of
+     *     the source content
+     * @param namespaceTable the table in which the namespaces are interned or
+     *     {@code null} to not intern the namespaces
      * @throws IllegalStateException if the underlying source file is Closure's
      *     base.js and it {@code goog.provides} or {@code goog.requires} one
      *     or more namespaces
-     * @throws NullPointerException if {@code file} is {@code null}
      */
-    public BasicJsClosureSourceFile(File file, String code) {
-      Preconditions.checkNotNull(file, "file was null");
-      Preconditions.checkNotNull(code, "code was null");
-      this.fileName = file.getName();
-      this.sourceCode = code;
-      this.provides = Sets.newTreeSet();
-      this.requires = Sets.newTreeSet();
-      this.inputFile = null;
-      this.scanInputFile();
+    protected AbstractJsClosureSourceFile(File file, String fileName,
+        String identityPath, JsClosureHeaderScanner.Header header,
+        NamespaceTable namespaceTable) {
+      this.inputFile = file;
+      this.fileName = fileName;
+      this.identityPath = identityPath;
+      this.digest = Preconditions.checkNotNull(header.getDigest(),
+          "header was scanned without computing a digest");
+      this.hashCode = 31 * identityPath.hashCode() + this.digest.hashCode();
+
+      // Extract the goog.provided and goog.required namespaces from the
+      // header and determine if this is Closure Library's base.js.
+      this.isClosureBaseJs = "base.js".equalsIgnoreCase(fileName)
+          && header.hasBaseJsMarker();
+      if (this.isClosureBaseJs) {
+        if (!header.getProvides().isEmpty()
+            || !header.getRequires().isEmpty()) {
+          throw new IllegalStateException("base.js should not provide or "
+              + "require namespaces");
+        }
+        // The Closure Library's base.js file implicitly provides "goog".
+        this.provides =
+            NamespaceSet.of(ImmutableList.of("goog"), namespaceTable);
+        this.requires = NamespaceSet.of();
+      } else {
+        this.provides = NamespaceSet.of(header.getProvides(), namespaceTable);
+        this.requires = NamespaceSet.of(header.getRequires(), namespaceTable);
+      }
     }
 
     /**
@@ -168,35 +327,29 @@ public final class SourceFileFactory {
      * @param jsSourceFile JsClosureSourceFile to copy
      * @throws NullPointerException if {@code jsSourceFile} is {@code null}
      */
-    protected BasicJsClosureSourceFile(BasicJsClosureSourceFile jsSourceFile) {
+    protected AbstractJsClosureSourceFile(
+        AbstractJsClosureSourceFile jsSourceFile) {
       Preconditions.checkNotNull(jsSourceFile, "jsSourceFile was null");
       this.fileName = jsSourceFile.fileName;
-      this.sourceCode = jsSourceFile.sourceCode;
       this.provides = jsSourceFile.provides;
       this.requires = jsSourceFile.requires;
       this.inputFile = jsSourceFile.inputFile;
       this.isClosureBaseJs = jsSourceFile.isClosureBaseJs;
+      this.identityPath = jsSourceFile.identityPath;
+      this.digest = jsSourceFile.digest;
+      this.hashCode = jsSourceFile.hashCode;
     }
 
     public String getAbsolutePath() {
       return (this.inputFile != null) ? this.inputFile.getAbsolutePath() : "";
     }
 
-    /**
-     * The JavaScript source code.
-     *
-     * @return the source code
-     */
-    public String getCode() {
-      return this.sourceCode;
-    }
-
     public String getName() {
       return this.fileName;
     }
 
     public Collection<String> getProvides() {
-      return ImmutableSet.copyOf(this.provides);
+      return this.provides;
     }
 
     public String getRelativePath() {
@@ -204,37 +357,35 @@ public final class SourceFileFactory {
     }
 
     public Collection<String> getRequires() {
-      return ImmutableSet.copyOf(this.requires);
+      return this.requires;
     }
 
     public boolean isBaseJs() {
       return this.isClosureBaseJs;
     }
 
+    /**
+     * Two source files are equal if they have the same canonical path (or the
+     * same name if there is no underlying file) and the same content digest.
+     */
     @Override
-    public boolean equals(Object o) {
+    public final boolean equals(Object o) {
       if (this == o) {
         return true;
       }
-      if (!(o instanceof BasicJsClosureSourceFile)) {
+      if (!(o instanceof AbstractJsClosureSourceFile)) {
         return false;
       }
 
-      BasicJsClosureSourceFile that = (BasicJsClosureSourceFile) o;
+      AbstractJsClosureSourceFile that = (AbstractJsClosureSourceFile) o;
 
-      if (isClosureBaseJs != that.isClosureBaseJs) {
+      if (hashCode != that.hashCode) {
         return false;
       }
-      if (!fileName.equals(that.fileName)) {
+      if (!identityPath.equals(that.identityPath)) {
         return false;
       }
-      if (!provides.equals(that.provides)) {
-        return false;
-      }
-      if (!requires.equals(that.requires)) {
-        return false;
-      }
-      if (!sourceCode.equals(that.sourceCode)) {
+      if (!digest.equals(that.digest)) {
         return false;
       }
 
@@ -242,13 +393,8 @@ public final class SourceFileFactory {
     }
 
     @Override
-    public int hashCode() {
-      int result = fileName.hashCode();
-      result = 31 * result + sourceCode.hashCode();
-      result = 31 * result + provides.hashCode();
-      result = 31 * result + requires.hashCode();
-      result = 31 * result + (isClosureBaseJs ? 1 : 0);
-      return result;
+    public final int hashCode() {
+      return this.hashCode;
     }
 
     /**
@@ -260,42 +406,191 @@ public final class SourceFileFactory {
     public String toString() {
       return this.fileName;
     }
+  }
+
+  /**
+   * Basic implementation of {@link JsClosureSourceFile}.
+   */
+  private static class BasicJsClosureSourceFile
+      extends AbstractJsClosureSourceFile {
+
+    protected final String sourceCode;
 
     /**
-     * Extracts the {@code goog.provided} and {@code goog.required} namespaces
-     * from the source code. Determines if this is Closure Library's base.js.
+     * Constructs a {@link JsClosureSourceFile} for the given file. Namespaces
+     * that are {@code goog.provided} and {@code goog.required} are parsed at
+     * the time of construction.
      *
+     * @param file the underlying source file
      * @throws IllegalStateException if the underlying source file is Closure's
-     * base.js and it {@code goog.provides} or {@code goog.requires} one or
-     * more namespaces
+     *     base.js and it {@code goog.provides} or {@code goog.requires} one
+     *     or more namespaces
+     * @throws IOException if unable to read {@code file}
+     * @throws NullPointerException if {@code file} is {@code null}
      */
-    private void scanInputFile() {
-      // Windows: \r\n Unix: \n Mac: \r
-      String[] lines = this.sourceCode.split("\\r?\\n|\\r");
-
-      for (String line : lines) {
-        Matcher matcher = GOOG_REQUIRE.matcher(line);
-        if (matcher.find()) {
-          this.requires.add(matcher.group(1));
-        } else {
-          matcher = GOOG_PROVIDE.matcher(line);
-          if (matcher.find()) {
-            this.provides.add(matcher.group(1));
-          }
-        }
-      }
+    public BasicJsClosureSourceFile(File file) throws IOException {
+      this(file, Files.toByteArray(
+          Preconditions.checkNotNull(file, "file was null")));
+    }
 
-      if ("base.js".equalsIgnoreCase(fileName)) {
-        if (ClosureBuildUtil.isClosureBaseJs(sourceCode)) {
-          this.isClosureBaseJs = true;
-          if (!this.provides.isEmpty() || !this.requires.isEmpty()) {
-            throw new IllegalStateException("base.js should not provide or "
-                + "require namespaces");
-          }
-          // The Closure Library's base.js file implicitly provides "goog".
-          provides.add("goog");
+    private BasicJsClosureSourceFile(File file, byte[] content)
+        throws IOException {
+      super(file, file.getName(), file.getCanonicalPath(),
+          JsClosureHeaderScanner.scanAndDigest(file.getName(), content), null);
+      this.sourceCode = new String(content, Charsets.UTF_8);
+    }
+
+    /**
+     * Constructs a {@link JsClosureSourceFile} for the given file. Namespaces
+     * that are {@code goog.provided} and {@code goog.required} are parsed at
+     * the time of construction.
+     *
+     * @param name the source file name
+     * @param code the source code
+     * @param namespaceTable the table in which the namespaces are interned or
+     *     {@code null} to not intern the namespaces
+     * @throws IllegalStateException if the underlying source file is Closure's
+     *     base.js and it {@code goog.provides} or {@code goog.requires} one
+     *     or more namespaces
+     * @throws NullPointerException if {@code file} is {@code null}
+     */
+    public BasicJsClosureSourceFile(String name, String code,
+        NamespaceTable namespaceTable) {
+      super(null, Preconditions.checkNotNull(name, "name was null"), name,
+          JsClosureHeaderScanner.scanAndDigest(name,
+              Preconditions.checkNotNull(code, "code was null")),
+          namespaceTable);
+      this.sourceCode = code;
+    }
+
+    /**
+     * Constructs a {@link JsClosureSourceFile} for the given file. Namespaces
+     * that are {@code goog.provided} and {@code goog.required} are parsed at
+     * the time of construction.
+     *
+     * @param file the underlying source file
+     * @param code the source code
+     * @throws IllegalStateException if the underlying source file is Closure's
+     *     base.js and it {@code goog.provides} or {@code goog.requires} one
+     *     or more namespaces
+     * @throws NullPointerException if {@code file} is {@code null}
+     */
+    public BasicJsClosureSourceFile(File file, String code) {
+      super(null, Preconditions.checkNotNull(file, "file was null").getName(),
+          file.getAbsolutePath(), JsClosureHeaderScanner.scanAndDigest(
+              file.getName(), Preconditions.checkNotNull(code,
+                  "code was null")), null);
+      this.sourceCode = code;
+    }
+
+    /**
+     * Copy constructor for subclasses.
+     *
+     * @param jsSourceFile JsClosureSourceFile to copy
+     * @throws NullPointerException if {@code jsSourceFile} is {@code null}
+     */
+    protected BasicJsClosureSourceFile(BasicJsClosureSourceFile jsSourceFile) {
+      super(jsSourceFile);
+      this.sourceCode = jsSourceFile.sourceCode;
+    }
+
+    /**
+     * The JavaScript source code.
+     *
+     * @return the source code
+     */
+    public String getCode() {
+      return this.sourceCode;
+    }
+  }
+
+  /**
+   * Lightweight implementation of {@link JsClosureSourceFile} that does not
+   * keep the source code in memory. The code is read from the underlying file
+   * on demand and verified against the digest computed at scan time.
+   */
+  private static class LightweightJsClosureSourceFile
+      extends AbstractJsClosureSourceFile {
+
+    private SoftReference<String> sourceCode;
+
+    /**
+     * Constructs a {@link JsClosureSourceFile} for the given file. Namespaces
+     * that are {@code goog.provided} and {@code goog.required} as well as a
+     * digest of the file content are computed at the time of construction.
+     *
+     * @param file the underlying source file
+     * @throws IllegalStateException if the underlying source file is Closure's
+     *     base.js and it {@code goog.provides} or {@code goog.requires} one
+     *     or more namespaces
+     * @throws IOException if unable to read {@code file}
+     * @throws NullPointerException if {@code file} is {@code null}
+     */
+    public LightweightJsClosureSourceFile(File file) throws IOException {
+      this(file, null, null);
+    }
+
+    /**
+     * Constructs a {@link JsClosureSourceFile} for the given file, which is
+     * only scanned if it changed since it was recorded in {@code index}.
+     *
+     * @param file the underlying source file
+     * @param index the index of previously scanned files or {@code null} to
+     *     scan the file
+     * @param namespaceTable the table in which the namespaces are interned or
+     *     {@code null} to not intern the namespaces
+     * @throws IllegalStateException if the underlying source file is Closure's
+     *     base.js and it {@code goog.provides} or {@code goog.requires} one
+     *     or more namespaces
+     * @throws IOException if unable to read {@code file}
+     * @throws NullPointerException if {@code file} is {@code null}
+     */
+    public LightweightJsClosureSourceFile(File file, SourceIndex index,
+        NamespaceTable namespaceTable) throws IOException {
+      this(Preconditions.checkNotNull(file, "file was null"),
+          file.getCanonicalPath(), index, namespaceTable);
+    }
+
+    private LightweightJsClosureSourceFile(File file, String canonicalPath,
+        SourceIndex index, NamespaceTable namespaceTable) throws IOException {
+      this(file, canonicalPath, (index != null)
+          ? index.scanAndDigest(file, canonicalPath)
+          : JsClosureHeaderScanner.scanAndDigest(file), namespaceTable);
+    }
+
+    private LightweightJsClosureSourceFile(File file, String canonicalPath,
+        JsClosureHeaderScanner.Header header, NamespaceTable namespaceTable) {
+      super(file, file.getName(), canonicalPath, header, namespaceTable);
+      this.sourceCode = null;
+    }
+
+    /**
+     * The JavaScript source code, which is read from the underlying file if
+     * it is not already in memory.
+     *
+     * @return the source code
+     * @throws IllegalStateException if the file content changed after the
+     *     file was scanned
+     * @throws RuntimeException if the file cannot be read
+     */
+    public String getCode() {
+      String code = (this.sourceCode != null) ? this.sourceCode.get() : null;
+      if (code == null) {
+        byte[] content;
+        try {
+          content = Files.toByteArray(this.inputFile);
+        } catch (IOException e) {
+          throw Throwables.propagate(e);
+        }
+        if (!this.digest.equals(JsClosureHeaderScanner.digest(content))) {
+          throw new IllegalStateException("Source file \""
+              + getAbsolutePath() + "\" changed after it was scanned for "
+              + "goog.provide and goog.require statements.");
         }
+        code = new String(content, Charsets.UTF_8);
+        this.sourceCode = new SoftReference<String>(code);
       }
+      return code;
     }
   }
-}
\ No newline at end of file
+}
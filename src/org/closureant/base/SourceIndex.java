@@ -0,0 +1,366 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant.base;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileLock;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A persistent index of the {@code goog.provided} and {@code goog.required}
+ * namespaces of JavaScript source files. Each entry maps the canonical path
+ * of a file to its size, last-modified time, content digest and scanned
+ * header. When a file has the same size and last-modified time as recorded in
+ * the index, its header is taken from the index without opening the file, so
+ * that a build in which few files changed only scans the changed files.
+ *
+ * <p>There is one instance per index file in a Java virtual machine (see
+ * {@link #getSharedInstance(File)}), which is safe to use from multiple
+ * threads and multiple Ant tasks. {@link #save()} merges the entries with
+ * those written to the index file by other processes and replaces the index
+ * file atomically while holding a lock on a lock file next to the index
+ * file, like {@link BuildCache}. Entries of files that were not scanned or
+ * looked up for {@link #MAX_UNUSED_DAYS} days are dropped when the index is
+ * saved. If the index file is corrupt or was written by a different version
+ * of the index format, it is ignored and rebuilt.</p>
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ */
+public final class SourceIndex {
+
+  private static final int MAGIC = 0x434C5349;  // "CLSI"
+  private static final int VERSION = 2;
+  private static final String LOCK_FILE_SUFFIX = ".lock";
+
+  /** Entries not used for this many days are dropped when saving. */
+  public static final int MAX_UNUSED_DAYS = 30;
+
+  private static final long MILLIS_PER_DAY = 24L * 60L * 60L * 1000L;
+
+  /**
+   * Files modified within this interval before they were scanned are not
+   * recorded, since a later change within the same timestamp granularity
+   * would not change the last-modified time.
+   */
+  private static final long RACY_INTERVAL_MILLIS = 2000;
+
+  private static final Map<File, SourceIndex> sharedInstances =
+      Maps.newHashMap();
+
+  private final File indexFile;
+  private final File lockFile;
+  private final Map<String, Entry> entries;
+  // Paths scanned or looked up since the index was loaded.
+  private final Set<String> usedPaths;
+  private final Set<String> updatedPaths;
+  private boolean loaded;
+
+  private SourceIndex(File indexFile) {
+    this.indexFile = indexFile;
+    this.lockFile = new File(indexFile.getPath() + LOCK_FILE_SUFFIX);
+    this.entries = Maps.newHashMap();
+    this.usedPaths = Sets.newHashSet();
+    this.updatedPaths = Sets.newHashSet();
+    this.loaded = false;
+  }
+
+  /**
+   * Gets the index stored in {@code indexFile}. The same instance is returned
+   * for the same file for the lifetime of the Java virtual machine. The
+   * index file is read the first time the index is used.
+   *
+   * @param indexFile the file in which the index is stored
+   * @return the index stored in {@code indexFile}
+   * @throws NullPointerException if {@code indexFile} is {@code null}
+   */
+  public static SourceIndex getSharedInstance(File indexFile) {
+    Preconditions.checkNotNull(indexFile, "indexFile was null");
+    File key = indexFile.getAbsoluteFile();
+    synchronized (sharedInstances) {
+      SourceIndex index = sharedInstances.get(key);
+      if (index == null) {
+        index = new SourceIndex(key);
+        sharedInstances.put(key, index);
+      }
+      return index;
+    }
+  }
+
+  /**
+   * Gets the file in which this index is stored.
+   *
+   * @return the index file
+   */
+  public File getIndexFile() {
+    return this.indexFile;
+  }
+
+  /**
+   * Scans the header of a JavaScript source file and computes a digest of
+   * its content (see {@link JsClosureHeaderScanner#scanAndDigest(File)}),
+   * unless the file is unchanged since it was recorded in the index.
+   *
+   * @param file the JavaScript source file
+   * @return the namespaces provided and required by {@code file} along with
+   *     the content digest
+   * @throws IOException if {@code file} cannot be read
+   * @throws NullPointerException if {@code file} is {@code null}
+   */
+  public JsClosureHeaderScanner.Header scanAndDigest(File file)
+      throws IOException {
+    Preconditions.checkNotNull(file, "file was null");
+    return scanAndDigest(file, file.getCanonicalPath());
+  }
+
+  /**
+   * See {@link #scanAndDigest(File)}.
+   *
+   * @param file the JavaScript source file
+   * @param canonicalPath the canonical path of {@code file}
+   */
+  JsClosureHeaderScanner.Header scanAndDigest(File file,
+      String canonicalPath) throws IOException {
+    // Get the size and time before scanning so that a change during the scan
+    // is detected by the next build.
+    long length = file.length();
+    long lastModified = file.lastModified();
+
+    synchronized (this) {
+      ensureLoaded();
+      this.usedPaths.add(canonicalPath);
+      Entry entry = this.entries.get(canonicalPath);
+      if (entry != null && entry.length == length
+          && entry.lastModified == lastModified) {
+        return entry.header;
+      }
+    }
+
+    JsClosureHeaderScanner.Header header =
+        JsClosureHeaderScanner.scanAndDigest(file);
+    if (lastModified != 0L && lastModified + RACY_INTERVAL_MILLIS
+        < System.currentTimeMillis()) {
+      synchronized (this) {
+        this.entries.put(canonicalPath,
+            new Entry(length, lastModified, 0L, header));
+        this.updatedPaths.add(canonicalPath);
+      }
+    }
+    return header;
+  }
+
+  /**
+   * Writes the index to the index file if any entries were added or updated
+   * since the index was loaded. Entries written by other processes since the
+   * index was loaded are preserved, except for entries that were not used
+   * for {@link #MAX_UNUSED_DAYS} days. The index is written to a temporary
+   * file that then replaces the index file while the lock file is locked.
+   *
+   * @throws IOException if the index file cannot be written
+   */
+  public synchronized void save() throws IOException {
+    if (this.updatedPaths.isEmpty()) {
+      return;
+    }
+
+    File directory = this.indexFile.getParentFile();
+    if (directory != null) {
+      directory.mkdirs();
+    }
+    Map<String, Entry> merged;
+    synchronized (CacheFileLock.getMonitor(this.lockFile)) {
+      FileLock lock = CacheFileLock.lock(this.lockFile);
+      try {
+        // Merge with the entries saved by other processes.
+        merged = read(this.indexFile);
+        for (String path : this.updatedPaths) {
+          merged.put(path, this.entries.get(path));
+        }
+        long now = System.currentTimeMillis();
+        for (String path : this.usedPaths) {
+          Entry entry = merged.get(path);
+          if (entry != null) {
+            merged.put(path, entry.withLastUsed(now));
+          }
+        }
+        long expiration = now - MAX_UNUSED_DAYS * MILLIS_PER_DAY;
+        for (Iterator<Entry> i = merged.values().iterator(); i.hasNext();) {
+          if (i.next().lastUsed < expiration) {
+            i.remove();
+          }
+        }
+
+        File tempFile = File.createTempFile(this.indexFile.getName(), ".tmp",
+            directory);
+        try {
+          write(merged, tempFile);
+          CacheFileLock.replace(tempFile, this.indexFile);
+        } finally {
+          tempFile.delete();
+        }
+      } finally {
+        CacheFileLock.release(lock);
+      }
+    }
+
+    this.entries.putAll(merged);
+    this.updatedPaths.clear();
+  }
+
+  private void ensureLoaded() {
+    if (!this.loaded) {
+      this.entries.putAll(read(this.indexFile));
+      this.loaded = true;
+    }
+  }
+
+  /**
+   * Reads the entries stored in an index file.
+   *
+   * @param file the index file
+   * @return a new map of canonical paths to entries, which is empty if the
+   *     file does not exist, is corrupt, or has a different version
+   */
+  private static Map<String, Entry> read(File file) {
+    Map<String, Entry> entries = Maps.newHashMap();
+    if (!file.isFile()) {
+      return entries;
+    }
+
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new BufferedInputStream(
+          new FileInputStream(file)));
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        return entries;
+      }
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        String path = in.readUTF();
+        long length = in.readLong();
+        long lastModified = in.readLong();
+        long lastUsed = in.readLong();
+        String digest = in.readUTF();
+        boolean hasBaseJsMarker = in.readBoolean();
+        List<String> provides = readStrings(in);
+        List<String> requires = readStrings(in);
+        entries.put(path, new Entry(length, lastModified, lastUsed,
+            new JsClosureHeaderScanner.Header(provides, requires,
+                hasBaseJsMarker, digest)));
+      }
+      if (in.read() != -1) {
+        entries.clear();
+      }
+    } catch (IOException e) {
+      // The index is corrupt and will be rebuilt.
+      entries.clear();
+    } catch (RuntimeException e) {
+      // For example, a negative list size in a corrupt index.
+      entries.clear();
+    } finally {
+      try {
+        if (in != null) in.close();
+      } catch (IOException e) {
+        // nothing to see here
+      }
+    }
+    return entries;
+  }
+
+  static List<String> readStrings(DataInputStream in)
+      throws IOException {
+    int size = in.readInt();
+    List<String> strings = Lists.newArrayListWithCapacity(size);
+    for (int i = 0; i < size; i++) {
+      strings.add(in.readUTF());
+    }
+    return strings;
+  }
+
+  private static void write(Map<String, Entry> entries, File file)
+      throws IOException {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(file)));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(entries.size());
+      for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+        Entry entry = mapEntry.getValue();
+        out.writeUTF(mapEntry.getKey());
+        out.writeLong(entry.length);
+        out.writeLong(entry.lastModified);
+        out.writeLong(entry.lastUsed);
+        out.writeUTF(entry.header.getDigest());
+        out.writeBoolean(entry.header.hasBaseJsMarker());
+        writeStrings(entry.header.getProvides(), out);
+        writeStrings(entry.header.getRequires(), out);
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  static void writeStrings(List<String> strings,
+      DataOutputStream out) throws IOException {
+    out.writeInt(strings.size());
+    for (String string : strings) {
+      out.writeUTF(string);
+    }
+  }
+
+
+  //----------------------------------------------------------------------------
+
+
+  /**
+   * An index entry for a single file.
+   */
+  private static final class Entry {
+    final long length;
+    final long lastModified;
+    // The time the entry was last scanned or looked up, as of the last save.
+    final long lastUsed;
+    final JsClosureHeaderScanner.Header header;
+
+    Entry(long length, long lastModified, long lastUsed,
+        JsClosureHeaderScanner.Header header) {
+      this.length = length;
+      this.lastModified = lastModified;
+      this.lastUsed = lastUsed;
+      this.header = header;
+    }
+
+    Entry withLastUsed(long time) {
+      return new Entry(this.length, this.lastModified, time, this.header);
+    }
+  }
+}
@@ -23,6 +23,14 @@ package org.closureant.builderplus;
  */
 public enum OutputMode {
 
+  /**
+   * Checks the sources with the Closure Compiler without producing output.
+   * The manifest is partitioned into shards, which are checked by separate
+   * compiler processes in parallel, and the diagnostics of the processes
+   * are merged.
+   */
+  CHECKS,
+
   /**
    * Produces compiled output with the Closure Compiler.
    */
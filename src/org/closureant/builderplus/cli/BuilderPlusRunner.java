@@ -17,7 +17,6 @@
 package org.closureant.builderplus.cli;
 
 import com.google.common.base.Charsets;
-import com.google.common.base.Function;
 import com.google.common.base.Joiner;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
@@ -34,12 +33,20 @@ import org.apache.tools.ant.Project;
 import org.apache.tools.ant.Target;
 
 import org.closureant.ClosureCompiler;
+import org.closureant.base.BuildCacheEviction;
 import org.closureant.base.JsClosureSourceFile;
+import org.closureant.base.NamespaceTable;
+import org.closureant.base.SealedSourceIndex;
 import org.closureant.base.SourceFileFactory;
+import org.closureant.base.SourceIndex;
 import org.closureant.builderplus.BuilderPlusUtil;
 import org.closureant.builderplus.OutputMode;
 import org.closureant.css.CssRenamingMap;
+import org.closureant.deps.BundleSizeReport;
+import org.closureant.deps.DependencyReport;
 import org.closureant.deps.ManifestBuilder;
+import org.closureant.deps.MultipleProvideException;
+import org.closureant.deps.UnreachableSourceReport;
 import org.closureant.types.CompilationLevel;
 import org.closureant.util.FileUtil;
 
@@ -58,7 +65,12 @@ import org.kohsuke.args4j.CmdLineException;
 public final class BuilderPlusRunner {
 
   private static final int CACHE_EXPIRATION_DAYS = 2;
+  // Stored in a subdirectory so that it is not deleted after
+  // CACHE_EXPIRATION_DAYS.
+  private static final String SOURCE_INDEX_FILE_NAME = "index/sources.idx";
 
+  private File bundleSizeReport;
+  private File bundleSizeReportJson;
   private CssRenamingMap cssRenamingMap;
   private File compilerJar;
   private boolean forceRecompile;
@@ -71,10 +83,13 @@ public final class BuilderPlusRunner {
   private OutputMode outputMode;
 
   private File flagFile;
-  private final List<JsClosureSourceFile> mainSources; // Program entry points
+  private final List<File> mainSources; // Program entry points
   private final List<String> namespaces;
   private final List<String> roots;
-  private final List<JsClosureSourceFile> sources;
+  private final List<String> sealedRoots;
+  private final List<File> sources;
+  private final int threads;
+  private final File unreachableReport;
 
 
   /**
@@ -82,6 +97,8 @@ public final class BuilderPlusRunner {
    */
   public BuilderPlusRunner(CommandLineOptions options) throws CmdLineException {
 
+    this.bundleSizeReport = options.getBundleSizeReport();
+    this.bundleSizeReportJson = options.getBundleSizeReportJson();
     this.cssRenamingMap = options.getCssRenamingMap();
     this.compilerJar = options.getCompilerJar();
     this.forceRecompile = options.isForceRecompile();
@@ -93,28 +110,15 @@ public final class BuilderPlusRunner {
     this.outputManifest = options.getOutputManifest();
     this.outputMode = options.getOutputMode();
 
-    Function<File, JsClosureSourceFile> fileToJsSourceFile =
-        new Function<File, JsClosureSourceFile>() {
-          @Override
-          public JsClosureSourceFile apply(File source) {
-            try {
-              return SourceFileFactory.newJsClosureSourceFile(source);
-            } catch (IOException e) {
-              throw new RuntimeException(e);
-            }
-          }
-        };
-
     this.flagFile = options.getFlagFile();
-    // Need to call Lists.newArrayList() to obtain a mutable copy.
-    this.mainSources = Lists.newArrayList(
-        Lists.transform(options.getMainSources(), fileToJsSourceFile));
+    this.mainSources = options.getMainSources();
     this.namespaces = options.getNamespaces();
     this.roots = options.getRoots();
-    this.sources = Lists.newArrayList(
-        Lists.transform(options.getSources(), fileToJsSourceFile));
-    this.sources.addAll(Lists.transform(options.getArguments(),
-        fileToJsSourceFile));
+    this.sealedRoots = options.getSealedRoots();
+    this.sources = Lists.newArrayList(options.getSources());
+    this.sources.addAll(options.getArguments());
+    this.threads = options.getThreads();
+    this.unreachableReport = options.getUnreachableReport();
   }
 
   /**
@@ -164,7 +168,12 @@ public final class BuilderPlusRunner {
 
     if (compilerTask != null) {
       compilerTask.setInputManifest(manifestFile.getAbsolutePath());
-      compilerTask.execute();
+      try {
+        compilerTask.execute();
+      } finally {
+        // No build events are fired for the internal Ant project.
+        BuildCacheEviction.runScheduled(compilerTask.getProject());
+      }
     }
     if (OutputMode.MANIFEST == this.outputMode) {
       if (this.outputManifest == null) {
@@ -282,8 +291,8 @@ public final class BuilderPlusRunner {
    */
   private List<String> createManifest(CompilationLevel compilationLevel,
       File outputDirectory) throws IOException {
-    List<JsClosureSourceFile> sourceEntryPoints =
-        Lists.newArrayList(this.mainSources);
+    List<File> entryPointFiles = Lists.newArrayList(this.mainSources);
+    List<File> sourceFiles = Lists.newArrayList(this.sources);
 
     System.out.println("Scanning paths...");
 
@@ -293,9 +302,7 @@ public final class BuilderPlusRunner {
     if (this.inputManifest != null) {
       paths = Files.readLines(this.inputManifest, Charsets.UTF_8);
       for (String path : paths) {
-        JsClosureSourceFile sourceFile =
-            SourceFileFactory.newJsClosureSourceFile(new File(path));
-        sourceEntryPoints.add(sourceFile);
+        entryPointFiles.add(new File(path));
       }
     }
 
@@ -305,16 +312,46 @@ public final class BuilderPlusRunner {
           /* includes */ ImmutableList.of("**/*.js"),
           /* excludes */ ImmutableList.of(".*"));
       for (String path : paths) {
-        JsClosureSourceFile sourceFile =
-            SourceFileFactory.newJsClosureSourceFile(new File(path));
-        this.sources.add(sourceFile);
+        sourceFiles.add(new File(path));
       }
     }
 
+    // Scan all files in one batch so that the work is spread evenly over the
+    // threads.
+    List<File> allFiles = Lists.newArrayList(entryPointFiles);
+    allFiles.addAll(sourceFiles);
+    SourceIndex sourceIndex = SourceIndex.getSharedInstance(
+        new File(outputDirectory, SOURCE_INDEX_FILE_NAME));
+    NamespaceTable namespaceTable = new NamespaceTable();
+    List<JsClosureSourceFile> scannedFiles =
+        SourceFileFactory.newLightweightJsClosureSourceFiles(allFiles,
+            this.threads, sourceIndex, namespaceTable);
+    sourceIndex.save();
+    List<JsClosureSourceFile> sourceEntryPoints =
+        scannedFiles.subList(0, entryPointFiles.size());
+    List<JsClosureSourceFile> sources =
+        scannedFiles.subList(entryPointFiles.size(), scannedFiles.size());
+
+    // Process --sealed_root flags
+    List<JsClosureSourceFile> allSources = Lists.newArrayList(scannedFiles);
+    for (String dirPath : this.sealedRoots) {
+      allSources.addAll(SealedSourceIndex.readSourceFiles(new File(dirPath),
+          new File(dirPath, SealedSourceIndex.DEFAULT_INDEX_FILE_NAME),
+          namespaceTable));
+    }
+
     ManifestBuilder<JsClosureSourceFile> builder =
         new ManifestBuilder<JsClosureSourceFile>();
-    builder.mainSources(sourceEntryPoints);
-    builder.sources(this.sources);
+    try {
+      builder.mainSources(sourceEntryPoints);
+      builder.sources(sources);
+      builder.sources(allSources.subList(scannedFiles.size(),
+          allSources.size()));
+    } catch (MultipleProvideException e) {
+      printDependencyErrors(allSources, sourceEntryPoints, e);
+      throw e;
+    }
+
     builder.namespaces(this.namespaces)
         .keepAllSources(this.keepAllSources)
         .keepMoochers(this.keepMoochers)
@@ -323,6 +360,16 @@ public final class BuilderPlusRunner {
     System.out.println(builder.getAllSourcesInOriginalOrder().size()
         + " sources scanned.");
 
+    if (this.unreachableReport != null) {
+      UnreachableSourceReport<JsClosureSourceFile> report =
+          UnreachableSourceReport.create(allSources, sourceEntryPoints,
+              this.namespaces);
+      Files.write(report.toString(), this.unreachableReport, Charsets.UTF_8);
+      System.out.println(report.getUnreachableSources().size()
+          + " unreachable sources (" + report.getUnreachableSize()
+          + " bytes) reported in " + this.unreachableReport.getAbsolutePath());
+    }
+
     System.out.println("Building dependency tree...");
 
     List<JsClosureSourceFile> manifestList = null;
@@ -348,13 +395,30 @@ public final class BuilderPlusRunner {
         try {
           manifestList = builder.toManifestList();
         } catch (Exception e2) {
+          printDependencyErrors(builder.getAllSourcesInOriginalOrder(),
+              sourceEntryPoints, e2);
           throw Throwables.propagate(e2);
         }
       } else {
+        printDependencyErrors(allSources, sourceEntryPoints, e);
         throw Throwables.propagate(e);
       }
     }
 
+    if (this.bundleSizeReport != null || this.bundleSizeReportJson != null) {
+      BundleSizeReport<JsClosureSourceFile> report = BundleSizeReport.create(
+          manifestList, sourceEntryPoints, this.namespaces);
+      if (this.bundleSizeReport != null) {
+        Files.write(report.toString(), this.bundleSizeReport, Charsets.UTF_8);
+      }
+      if (this.bundleSizeReportJson != null) {
+        Files.write(report.toJson(), this.bundleSizeReportJson,
+            Charsets.UTF_8);
+      }
+      System.out.println("Manifest size: " + report.getTotalSize()
+          + " bytes.");
+    }
+
     if (this.cssRenamingMap != null && !this.cssRenamingMap.isEmpty()) {
       JsClosureSourceFile tempRenamingMap =
           BuilderPlusUtil.createRenamingMapFileAndAddToManifest(
@@ -379,4 +443,36 @@ public final class BuilderPlusRunner {
 
     return manifestFilePaths;
   }
+
+  /**
+   * Prints every other dependency error among the sources that are reachable
+   * from the entry points (every multiple provide, missing provide and
+   * cycle) to standard error, so that they can all be fixed before the next
+   * build. The error found by the {@link ManifestBuilder} is not printed,
+   * since it is reported when it is rethrown.
+   *
+   * @param sources all sources passed to the {@link ManifestBuilder}
+   * @param mainSources the sources that are entry points
+   * @param cause the first error found by the {@link ManifestBuilder}
+   */
+  private void printDependencyErrors(List<JsClosureSourceFile> sources,
+      List<JsClosureSourceFile> mainSources, Exception cause) {
+    List<JsClosureSourceFile> entryPoints = Lists.newArrayList(mainSources);
+    if (this.keepAllSources) {
+      entryPoints = sources;
+    } else if (this.keepMoochers) {
+      for (JsClosureSourceFile source : sources) {
+        if (source.getProvides().isEmpty()) {
+          entryPoints.add(source);
+        }
+      }
+    }
+    DependencyReport<JsClosureSourceFile> report =
+        DependencyReport.create(sources, entryPoints, this.namespaces);
+    for (RuntimeException error : report.getErrors()) {
+      if (!error.getMessage().equals(cause.getMessage())) {
+        System.err.println(error.getMessage());
+      }
+    }
+  }
 }
@@ -27,6 +27,7 @@ import java.io.IOException;
 import java.util.List;
 import java.util.Set;
 
+import org.closureant.base.SourceFileFactory;
 import org.closureant.builderplus.OutputMode;
 import org.closureant.css.CssRenamingMap;
 
@@ -59,6 +60,19 @@ public final class CommandLineOptions {
     this.cmdLineParser = cmdLineParser;
   }
 
+  @Option(name = "--bundle_size_report", usage = ""
+      + "A file to write a text report to that\n"
+      + "attributes the bytes of the manifest to\n"
+      + "its files, namespaces and directories,\n"
+      + "including the cost of requiring each\n"
+      + "namespace.")
+  private File bundleSizeReport;
+
+  @Option(name = "--bundle_size_report_json", usage = ""
+      + "A file to write the bundle size report to\n"
+      + "as JSON.")
+  private File bundleSizeReportJson;
+
   @Option(name = "--css_renaming_map", usage = ""
       + "A file containing a JSON object\n"
       + "representing a CSS renaming map. Any\n"
@@ -146,8 +160,11 @@ public final class CommandLineOptions {
       + "(i.e. a program entry point). The\n"
       + "namespace will be combined with those\n"
       + "goog.provided in the source files\n"
-      + "specified with the --main_source flag. You\n"
-      + "may specify multiple.")
+      + "specified with the --main_source flag. A\n"
+      + "namespace ending with \"*\", such as\n"
+      + "\"app.pages.*\", matches every goog.provided\n"
+      + "namespace that starts with the text before\n"
+      + "the \"*\". You may specify multiple.")
   private List<String> namespaces = Lists.newArrayList();
 
   @Option(name = "--output_file", usage = ""
@@ -172,10 +189,36 @@ public final class CommandLineOptions {
       + "source files. You may specify multiple.")
   private List<String> roots = Lists.newArrayList();
 
+  @Option(name = "--sealed_root", usage = ""
+      + "A path that does not change between\n"
+      + "builds, such as the Closure Library. The\n"
+      + "sources under the path are read from the\n"
+      + "sealed index file \"sealed-deps.idx\" in\n"
+      + "the path instead of being scanned. The\n"
+      + "index is created with the Ant task\n"
+      + "sealed-index-writer. You may specify\n"
+      + "multiple.")
+  private List<String> sealedRoots = Lists.newArrayList();
+
   @Option(name = "--source", aliases = {"--s", "-s", "--js", "-js"}, usage = ""
       + "A source file. You may specify multiple.")
   private List<File> sources = Lists.newArrayList();
 
+  @Option(name = "--threads", usage = ""
+      + "The number of threads used to scan source\n"
+      + "files for goog.provide and goog.require\n"
+      + "statements. The order of the sources is\n"
+      + "not affected. Defaults to the number of\n"
+      + "available processors.")
+  private int threads = SourceFileFactory.DEFAULT_SCAN_THREADS;
+
+  @Option(name = "--unreachable_report", usage = ""
+      + "A file to write a report to of every\n"
+      + "scanned source that is not reachable from\n"
+      + "any entry point or moocher, with its size\n"
+      + "in bytes and rollups by directory.")
+  private File unreachableReport;
+
   @Argument(metaVar = "[source [source2 [source3] ...]]", usage = ""
       + "Arguments without a flag are considered\n"
       + "additional source files. Equivalent to the\n"
@@ -183,6 +226,14 @@ public final class CommandLineOptions {
   private List<File> arguments = Lists.newArrayList();
 
 
+  public File getBundleSizeReport() {
+    return bundleSizeReport;
+  }
+
+  public File getBundleSizeReportJson() {
+    return bundleSizeReportJson;
+  }
+
   public CssRenamingMap getCssRenamingMap() throws CmdLineException {
     if (this.cssRenamingMapFile != null
         && this.cssRenamingMapPropertiesFile != null) {
@@ -258,7 +309,11 @@ public final class CommandLineOptions {
     return outputManifest;
   }
 
-  public OutputMode getOutputMode() {
+  public OutputMode getOutputMode() throws CmdLineException {
+    if (this.outputMode == OutputMode.CHECKS) {
+      throw new CmdLineException(this.cmdLineParser, "--output_mode CHECKS "
+          + "is only supported by the <builder-plus> Ant task.");
+    }
     return outputMode;
   }
 
@@ -266,6 +321,10 @@ public final class CommandLineOptions {
     return roots;
   }
 
+  public List<String> getSealedRoots() {
+    return sealedRoots;
+  }
+
   public List<File> getSources() {
     return sources;
   }
@@ -274,6 +333,18 @@ public final class CommandLineOptions {
     return arguments;
   }
 
+  public int getThreads() throws CmdLineException {
+    if (this.threads < 1) {
+      throw new CmdLineException(this.cmdLineParser, "--threads expected to "
+          + "be at least 1 but was " + this.threads);
+    }
+    return threads;
+  }
+
+  public File getUnreachableReport() {
+    return unreachableReport;
+  }
+
   /**
    * OptionHandler for args4j that handles a boolean.
    *
@@ -0,0 +1,433 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant.deps;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.closureant.base.ProvidesRequiresSourceFile;
+import org.closureant.util.ClosureBuildUtil;
+
+/**
+ * A builder to create the manifests of many program entry points that share
+ * the same sources, such as the pages of a web application. Each named entry
+ * point consists of "main" sources and namespaces, and its manifest is the
+ * manifest that {@link ManifestBuilder} would create for the entry point
+ * and the shared sources. However, the dependency graph is built only once
+ * and the transitive dependencies of up to 64 entry points are computed in
+ * a single pass over the graph, using a bit mask per source that records
+ * which entry points reach the source.
+ *
+ * <p>The original order of the sources is the order in which they were
+ * added. The "main" sources of an entry point are added to the shared
+ * sources when the entry point is added, so they may be kept in the
+ * manifests of other entry points that require them, but they are never
+ * kept as "moochers" of other entry points.</p>
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ *
+ * @param <S> the type of source file being used in the manifests, which must
+ *     implement {@link ProvidesRequiresSourceFile}
+ */
+public final class BatchManifestBuilder<S extends ProvidesRequiresSourceFile> {
+
+  private boolean keepAllSources;
+  private boolean keepMoochers;
+  private boolean keepOriginalOrder;
+
+  // All sources in the original order.
+  private final Set<S> sources;
+
+  // Map of entry point names to "main" sources and namespaces, in the order
+  // in which the entry points were added.
+  private final Map<String, Collection<S>> entryPointToMainSources;
+  private final Map<String, Collection<String>> entryPointToNamespaces;
+
+  // The shared dependency graph with its map of provided namespaces to
+  // sources, and the ids of the sources kept for each entry point, or null
+  // if they need to be recomputed.
+  private DependencyGraph<S> graph;
+  private Map<String, S> provideToSource;
+  private Map<String, BitSet> entryPointToPrunedSources;
+
+
+  /**
+   * Constructs a {@link BatchManifestBuilder}.
+   */
+  public BatchManifestBuilder() {
+    this.keepAllSources = false;
+    this.keepMoochers = false;
+    this.keepOriginalOrder = false;
+    this.sources = Sets.newLinkedHashSet();
+    this.entryPointToMainSources = Maps.newLinkedHashMap();
+    this.entryPointToNamespaces = Maps.newHashMap();
+    this.graph = null;
+    this.provideToSource = null;
+    this.entryPointToPrunedSources = null;
+  }
+
+  /**
+   * Whether all sources should be passed to the Closure Compiler. See
+   * {@link ManifestBuilder#keepAllSources(boolean)}.
+   *
+   * @param keepAllSources whether all sources should be kept. Defaults to
+   *     {@code false}.
+   * @return this {@link BatchManifestBuilder}
+   */
+  public BatchManifestBuilder<S> keepAllSources(boolean keepAllSources) {
+    this.keepAllSources = keepAllSources;
+    this.entryPointToPrunedSources = null;
+    return this;
+  }
+
+  /**
+   * Whether "moochers" and their dependencies are always kept. See {@link
+   * ManifestBuilder#keepMoochers(boolean)}.
+   *
+   * @param keepMoochers if {@code true}, moochers and their dependencies are
+   *     always kept. Defaults to {@code false}.
+   * @return this {@link BatchManifestBuilder}
+   */
+  public BatchManifestBuilder<S> keepMoochers(boolean keepMoochers) {
+    this.keepMoochers = keepMoochers;
+    this.entryPointToPrunedSources = null;
+    return this;
+  }
+
+  /**
+   * Whether sources should be kept in their original order. See {@link
+   * ManifestBuilder#keepOriginalOrder(boolean)}.
+   *
+   * @param keepOriginalOrder if {@code true}, sources will be kept in their
+   *     original order. Defaults to {@code false}.
+   * @return this {@link BatchManifestBuilder}
+   */
+  public BatchManifestBuilder<S> keepOriginalOrder(boolean keepOriginalOrder) {
+    this.keepOriginalOrder = keepOriginalOrder;
+    return this;
+  }
+
+  /**
+   * Adds a source file shared by all entry points.
+   *
+   * @param source the source file
+   * @return this {@link BatchManifestBuilder}
+   */
+  public BatchManifestBuilder<S> source(S source) {
+    if (this.sources.add(source)) {
+      this.graph = null;
+      this.entryPointToPrunedSources = null;
+    }
+    return this;
+  }
+
+  /**
+   * Adds source files shared by all entry points.
+   *
+   * @param sources the source files to add
+   * @return this {@link BatchManifestBuilder}
+   */
+  public BatchManifestBuilder<S> sources(Collection<S> sources) {
+    for (S source : sources) {
+      source(source);
+    }
+    return this;
+  }
+
+  /**
+   * Adds a named program entry point.
+   *
+   * @param name the name of the entry point
+   * @param mainSources source files that must be included in the manifest of
+   *     the entry point
+   * @param namespaces namespaces whose providers must be included in the
+   *     manifest of the entry point, which may be patterns such as
+   *     "app.pages.*" (see {@link ManifestBuilder#namespace(String)})
+   * @return this {@link BatchManifestBuilder}
+   * @throws IllegalArgumentException if an entry point named {@code name}
+   *     was already added or if the wildcard of a namespace pattern is not
+   *     at the end of the pattern
+   */
+  public BatchManifestBuilder<S> entryPoint(String name,
+      Collection<S> mainSources, Collection<String> namespaces) {
+    Preconditions.checkArgument(!this.entryPointToMainSources.containsKey(
+        name), "entry point \"%s\" was already added", name);
+    for (String namespace : namespaces) {
+      NamespacePatternIndex.checkPattern(namespace);
+    }
+    sources(mainSources);
+    this.entryPointToMainSources.put(name, ImmutableList.copyOf(mainSources));
+    this.entryPointToNamespaces.put(name, ImmutableList.copyOf(namespaces));
+    this.entryPointToPrunedSources = null;
+    return this;
+  }
+
+  /**
+   * @return the names of the entry points in the order they were added
+   */
+  public Set<String> getEntryPointNames() {
+    return ImmutableSet.copyOf(this.entryPointToMainSources.keySet());
+  }
+
+  /**
+   * Builds the manifest of one entry point. The dependency graph and the
+   * transitive dependencies of all entry points are computed by the first
+   * call and shared by subsequent calls.
+   *
+   * @param name the name of the entry point
+   * @return the transitive closure of the entry point sorted in topological
+   *     order
+   * @throws IllegalArgumentException if there is no entry point named {@code
+   *     name}
+   * @throws CircularDependencyException if the goog.provided and goog.required
+   *     namespaces of the manifest form a cycle
+   * @throws MissingProvideException if a goog.required namespace of the
+   *     manifest or a namespace of the entry point is not goog.provided
+   * @throws MultipleProvideException if a namespace is provided by more than
+   *     one source file
+   */
+  public List<S> toManifestList(String name) {
+    BitSet prunedSources = getPrunedSources(name);
+    if (this.keepOriginalOrder) {
+      return this.graph.getSources(prunedSources);
+    }
+    this.graph.checkAllProvided(prunedSources);
+    return this.graph.getSources(
+        this.graph.topologicalStableSortDepthFirstSearch(prunedSources));
+  }
+
+  /**
+   * Builds the manifests of all entry points.
+   *
+   * @return a map of entry point names to their manifests, in the order in
+   *     which the entry points were added
+   * @throws CircularDependencyException if the goog.provided and goog.required
+   *     namespaces of a manifest form a cycle
+   * @throws MissingProvideException if a goog.required namespace of a
+   *     manifest or a namespace of an entry point is not goog.provided
+   * @throws MultipleProvideException if a namespace is provided by more than
+   *     one source file
+   */
+  public Map<String, List<S>> toManifests() {
+    Map<String, List<S>> manifests = Maps.newLinkedHashMap();
+    for (String name : this.entryPointToMainSources.keySet()) {
+      manifests.put(name, toManifestList(name));
+    }
+    return manifests;
+  }
+
+  /**
+   * Gets the ids of the sources kept for one entry point. The dependency
+   * graph and the transitive dependencies of all entry points are computed
+   * by the first call and shared by subsequent calls.
+   *
+   * @param name the name of the entry point
+   * @return the ids of the sources kept for the entry point in the graph
+   *     returned by {@link #getGraph()}
+   * @throws IllegalArgumentException if there is no entry point named {@code
+   *     name}
+   * @throws MissingProvideException if a namespace of the entry point is not
+   *     goog.provided
+   * @throws MultipleProvideException if a namespace is provided by more than
+   *     one source file
+   */
+  BitSet getPrunedSources(String name) {
+    Preconditions.checkArgument(this.entryPointToMainSources.containsKey(
+        name), "there is no entry point named \"%s\"", name);
+    if (this.entryPointToPrunedSources == null) {
+      computePrunedSources();
+    }
+    BitSet prunedSources = this.entryPointToPrunedSources.get(name);
+    if (prunedSources == null) {
+      // The entry point names a namespace that is never provided.
+      for (String namespace : this.entryPointToNamespaces.get(name)) {
+        if (NamespacePatternIndex.isPattern(namespace)) {
+          if (NamespacePatternIndex.create(this.provideToSource.keySet())
+              .getMatches(namespace).isEmpty()) {
+            throw new MissingProvideException(namespace, "namespace pattern "
+                + "\"" + namespace + "\" is a namespace entry point but does "
+                + "not match any goog.provided namespace.");
+          }
+        } else if (!this.provideToSource.containsKey(namespace)) {
+          throw new MissingProvideException(namespace, "namespace \""
+              + namespace + "\" is a namespace entry point but is never "
+              + "goog.provided.");
+        }
+      }
+    }
+    return prunedSources;
+  }
+
+  /**
+   * @return the shared dependency graph, which is built by the first call to
+   *     {@link #getPrunedSources(String)}, or {@code null} if it has not been
+   *     built since sources were last added
+   */
+  DependencyGraph<S> getGraph() {
+    return this.graph;
+  }
+
+  /**
+   * Builds the shared dependency graph (if needed) and the set of sources
+   * kept for each entry point. Entry points that name a namespace that is
+   * never provided are left out.
+   */
+  private void computePrunedSources() {
+    if (this.graph == null) {
+      List<S> allSources = ImmutableList.copyOf(this.sources);
+      this.provideToSource =
+          ClosureBuildUtil.createMapOfProvideToSource(allSources);
+      this.graph = DependencyGraph.create(allSources, this.provideToSource);
+    }
+    this.entryPointToPrunedSources = Maps.newHashMap();
+
+    if (this.keepAllSources) {
+      for (String name : this.entryPointToMainSources.keySet()) {
+        this.entryPointToPrunedSources.put(name, this.graph.getAllIds());
+      }
+      return;
+    }
+
+    // Closure's base.js, as well as moochers if they are kept, are entry
+    // points of every manifest. The "main" sources of other entry points are
+    // not treated as moochers.
+    Set<S> allMainSources = Sets.newHashSet();
+    for (Collection<S> mainSources : this.entryPointToMainSources.values()) {
+      allMainSources.addAll(mainSources);
+    }
+    BitSet alwaysKept = new BitSet(this.graph.size());
+    for (int id = 0; id < this.graph.size(); id++) {
+      S source = this.graph.getSource(id);
+      if (ClosureBuildUtil.isClosureBaseJs(source)
+          || (this.keepMoochers && source.getProvides().isEmpty()
+              && !allMainSources.contains(source))) {
+        alwaysKept.set(id);
+      }
+    }
+
+    // The provided namespaces are only indexed if there is a pattern.
+    NamespacePatternIndex namespaceIndex = null;
+    List<String> names = Lists.newArrayList();
+    List<BitSet> roots = Lists.newArrayList();
+    for (Map.Entry<String, Collection<S>> entry
+        : this.entryPointToMainSources.entrySet()) {
+      BitSet ids = this.graph.getIds(entry.getValue());
+      ids.or(alwaysKept);
+      boolean allProvided = true;
+      for (String namespace : this.entryPointToNamespaces.get(
+          entry.getKey())) {
+        List<String> namespaces = ImmutableList.of(namespace);
+        if (NamespacePatternIndex.isPattern(namespace)) {
+          if (namespaceIndex == null) {
+            namespaceIndex = NamespacePatternIndex.create(
+                this.provideToSource.keySet());
+          }
+          namespaces = namespaceIndex.getMatches(namespace);
+        }
+        if (namespaces.isEmpty()
+            || !this.provideToSource.containsKey(namespaces.get(0))) {
+          allProvided = false;
+          break;
+        }
+        for (String providedNamespace : namespaces) {
+          ids.set(this.graph.getId(
+              this.provideToSource.get(providedNamespace)));
+        }
+      }
+      if (allProvided) {
+        names.add(entry.getKey());
+        roots.add(ids);
+      }
+    }
+
+    List<BitSet> pruned = getTransitiveDependencies(this.graph, roots);
+    for (int i = 0; i < names.size(); i++) {
+      this.entryPointToPrunedSources.put(names.get(i), pruned.get(i));
+    }
+  }
+
+  /**
+   * Computes the transitive dependencies of many sets of roots. The sources
+   * are visited once in reverse topological order per 64 sets, propagating
+   * a bit mask of the sets that reach each source from the source to its
+   * dependencies. If the graph has a cycle, the transitive dependencies of
+   * each set are computed separately.
+   *
+   * @param graph the dependency graph
+   * @param roots the sets of root ids
+   * @return the transitive dependencies of each set of roots, in the same
+   *     order
+   */
+  static List<BitSet> getTransitiveDependencies(DependencyGraph<?> graph,
+      List<BitSet> roots) {
+    List<BitSet> result = Lists.newArrayList();
+    int[] order;
+    try {
+      order = graph.topologicalStableSortKahnAlgorithm(graph.getAllIds());
+    } catch (CircularDependencyException e) {
+      for (BitSet ids : roots) {
+        result.add(graph.getTransitiveDependencies(ids));
+      }
+      return result;
+    }
+
+    for (int i = 0; i < roots.size(); i++) {
+      result.add(new BitSet(graph.size()));
+    }
+    long[] masks = new long[graph.size()];
+    for (int first = 0; first < roots.size(); first += Long.SIZE) {
+      int last = Math.min(roots.size(), first + Long.SIZE);
+      Arrays.fill(masks, 0L);
+      for (int i = first; i < last; i++) {
+        BitSet ids = roots.get(i);
+        for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+          masks[id] |= 1L << (i - first);
+        }
+      }
+
+      // Dependents precede their dependencies in reverse topological order,
+      // so each mask is complete before it is propagated.
+      for (int i = order.length - 1; i >= 0; i--) {
+        int id = order[i];
+        long mask = masks[id];
+        if (mask != 0L) {
+          for (int d = 0; d < graph.getDependencyCount(id); d++) {
+            masks[graph.getDependency(id, d)] |= mask;
+          }
+        }
+      }
+
+      for (int id = 0; id < masks.length; id++) {
+        for (long mask = masks[id]; mask != 0L; mask &= mask - 1) {
+          result.get(first + Long.numberOfTrailingZeros(mask)).set(id);
+        }
+      }
+    }
+    return result;
+  }
+}
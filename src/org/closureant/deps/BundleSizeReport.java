@@ -0,0 +1,494 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant.deps;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Ints;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import org.closureant.base.ProvidesRequiresSourceFile;
+import org.closureant.util.ClosureBuildUtil;
+
+/**
+ * A report that attributes the bytes of a manifest to its files, to the
+ * namespaces they provide and to their directories.
+ *
+ * <p>Besides its own size, each file is attributed a "retained" size: the
+ * total size of the files that would be dropped from the manifest if the
+ * file were dropped, i.e. the file and every file that is only required
+ * through it. The retained size of the provider of a namespace is the cost
+ * of requiring the namespace. Retained sizes are computed with the
+ * dominator tree of the dependency graph of the manifest, rooted at the
+ * entry points: file {@code D} dominates file {@code F} if every chain of
+ * requires from an entry point to {@code F} goes through {@code D}, and the
+ * retained size of {@code D} is the size of the files that it dominates.
+ * The dominators are computed with the iterative algorithm of Cooper,
+ * Harvey and Kennedy, "A Simple, Fast Dominance Algorithm".</p>
+ *
+ * <p>The entry points are the "main" sources, the providers of the
+ * namespace entry points, Closure's base.js and every file of the manifest
+ * that no other file of the manifest requires (such as kept moochers).</p>
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ *
+ * @param <S> the type of source file, which must implement {@link
+ *     ProvidesRequiresSourceFile}
+ */
+public final class BundleSizeReport<S extends ProvidesRequiresSourceFile> {
+
+  private final DependencyGraph<S> graph;
+  private final long[] sizes;
+  private final long[] retainedSizes;
+
+  // The immediate dominator of each file, or -1 for files that are only
+  // dominated by the entry points as a whole.
+  private final int[] dominators;
+  private final long totalSize;
+
+  private BundleSizeReport(DependencyGraph<S> graph, long[] sizes,
+      long[] retainedSizes, int[] dominators) {
+    this.graph = graph;
+    this.sizes = sizes;
+    this.retainedSizes = retainedSizes;
+    this.dominators = dominators;
+    long size = 0;
+    for (long fileSize : sizes) {
+      size += fileSize;
+    }
+    this.totalSize = size;
+  }
+
+  /**
+   * Creates a report for a manifest, where the size of each source is the
+   * length in bytes of its file.
+   *
+   * @param manifest the sources of the manifest
+   * @param mainSources the "main" sources of the entry points. Sources that
+   *     are not in the manifest are ignored.
+   * @param namespaces the namespace entry points, which may be patterns such
+   *     as "app.pages.*" (see {@link NamespacePatternIndex})
+   * @return a new report
+   */
+  public static <S extends ProvidesRequiresSourceFile> BundleSizeReport<S>
+      create(List<S> manifest, Collection<S> mainSources,
+          Collection<String> namespaces) {
+    return create(manifest, mainSources, namespaces, new Function<S, Long>() {
+      @Override public Long apply(S source) {
+        return new File(source.getAbsolutePath()).length();
+      }
+    });
+  }
+
+  /**
+   * Creates a report for a manifest.
+   *
+   * @param manifest the sources of the manifest
+   * @param mainSources the "main" sources of the entry points. Sources that
+   *     are not in the manifest are ignored.
+   * @param namespaces the namespace entry points, which may be patterns such
+   *     as "app.pages.*" (see {@link NamespacePatternIndex})
+   * @param sizeFunction the function used to measure the size of a source
+   * @return a new report
+   */
+  public static <S extends ProvidesRequiresSourceFile> BundleSizeReport<S>
+      create(List<S> manifest, Collection<S> mainSources,
+          Collection<String> namespaces,
+          Function<? super S, Long> sizeFunction) {
+    Preconditions.checkNotNull(sizeFunction, "sizeFunction was null");
+    List<S> sources = ImmutableSet.copyOf(manifest).asList();
+    Map<String, S> provideToSource = Maps.newHashMap();
+    for (S source : sources) {
+      for (String provide : source.getProvides()) {
+        if (!provideToSource.containsKey(provide)) {
+          provideToSource.put(provide, source);
+        }
+      }
+    }
+    DependencyGraph<S> graph = DependencyGraph.create(sources,
+        provideToSource);
+    int n = graph.size();
+
+    BitSet roots = new BitSet(n);
+    for (S source : mainSources) {
+      int id = graph.getId(source);
+      if (id >= 0) {
+        roots.set(id);
+      }
+    }
+    NamespacePatternIndex namespaceIndex = null;
+    for (String namespace : namespaces) {
+      List<String> provides = ImmutableList.of(namespace);
+      if (NamespacePatternIndex.isPattern(namespace)) {
+        if (namespaceIndex == null) {
+          namespaceIndex = NamespacePatternIndex.create(
+              provideToSource.keySet());
+        }
+        provides = namespaceIndex.getMatches(namespace);
+      }
+      for (String provide : provides) {
+        S provider = provideToSource.get(provide);
+        if (provider != null) {
+          roots.set(graph.getId(provider));
+        }
+      }
+    }
+    for (int id = 0; id < n; id++) {
+      if (graph.getDependentCount(id) == 0
+          || ClosureBuildUtil.isClosureBaseJs(graph.getSource(id))) {
+        roots.set(id);
+      }
+    }
+
+    int[] reversePostorder = computeReversePostorder(graph, roots);
+    int[] dominators = computeDominators(graph, roots, reversePostorder);
+
+    long[] sizes = new long[n];
+    for (int id = 0; id < n; id++) {
+      sizes[id] = sizeFunction.apply(graph.getSource(id));
+    }
+
+    // A file comes after its immediate dominator in reverse postorder, so
+    // the retained sizes are summed up the dominator tree in one pass.
+    long[] retainedSizes = sizes.clone();
+    for (int i = n - 1; i >= 0; i--) {
+      int id = reversePostorder[i];
+      if (dominators[id] >= 0) {
+        retainedSizes[dominators[id]] += retainedSizes[id];
+      }
+    }
+    return new BundleSizeReport<S>(graph, sizes, retainedSizes, dominators);
+  }
+
+  /**
+   * Orders the files by a depth-first search of their dependencies from the
+   * entry points. Files that are not reachable from the entry points (which
+   * is only possible if their dependencies form a cycle) are added to the
+   * entry points.
+   *
+   * @param roots the entry points, to which unreachable files are added
+   * @return the ids of the files in reverse postorder
+   */
+  private static int[] computeReversePostorder(DependencyGraph<?> graph,
+      BitSet roots) {
+    int n = graph.size();
+    int[] postorder = new int[n];
+    int count = 0;
+    BitSet visited = new BitSet(n);
+    int[] stack = new int[n];
+    int[] nextDependency = new int[n];
+    for (int pass = 0; pass < 2; pass++) {
+      for (int root = 0; root < n; root++) {
+        if (visited.get(root) || (pass == 0 && !roots.get(root))) {
+          continue;
+        }
+        roots.set(root);
+        visited.set(root);
+        int depth = 0;
+        stack[depth++] = root;
+        nextDependency[root] = 0;
+        while (depth > 0) {
+          int id = stack[depth - 1];
+          if (nextDependency[id] < graph.getDependencyCount(id)) {
+            int dependency = graph.getDependency(id, nextDependency[id]++);
+            if (!visited.get(dependency)) {
+              visited.set(dependency);
+              nextDependency[dependency] = 0;
+              stack[depth++] = dependency;
+            }
+          } else {
+            postorder[count++] = id;
+            depth--;
+          }
+        }
+      }
+    }
+    int[] reversePostorder = Arrays.copyOf(postorder, count);
+    Collections.reverse(Ints.asList(reversePostorder));
+    return reversePostorder;
+  }
+
+  /**
+   * Computes the immediate dominator of each file in a graph with a virtual
+   * root whose dependencies are the entry points.
+   *
+   * @return the immediate dominator of each file, or -1 if it is the virtual
+   *     root
+   */
+  private static int[] computeDominators(DependencyGraph<?> graph,
+      BitSet roots, int[] reversePostorder) {
+    int n = graph.size();
+    int virtualRoot = n;
+    int[] order = new int[n + 1];
+    for (int i = 0; i < n; i++) {
+      order[reversePostorder[i]] = i + 1;
+    }
+    order[virtualRoot] = 0;
+    int[] dominators = new int[n + 1];
+    Arrays.fill(dominators, -1);
+    dominators[virtualRoot] = virtualRoot;
+
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int id : reversePostorder) {
+        int dominator = roots.get(id) ? virtualRoot : -1;
+        for (int i = 0; i < graph.getDependentCount(id); i++) {
+          int dependent = graph.getDependent(id, i);
+          if (dominators[dependent] == -1) {
+            continue;  // Not processed yet.
+          }
+          dominator = (dominator == -1) ? dependent :
+              intersect(dominators, order, dominator, dependent);
+        }
+        if (dominators[id] != dominator) {
+          dominators[id] = dominator;
+          changed = true;
+        }
+      }
+    }
+
+    int[] result = Arrays.copyOf(dominators, n);
+    for (int id = 0; id < n; id++) {
+      if (result[id] == virtualRoot) {
+        result[id] = -1;
+      }
+    }
+    return result;
+  }
+
+  private static int intersect(int[] dominators, int[] order, int a, int b) {
+    while (a != b) {
+      while (order[a] > order[b]) {
+        a = dominators[a];
+      }
+      while (order[b] > order[a]) {
+        b = dominators[b];
+      }
+    }
+    return a;
+  }
+
+  /**
+   * @return the total size of the manifest in bytes
+   */
+  public long getTotalSize() {
+    return this.totalSize;
+  }
+
+  /**
+   * @return the sources of the manifest in their original order
+   */
+  public List<S> getSources() {
+    return this.graph.getSources(this.graph.getAllIds());
+  }
+
+  /**
+   * @param source a source of the manifest
+   * @return the size of the source in bytes
+   * @throws IllegalArgumentException if {@code source} is not in the manifest
+   */
+  public long getSize(S source) {
+    return this.sizes[getId(source)];
+  }
+
+  /**
+   * @param source a source of the manifest
+   * @return the size in bytes of the source and of every source that is
+   *     only required through it, i.e. the cost of requiring the source
+   * @throws IllegalArgumentException if {@code source} is not in the manifest
+   */
+  public long getRetainedSize(S source) {
+    return this.retainedSizes[getId(source)];
+  }
+
+  /**
+   * @param source a source of the manifest
+   * @return the immediate dominator of the source, i.e. the closest source
+   *     through which every chain of requires from an entry point to {@code
+   *     source} goes, or {@code null} if there is no such source
+   * @throws IllegalArgumentException if {@code source} is not in the manifest
+   */
+  public S getDominator(S source) {
+    int dominator = this.dominators[getId(source)];
+    return (dominator >= 0) ? this.graph.getSource(dominator) : null;
+  }
+
+  private int getId(S source) {
+    int id = this.graph.getId(source);
+    Preconditions.checkArgument(id >= 0, "source \"%s\" is not in the "
+        + "manifest", source);
+    return id;
+  }
+
+  /**
+   * @return the total size in bytes of the sources in each directory and its
+   *     subdirectories, in descending order of size
+   */
+  public Map<String, Long> getDirectorySizes() {
+    final Map<String, Long> directorySizes = Maps.newHashMap();
+    for (int id = 0; id < this.graph.size(); id++) {
+      for (File dir = new File(getPath(this.graph.getSource(id)))
+          .getAbsoluteFile().getParentFile(); dir != null;
+          dir = dir.getParentFile()) {
+        Long size = directorySizes.get(dir.getPath());
+        directorySizes.put(dir.getPath(),
+            this.sizes[id] + ((size != null) ? size : 0));
+      }
+    }
+    List<String> directories = Lists.newArrayList(directorySizes.keySet());
+    Collections.sort(directories, new Comparator<String>() {
+      @Override public int compare(String a, String b) {
+        int bySize = directorySizes.get(b).compareTo(directorySizes.get(a));
+        return (bySize != 0) ? bySize : a.compareTo(b);
+      }
+    });
+    Map<String, Long> sorted = Maps.newLinkedHashMap();
+    for (String directory : directories) {
+      sorted.put(directory, directorySizes.get(directory));
+    }
+    return sorted;
+  }
+
+  /**
+   * @return the ids of the files in descending order of retained size
+   */
+  private List<Integer> getIdsByRetainedSize() {
+    List<Integer> ids = Lists.newArrayList();
+    for (int id = 0; id < this.graph.size(); id++) {
+      ids.add(id);
+    }
+    Collections.sort(ids, new Comparator<Integer>() {
+      @Override public int compare(Integer a, Integer b) {
+        long difference = retainedSizes[b] - retainedSizes[a];
+        return (difference != 0) ? ((difference > 0) ? 1 : -1) : a - b;
+      }
+    });
+    return ids;
+  }
+
+  private static String getPath(ProvidesRequiresSourceFile source) {
+    return source.getAbsolutePath().isEmpty() ?
+        source.getName() : source.getAbsolutePath();
+  }
+
+  /**
+   * @return the report as a JSON object with the total size and arrays of
+   *     files, namespaces and directories, each in descending order of
+   *     size
+   */
+  public String toJson() {
+    JsonObject report = new JsonObject();
+    report.addProperty("totalSize", this.totalSize);
+
+    JsonArray files = new JsonArray();
+    JsonArray namespaces = new JsonArray();
+    for (int id : getIdsByRetainedSize()) {
+      S source = this.graph.getSource(id);
+      JsonObject file = new JsonObject();
+      file.addProperty("path", getPath(source));
+      file.addProperty("size", this.sizes[id]);
+      file.addProperty("retainedSize", this.retainedSizes[id]);
+      JsonArray provides = new JsonArray();
+      for (String provide : source.getProvides()) {
+        provides.add(new JsonPrimitive(provide));
+      }
+      file.add("provides", provides);
+      file.add("dominator", (this.dominators[id] >= 0) ?
+          new JsonPrimitive(getPath(this.graph.getSource(
+              this.dominators[id]))) : JsonNull.INSTANCE);
+      files.add(file);
+
+      for (String provide : source.getProvides()) {
+        JsonObject namespace = new JsonObject();
+        namespace.addProperty("namespace", provide);
+        namespace.addProperty("path", getPath(source));
+        namespace.addProperty("size", this.sizes[id]);
+        namespace.addProperty("retainedSize", this.retainedSizes[id]);
+        namespaces.add(namespace);
+      }
+    }
+    report.add("files", files);
+    report.add("namespaces", namespaces);
+
+    JsonArray directories = new JsonArray();
+    for (Map.Entry<String, Long> entry : getDirectorySizes().entrySet()) {
+      JsonObject directory = new JsonObject();
+      directory.addProperty("path", entry.getKey());
+      directory.addProperty("size", entry.getValue());
+      directories.add(directory);
+    }
+    report.add("directories", directories);
+
+    return new GsonBuilder().setPrettyPrinting().create().toJson(report);
+  }
+
+  /**
+   * @return the report as text tables of the files, namespaces and
+   *     directories, each in descending order of size
+   */
+  @Override
+  public String toString() {
+    StringBuilder report = new StringBuilder();
+    report.append(String.format("Manifest size: %d bytes in %d files%n",
+        this.totalSize, this.graph.size()));
+
+    List<Integer> ids = getIdsByRetainedSize();
+    report.append(String.format("%nFiles (retained bytes, bytes, path, "
+        + "dominator):%n"));
+    for (int id : ids) {
+      report.append(String.format("%12d  %10d  %s%s%n",
+          this.retainedSizes[id], this.sizes[id],
+          getPath(this.graph.getSource(id)),
+          (this.dominators[id] >= 0) ? "  <- " + getPath(
+              this.graph.getSource(this.dominators[id])) : ""));
+    }
+
+    report.append(String.format("%nNamespaces (cost of requiring the "
+        + "namespace in retained bytes, namespace):%n"));
+    for (int id : ids) {
+      for (String provide : this.graph.getSource(id).getProvides()) {
+        report.append(String.format("%12d  %s%n", this.retainedSizes[id],
+            provide));
+      }
+    }
+
+    report.append(String.format("%nDirectories (bytes, path):%n"));
+    for (Map.Entry<String, Long> entry : getDirectorySizes().entrySet()) {
+      report.append(String.format("%12d  %s%n", entry.getValue(),
+          entry.getKey()));
+    }
+    return report.toString();
+  }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant.deps;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.io.File;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import org.closureant.base.ProvidesRequiresSourceFile;
+import org.closureant.util.ClosureBuildUtil;
+
+/**
+ * Partitions a manifest into shards that may be checked by separate Closure
+ * Compiler processes in parallel, such that every source is checked with all
+ * of its transitive dependencies.
+ *
+ * <p>The roots of the manifest are the sources that no other source of the
+ * manifest requires, such as the "main" sources, the providers of the
+ * namespace entry points and kept moochers. The closure of a root is the
+ * root and its transitive dependencies. Closures are assigned to shards in
+ * descending order of size: a closure that is contained in a shard is
+ * dropped, otherwise it opens a new shard until the maximum number of shards
+ * is reached, after which it is merged into the shard whose size grows the
+ * least. Independent components of the dependency graph therefore end up in
+ * separate shards, while closures that share most of their dependencies
+ * tend to share a shard.</p>
+ *
+ * <p>Closure's base.js is added to every shard. The sources of each shard
+ * are in the order of the manifest, so if the manifest is topologically
+ * sorted, so is every shard.</p>
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ */
+public final class CheckShardPartitioner {
+  private CheckShardPartitioner() {}
+
+  /**
+   * Partitions a manifest into shards, where the size of each source is the
+   * length in bytes of its file.
+   *
+   * @param manifest the sources of the manifest
+   * @param maxShards the maximum number of shards
+   * @return the shards in descending order of size, each listing its sources
+   *     in the order of the manifest
+   * @throws IllegalArgumentException if {@code maxShards} is less than 1
+   */
+  public static <S extends ProvidesRequiresSourceFile> List<List<S>>
+      partition(List<S> manifest, int maxShards) {
+    return partition(manifest, maxShards, new Function<S, Long>() {
+      @Override public Long apply(S source) {
+        return new File(source.getAbsolutePath()).length();
+      }
+    });
+  }
+
+  /**
+   * Partitions a manifest into shards.
+   *
+   * @param manifest the sources of the manifest
+   * @param maxShards the maximum number of shards
+   * @param sizeFunction the function used to measure the size of a source
+   * @return the shards in descending order of size, each listing its sources
+   *     in the order of the manifest
+   * @throws IllegalArgumentException if {@code maxShards} is less than 1
+   */
+  public static <S extends ProvidesRequiresSourceFile> List<List<S>>
+      partition(List<S> manifest, int maxShards,
+          Function<? super S, Long> sizeFunction) {
+    Preconditions.checkArgument(maxShards >= 1,
+        "maxShards expected to be at least 1 but was %s", maxShards);
+    Preconditions.checkNotNull(sizeFunction, "sizeFunction was null");
+    List<S> sources = ImmutableSet.copyOf(manifest).asList();
+    Map<String, S> provideToSource = Maps.newHashMap();
+    for (S source : sources) {
+      for (String provide : source.getProvides()) {
+        if (!provideToSource.containsKey(provide)) {
+          provideToSource.put(provide, source);
+        }
+      }
+    }
+    DependencyGraph<S> graph = DependencyGraph.create(sources,
+        provideToSource);
+    int n = graph.size();
+    final long[] sizes = new long[n];
+    BitSet baseJs = new BitSet(n);
+    List<BitSet> roots = Lists.newArrayList();
+    for (int id = 0; id < n; id++) {
+      S source = graph.getSource(id);
+      sizes[id] = sizeFunction.apply(source);
+      if (ClosureBuildUtil.isClosureBaseJs(source)) {
+        baseJs.set(id);
+      } else if (graph.getDependentCount(id) == 0) {
+        BitSet root = new BitSet(n);
+        root.set(id);
+        roots.add(root);
+      }
+    }
+    List<BitSet> closures = BatchManifestBuilder.getTransitiveDependencies(
+        graph, roots);
+
+    // Sources that are not reachable from a root depend on each other in a
+    // cycle, so the first of them in the manifest is made a root.
+    BitSet covered = (BitSet) baseJs.clone();
+    for (BitSet closure : closures) {
+      covered.or(closure);
+    }
+    for (int id = covered.nextClearBit(0); id < n;
+        id = covered.nextClearBit(id + 1)) {
+      BitSet root = new BitSet(n);
+      root.set(id);
+      BitSet closure = graph.getTransitiveDependencies(root);
+      closures.add(closure);
+      covered.or(closure);
+    }
+    if (closures.isEmpty()) {
+      closures.add(new BitSet(n));
+    }
+
+    Comparator<BitSet> bySizeDescending = new Comparator<BitSet>() {
+      @Override public int compare(BitSet a, BitSet b) {
+        long difference = getSize(b, sizes) - getSize(a, sizes);
+        return (difference != 0) ? ((difference > 0) ? 1 : -1) : 0;
+      }
+    };
+    Collections.sort(closures, bySizeDescending);
+    List<BitSet> shards = Lists.newArrayList();
+    for (BitSet closure : closures) {
+      boolean isContained = false;
+      BitSet smallestUnion = null;
+      int smallest = -1;
+      for (int i = 0; i < shards.size(); i++) {
+        BitSet union = (BitSet) shards.get(i).clone();
+        union.or(closure);
+        if (union.equals(shards.get(i))) {
+          isContained = true;
+          break;
+        }
+        if (smallestUnion == null
+            || getSize(union, sizes) < getSize(smallestUnion, sizes)) {
+          smallest = i;
+          smallestUnion = union;
+        }
+      }
+      if (isContained) {
+        continue;
+      }
+      if (shards.size() < maxShards) {
+        shards.add((BitSet) closure.clone());
+      } else {
+        shards.set(smallest, smallestUnion);
+      }
+    }
+    Collections.sort(shards, bySizeDescending);
+
+    ImmutableList.Builder<List<S>> result = ImmutableList.builder();
+    for (BitSet shard : shards) {
+      shard.or(baseJs);
+      result.add(graph.getSources(shard));
+    }
+    return result.build();
+  }
+
+  private static long getSize(BitSet ids, long[] sizes) {
+    long size = 0;
+    for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+      size += sizes[id];
+    }
+    return size;
+  }
+}
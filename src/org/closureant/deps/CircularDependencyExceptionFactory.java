@@ -68,6 +68,38 @@ public final class CircularDependencyExceptionFactory {
     return new BasicCircularDependencyException(message);
   }
 
+  /**
+   * Create a new instance of {@link CircularDependencyException} for a known
+   * cycle.
+   *
+   * @param cycle the sources forming the cycle, where each source {@code
+   *     goog.requires} a namespace provided by the next source and the last
+   *     source requires a namespace provided by the first source
+   * @return a new instance of {@link CircularDependencyException} with a
+   *     detail message showing the cycle
+   */
+  static <E extends ProvidesRequiresSourceFile>
+      CircularDependencyException newCircularDependencyException(
+          List<E> cycle) {
+    return new BasicCircularDependencyException(
+        cycleToString(Lists.reverse(cycle)));
+  }
+
+  /**
+   * Create a new instance of {@link CircularDependencyException} for a
+   * source that {@code goog.requires} a namespace that it {@code
+   * goog.provides} itself, which is a cycle of one source.
+   *
+   * @param namespace the namespace provided and required by the source
+   * @return a new instance of {@link CircularDependencyException} with a
+   *     detail message showing the cycle
+   */
+  static CircularDependencyException newSelfRequireException(
+      String namespace) {
+    return new BasicCircularDependencyException(
+        Joiner.on(" -> ").join(namespace, namespace));
+  }
+
   /**
    * Returns the first circular dependency found. Expressed as a list of
    * items in reverse dependency order (the second element depends on the
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant.deps;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * A Closure Compiler module (also known as a chunk): a named, ordered list
+ * of sources that is compiled to a separate output file, and the names of
+ * the modules that must be loaded before it.
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ *
+ * @param <S> the type of source file
+ */
+public final class CompilerModule<S> {
+
+  private final String name;
+  private final List<S> sources;
+  private final List<String> dependencies;
+
+  /**
+   * Constructs a {@link CompilerModule}.
+   *
+   * @param name the module name
+   * @param sources the sources of the module in the order they are compiled
+   * @param dependencies the names of the modules this module depends on
+   * @throws NullPointerException if any of the arguments are {@code null}
+   */
+  public CompilerModule(String name, List<S> sources,
+      List<String> dependencies) {
+    this.name = Preconditions.checkNotNull(name, "name was null");
+    this.sources = ImmutableList.copyOf(sources);
+    this.dependencies = ImmutableList.copyOf(dependencies);
+  }
+
+  /**
+   * @return the module name
+   */
+  public String getName() {
+    return this.name;
+  }
+
+  /**
+   * @return the sources of the module in the order they are compiled
+   */
+  public List<S> getSources() {
+    return this.sources;
+  }
+
+  /**
+   * @return the names of the modules this module directly depends on
+   */
+  public List<String> getDependencies() {
+    return this.dependencies;
+  }
+
+  /**
+   * Gets the module specification passed to the Closure Compiler flag
+   * {@code --module}, in the format "{@literal
+   * <name>:<num-js-files>[:<dep>,...]}". The sources of the module must be
+   * passed to the compiler in order, following the sources of the modules
+   * that precede it.
+   *
+   * @return the module specification
+   */
+  public String toModuleFlag() {
+    StringBuilder flag = new StringBuilder();
+    flag.append(this.name).append(':').append(this.sources.size());
+    if (!this.dependencies.isEmpty()) {
+      flag.append(':').append(Joiner.on(',').join(this.dependencies));
+    }
+    return flag.toString();
+  }
+
+  @Override
+  public String toString() {
+    return toModuleFlag();
+  }
+}
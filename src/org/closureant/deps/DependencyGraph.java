@@ -0,0 +1,861 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant.deps;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import org.closureant.base.NamespaceSet;
+import org.closureant.base.NamespaceTable;
+import org.closureant.base.ProvidesRequiresSourceFile;
+import org.closureant.util.ClosureBuildUtil;
+
+/**
+ * An immutable dependency graph of source files in which each source is
+ * identified by its integer index in the list of sources used to create the
+ * graph. The index doubles as the original order of the sources, so that
+ * stable topological sorts only have to compare integers.
+ *
+ * <p>The edges are stored in compressed sparse row (CSR) form: the direct
+ * dependencies of source {@code i} are the entries {@code
+ * dependencies[dependencyOffsets[i]]} up to, but excluding, {@code
+ * dependencies[dependencyOffsets[i + 1]]}, in ascending order. The reverse
+ * edges (the direct dependents of each source) are stored the same way. A
+ * graph of {@code n} sources with {@code e} edges therefore takes {@code
+ * 2(n + e)} integers, and traversals do not box, hash or allocate per
+ * edge.</p>
+ *
+ * <p>Sets of sources are represented by {@link BitSet}s of source ids.</p>
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ *
+ * @param <S> the type of source file, which must implement {@link
+ *     ProvidesRequiresSourceFile}
+ */
+public final class DependencyGraph<S extends ProvidesRequiresSourceFile> {
+
+  private final List<S> sources;
+  private final Map<S, Integer> sourceToId;
+  private final int[] dependencyOffsets;
+  private final int[] dependencies;
+  private final int[] dependentOffsets;
+  private final int[] dependents;
+
+  // Requires that are not provided by any source, as parallel arrays in the
+  // order of the sources and their requires.
+  private final int[] missingProvideSources;
+  private final String[] missingProvides;
+
+  // Requires of a namespace that is provided by the requiring source itself,
+  // which do not create edges, as parallel arrays in the order of the
+  // sources and their requires.
+  private final int[] selfRequireSources;
+  private final String[] selfRequires;
+
+  private DependencyGraph(List<S> sources, Map<S, Integer> sourceToId,
+      int[] dependencyOffsets, int[] dependencies,
+      int[] missingProvideSources, String[] missingProvides,
+      int[] selfRequireSources, String[] selfRequires) {
+    this.sources = sources;
+    this.sourceToId = sourceToId;
+    this.dependencyOffsets = dependencyOffsets;
+    this.dependencies = dependencies;
+    this.missingProvideSources = missingProvideSources;
+    this.missingProvides = missingProvides;
+    this.selfRequireSources = selfRequireSources;
+    this.selfRequires = selfRequires;
+
+    // Invert the edges. Since the sources are visited in ascending order,
+    // the dependents of each source are in ascending order as well.
+    int size = sources.size();
+    this.dependentOffsets = new int[size + 1];
+    for (int dependency : dependencies) {
+      this.dependentOffsets[dependency + 1]++;
+    }
+    for (int i = 0; i < size; i++) {
+      this.dependentOffsets[i + 1] += this.dependentOffsets[i];
+    }
+    this.dependents = new int[dependencies.length];
+    int[] next = Arrays.copyOf(this.dependentOffsets, size);
+    for (int id = 0; id < size; id++) {
+      for (int e = dependencyOffsets[id]; e < dependencyOffsets[id + 1]; e++) {
+        this.dependents[next[dependencies[e]]++] = id;
+      }
+    }
+  }
+
+  /**
+   * Creates a dependency graph in which source {@code A} depends on source
+   * {@code B} if {@code A} {@code goog.requires} a namespace that is {@code
+   * goog.provided} by {@code B}. Requires of namespaces that are not
+   * provided, or that are provided by a source that is not in {@code
+   * sources}, do not create edges. The former are recorded and may be
+   * checked with {@link #checkAllProvided(BitSet)}. Requires of a namespace
+   * that is provided by the requiring source itself do not create edges
+   * either, but are recorded as well (see {@link #getSelfRequireCount()}).
+   *
+   * @param sources the sources in their original order
+   * @param provideToSource map of {@code goog.provided} namespaces to the
+   *     sources in which they are provided
+   * @return a new dependency graph
+   * @throws NullPointerException if {@code sources} or {@code
+   *     provideToSource} is {@code null}
+   */
+  public static <S extends ProvidesRequiresSourceFile> DependencyGraph<S>
+      create(List<S> sources, Map<String, S> provideToSource) {
+    Preconditions.checkNotNull(sources, "sources was null");
+    Preconditions.checkNotNull(provideToSource, "provideToSource was null");
+
+    Map<S, Integer> sourceToId = createSourceToId(sources);
+    EdgeBuilder edges = new EdgeBuilder(sources.size());
+    IntArray missingProvideSources = new IntArray();
+    List<String> missingProvides = Lists.newArrayList();
+    IntArray selfRequireSources = new IntArray();
+    List<String> selfRequires = Lists.newArrayList();
+
+    int namespaceCount = countInternedNamespaces(sources);
+    if (namespaceCount >= 0) {
+      // Resolve the requires with an array indexed by namespace id.
+      int[] providerOf = new int[namespaceCount];
+      Arrays.fill(providerOf, -1);
+      for (int id = 0; id < sources.size(); id++) {
+        S source = sources.get(id);
+        NamespaceSet provides = (NamespaceSet) source.getProvides();
+        for (int i = 0; i < provides.size(); i++) {
+          if (provideToSource.get(provides.get(i)) == source) {
+            providerOf[provides.getId(i)] = id;
+          }
+        }
+      }
+      for (int id = 0; id < sources.size(); id++) {
+        NamespaceSet requires = (NamespaceSet) sources.get(id).getRequires();
+        for (int i = 0; i < requires.size(); i++) {
+          int dependency = providerOf[requires.getId(i)];
+          if (dependency == id) {
+            selfRequireSources.add(id);
+            selfRequires.add(requires.get(i));
+          } else if (dependency >= 0) {
+            edges.add(dependency);
+          } else if (!provideToSource.containsKey(requires.get(i))) {
+            missingProvideSources.add(id);
+            missingProvides.add(requires.get(i));
+          }
+        }
+        edges.endSource(id);
+      }
+    } else {
+      Map<String, Integer> provideToId = Maps.newHashMap();
+      for (Map.Entry<String, S> entry : provideToSource.entrySet()) {
+        Integer id = sourceToId.get(entry.getValue());
+        if (id != null) {
+          provideToId.put(entry.getKey(), id);
+        }
+      }
+      for (int id = 0; id < sources.size(); id++) {
+        for (String require : sources.get(id).getRequires()) {
+          Integer dependency = provideToId.get(require);
+          if (dependency != null && dependency == id) {
+            selfRequireSources.add(id);
+            selfRequires.add(require);
+          } else if (dependency != null) {
+            edges.add(dependency);
+          } else if (!provideToSource.containsKey(require)) {
+            missingProvideSources.add(id);
+            missingProvides.add(require);
+          }
+        }
+        edges.endSource(id);
+      }
+    }
+    return new DependencyGraph<S>(ImmutableList.copyOf(sources), sourceToId,
+        edges.offsets, edges.dependencies.toArray(),
+        missingProvideSources.toArray(),
+        missingProvides.toArray(new String[missingProvides.size()]),
+        selfRequireSources.toArray(),
+        selfRequires.toArray(new String[selfRequires.size()]));
+  }
+
+  /**
+   * Determines if the provides and requires of all sources are {@link
+   * NamespaceSet}s interned in the same {@link NamespaceTable}, which carry
+   * the ids of their namespaces.
+   *
+   * @return one more than the largest namespace id of the sources, which is
+   *     the size of an array indexed by their namespace ids, or -1 if the
+   *     namespaces are not interned in the same table
+   */
+  private static int countInternedNamespaces(
+      List<? extends ProvidesRequiresSourceFile> sources) {
+    NamespaceTable table = null;
+    int count = 0;
+    for (ProvidesRequiresSourceFile source : sources) {
+      if (!(source.getProvides() instanceof NamespaceSet)
+          || !(source.getRequires() instanceof NamespaceSet)) {
+        return -1;
+      }
+      NamespaceSet provides = (NamespaceSet) source.getProvides();
+      NamespaceSet requires = (NamespaceSet) source.getRequires();
+      if (table == null) {
+        table = provides.isEmpty() ? requires.getTable() : provides.getTable();
+      }
+      int providesCount = countIds(provides, table);
+      int requiresCount = countIds(requires, table);
+      if (providesCount < 0 || requiresCount < 0) {
+        return -1;
+      }
+      count = Math.max(count, Math.max(providesCount, requiresCount));
+    }
+    return count;
+  }
+
+  /**
+   * @return one more than the largest namespace id of {@code namespaces} or
+   *     -1 if they are not interned in {@code table}
+   */
+  private static int countIds(NamespaceSet namespaces, NamespaceTable table) {
+    if (namespaces.isEmpty()) {
+      return 0;
+    }
+    if (table == null || namespaces.getTable() != table) {
+      return -1;
+    }
+    int count = 0;
+    for (int i = 0; i < namespaces.size(); i++) {
+      count = Math.max(count, namespaces.getId(i) + 1);
+    }
+    return count;
+  }
+
+  /**
+   * Creates a dependency graph from a multimap of sources to their direct
+   * dependencies. Dependencies that are not in {@code sources} are ignored.
+   *
+   * @param sources the sources in their original order
+   * @param sourceToDependencies multimap from sources to their direct
+   *     dependencies
+   * @return a new dependency graph
+   * @throws NullPointerException if {@code sources} or {@code
+   *     sourceToDependencies} is {@code null}
+   */
+  public static <S extends ProvidesRequiresSourceFile> DependencyGraph<S>
+      create(List<S> sources, Multimap<S, S> sourceToDependencies) {
+    Preconditions.checkNotNull(sources, "sources was null");
+    Preconditions.checkNotNull(sourceToDependencies,
+        "sourceToDependencies was null");
+
+    Map<S, Integer> sourceToId = createSourceToId(sources);
+    EdgeBuilder edges = new EdgeBuilder(sources.size());
+    for (int id = 0; id < sources.size(); id++) {
+      for (S dependency : sourceToDependencies.get(sources.get(id))) {
+        Integer dependencyId = sourceToId.get(dependency);
+        if (dependencyId != null) {
+          edges.add(dependencyId);
+        }
+      }
+      edges.endSource(id);
+    }
+    return new DependencyGraph<S>(ImmutableList.copyOf(sources), sourceToId,
+        edges.offsets, edges.dependencies.toArray(), new int[0],
+        new String[0], new int[0], new String[0]);
+  }
+
+  private static <S> Map<S, Integer> createSourceToId(List<S> sources) {
+    Map<S, Integer> sourceToId =
+        Maps.newHashMapWithExpectedSize(sources.size());
+    for (int id = 0; id < sources.size(); id++) {
+      if (!sourceToId.containsKey(sources.get(id))) {
+        sourceToId.put(sources.get(id), id);
+      }
+    }
+    return sourceToId;
+  }
+
+  /**
+   * @return the number of sources in the graph
+   */
+  public int size() {
+    return this.sources.size();
+  }
+
+  /**
+   * @param id a source id
+   * @return the source with id {@code id}
+   * @throws IndexOutOfBoundsException if {@code id} is not a source id
+   */
+  public S getSource(int id) {
+    return this.sources.get(id);
+  }
+
+  /**
+   * @param source a source file
+   * @return the id of {@code source} or -1 if it is not in the graph
+   */
+  public int getId(S source) {
+    Integer id = this.sourceToId.get(source);
+    return (id != null) ? id : -1;
+  }
+
+  /**
+   * Gets the ids of the given sources.
+   *
+   * @param sources source files in the graph
+   * @return a new set of the ids of {@code sources}
+   * @throws IllegalArgumentException if one of the sources is not in the
+   *     graph
+   */
+  public BitSet getIds(Collection<S> sources) {
+    BitSet ids = new BitSet(size());
+    for (S source : sources) {
+      int id = getId(source);
+      Preconditions.checkArgument(id >= 0, "source \"%s\" is not in the graph",
+          source.getName());
+      ids.set(id);
+    }
+    return ids;
+  }
+
+  /**
+   * @return a new set containing the ids of all sources in the graph
+   */
+  public BitSet getAllIds() {
+    BitSet ids = new BitSet(size());
+    ids.set(0, size());
+    return ids;
+  }
+
+  /**
+   * @param id a source id
+   * @return the number of direct dependencies of source {@code id}
+   */
+  public int getDependencyCount(int id) {
+    return this.dependencyOffsets[id + 1] - this.dependencyOffsets[id];
+  }
+
+  /**
+   * @param id a source id
+   * @param index the index of the dependency, from 0 to {@link
+   *     #getDependencyCount(int)} - 1
+   * @return the id of a direct dependency of source {@code id}. The
+   *     dependencies of a source are in ascending order of their ids.
+   */
+  public int getDependency(int id, int index) {
+    return this.dependencies[this.dependencyOffsets[id] + index];
+  }
+
+  /**
+   * @param id a source id
+   * @return the number of sources that directly depend on source {@code id}
+   */
+  public int getDependentCount(int id) {
+    return this.dependentOffsets[id + 1] - this.dependentOffsets[id];
+  }
+
+  /**
+   * @param id a source id
+   * @param index the index of the dependent, from 0 to {@link
+   *     #getDependentCount(int)} - 1
+   * @return the id of a source that directly depends on source {@code id}.
+   *     The dependents of a source are in ascending order of their ids.
+   */
+  public int getDependent(int id, int index) {
+    return this.dependents[this.dependentOffsets[id] + index];
+  }
+
+  /**
+   * Gets the given sources together with all of their transitive
+   * dependencies.
+   *
+   * @param roots the ids of the sources
+   * @return a new set of source ids
+   */
+  public BitSet getTransitiveDependencies(BitSet roots) {
+    BitSet included = (BitSet) roots.clone();
+    int[] worklist = new int[size()];
+    int count = 0;
+    for (int id = roots.nextSetBit(0); id >= 0; id = roots.nextSetBit(id + 1)) {
+      worklist[count++] = id;
+    }
+    while (count > 0) {
+      int id = worklist[--count];
+      for (int e = this.dependencyOffsets[id];
+           e < this.dependencyOffsets[id + 1]; e++) {
+        int dependency = this.dependencies[e];
+        if (!included.get(dependency)) {
+          included.set(dependency);
+          worklist[count++] = dependency;
+        }
+      }
+    }
+    return included;
+  }
+
+  /**
+   * Gets the given sources together with all of the sources that
+   * transitively depend on them.
+   *
+   * @param ids the ids of the sources
+   * @return a new set of source ids
+   */
+  public BitSet getTransitiveDependents(BitSet ids) {
+    BitSet included = (BitSet) ids.clone();
+    int[] worklist = new int[size()];
+    int count = 0;
+    for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+      worklist[count++] = id;
+    }
+    while (count > 0) {
+      int id = worklist[--count];
+      for (int e = this.dependentOffsets[id];
+           e < this.dependentOffsets[id + 1]; e++) {
+        int dependent = this.dependents[e];
+        if (!included.get(dependent)) {
+          included.set(dependent);
+          worklist[count++] = dependent;
+        }
+      }
+    }
+    return included;
+  }
+
+  /**
+   * Verifies that every namespace {@code goog.required} by the given sources
+   * is {@code goog.provided}.
+   *
+   * @param ids the ids of the sources to check
+   * @throws MissingProvideException for the first source, in the original
+   *     order, that {@code goog.requires} a namespace that is never {@code
+   *     goog.provided}
+   */
+  public void checkAllProvided(BitSet ids) {
+    for (int i = 0; i < this.missingProvideSources.length; i++) {
+      if (ids.get(this.missingProvideSources[i])) {
+        throw new MissingProvideException(this.missingProvides[i],
+            this.sources.get(this.missingProvideSources[i]));
+      }
+    }
+  }
+
+  /**
+   * @return the number of {@code goog.requires} of namespaces that are never
+   *     {@code goog.provided}
+   */
+  public int getMissingProvideCount() {
+    return this.missingProvides.length;
+  }
+
+  /**
+   * @param index the index of a missing provide, from 0 to {@link
+   *     #getMissingProvideCount()} - 1. Missing provides are in the original
+   *     order of the sources that require them.
+   * @return the id of the source that requires the missing namespace
+   */
+  public int getMissingProvideSource(int index) {
+    return this.missingProvideSources[index];
+  }
+
+  /**
+   * @param index the index of a missing provide, from 0 to {@link
+   *     #getMissingProvideCount()} - 1
+   * @return the namespace that is required but never provided
+   */
+  public String getMissingProvide(int index) {
+    return this.missingProvides[index];
+  }
+
+  /**
+   * @return the number of {@code goog.requires} of namespaces that are
+   *     {@code goog.provided} by the requiring source itself
+   */
+  public int getSelfRequireCount() {
+    return this.selfRequires.length;
+  }
+
+  /**
+   * @param index the index of a self-require, from 0 to {@link
+   *     #getSelfRequireCount()} - 1. Self-requires are in the original order
+   *     of the sources that require them.
+   * @return the id of the source that requires its own namespace
+   */
+  public int getSelfRequireSource(int index) {
+    return this.selfRequireSources[index];
+  }
+
+  /**
+   * @param index the index of a self-require, from 0 to {@link
+   *     #getSelfRequireCount()} - 1
+   * @return the namespace that is both provided and required by the source
+   */
+  public String getSelfRequire(int index) {
+    return this.selfRequires[index];
+  }
+
+  /**
+   * Finds the strongly connected components of the graph that contain a
+   * cycle, using an iterative version of Tarjan's algorithm that runs in
+   * time linear in the size of the graph. Since self-edges are dropped,
+   * these are the components with more than one source.
+   *
+   * @return the ids of the sources of each cyclic component in ascending
+   *     order. The components are in ascending order of their first id.
+   */
+  public List<int[]> getCyclicComponents() {
+    int size = size();
+    int[] index = new int[size];
+    int[] lowLink = new int[size];
+    Arrays.fill(index, -1);
+    BitSet onStack = new BitSet(size);
+    int[] stack = new int[size];
+    int stackSize = 0;
+    int[] callStack = new int[size];
+    int[] nextDependency = new int[size];
+    int nextIndex = 0;
+    List<int[]> components = Lists.newArrayList();
+
+    for (int root = 0; root < size; root++) {
+      if (index[root] >= 0) {
+        continue;
+      }
+      int depth = 0;
+      callStack[0] = root;
+      nextDependency[0] = this.dependencyOffsets[root];
+      index[root] = lowLink[root] = nextIndex++;
+      stack[stackSize++] = root;
+      onStack.set(root);
+      while (depth >= 0) {
+        int id = callStack[depth];
+        if (nextDependency[depth] < this.dependencyOffsets[id + 1]) {
+          int dependency = this.dependencies[nextDependency[depth]++];
+          if (index[dependency] < 0) {
+            index[dependency] = lowLink[dependency] = nextIndex++;
+            stack[stackSize++] = dependency;
+            onStack.set(dependency);
+            depth++;
+            callStack[depth] = dependency;
+            nextDependency[depth] = this.dependencyOffsets[dependency];
+          } else if (onStack.get(dependency)) {
+            lowLink[id] = Math.min(lowLink[id], index[dependency]);
+          }
+        } else {
+          if (lowLink[id] == index[id]) {
+            int start = stackSize;
+            do {
+              onStack.clear(stack[--start]);
+            } while (stack[start] != id);
+            if (stackSize - start > 1) {
+              int[] component = Arrays.copyOfRange(stack, start, stackSize);
+              Arrays.sort(component);
+              components.add(component);
+            }
+            stackSize = start;
+          }
+          depth--;
+          if (depth >= 0) {
+            int parent = callStack[depth];
+            lowLink[parent] = Math.min(lowLink[parent], lowLink[id]);
+          }
+        }
+      }
+    }
+
+    Collections.sort(components, new Comparator<int[]>() {
+      @Override public int compare(int[] a, int[] b) {
+        return (a[0] < b[0]) ? -1 : ((a[0] == b[0]) ? 0 : 1);
+      }
+    });
+    return components;
+  }
+
+  /**
+   * Gets the sources with the given ids in their original order.
+   *
+   * @param ids source ids
+   * @return a new list of sources
+   */
+  public List<S> getSources(BitSet ids) {
+    ImmutableList.Builder<S> builder = ImmutableList.builder();
+    for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+      builder.add(this.sources.get(id));
+    }
+    return builder.build();
+  }
+
+  /**
+   * Gets the sources with the given ids in the order of the ids.
+   *
+   * @param ids source ids
+   * @return a new list of sources
+   */
+  public List<S> getSources(int[] ids) {
+    ImmutableList.Builder<S> builder = ImmutableList.builder();
+    for (int id : ids) {
+      builder.add(this.sources.get(id));
+    }
+    return builder.build();
+  }
+
+  /**
+   * Topologically sorts the given sources in a stable order using a
+   * depth-first search. See {@link
+   * ClosureBuildUtil#topologicalStableSortDepthFirstSearch(List,
+   * Multimap)}. If Closure's base.js is one of the sources, it is always
+   * first. Dependencies outside of {@code ids} are ignored.
+   *
+   * @param ids the ids of the sources to sort
+   * @return the sorted source ids
+   * @throws CircularDependencyException if a cycle is formed by the
+   *     dependency graph of the sources
+   */
+  public int[] topologicalStableSortDepthFirstSearch(BitSet ids) {
+    int count = ids.cardinality();
+    int[] sorted = new int[count];
+    int sortedCount = 0;
+    BitSet visited = new BitSet(size());
+
+    int baseJs = -1;
+    for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+      if (ClosureBuildUtil.isClosureBaseJs(this.sources.get(id))) {
+        baseJs = id;
+      }
+    }
+    if (baseJs >= 0) {
+      sorted[sortedCount++] = baseJs;
+      visited.set(baseJs);
+    }
+
+    // Explicit stacks of sources and of the index of the next dependency to
+    // visit, so that long dependency chains do not overflow the call stack.
+    int[] stack = new int[count];
+    int[] nextDependency = new int[count];
+
+    // Visit each source "n" that no other source depends on, recursively
+    // visiting each source "m" that "n" depends on (i.e. "n" contains a call
+    // to goog.require(m)).
+    for (int root = ids.nextSetBit(0); root >= 0;
+         root = ids.nextSetBit(root + 1)) {
+      if (root == baseJs || visited.get(root) || hasDependentIn(root, ids)) {
+        continue;
+      }
+      int depth = 0;
+      stack[0] = root;
+      nextDependency[0] = this.dependencyOffsets[root];
+      visited.set(root);
+      while (depth >= 0) {
+        int id = stack[depth];
+        if (nextDependency[depth] < this.dependencyOffsets[id + 1]) {
+          int dependency = this.dependencies[nextDependency[depth]++];
+          if (ids.get(dependency) && !visited.get(dependency)) {
+            visited.set(dependency);
+            depth++;
+            stack[depth] = dependency;
+            nextDependency[depth] = this.dependencyOffsets[dependency];
+          }
+        } else {
+          sorted[sortedCount++] = id;
+          depth--;
+        }
+      }
+    }
+
+    // The dependency graph has a cycle iff the sorted sources are a proper
+    // subset of the sources.
+    if (sortedCount < count) {
+      throw newCircularDependencyException(sorted, sortedCount, ids);
+    }
+    return sorted;
+  }
+
+  /**
+   * Topologically sorts the given sources in a stable order using the Kahn
+   * algorithm. See {@link
+   * ClosureBuildUtil#topologicalStableSortKahnAlgorithm(List, Multimap)}.
+   * Dependencies outside of {@code ids} are ignored.
+   *
+   * @param ids the ids of the sources to sort
+   * @return the sorted source ids
+   * @throws CircularDependencyException if a cycle is formed by the
+   *     dependency graph of the sources
+   */
+  public int[] topologicalStableSortKahnAlgorithm(BitSet ids) {
+    int count = ids.cardinality();
+    int[] sorted = new int[count];
+    int sortedCount = 0;
+    int[] inDegree = new int[size()];
+    IntHeap inDegreeZero = new IntHeap(count);
+
+    // First, add all the sources with in-degree 0.
+    for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+      for (int e = this.dependencyOffsets[id];
+           e < this.dependencyOffsets[id + 1]; e++) {
+        if (ids.get(this.dependencies[e])) {
+          inDegree[id]++;
+        }
+      }
+      if (inDegree[id] == 0) {
+        inDegreeZero.add(id);
+      }
+    }
+
+    // Then, iterate to a fixed point over the reverse dependency graph.
+    while (!inDegreeZero.isEmpty()) {
+      int id = inDegreeZero.remove();
+      sorted[sortedCount++] = id;
+      for (int e = this.dependentOffsets[id];
+           e < this.dependentOffsets[id + 1]; e++) {
+        int dependent = this.dependents[e];
+        if (ids.get(dependent) && --inDegree[dependent] == 0) {
+          inDegreeZero.add(dependent);
+        }
+      }
+    }
+
+    if (sortedCount < count) {
+      throw newCircularDependencyException(sorted, sortedCount, ids);
+    }
+    return sorted;
+  }
+
+  private boolean hasDependentIn(int id, BitSet ids) {
+    for (int e = this.dependentOffsets[id]; e < this.dependentOffsets[id + 1];
+         e++) {
+      if (ids.get(this.dependents[e])) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private CircularDependencyException newCircularDependencyException(
+      int[] sorted, int sortedCount, BitSet ids) {
+    return CircularDependencyExceptionFactory.newCircularDependencyException(
+        getSources(Arrays.copyOf(sorted, sortedCount)), getSources(ids));
+  }
+
+
+  //----------------------------------------------------------------------------
+
+
+  /**
+   * Accumulates the CSR dependency arrays one source at a time. The
+   * dependencies of each source are sorted and duplicates and self-edges
+   * are removed.
+   */
+  private static final class EdgeBuilder {
+    final int[] offsets;
+    final IntArray dependencies;
+
+    EdgeBuilder(int size) {
+      this.offsets = new int[size + 1];
+      this.dependencies = new IntArray();
+    }
+
+    void add(int dependency) {
+      this.dependencies.add(dependency);
+    }
+
+    void endSource(int id) {
+      int start = this.offsets[id];
+      int end = this.dependencies.size;
+      int[] values = this.dependencies.values;
+      Arrays.sort(values, start, end);
+      int last = start;
+      for (int i = start; i < end; i++) {
+        if (values[i] != id
+            && (last == start || values[last - 1] != values[i])) {
+          values[last++] = values[i];
+        }
+      }
+      this.dependencies.size = last;
+      this.offsets[id + 1] = last;
+    }
+  }
+
+  /** A growable array of primitive integers. */
+  private static final class IntArray {
+    int[] values = new int[16];
+    int size = 0;
+
+    void add(int value) {
+      if (this.size == this.values.length) {
+        this.values = Arrays.copyOf(this.values, this.size * 2);
+      }
+      this.values[this.size++] = value;
+    }
+
+    int[] toArray() {
+      return Arrays.copyOf(this.values, this.size);
+    }
+  }
+
+  /** A binary min-heap of primitive integers. */
+  private static final class IntHeap {
+    private final int[] heap;
+    private int size;
+
+    IntHeap(int capacity) {
+      this.heap = new int[Math.max(capacity, 1)];
+      this.size = 0;
+    }
+
+    boolean isEmpty() {
+      return this.size == 0;
+    }
+
+    void add(int value) {
+      int i = this.size++;
+      while (i > 0) {
+        int parent = (i - 1) >>> 1;
+        if (this.heap[parent] <= value) {
+          break;
+        }
+        this.heap[i] = this.heap[parent];
+        i = parent;
+      }
+      this.heap[i] = value;
+    }
+
+    int remove() {
+      int min = this.heap[0];
+      int last = this.heap[--this.size];
+      int i = 0;
+      int half = this.size >>> 1;
+      while (i < half) {
+        int child = 2 * i + 1;
+        if (child + 1 < this.size && this.heap[child + 1] < this.heap[child]) {
+          child++;
+        }
+        if (last <= this.heap[child]) {
+          break;
+        }
+        this.heap[i] = this.heap[child];
+        i = child;
+      }
+      this.heap[i] = last;
+      return min;
+    }
+  }
+}
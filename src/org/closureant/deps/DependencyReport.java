@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant.deps;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.closureant.base.ProvidesRequiresSourceFile;
+
+/**
+ * A report of every dependency error among a list of source files: every
+ * namespace that is {@code goog.provided} by more than one source, every
+ * {@code goog.required} namespace that is never provided, every namespace
+ * that is {@code goog.required} by the source that provides it, and every
+ * group of sources whose dependencies form a cycle. Unlike {@link ManifestBuilder},
+ * which stops at the first error, the report is created in a single pass
+ * over the dependency graph that takes time linear in the size of the graph,
+ * so that all errors can be fixed before the next build.
+ *
+ * <p>Each error is represented by the exception that {@link ManifestBuilder}
+ * would throw for it, which provides both a detail message and the
+ * namespaces and sources involved.</p>
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ *
+ * @param <S> the type of source file, which must implement {@link
+ *     ProvidesRequiresSourceFile}
+ */
+public final class DependencyReport<S extends ProvidesRequiresSourceFile> {
+
+  private final List<MultipleProvideException> multipleProvides;
+  private final List<MissingProvideException> missingProvides;
+  private final List<CircularDependencyException> selfRequires;
+  private final List<List<S>> cycles;
+  private final List<CircularDependencyException> circularDependencies;
+
+  private DependencyReport(List<MultipleProvideException> multipleProvides,
+      List<MissingProvideException> missingProvides,
+      List<CircularDependencyException> selfRequires, List<List<S>> cycles,
+      List<CircularDependencyException> circularDependencies) {
+    this.multipleProvides = multipleProvides;
+    this.missingProvides = missingProvides;
+    this.selfRequires = selfRequires;
+    this.cycles = cycles;
+    this.circularDependencies = circularDependencies;
+  }
+
+  /**
+   * Creates a report of the dependency errors among the given sources. When
+   * a namespace is provided by more than one source, the first source in
+   * the original order is used to resolve the requires of the namespace.
+   * Sources that occur more than once are only considered once.
+   *
+   * @param sources the sources in their original order
+   * @return a new dependency report
+   * @throws NullPointerException if {@code sources} is {@code null}
+   */
+  public static <S extends ProvidesRequiresSourceFile> DependencyReport<S>
+      create(List<S> sources) {
+    return create(sources, sources, ImmutableList.<String>of());
+  }
+
+  /**
+   * Creates a report of the dependency errors among the sources that are
+   * reachable from the given entry points, that is, the errors that can
+   * affect a manifest of the entry points. Missing provides, self-requires
+   * and cycles of sources that are not reachable are not reported. Multiple
+   * provides are always reported, since {@link ManifestBuilder} rejects them
+   * regardless of the entry points.
+   *
+   * @param sources the sources in their original order
+   * @param mainSources the sources that are entry points
+   * @param namespaces the namespaces that are entry points. Namespaces that
+   *     are not provided are ignored.
+   * @return a new dependency report
+   * @throws IllegalArgumentException if one of the main sources is not in
+   *     {@code sources}
+   * @throws NullPointerException if an argument is {@code null}
+   */
+  public static <S extends ProvidesRequiresSourceFile> DependencyReport<S>
+      create(List<S> sources, Collection<S> mainSources,
+      Collection<String> namespaces) {
+    Preconditions.checkNotNull(sources, "sources was null");
+    Preconditions.checkNotNull(mainSources, "mainSources was null");
+    Preconditions.checkNotNull(namespaces, "namespaces was null");
+    List<S> distinctSources = ImmutableSet.copyOf(sources).asList();
+
+    // Map each namespace to its first provider, collecting all providers of
+    // namespaces that are provided more than once.
+    Map<String, S> provideToSource = Maps.newHashMap();
+    Map<String, List<S>> multipleProviders = Maps.newLinkedHashMap();
+    for (S source : distinctSources) {
+      for (String provide : source.getProvides()) {
+        S firstProvider = provideToSource.get(provide);
+        if (firstProvider == null) {
+          provideToSource.put(provide, source);
+        } else if (!firstProvider.equals(source)) {
+          List<S> providers = multipleProviders.get(provide);
+          if (providers == null) {
+            providers = Lists.newArrayList();
+            providers.add(firstProvider);
+            multipleProviders.put(provide, providers);
+          }
+          providers.add(source);
+        }
+      }
+    }
+    ImmutableList.Builder<MultipleProvideException> multipleProvides =
+        ImmutableList.builder();
+    for (Map.Entry<String, List<S>> entry : multipleProviders.entrySet()) {
+      multipleProvides.add(new MultipleProvideException(entry.getKey(),
+          ImmutableList.copyOf(entry.getValue())));
+    }
+
+    DependencyGraph<S> graph = DependencyGraph.create(distinctSources,
+        provideToSource);
+    BitSet roots = graph.getIds(mainSources);
+    for (String namespace : namespaces) {
+      S provider = provideToSource.get(namespace);
+      if (provider != null) {
+        roots.set(graph.getId(provider));
+      }
+    }
+    BitSet reachable = graph.getTransitiveDependencies(roots);
+
+    ImmutableList.Builder<MissingProvideException> missingProvides =
+        ImmutableList.builder();
+    for (int i = 0; i < graph.getMissingProvideCount(); i++) {
+      if (reachable.get(graph.getMissingProvideSource(i))) {
+        missingProvides.add(new MissingProvideException(
+            graph.getMissingProvide(i),
+            graph.getSource(graph.getMissingProvideSource(i))));
+      }
+    }
+    ImmutableList.Builder<CircularDependencyException> selfRequires =
+        ImmutableList.builder();
+    for (int i = 0; i < graph.getSelfRequireCount(); i++) {
+      if (reachable.get(graph.getSelfRequireSource(i))) {
+        selfRequires.add(CircularDependencyExceptionFactory
+            .newSelfRequireException(graph.getSelfRequire(i)));
+      }
+    }
+
+    ImmutableList.Builder<List<S>> cycles = ImmutableList.builder();
+    ImmutableList.Builder<CircularDependencyException> circularDependencies =
+        ImmutableList.builder();
+    int[] pathIndex = new int[graph.size()];
+    Arrays.fill(pathIndex, -1);
+    BitSet inComponent = new BitSet(graph.size());
+    for (int[] component : graph.getCyclicComponents()) {
+      // The sources of a component are either all reachable or none is.
+      if (!reachable.get(component[0])) {
+        continue;
+      }
+      cycles.add(graph.getSources(component));
+      for (int id : component) {
+        inComponent.set(id);
+      }
+      circularDependencies.add(
+          CircularDependencyExceptionFactory.newCircularDependencyException(
+              findCycle(graph, component[0], inComponent, pathIndex)));
+      inComponent.clear();
+    }
+
+    return new DependencyReport<S>(multipleProvides.build(),
+        missingProvides.build(), selfRequires.build(), cycles.build(),
+        circularDependencies.build());
+  }
+
+  /**
+   * Finds a cycle in a strongly connected component by following the first
+   * dependency inside the component from each source until a source repeats.
+   * Since every source of a cyclic component has a dependency inside the
+   * component, this takes time linear in the size of the component.
+   *
+   * @param start the id of a source of the component
+   * @param inComponent the ids of the sources of the component
+   * @param pathIndex scratch array of the index of each source on the path,
+   *     which must be filled with -1 and is restored before returning
+   */
+  private static <S extends ProvidesRequiresSourceFile> List<S> findCycle(
+      DependencyGraph<S> graph, int start, BitSet inComponent,
+      int[] pathIndex) {
+    int[] path = new int[inComponent.cardinality()];
+    int length = 0;
+    int id = start;
+    while (pathIndex[id] < 0) {
+      pathIndex[id] = length;
+      path[length++] = id;
+      for (int i = 0; i < graph.getDependencyCount(id); i++) {
+        int dependency = graph.getDependency(id, i);
+        if (inComponent.get(dependency)) {
+          id = dependency;
+          break;
+        }
+      }
+    }
+    int cycleStart = pathIndex[id];
+    for (int i = 0; i < length; i++) {
+      pathIndex[path[i]] = -1;
+    }
+    return graph.getSources(Arrays.copyOfRange(path, cycleStart, length));
+  }
+
+  /**
+   * @return {@code true} if the sources have no dependency errors
+   */
+  public boolean isEmpty() {
+    return this.multipleProvides.isEmpty() && this.missingProvides.isEmpty()
+        && this.selfRequires.isEmpty() && this.cycles.isEmpty();
+  }
+
+  /**
+   * @return the namespaces provided by more than one source, in the order in
+   *     which the second provider of each namespace occurs
+   */
+  public List<MultipleProvideException> getMultipleProvides() {
+    return this.multipleProvides;
+  }
+
+  /**
+   * @return the required namespaces that are never provided, in the
+   *     original order of the sources that require them
+   */
+  public List<MissingProvideException> getMissingProvides() {
+    return this.missingProvides;
+  }
+
+  /**
+   * @return an exception for each namespace that is {@code goog.required}
+   *     by the source that {@code goog.provides} it, in the original order
+   *     of the sources
+   */
+  public List<CircularDependencyException> getSelfRequires() {
+    return this.selfRequires;
+  }
+
+  /**
+   * Gets every group of sources whose dependencies form one or more cycles
+   * (i.e. the strongly connected components of the dependency graph with
+   * more than one source). Each source belongs to at most one group.
+   *
+   * @return the groups in the original order of their first source, where
+   *     the sources of each group are in their original order
+   */
+  public List<List<S>> getCycles() {
+    return this.cycles;
+  }
+
+  /**
+   * @return an exception for each group of sources returned by {@link
+   *     #getCycles()}, whose detail message shows one cycle of the group
+   */
+  public List<CircularDependencyException> getCircularDependencies() {
+    return this.circularDependencies;
+  }
+
+  /**
+   * @return all errors: multiple provides, then missing provides, then
+   *     self-requires, then circular dependencies
+   */
+  public List<RuntimeException> getErrors() {
+    return ImmutableList.<RuntimeException>builder()
+        .addAll(this.multipleProvides)
+        .addAll(this.missingProvides)
+        .addAll(this.selfRequires)
+        .addAll(this.circularDependencies)
+        .build();
+  }
+
+  /**
+   * @return the detail message of each error on a separate line
+   */
+  @Override
+  public String toString() {
+    List<String> messages = Lists.newArrayList();
+    for (RuntimeException error : getErrors()) {
+      messages.add(error.getMessage());
+    }
+    return Joiner.on('\n').join(messages);
+  }
+}
@@ -0,0 +1,806 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant.deps;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.SetMultimap;
+import com.google.common.collect.Sets;
+import com.google.common.collect.TreeMultiset;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.closureant.base.ProvidesRequiresSourceFile;
+import org.closureant.util.ClosureBuildUtil;
+
+/**
+ * A manifest builder for long-running builds (for example, builds that
+ * watch the file system) that supports adding, replacing and removing
+ * individual sources. For the same sources in the same order, the manifest
+ * is identical to the manifest created by {@link ManifestBuilder}, but
+ * instead of rebuilding the manifest after each change, the builder repairs
+ * only the part that the change affects.
+ *
+ * <ul>
+ * <li>The dependency edges are kept in mutable adjacency sets, so a change
+ *     to one source updates only the edges of that source and of the sources
+ *     that {@code goog.require} its namespaces.</li>
+ * <li>The set of sources kept after dependency pruning is extended by
+ *     searching from newly required sources, and reduced by re-deriving only
+ *     the sources reachable from dropped edges (the "delete and re-derive"
+ *     algorithm).</li>
+ * <li>The stable topological order produced by a depth-first search is a
+ *     sequence of segments, one per root visited in the original order. A
+ *     change only affects the segments starting with the first segment that
+ *     contains a changed source, so earlier segments are kept and the search
+ *     resumes from there. A source that is replaced by a source with the same
+ *     provides and requires keeps its place without any search.</li>
+ * </ul>
+ *
+ * <p>The position of a source in the original order is the position at
+ * which it was first added. A replacement source takes the position of the
+ * source it replaces.</p>
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ *
+ * @param <S> the type of source file being used in the manifest, which must
+ *     implement {@link ProvidesRequiresSourceFile}
+ */
+public final class IncrementalManifestBuilder
+    <S extends ProvidesRequiresSourceFile> {
+
+  // Segment root of a source that is not in the sorted order.
+  private static final int NOT_SORTED = -2;
+
+  // Segment root of Closure's base.js, which is always first.
+  private static final int BASE_JS_SEGMENT = -1;
+
+  // Value of repairFrom when the sorted order is up to date.
+  private static final int UP_TO_DATE = Integer.MAX_VALUE;
+
+  private boolean keepAllSources;
+  private boolean keepMoochers;
+  private boolean keepOriginalOrder;
+
+  // The sources in the original order, keyed by their position.
+  private final NavigableMap<Integer, Node<S>> nodes;
+  private final Map<S, Node<S>> sourceToNode;
+  private final Map<String, Node<S>> provideToNode;
+  private final SetMultimap<String, Node<S>> requireToNodes;
+  private final Set<String> namespaceEntryPoints;
+
+  // Namespaces that are goog.required but not goog.provided.
+  private final Set<String> missingProvides;
+
+  // Closure's base.js sources, in the original order.
+  private final TreeSet<Node<S>> baseJsNodes;
+  private int nextPosition;
+  private int prunedCount;
+
+  // The sources in stable topological order, where each sorted source
+  // records the root of its depth-first search segment. Segments are in
+  // the original order of their roots.
+  private final List<Node<S>> sorted;
+
+  // The segment root from which the sorted order must be repaired.
+  private int repairFrom;
+
+  // Cached copy of the manifest and whether it needs to be regenerated.
+  private List<S> manifest;
+  private boolean manifestStale;
+
+  // The state of the change being applied: sources whose edges or pruned
+  // state changed, sources that may no longer be required and sources that
+  // may be newly required.
+  private final Set<Node<S>> touched;
+  private final List<Node<S>> lost;
+  private final List<Node<S>> gained;
+
+
+  /**
+   * Constructs an {@link IncrementalManifestBuilder} to maintain a
+   * JavaScript source manifest for the Closure Compiler.
+   */
+  public IncrementalManifestBuilder() {
+    this.keepAllSources = false;
+    this.keepMoochers = false;
+    this.keepOriginalOrder = false;
+    this.nodes = Maps.newTreeMap();
+    this.sourceToNode = Maps.newHashMap();
+    this.provideToNode = Maps.newHashMap();
+    this.requireToNodes = HashMultimap.create();
+    this.namespaceEntryPoints = Sets.newHashSet();
+    this.missingProvides = Sets.newHashSet();
+    this.baseJsNodes = Sets.newTreeSet();
+    this.nextPosition = 0;
+    this.prunedCount = 0;
+    this.sorted = Lists.newArrayList();
+    this.repairFrom = UP_TO_DATE;
+    this.manifest = null;
+    this.manifestStale = true;
+    this.touched = Sets.newHashSet();
+    this.lost = Lists.newArrayList();
+    this.gained = Lists.newArrayList();
+  }
+
+  /**
+   * Whether all sources should be passed to the Closure Compiler. See
+   * {@link ManifestBuilder#keepAllSources(boolean)}. Changing this option
+   * rebuilds the manifest from scratch.
+   *
+   * @param keepAllSources whether all sources should be passed to the
+   *     Closure Compiler. Defaults to {@code false}.
+   * @return this {@link IncrementalManifestBuilder}
+   */
+  public IncrementalManifestBuilder<S> keepAllSources(boolean keepAllSources) {
+    if (this.keepAllSources != keepAllSources) {
+      this.keepAllSources = keepAllSources;
+      resetPrunedSources();
+    }
+    return this;
+  }
+
+  /**
+   * Whether "moochers" (i.e. source files that do not provide any
+   * namespaces) and their dependencies are always kept. See {@link
+   * ManifestBuilder#keepMoochers(boolean)}. Changing this option rebuilds
+   * the manifest from scratch.
+   *
+   * @param keepMoochers if {@code true}, moochers and their dependencies are
+   *     always kept. Defaults to {@code false}.
+   * @return this {@link IncrementalManifestBuilder}
+   */
+  public IncrementalManifestBuilder<S> keepMoochers(boolean keepMoochers) {
+    if (this.keepMoochers != keepMoochers) {
+      this.keepMoochers = keepMoochers;
+      resetPrunedSources();
+    }
+    return this;
+  }
+
+  /**
+   * Whether sources should be kept in their original order or topologically
+   * sorted based on their dependencies. See {@link
+   * ManifestBuilder#keepOriginalOrder(boolean)}.
+   *
+   * @param keepOriginalOrder if {@code true}, sources will be kept in their
+   *     original order. Defaults to {@code false}.
+   * @return this {@link IncrementalManifestBuilder}
+   */
+  public IncrementalManifestBuilder<S> keepOriginalOrder(
+      boolean keepOriginalOrder) {
+    if (this.keepOriginalOrder != keepOriginalOrder) {
+      this.keepOriginalOrder = keepOriginalOrder;
+      this.repairFrom = BASE_JS_SEGMENT;
+      this.manifestStale = true;
+    }
+    return this;
+  }
+
+  /**
+   * Add a source that is an application entry point. If the source was
+   * already added, it becomes an entry point.
+   *
+   * @param source the source file
+   * @return this {@link IncrementalManifestBuilder}
+   */
+  public IncrementalManifestBuilder<S> mainSource(S source) {
+    Node<S> node = this.sourceToNode.get(source);
+    if (node == null) {
+      addNode(source, this.nextPosition++, true);
+    } else if (!node.explicitMain) {
+      node.explicitMain = true;
+      updateMain(node);
+    }
+    applyChange();
+    return this;
+  }
+
+  /**
+   * Add "main" sources (i.e. application entry points).
+   *
+   * @param sources the "main" source files to add
+   * @return this {@link IncrementalManifestBuilder}
+   */
+  public IncrementalManifestBuilder<S> mainSources(Collection<S> sources) {
+    for (S source : sources) {
+      mainSource(source);
+    }
+    return this;
+  }
+
+  /**
+   * Adds a namespace that is a program entry point. The namespace must be
+   * {@code goog.provided} by the time the manifest is built. Unlike with
+   * {@link ManifestBuilder}, the entry point applies to whichever source
+   * provides the namespace, including sources added or replaced later.
+   *
+   * @param namespace a Closure namespace
+   * @return this {@link IncrementalManifestBuilder}
+   */
+  public IncrementalManifestBuilder<S> namespace(String namespace) {
+    if (this.namespaceEntryPoints.add(namespace)) {
+      this.manifestStale = true;
+      Node<S> node = this.provideToNode.get(namespace);
+      if (node != null) {
+        updateMain(node);
+        applyChange();
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Adds namespaces that are program entry points. See {@link
+   * #namespace(String)}.
+   *
+   * @param namespaces a set of Closure namespaces
+   * @return this {@link IncrementalManifestBuilder}
+   */
+  public IncrementalManifestBuilder<S> namespaces(
+      Collection<String> namespaces) {
+    for (String namespace : namespaces) {
+      namespace(namespace);
+    }
+    return this;
+  }
+
+  /**
+   * Add a source file, which is kept if it is a transitive dependency of
+   * the program entry points. Adding a source that was already added has no
+   * effect.
+   *
+   * @param source the source file
+   * @return this {@link IncrementalManifestBuilder}
+   * @throws MultipleProvideException if the source provides a namespace that
+   *     is already provided by another source
+   */
+  public IncrementalManifestBuilder<S> source(S source) {
+    if (!this.sourceToNode.containsKey(source)) {
+      addNode(source, this.nextPosition++, false);
+      applyChange();
+    }
+    return this;
+  }
+
+  /**
+   * Add source files. See {@link #source(ProvidesRequiresSourceFile)}.
+   *
+   * @param sources the source files to add
+   * @return this {@link IncrementalManifestBuilder}
+   */
+  public IncrementalManifestBuilder<S> sources(Collection<S> sources) {
+    for (S source : sources) {
+      source(source);
+    }
+    return this;
+  }
+
+  /**
+   * Replaces a source, for example, after the source file was modified. The
+   * new source takes the place of the old source in the original order and
+   * is a "main" source if the old source was.
+   *
+   * @param oldSource a source that was previously added
+   * @param newSource the source replacing {@code oldSource}
+   * @return this {@link IncrementalManifestBuilder}
+   * @throws IllegalArgumentException if {@code oldSource} was never added or
+   *     {@code newSource} was already added
+   * @throws MultipleProvideException if the new source provides a namespace
+   *     that is provided by another source
+   */
+  public IncrementalManifestBuilder<S> replaceSource(S oldSource,
+      S newSource) {
+    Node<S> node = this.sourceToNode.get(oldSource);
+    Preconditions.checkArgument(node != null,
+        "source \"%s\" was never added", oldSource.getName());
+    Preconditions.checkArgument(oldSource.equals(newSource)
+        || !this.sourceToNode.containsKey(newSource),
+        "source \"%s\" was already added", newSource.getName());
+    checkProvides(newSource, node);
+
+    if (sameNamespaces(oldSource.getProvides(), newSource.getProvides())
+        && sameNamespaces(oldSource.getRequires(), newSource.getRequires())
+        && ClosureBuildUtil.isClosureBaseJs(oldSource)
+            == ClosureBuildUtil.isClosureBaseJs(newSource)) {
+      // The edges are unchanged, so the source keeps its place.
+      this.sourceToNode.remove(oldSource);
+      this.sourceToNode.put(newSource, node);
+      node.source = newSource;
+      if (node.main != isMain(node)) {
+        updateMain(node);
+      }
+    } else {
+      removeNode(node);
+      addNode(newSource, node.position, node.explicitMain);
+    }
+    applyChange();
+    return this;
+  }
+
+  /**
+   * Removes a source, for example, after the source file was deleted.
+   *
+   * @param source a source that was previously added
+   * @return this {@link IncrementalManifestBuilder}
+   * @throws IllegalArgumentException if {@code source} was never added
+   */
+  public IncrementalManifestBuilder<S> removeSource(S source) {
+    Node<S> node = this.sourceToNode.get(source);
+    Preconditions.checkArgument(node != null,
+        "source \"%s\" was never added", source.getName());
+    removeNode(node);
+    applyChange();
+    return this;
+  }
+
+  /**
+   * Builds the manifest and returns it as a list of sources. Only the part
+   * of the manifest affected by the changes since the last call is rebuilt.
+   *
+   * @return a {@link List} containing the transitive closure of the main
+   *     sources sorted in topological order
+   * @throws CircularDependencyException if the goog.provided and goog.required
+   *     namespaces form a cycle
+   * @throws MissingProvideException if a goog.required namespace is not
+   *     goog.provided by any of the inputs
+   */
+  public List<S> toManifestList() {
+    if (!this.manifestStale) {
+      return this.manifest;
+    }
+
+    if (!this.keepAllSources) {
+      for (String namespace : this.namespaceEntryPoints) {
+        if (!this.provideToNode.containsKey(namespace)) {
+          throw new MissingProvideException(namespace, "namespace \""
+              + namespace + "\" is a namespace entry point but is never "
+              + "goog.provided.");
+        }
+      }
+    }
+
+    ImmutableList.Builder<S> builder = ImmutableList.builder();
+    if (this.keepOriginalOrder) {
+      for (Node<S> node : this.nodes.values()) {
+        if (node.pruned) {
+          builder.add(node.source);
+        }
+      }
+    } else {
+      checkAllProvided();
+      repairSortedOrder();
+      for (Node<S> node : this.sorted) {
+        builder.add(node.source);
+      }
+    }
+    this.manifest = builder.build();
+    this.manifestStale = false;
+    return this.manifest;
+  }
+
+  /**
+   * Get all sources added to the builder in their original order.
+   *
+   * @return all sources in their original order (i.e. prior to dependency
+   *     management)
+   */
+  public List<S> getAllSourcesInOriginalOrder() {
+    ImmutableList.Builder<S> builder = ImmutableList.builder();
+    for (Node<S> node : this.nodes.values()) {
+      builder.add(node.source);
+    }
+    return builder.build();
+  }
+
+  /**
+   * Throws a {@link MultipleProvideException} if {@code source} provides a
+   * namespace that is provided by a source other than {@code replaced}.
+   */
+  private void checkProvides(S source, Node<S> replaced) {
+    for (String provide : source.getProvides()) {
+      Node<S> provider = this.provideToNode.get(provide);
+      if (provider != null && provider != replaced) {
+        throw new MultipleProvideException(provide, provider.source, source);
+      }
+    }
+  }
+
+  private static boolean sameNamespaces(Collection<String> a,
+      Collection<String> b) {
+    if (a instanceof Set && b instanceof Set) {
+      return a.equals(b);
+    }
+    return ImmutableSet.copyOf(a).equals(ImmutableSet.copyOf(b));
+  }
+
+  /**
+   * Determines if a source is an entry point, in which case it is always
+   * kept together with its transitive dependencies.
+   */
+  private boolean isMain(Node<S> node) {
+    if (this.keepAllSources || node.explicitMain
+        || ClosureBuildUtil.isClosureBaseJs(node.source)) {
+      return true;
+    }
+    Collection<String> provides = node.source.getProvides();
+    if (this.keepMoochers && provides.isEmpty()) {
+      return true;
+    }
+    for (String provide : provides) {
+      if (this.namespaceEntryPoints.contains(provide)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void updateMain(Node<S> node) {
+    node.main = isMain(node);
+    if (node.main) {
+      this.gained.add(node);
+    } else {
+      this.lost.add(node);
+    }
+  }
+
+  private void addNode(S source, int position, boolean explicitMain) {
+    checkProvides(source, null);
+    Node<S> node = new Node<S>(source, position);
+    node.explicitMain = explicitMain;
+    this.nodes.put(position, node);
+    this.sourceToNode.put(source, node);
+    if (ClosureBuildUtil.isClosureBaseJs(source)) {
+      this.baseJsNodes.add(node);
+    }
+    this.touched.add(node);
+
+    for (String provide : source.getProvides()) {
+      if (this.provideToNode.put(provide, node) == null) {
+        this.missingProvides.remove(provide);
+        for (Node<S> requirer : this.requireToNodes.get(provide)) {
+          addEdge(requirer, node);
+        }
+      }
+    }
+    for (String require : source.getRequires()) {
+      if (this.requireToNodes.put(require, node)) {
+        Node<S> provider = this.provideToNode.get(require);
+        if (provider != null) {
+          addEdge(node, provider);
+        } else {
+          this.missingProvides.add(require);
+        }
+      }
+    }
+    updateMain(node);
+  }
+
+  private void removeNode(Node<S> node) {
+    this.touched.add(node);
+    for (String require : node.source.getRequires()) {
+      if (this.requireToNodes.remove(require, node)) {
+        Node<S> provider = this.provideToNode.get(require);
+        if (provider != null) {
+          removeEdge(node, provider);
+        } else if (!this.requireToNodes.containsKey(require)) {
+          this.missingProvides.remove(require);
+        }
+      }
+    }
+    for (String provide : node.source.getProvides()) {
+      if (this.provideToNode.get(provide) == node) {
+        this.provideToNode.remove(provide);
+        for (Node<S> requirer : this.requireToNodes.get(provide)) {
+          removeEdge(requirer, node);
+        }
+        if (this.requireToNodes.containsKey(provide)) {
+          this.missingProvides.add(provide);
+        }
+      }
+    }
+
+    this.nodes.remove(node.position);
+    this.sourceToNode.remove(node.source);
+    this.baseJsNodes.remove(node);
+    node.removed = true;
+    if (node.pruned) {
+      node.pruned = false;
+      this.prunedCount--;
+    }
+  }
+
+  private void addEdge(Node<S> from, Node<S> to) {
+    if (from != to && from.dependencies.add(to, 1) == 0) {
+      to.dependents.add(from);
+      this.touched.add(from);
+      this.touched.add(to);
+      if (from.pruned) {
+        this.gained.add(to);
+      }
+    }
+  }
+
+  private void removeEdge(Node<S> from, Node<S> to) {
+    if (from != to && from.dependencies.remove(to, 1) == 1) {
+      to.dependents.remove(from);
+      this.touched.add(from);
+      this.touched.add(to);
+      if (from.pruned) {
+        this.lost.add(to);
+      }
+    }
+  }
+
+  /**
+   * Updates the pruned sources for the change that was just applied to the
+   * dependency graph and determines where the sorted order must be
+   * repaired from.
+   */
+  private void applyChange() {
+    Deque<Node<S>> worklist = new ArrayDeque<Node<S>>();
+
+    // Delete: the sources reachable from lost sources may no longer be
+    // required.
+    Set<Node<S>> suspects = Sets.newHashSet();
+    for (Node<S> node : this.lost) {
+      if (!node.removed && node.pruned && suspects.add(node)) {
+        worklist.push(node);
+      }
+    }
+    while (!worklist.isEmpty()) {
+      for (Node<S> dependency : worklist.pop().dependencies.elementSet()) {
+        if (dependency.pruned && suspects.add(dependency)) {
+          worklist.push(dependency);
+        }
+      }
+    }
+    for (Node<S> node : suspects) {
+      node.pruned = false;
+    }
+
+    // Re-derive: the suspects that are still entry points or still required
+    // by a kept source, together with their dependencies.
+    for (Node<S> node : suspects) {
+      if (node.main || hasPrunedDependent(node)) {
+        worklist.push(node);
+      }
+    }
+    for (Node<S> node : this.gained) {
+      if (!node.removed && !node.pruned
+          && (node.main || hasPrunedDependent(node))) {
+        worklist.push(node);
+      }
+    }
+    while (!worklist.isEmpty()) {
+      Node<S> node = worklist.pop();
+      if (node.pruned) {
+        continue;
+      }
+      node.pruned = true;
+      if (!suspects.remove(node)) {
+        this.prunedCount++;
+        touchWithDependencies(node);
+      }
+      for (Node<S> dependency : node.dependencies.elementSet()) {
+        if (!dependency.pruned) {
+          worklist.push(dependency);
+        }
+      }
+    }
+    for (Node<S> node : suspects) {
+      this.prunedCount--;
+      touchWithDependencies(node);
+    }
+
+    for (Node<S> node : this.touched) {
+      if (node.segmentRoot != NOT_SORTED) {
+        this.repairFrom = Math.min(this.repairFrom, node.segmentRoot);
+      }
+      if (node.pruned) {
+        this.repairFrom = Math.min(this.repairFrom,
+            this.baseJsNodes.contains(node) ? BASE_JS_SEGMENT : node.position);
+      }
+    }
+    this.touched.clear();
+    this.lost.clear();
+    this.gained.clear();
+    this.manifestStale = true;
+  }
+
+  private void touchWithDependencies(Node<S> node) {
+    this.touched.add(node);
+    this.touched.addAll(node.dependencies.elementSet());
+  }
+
+  private boolean hasPrunedDependent(Node<S> node) {
+    for (Node<S> dependent : node.dependents.elementSet()) {
+      if (dependent.pruned) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Recomputes which sources are kept from scratch, for example, after the
+   * options changed.
+   */
+  private void resetPrunedSources() {
+    for (Node<S> node : this.nodes.values()) {
+      node.pruned = false;
+      node.main = isMain(node);
+      if (node.main) {
+        this.gained.add(node);
+      }
+    }
+    this.prunedCount = 0;
+    this.repairFrom = BASE_JS_SEGMENT;
+    applyChange();
+  }
+
+  /**
+   * Verifies that every namespace {@code goog.required} by a kept source is
+   * {@code goog.provided}, reporting the first source in the original order
+   * like {@link DependencyGraph#checkAllProvided(java.util.BitSet)}.
+   */
+  private void checkAllProvided() {
+    Node<S> first = null;
+    for (String namespace : this.missingProvides) {
+      for (Node<S> requirer : this.requireToNodes.get(namespace)) {
+        if (requirer.pruned
+            && (first == null || requirer.position < first.position)) {
+          first = requirer;
+        }
+      }
+    }
+    if (first != null) {
+      for (String require : first.source.getRequires()) {
+        if (this.missingProvides.contains(require)) {
+          throw new MissingProvideException(require, first.source);
+        }
+      }
+    }
+  }
+
+  /**
+   * Repairs the stable topological order, which matches {@link
+   * DependencyGraph#topologicalStableSortDepthFirstSearch(java.util.BitSet)}.
+   * The segments whose roots precede {@link #repairFrom} are kept, and the
+   * depth-first search resumes with the next root.
+   */
+  private void repairSortedOrder() {
+    if (this.repairFrom == UP_TO_DATE) {
+      return;
+    }
+    while (!this.sorted.isEmpty() && this.sorted.get(this.sorted.size() - 1)
+        .segmentRoot >= this.repairFrom) {
+      this.sorted.remove(this.sorted.size() - 1).segmentRoot = NOT_SORTED;
+    }
+
+    Node<S> baseJs = null;
+    for (Node<S> node : this.baseJsNodes.descendingSet()) {
+      if (node.pruned) {
+        baseJs = node;
+        break;
+      }
+    }
+    if (this.sorted.isEmpty() && baseJs != null) {
+      baseJs.segmentRoot = BASE_JS_SEGMENT;
+      this.sorted.add(baseJs);
+    }
+
+    Deque<Node<S>> stack = new ArrayDeque<Node<S>>();
+    Deque<Iterator<Node<S>>> nextDependency =
+        new ArrayDeque<Iterator<Node<S>>>();
+    for (Node<S> root : this.nodes.tailMap(Math.max(this.repairFrom, 0), true)
+        .values()) {
+      if (!root.pruned || root == baseJs || root.segmentRoot != NOT_SORTED
+          || hasPrunedDependent(root)) {
+        continue;
+      }
+      root.segmentRoot = root.position;
+      stack.push(root);
+      nextDependency.push(root.dependencies.elementSet().iterator());
+      while (!stack.isEmpty()) {
+        Iterator<Node<S>> dependencies = nextDependency.peek();
+        if (dependencies.hasNext()) {
+          Node<S> dependency = dependencies.next();
+          if (dependency.segmentRoot == NOT_SORTED) {
+            dependency.segmentRoot = root.position;
+            stack.push(dependency);
+            nextDependency.push(dependency.dependencies.elementSet()
+                .iterator());
+          }
+        } else {
+          this.sorted.add(stack.pop());
+          nextDependency.pop();
+        }
+      }
+    }
+
+    // The dependency graph has a cycle iff the sorted sources are a proper
+    // subset of the kept sources. The order is left stale, so that it is
+    // repaired again once the cycle is fixed.
+    if (this.sorted.size() < this.prunedCount) {
+      List<S> sortedSources = Lists.newArrayList();
+      for (Node<S> node : this.sorted) {
+        sortedSources.add(node.source);
+      }
+      List<S> prunedSources = Lists.newArrayList();
+      for (Node<S> node : this.nodes.values()) {
+        if (node.pruned) {
+          prunedSources.add(node.source);
+        }
+      }
+      throw CircularDependencyExceptionFactory.newCircularDependencyException(
+          sortedSources, prunedSources);
+    }
+    this.repairFrom = UP_TO_DATE;
+  }
+
+
+  //----------------------------------------------------------------------------
+
+
+  /**
+   * A source in the dependency graph. Nodes are ordered by their position in
+   * the original order.
+   */
+  private static final class Node<S> implements Comparable<Node<S>> {
+    S source;
+    final int position;
+    boolean explicitMain;
+    boolean main;
+    boolean pruned;
+    boolean removed;
+    int segmentRoot;
+
+    // The number of namespaces that this source requires from each
+    // dependency, and vice versa.
+    final Multiset<Node<S>> dependencies;
+    final Multiset<Node<S>> dependents;
+
+    Node(S source, int position) {
+      this.source = source;
+      this.position = position;
+      this.segmentRoot = NOT_SORTED;
+      this.dependencies = TreeMultiset.create();
+      this.dependents = HashMultiset.create();
+    }
+
+    @Override
+    public int compareTo(Node<S> other) {
+      return (this.position < other.position) ? -1
+          : ((this.position == other.position) ? 0 : 1);
+    }
+  }
+}
@@ -20,12 +20,12 @@ package org.closureant.deps;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
 
-import java.util.ArrayDeque;
+import java.io.File;
+import java.io.IOException;
+import java.util.BitSet;
 import java.util.Collection;
-import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -83,6 +83,10 @@ public final class ManifestBuilder<S extends ProvidesRequiresSourceFile> {
   // namespaces are goog.provided.
   private final Map<String, S> provideToSource;
 
+  // File in which the resolved inputs and the manifest are saved between
+  // builds, or null.
+  private File snapshotFile;
+
   // Sources that may or may not be required depending on the transitive
   // dependencies of the program entry points.
   private final Set<S> sourcesInLimbo;
@@ -102,6 +106,7 @@ public final class ManifestBuilder<S extends ProvidesRequiresSourceFile> {
     this.manifestStale = true;
     this.namespaceEntryPoints = Sets.newHashSet();
     this.provideToSource = Maps.newHashMap();
+    this.snapshotFile = null;
     this.sourcesInLimbo = Sets.newHashSet();
   }
 
@@ -161,6 +166,24 @@ public final class ManifestBuilder<S extends ProvidesRequiresSourceFile> {
     return this;
   }
 
+  /**
+   * Sets a file in which a snapshot of the resolved sources and the manifest
+   * is saved by {@link #toManifestList()}. The next time the manifest is
+   * built with the same snapshot file (for example, by the next build), the
+   * saved manifest is reused without building the dependency graph, as long
+   * as none of the sources that were added, removed or whose provides or
+   * requires changed since the snapshot can affect the manifest. Otherwise
+   * the manifest is rebuilt and the snapshot is replaced.
+   *
+   * @param snapshotFile the snapshot file, or {@code null} to not use a
+   *     snapshot. Defaults to {@code null}.
+   * @return this {@link ManifestBuilder}
+   */
+  public ManifestBuilder<S> snapshotFile(File snapshotFile) {
+    this.snapshotFile = snapshotFile;
+    return this;
+  }
+
   /**
    * Add a source that is an application entry point, i.e., it will not be
    * dropped and its transitive dependencies will be included.
@@ -187,26 +210,36 @@ public final class ManifestBuilder<S extends ProvidesRequiresSourceFile> {
   }
 
   /**
-   * Adds a namespace that is a program entry point. The namespaces must be
-   * {@code goog.provided}.
+   * Adds a namespace that is a program entry point. The namespace must be
+   * {@code goog.provided}. The namespace may also be a pattern ending with a
+   * "*" wildcard, such as "app.pages.*", in which case every {@code
+   * goog.provided} namespace that matches the pattern is an entry point and
+   * at least one namespace must match. See {@link NamespacePatternIndex}.
    *
-   * @param namespace a Closure namespace
+   * @param namespace a Closure namespace or namespace pattern
    * @return this {@link ManifestBuilder}
+   * @throws IllegalArgumentException if the wildcard occurs anywhere other
+   *     than at the end of {@code namespace}
    */
   public ManifestBuilder<S> namespace(String namespace) {
+    NamespacePatternIndex.checkPattern(namespace);
     this.namespaceEntryPoints.add(namespace);
     return this;
   }
 
   /**
-   * Adds namespaces that are program entry points. The namespaces must be
-   * {@code goog.provided}.
+   * Adds namespaces that are program entry points. See {@link
+   * #namespace(String)}.
    *
-   * @param namespaces a set of Closure namespaces
+   * @param namespaces a set of Closure namespaces or namespace patterns
    * @return this {@link ManifestBuilder}
+   * @throws IllegalArgumentException if the wildcard occurs anywhere other
+   *     than at the end of a namespace
    */
   public ManifestBuilder<S> namespaces(Collection<String> namespaces) {
-    this.namespaceEntryPoints.addAll(namespaces);
+    for (String namespace : namespaces) {
+      namespace(namespace);
+    }
     return this;
   }
 
@@ -265,8 +298,33 @@ public final class ManifestBuilder<S extends ProvidesRequiresSourceFile> {
       }
     }
 
-    List<S> prunedSources;
-    
+    ManifestSnapshot snapshot = null;
+    if (this.snapshotFile != null) {
+      snapshot = ManifestSnapshot.create(this.keepAllSources,
+          this.keepMoochers, this.keepOriginalOrder,
+          this.allSourcesInOriginalOrder, this.mainSources,
+          this.namespaceEntryPoints);
+      ManifestSnapshot previous = ManifestSnapshot.read(this.snapshotFile);
+      int[] ids = (snapshot != null && previous != null) ?
+          snapshot.patch(previous) : null;
+      if (ids != null) {
+        List<S> sources = Lists.newArrayListWithCapacity(ids.length);
+        for (int id : ids) {
+          sources.add(this.allSourcesInOriginalOrder.get(id));
+        }
+        this.manifest = ImmutableList.copyOf(sources);
+        this.manifestStale = false;
+        // Keep the snapshot file from being evicted as an expired cache file.
+        this.snapshotFile.setLastModified(System.currentTimeMillis());
+        return this.manifest;
+      }
+    }
+
+    // The sources are identified by their index in the original order.
+    DependencyGraph<S> graph = DependencyGraph.create(
+        this.allSourcesInOriginalOrder, this.provideToSource);
+    BitSet prunedSources;
+
     if (!this.keepAllSources) {
       if (this.keepMoochers) {
         // Note: a for-each loop will not work here because elements are
@@ -280,24 +338,38 @@ public final class ManifestBuilder<S extends ProvidesRequiresSourceFile> {
         }
       }
       processNamespaceEntryPoints();
-      prunedSources = getDependenciesOf(this.mainSources, this.provideToSource);
+      prunedSources =
+          graph.getTransitiveDependencies(graph.getIds(this.mainSources));
     } else {
-      prunedSources = this.allSourcesInOriginalOrder;
+      prunedSources = graph.getAllIds();
     }
 
+    int[] manifestIds;
     if (!this.keepOriginalOrder) {
-      // Get the direct dependencies.
-      final Multimap<S, S> sourceToDependencies =
-          ClosureBuildUtil.createSourceToDependencies(prunedSources,
-              this.provideToSource);
+      graph.checkAllProvided(prunedSources);
 
       // Topologically sort the pruned sources.
-      this.manifest = ClosureBuildUtil.topologicalStableSortDepthFirstSearch(
-          prunedSources, sourceToDependencies);
+      manifestIds = graph.topologicalStableSortDepthFirstSearch(prunedSources);
     } else {
-      this.manifest = prunedSources;
+      manifestIds = new int[prunedSources.cardinality()];
+      int count = 0;
+      for (int id = prunedSources.nextSetBit(0); id >= 0;
+           id = prunedSources.nextSetBit(id + 1)) {
+        manifestIds[count++] = id;
+      }
     }
+    this.manifest = graph.getSources(manifestIds);
     this.manifestStale = false;
+
+    if (snapshot != null) {
+      snapshot.setManifest(manifestIds);
+      try {
+        snapshot.write(this.snapshotFile);
+      } catch (IOException e) {
+        // The snapshot is an optimization. The manifest is rebuilt by the
+        // next build.
+      }
+    }
     return this.manifest;
   }
 
@@ -346,7 +418,7 @@ public final class ManifestBuilder<S extends ProvidesRequiresSourceFile> {
       // If the source is Closure's base.js, it needs to be a program entry
       // point to ensure that it is not dropped during dependency pruning so
       // that the Closure Library primitives are defined.
-      if (ClosureBuildUtil.isClosureBaseJs(sourceFile.getCode())) {
+      if (ClosureBuildUtil.isClosureBaseJs(sourceFile)) {
         this.mainSources.add(sourceFile);
       } else {
         this.sourcesInLimbo.add(sourceFile);
@@ -384,7 +456,7 @@ public final class ManifestBuilder<S extends ProvidesRequiresSourceFile> {
    * members of {@link #mainSources} instead of {@link #sourcesInLimbo}.
    */
   private void processNamespaceEntryPoints() {
-    for (String namespace : this.namespaceEntryPoints) {
+    for (String namespace : resolveNamespacePatterns()) {
       if (this.provideToSource.containsKey(namespace)) {
         S mainSource = this.provideToSource.get(namespace);
         if (this.sourcesInLimbo.contains(mainSource)) {
@@ -408,36 +480,33 @@ public final class ManifestBuilder<S extends ProvidesRequiresSourceFile> {
   }
 
   /**
-   * Gets all the dependencies of the given program entry points.
+   * Replaces each namespace pattern in {@link #namespaceEntryPoints} with the
+   * {@code goog.provided} namespaces that match it. The provided namespaces
+   * are only indexed if there is at least one pattern.
    *
-   * @param mainSources collection of sources that are considered application
-   *     entry points
-   * @param provideToSource map of provided namespaces to the corresponding
-   *     sources where the namespaces are {@code goog.provided}
+   * @return the namespace entry points without patterns
+   * @throws MissingProvideException if a pattern does not match any of the
+   *     {@code goog.provided} namespaces
    */
-  private List<S> getDependenciesOf(Collection<S> mainSources,
-      Map<String, S> provideToSource) {
-    Set<S> included = Sets.newHashSet();
-    Deque<S> worklist = new ArrayDeque<S>(mainSources);
-    while (!worklist.isEmpty()) {
-      S current = worklist.pop();
-      if (included.add(current)) {
-        for (String req : current.getRequires()) {
-          S dep = provideToSource.get(req);
-          if (dep != null) {
-            worklist.add(dep);
-          }
-        }
+  private Set<String> resolveNamespacePatterns() {
+    Set<String> namespaces = Sets.newLinkedHashSet();
+    NamespacePatternIndex index = null;
+    for (String namespace : this.namespaceEntryPoints) {
+      if (!NamespacePatternIndex.isPattern(namespace)) {
+        namespaces.add(namespace);
+        continue;
       }
-    }
-
-    ImmutableList.Builder<S> builder =
-        ImmutableList.builder();
-    for (S current : this.allSourcesInOriginalOrder) {
-      if (included.contains(current)) {
-        builder.add(current);
+      if (index == null) {
+        index = NamespacePatternIndex.create(this.provideToSource.keySet());
+      }
+      List<String> matches = index.getMatches(namespace);
+      if (matches.isEmpty()) {
+        throw new MissingProvideException(namespace, "namespace pattern \""
+            + namespace + "\" is a namespace entry point but does not match "
+            + "any goog.provided namespace.");
       }
+      namespaces.addAll(matches);
     }
-    return builder.build();
+    return namespaces;
   }
 }
@@ -0,0 +1,412 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant.deps;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
+import com.google.common.collect.Sets;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.closureant.base.ProvidesRequiresSourceFile;
+import org.closureant.util.ClosureBuildUtil;
+
+/**
+ * A snapshot of the resolved inputs and the manifest of a {@link
+ * ManifestBuilder}, stored in a compact, versioned binary file. A snapshot
+ * records the options of the builder, its namespace entry points, the path,
+ * provides, requires and role (main source, base.js) of each source in the
+ * original order, and the manifest as indexes into the sources.
+ *
+ * <p>The manifest stored in a previous snapshot is reused if the difference
+ * between the previous and the current sources cannot change it: the
+ * sources of the manifest are unchanged (apart from their code) and in the
+ * same relative order, and every source that was added, removed or changed
+ * is not kept (it is not a main source, not a kept moocher, and provides
+ * none of the namespaces required by the manifest or matched by a namespace
+ * pattern). Checking this takes time linear in the number of sources (times
+ * the number of namespace patterns), without building the dependency
+ * graph.</p>
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ */
+final class ManifestSnapshot {
+
+  private static final int MAGIC = 0x434C4D53;  // "CLMS"
+  private static final int VERSION = 1;
+
+  private final boolean keepAllSources;
+  private final boolean keepMoochers;
+  private final boolean keepOriginalOrder;
+  private final List<String> namespaces;
+  private final List<Record> records;
+  private final Map<String, Integer> pathToIndex;
+  private int[] manifest;
+
+  private ManifestSnapshot(boolean keepAllSources, boolean keepMoochers,
+      boolean keepOriginalOrder, List<String> namespaces,
+      List<Record> records, Map<String, Integer> pathToIndex) {
+    this.keepAllSources = keepAllSources;
+    this.keepMoochers = keepMoochers;
+    this.keepOriginalOrder = keepOriginalOrder;
+    this.namespaces = namespaces;
+    this.records = records;
+    this.pathToIndex = pathToIndex;
+    this.manifest = null;
+  }
+
+  /**
+   * Creates a snapshot of the inputs of a {@link ManifestBuilder}, without a
+   * manifest.
+   *
+   * @param sources all sources in their original order
+   * @param mainSources the "main" sources
+   * @param namespaces the namespace entry points
+   * @return a new snapshot, or {@code null} if two sources have the same
+   *     path, in which case they cannot be told apart in a snapshot
+   */
+  static <S extends ProvidesRequiresSourceFile> ManifestSnapshot create(
+      boolean keepAllSources, boolean keepMoochers, boolean keepOriginalOrder,
+      List<S> sources, Set<S> mainSources, Collection<String> namespaces) {
+    List<Record> records = Lists.newArrayListWithCapacity(sources.size());
+    for (S source : sources) {
+      String path = source.getAbsolutePath().isEmpty() ?
+          source.getName() : source.getAbsolutePath();
+      records.add(new Record(path, mainSources.contains(source),
+          ClosureBuildUtil.isClosureBaseJs(source),
+          ImmutableList.copyOf(source.getProvides()),
+          ImmutableList.copyOf(source.getRequires())));
+    }
+    Map<String, Integer> pathToIndex = indexPaths(records);
+    if (pathToIndex == null) {
+      return null;
+    }
+    return new ManifestSnapshot(keepAllSources, keepMoochers,
+        keepOriginalOrder, Ordering.natural().sortedCopy(namespaces), records,
+        pathToIndex);
+  }
+
+  /**
+   * @return a map of the paths of the records to their indexes, or {@code
+   *     null} if two records have the same path
+   */
+  private static Map<String, Integer> indexPaths(List<Record> records) {
+    Map<String, Integer> pathToIndex =
+        Maps.newHashMapWithExpectedSize(records.size());
+    for (int i = 0; i < records.size(); i++) {
+      if (pathToIndex.put(records.get(i).path, i) != null) {
+        return null;
+      }
+    }
+    return pathToIndex;
+  }
+
+  /**
+   * @param manifest the manifest of this snapshot as indexes into the
+   *     sources
+   */
+  void setManifest(int[] manifest) {
+    this.manifest = manifest.clone();
+  }
+
+  /**
+   * Gets the manifest of the current sources from a previous snapshot, if
+   * the changes since the previous snapshot cannot affect the manifest.
+   *
+   * @param previous the previous snapshot
+   * @return the manifest as indexes into the sources of this snapshot, or
+   *     {@code null} if the manifest must be rebuilt
+   */
+  int[] patch(ManifestSnapshot previous) {
+    if (previous.manifest == null
+        || previous.keepAllSources != this.keepAllSources
+        || previous.keepMoochers != this.keepMoochers
+        || previous.keepOriginalOrder != this.keepOriginalOrder
+        || !previous.namespaces.equals(this.namespaces)) {
+      return null;
+    }
+    if (this.keepAllSources) {
+      return previous.records.equals(this.records) ?
+          previous.manifest.clone() : null;
+    }
+
+    // A namespace provided by more than one source must be reported by
+    // rebuilding the manifest.
+    Set<String> provides = Sets.newHashSet();
+    for (Record record : this.records) {
+      for (String provide : record.provides) {
+        if (!provides.add(provide)) {
+          return null;
+        }
+      }
+    }
+
+    // The sources of the manifest must be unchanged and in the same relative
+    // order, so that the sort is unchanged.
+    BitSet previousKept = new BitSet(previous.records.size());
+    for (int index : previous.manifest) {
+      previousKept.set(index);
+    }
+    BitSet kept = new BitSet(this.records.size());
+    Set<String> requiredNamespaces = Sets.newHashSet(this.namespaces);
+    int lastIndex = -1;
+    for (int previousIndex = previousKept.nextSetBit(0); previousIndex >= 0;
+         previousIndex = previousKept.nextSetBit(previousIndex + 1)) {
+      Record record = previous.records.get(previousIndex);
+      Integer index = this.pathToIndex.get(record.path);
+      if (index == null || index <= lastIndex
+          || !this.records.get(index).equals(record)) {
+        return null;
+      }
+      kept.set(index);
+      requiredNamespaces.addAll(record.requires);
+      lastIndex = index;
+    }
+
+    // Every other source that was added or changed must not be kept.
+    List<String> patterns = Lists.newArrayList();
+    for (String namespace : this.namespaces) {
+      if (NamespacePatternIndex.isPattern(namespace)) {
+        patterns.add(namespace);
+      }
+    }
+    for (int index = 0; index < this.records.size(); index++) {
+      Record record = this.records.get(index);
+      if (kept.get(index)) {
+        continue;
+      }
+      Integer previousIndex = previous.pathToIndex.get(record.path);
+      if (previousIndex != null
+          && previous.records.get(previousIndex).equals(record)) {
+        continue;
+      }
+      if (record.isMain || (this.keepMoochers && record.provides.isEmpty())) {
+        return null;
+      }
+      for (String provide : record.provides) {
+        if (requiredNamespaces.contains(provide)) {
+          return null;
+        }
+        for (String pattern : patterns) {
+          if (NamespacePatternIndex.matches(pattern, provide)) {
+            return null;
+          }
+        }
+      }
+    }
+
+    int[] manifest = new int[previous.manifest.length];
+    for (int i = 0; i < manifest.length; i++) {
+      manifest[i] = this.pathToIndex.get(
+          previous.records.get(previous.manifest[i]).path);
+    }
+    return manifest;
+  }
+
+  /**
+   * Reads a snapshot file.
+   *
+   * @param file the snapshot file
+   * @return the snapshot, or {@code null} if the file does not exist, is
+   *     corrupt, or has a different version
+   */
+  static ManifestSnapshot read(File file) {
+    if (!file.isFile()) {
+      return null;
+    }
+
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new BufferedInputStream(
+          new FileInputStream(file)));
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        return null;
+      }
+      boolean keepAllSources = in.readBoolean();
+      boolean keepMoochers = in.readBoolean();
+      boolean keepOriginalOrder = in.readBoolean();
+      List<String> namespaces = readStrings(in);
+      int count = in.readInt();
+      List<Record> records = Lists.newArrayListWithCapacity(count);
+      for (int i = 0; i < count; i++) {
+        String path = in.readUTF();
+        boolean isMain = in.readBoolean();
+        boolean isBaseJs = in.readBoolean();
+        List<String> provides = readStrings(in);
+        List<String> requires = readStrings(in);
+        records.add(new Record(path, isMain, isBaseJs, provides, requires));
+      }
+      int[] manifest = new int[in.readInt()];
+      for (int i = 0; i < manifest.length; i++) {
+        manifest[i] = in.readInt();
+        if (manifest[i] < 0 || manifest[i] >= count) {
+          return null;
+        }
+      }
+      Map<String, Integer> pathToIndex = indexPaths(records);
+      if (in.read() != -1 || pathToIndex == null) {
+        return null;
+      }
+      ManifestSnapshot snapshot = new ManifestSnapshot(keepAllSources,
+          keepMoochers, keepOriginalOrder, namespaces, records, pathToIndex);
+      snapshot.manifest = manifest;
+      return snapshot;
+    } catch (IOException e) {
+      // The snapshot is corrupt and will be rebuilt.
+      return null;
+    } catch (RuntimeException e) {
+      // For example, a negative list size in a corrupt snapshot.
+      return null;
+    } finally {
+      try {
+        if (in != null) in.close();
+      } catch (IOException e) {
+        // nothing to see here
+      }
+    }
+  }
+
+  /**
+   * Writes this snapshot to a temporary file that then replaces {@code
+   * file}.
+   *
+   * @param file the snapshot file
+   * @throws IOException if the snapshot cannot be written
+   * @throws IllegalStateException if the manifest was not set
+   */
+  void write(File file) throws IOException {
+    if (this.manifest == null) {
+      throw new IllegalStateException("manifest was not set");
+    }
+    File directory = file.getParentFile();
+    if (directory != null) {
+      directory.mkdirs();
+    }
+    File tempFile = File.createTempFile(file.getName(), ".tmp", directory);
+    try {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+          new FileOutputStream(tempFile)));
+      try {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeBoolean(this.keepAllSources);
+        out.writeBoolean(this.keepMoochers);
+        out.writeBoolean(this.keepOriginalOrder);
+        writeStrings(this.namespaces, out);
+        out.writeInt(this.records.size());
+        for (Record record : this.records) {
+          out.writeUTF(record.path);
+          out.writeBoolean(record.isMain);
+          out.writeBoolean(record.isBaseJs);
+          writeStrings(record.provides, out);
+          writeStrings(record.requires, out);
+        }
+        out.writeInt(this.manifest.length);
+        for (int index : this.manifest) {
+          out.writeInt(index);
+        }
+      } finally {
+        out.close();
+      }
+      if (!tempFile.renameTo(file)) {
+        // On Windows, renameTo() fails if the target exists.
+        file.delete();
+        if (!tempFile.renameTo(file)) {
+          throw new IOException("Unable to replace snapshot file \""
+              + file.getAbsolutePath() + "\"");
+        }
+      }
+    } finally {
+      tempFile.delete();
+    }
+  }
+
+  private static List<String> readStrings(DataInputStream in)
+      throws IOException {
+    int size = in.readInt();
+    List<String> strings = Lists.newArrayListWithCapacity(size);
+    for (int i = 0; i < size; i++) {
+      strings.add(in.readUTF());
+    }
+    return strings;
+  }
+
+  private static void writeStrings(List<String> strings,
+      DataOutputStream out) throws IOException {
+    out.writeInt(strings.size());
+    for (String string : strings) {
+      out.writeUTF(string);
+    }
+  }
+
+
+  //----------------------------------------------------------------------------
+
+
+  /**
+   * The resolved inputs of a single source.
+   */
+  private static final class Record {
+    final String path;
+    final boolean isMain;
+    final boolean isBaseJs;
+    final List<String> provides;
+    final List<String> requires;
+
+    Record(String path, boolean isMain, boolean isBaseJs,
+        List<String> provides, List<String> requires) {
+      this.path = path;
+      this.isMain = isMain;
+      this.isBaseJs = isBaseJs;
+      this.provides = provides;
+      this.requires = requires;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Record)) {
+        return false;
+      }
+      Record other = (Record) o;
+      return this.path.equals(other.path) && this.isMain == other.isMain
+          && this.isBaseJs == other.isBaseJs
+          && this.provides.equals(other.provides)
+          && this.requires.equals(other.requires);
+    }
+
+    @Override
+    public int hashCode() {
+      return Arrays.hashCode(new Object[] {this.path, this.isMain,
+          this.isBaseJs, this.provides, this.requires});
+    }
+  }
+}
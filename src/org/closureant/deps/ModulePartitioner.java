@@ -0,0 +1,417 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant.deps;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.io.File;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import org.closureant.base.ProvidesRequiresSourceFile;
+
+/**
+ * Partitions the sources of several program entry points, such as the pages
+ * of a web application, into Closure Compiler modules. Each source is placed
+ * in the module of the set of entry points that transitively require it:
+ *
+ * <ul>
+ * <li>sources required by every entry point are placed in the base module,
+ *     which every other module depends on</li>
+ * <li>sources required by a single entry point are placed in the module
+ *     named after the entry point</li>
+ * <li>sources shared by some, but not all, entry points are placed in
+ *     shared modules named "shared1", "shared2", etc.</li>
+ * </ul>
+ *
+ * <p>A module depends on the modules whose sets of entry points are the
+ * smallest proper supersets of its own set, so that loading the module of
+ * an entry point, after its dependencies, loads exactly the transitive
+ * dependencies of the entry point. Modules without sources are omitted.</p>
+ *
+ * <p>Shared modules that are smaller than the minimum shared size are merged
+ * into the smallest module that is shared by more entry points (ultimately
+ * the base module), which trades a few more bytes loaded by some entry
+ * points for fewer requests.</p>
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ *
+ * @param <S> the type of source file, which must implement {@link
+ *     ProvidesRequiresSourceFile}
+ */
+public final class ModulePartitioner<S extends ProvidesRequiresSourceFile> {
+
+  /** The default name of the module shared by all entry points. */
+  public static final String DEFAULT_BASE_MODULE_NAME = "base";
+
+  private final BatchManifestBuilder<S> builder;
+  private final List<String> entryPointNames;
+  private String baseModuleName;
+  private boolean keepAllSources;
+  private long minSharedSize;
+  private Function<? super S, Long> sizeFunction;
+
+
+  /**
+   * Constructs a {@link ModulePartitioner}.
+   */
+  public ModulePartitioner() {
+    this.builder = new BatchManifestBuilder<S>();
+    this.entryPointNames = Lists.newArrayList();
+    this.baseModuleName = DEFAULT_BASE_MODULE_NAME;
+    this.keepAllSources = false;
+    this.minSharedSize = 0;
+    this.sizeFunction = new Function<S, Long>() {
+      @Override public Long apply(S source) {
+        return new File(source.getAbsolutePath()).length();
+      }
+    };
+  }
+
+  /**
+   * Whether all sources should be kept. If {@code true}, sources not
+   * required by any entry point are placed in the base module along with
+   * their dependencies, while the other sources are partitioned as usual.
+   * See {@link ManifestBuilder#keepAllSources(boolean)}.
+   *
+   * @param keepAllSources whether all sources should be kept. Defaults to
+   *     {@code false}.
+   * @return this {@link ModulePartitioner}
+   */
+  public ModulePartitioner<S> keepAllSources(boolean keepAllSources) {
+    this.keepAllSources = keepAllSources;
+    return this;
+  }
+
+  /**
+   * Whether "moochers" and their dependencies are always kept, in which case
+   * they are placed in the base module. See {@link
+   * ManifestBuilder#keepMoochers(boolean)}.
+   *
+   * @param keepMoochers if {@code true}, moochers and their dependencies are
+   *     always kept. Defaults to {@code false}.
+   * @return this {@link ModulePartitioner}
+   */
+  public ModulePartitioner<S> keepMoochers(boolean keepMoochers) {
+    this.builder.keepMoochers(keepMoochers);
+    return this;
+  }
+
+  /**
+   * @param baseModuleName the name of the module shared by all entry points.
+   *     Defaults to {@link #DEFAULT_BASE_MODULE_NAME}.
+   * @return this {@link ModulePartitioner}
+   */
+  public ModulePartitioner<S> baseModuleName(String baseModuleName) {
+    this.baseModuleName = Preconditions.checkNotNull(baseModuleName,
+        "baseModuleName was null");
+    return this;
+  }
+
+  /**
+   * Sets the minimum size of a shared module. Smaller shared modules are
+   * merged into modules shared by more entry points.
+   *
+   * @param minSharedSize the minimum size in the units of the size function.
+   *     Defaults to 0.
+   * @return this {@link ModulePartitioner}
+   * @throws IllegalArgumentException if {@code minSharedSize} is negative
+   */
+  public ModulePartitioner<S> minSharedSize(long minSharedSize) {
+    Preconditions.checkArgument(minSharedSize >= 0,
+        "minSharedSize expected to be at least 0 but was %s", minSharedSize);
+    this.minSharedSize = minSharedSize;
+    return this;
+  }
+
+  /**
+   * @param sizeFunction the function used to measure the size of a source.
+   *     Defaults to the length in bytes of the source's file.
+   * @return this {@link ModulePartitioner}
+   */
+  public ModulePartitioner<S> sizeFunction(
+      Function<? super S, Long> sizeFunction) {
+    this.sizeFunction = Preconditions.checkNotNull(sizeFunction,
+        "sizeFunction was null");
+    return this;
+  }
+
+  /**
+   * Adds a source file shared by all entry points.
+   *
+   * @param source the source file
+   * @return this {@link ModulePartitioner}
+   */
+  public ModulePartitioner<S> source(S source) {
+    this.builder.source(source);
+    return this;
+  }
+
+  /**
+   * Adds source files shared by all entry points.
+   *
+   * @param sources the source files to add
+   * @return this {@link ModulePartitioner}
+   */
+  public ModulePartitioner<S> sources(Collection<S> sources) {
+    this.builder.sources(sources);
+    return this;
+  }
+
+  /**
+   * Adds a named program entry point. See {@link
+   * BatchManifestBuilder#entryPoint(String, Collection, Collection)}.
+   *
+   * @param name the name of the entry point, which is also the name of its
+   *     module
+   * @param mainSources source files that must be included in the modules
+   *     loaded by the entry point
+   * @param namespaces namespaces whose providers must be included in the
+   *     modules loaded by the entry point
+   * @return this {@link ModulePartitioner}
+   * @throws IllegalArgumentException if an entry point named {@code name}
+   *     was already added
+   */
+  public ModulePartitioner<S> entryPoint(String name,
+      Collection<S> mainSources, Collection<String> namespaces) {
+    this.builder.entryPoint(name, mainSources, namespaces);
+    this.entryPointNames.add(name);
+    return this;
+  }
+
+  /**
+   * Partitions the sources into modules.
+   *
+   * @return the modules in the order they must be passed to the Closure
+   *     Compiler, where every module follows the modules it depends on
+   * @throws IllegalStateException if there are no entry points or if the
+   *     name of an entry point is also the name of another module
+   * @throws CircularDependencyException if the goog.provided and goog.required
+   *     namespaces of the kept sources form a cycle
+   * @throws MissingProvideException if a goog.required namespace of a kept
+   *     source or a namespace of an entry point is not goog.provided
+   * @throws MultipleProvideException if a namespace is provided by more than
+   *     one source file
+   */
+  public List<CompilerModule<S>> toModules() {
+    Preconditions.checkState(!this.entryPointNames.isEmpty(),
+        "there are no entry points");
+    int entryPointCount = this.entryPointNames.size();
+
+    // Label each kept source with the set of entry points that require it.
+    // The sources required by each entry point are computed without keeping
+    // all sources, since every source would be required by every entry
+    // point otherwise.
+    List<BitSet> prunedSources = Lists.newArrayList();
+    for (String name : this.entryPointNames) {
+      prunedSources.add(this.builder.getPrunedSources(name));
+    }
+    DependencyGraph<S> graph = this.builder.getGraph();
+    BitSet kept = new BitSet(graph.size());
+    BitSet[] entryPoints = new BitSet[graph.size()];
+    for (int e = 0; e < entryPointCount; e++) {
+      BitSet ids = prunedSources.get(e);
+      kept.or(ids);
+      for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+        if (entryPoints[id] == null) {
+          entryPoints[id] = new BitSet(entryPointCount);
+        }
+        entryPoints[id].set(e);
+      }
+    }
+    BitSet all = new BitSet(entryPointCount);
+    all.set(0, entryPointCount);
+    if (this.keepAllSources) {
+      for (int id = kept.nextClearBit(0); id < graph.size();
+           id = kept.nextClearBit(id + 1)) {
+        entryPoints[id] = (BitSet) all.clone();
+      }
+      kept = graph.getAllIds();
+    }
+    graph.checkAllProvided(kept);
+    int[] order = graph.topologicalStableSortDepthFirstSearch(kept);
+    if (this.keepAllSources) {
+      propagateToDependencies(order, entryPoints, graph);
+    }
+
+    Map<BitSet, List<Integer>> groups;
+    while (true) {
+      groups = groupByEntryPoints(order, entryPoints);
+      BitSet small = findSmallSharedGroup(groups, graph, entryPointCount);
+      if (small == null) {
+        break;
+      }
+
+      // Move the sources of the small group to the smallest group whose set
+      // of entry points contains it, then add the entry points to the
+      // dependencies of the moved sources.
+      BitSet target = all;
+      for (BitSet set : groups.keySet()) {
+        if (!set.equals(small) && contains(set, small)
+            && set.cardinality() < target.cardinality()) {
+          target = set;
+        }
+      }
+      for (int id : groups.get(small)) {
+        entryPoints[id] = (BitSet) target.clone();
+      }
+      propagateToDependencies(order, entryPoints, graph);
+    }
+
+    // Modules shared by more entry points precede the modules that depend
+    // on them.
+    List<BitSet> sets = Lists.newArrayList(groups.keySet());
+    Collections.sort(sets, new Comparator<BitSet>() {
+      @Override public int compare(BitSet a, BitSet b) {
+        return b.cardinality() - a.cardinality();
+      }
+    });
+
+    Map<BitSet, String> setToName = Maps.newHashMap();
+    int sharedCount = 0;
+    for (BitSet set : sets) {
+      String name;
+      if (set.cardinality() == 1) {
+        name = this.entryPointNames.get(set.nextSetBit(0));
+      } else if (set.cardinality() == entryPointCount) {
+        name = this.baseModuleName;
+      } else {
+        sharedCount++;
+        name = "shared" + sharedCount;
+      }
+      Preconditions.checkState(!setToName.containsValue(name),
+          "module name \"%s\" is used more than once", name);
+      setToName.put(set, name);
+    }
+
+    List<CompilerModule<S>> modules = Lists.newArrayList();
+    for (BitSet set : sets) {
+      List<String> dependencies = Lists.newArrayList();
+      for (BitSet candidate : sets) {
+        if (isMinimalProperSuperset(candidate, set, sets)) {
+          dependencies.add(setToName.get(candidate));
+        }
+      }
+      List<S> sources = Lists.newArrayList();
+      for (int id : groups.get(set)) {
+        sources.add(graph.getSource(id));
+      }
+      modules.add(new CompilerModule<S>(setToName.get(set), sources,
+          dependencies));
+    }
+    return modules;
+  }
+
+  /**
+   * Adds the entry points of each source to the entry points of its
+   * dependencies, so that every source is in the same module as its
+   * dependencies or in a module that precedes it.
+   *
+   * @param order the ids of the kept sources in topological order
+   */
+  private static void propagateToDependencies(int[] order,
+      BitSet[] entryPoints, DependencyGraph<?> graph) {
+    for (int i = order.length - 1; i >= 0; i--) {
+      int id = order[i];
+      for (int d = 0; d < graph.getDependencyCount(id); d++) {
+        entryPoints[graph.getDependency(id, d)].or(entryPoints[id]);
+      }
+    }
+  }
+
+  /**
+   * Groups the kept sources by their sets of entry points.
+   *
+   * @return a map of sets of entry points to the ids of their sources in
+   *     topological order, in the order of the first source of each group
+   */
+  private static Map<BitSet, List<Integer>> groupByEntryPoints(int[] order,
+      BitSet[] entryPoints) {
+    Map<BitSet, List<Integer>> groups = Maps.newLinkedHashMap();
+    for (int id : order) {
+      List<Integer> group = groups.get(entryPoints[id]);
+      if (group == null) {
+        group = Lists.newArrayList();
+        groups.put((BitSet) entryPoints[id].clone(), group);
+      }
+      group.add(id);
+    }
+    return groups;
+  }
+
+  /**
+   * Finds the shared group with the fewest entry points whose size is less
+   * than the minimum shared size.
+   *
+   * @return the set of entry points of the group, or {@code null} if there
+   *     is no such group
+   */
+  private BitSet findSmallSharedGroup(Map<BitSet, List<Integer>> groups,
+      DependencyGraph<S> graph, int entryPointCount) {
+    BitSet small = null;
+    for (Map.Entry<BitSet, List<Integer>> entry : groups.entrySet()) {
+      int cardinality = entry.getKey().cardinality();
+      if (cardinality < 2 || cardinality == entryPointCount
+          || (small != null && small.cardinality() <= cardinality)) {
+        continue;
+      }
+      long size = 0;
+      for (int id : entry.getValue()) {
+        size += this.sizeFunction.apply(graph.getSource(id));
+      }
+      if (size < this.minSharedSize) {
+        small = entry.getKey();
+      }
+    }
+    return small;
+  }
+
+  /**
+   * @return {@code true} if {@code candidate} is a proper superset of {@code
+   *     set} and no other member of {@code sets} lies strictly between them
+   */
+  private static boolean isMinimalProperSuperset(BitSet candidate, BitSet set,
+      List<BitSet> sets) {
+    if (candidate.equals(set) || !contains(candidate, set)) {
+      return false;
+    }
+    for (BitSet other : sets) {
+      if (!other.equals(set) && !other.equals(candidate)
+          && contains(other, set) && contains(candidate, other)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return {@code true} if {@code superset} contains every member of {@code
+   *     subset}
+   */
+  private static boolean contains(BitSet superset, BitSet subset) {
+    BitSet difference = (BitSet) subset.clone();
+    difference.andNot(superset);
+    return difference.isEmpty();
+  }
+}
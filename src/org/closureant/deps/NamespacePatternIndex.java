@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant.deps;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A sorted index of {@code goog.provided} namespaces that resolves namespace
+ * patterns. A namespace pattern ends with a "*" wildcard and matches every
+ * namespace that starts with the text before the wildcard. For example,
+ * "app.pages.*" matches "app.pages.home" and "app.pages.admin.users", but
+ * not "app.pages" itself, and "app.page*" also matches "app.pages".
+ *
+ * <p>The namespaces are sorted once when the index is created, so that the
+ * namespaces matching a pattern are found by binary search in time
+ * proportional to {@code log(n) + m}, where {@code n} is the number of
+ * namespaces and {@code m} is the number of matches, instead of scanning
+ * every namespace for every pattern.</p>
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ */
+public final class NamespacePatternIndex {
+
+  /** The wildcard that ends a namespace pattern. */
+  public static final String WILDCARD = "*";
+
+  private final String[] sortedNamespaces;
+
+  private NamespacePatternIndex(String[] sortedNamespaces) {
+    this.sortedNamespaces = sortedNamespaces;
+  }
+
+  /**
+   * Creates an index of the given namespaces.
+   *
+   * @param namespaces the {@code goog.provided} namespaces
+   * @return a new index
+   */
+  public static NamespacePatternIndex create(Collection<String> namespaces) {
+    String[] sortedNamespaces = namespaces.toArray(
+        new String[namespaces.size()]);
+    Arrays.sort(sortedNamespaces);
+    return new NamespacePatternIndex(sortedNamespaces);
+  }
+
+  /**
+   * @param namespace a namespace entry point
+   * @return {@code true} if {@code namespace} is a pattern, i.e. it ends with
+   *     the {@link #WILDCARD}
+   * @throws IllegalArgumentException if the wildcard occurs anywhere other
+   *     than at the end of {@code namespace}
+   */
+  public static boolean isPattern(String namespace) {
+    checkPattern(namespace);
+    return namespace.indexOf(WILDCARD) != -1;
+  }
+
+  /**
+   * Verifies that a namespace entry point is either a namespace or a valid
+   * pattern.
+   *
+   * @param namespace a namespace entry point
+   * @throws IllegalArgumentException if the wildcard occurs anywhere other
+   *     than at the end of {@code namespace}
+   */
+  public static void checkPattern(String namespace) {
+    int wildcard = namespace.indexOf(WILDCARD);
+    Preconditions.checkArgument(wildcard == -1
+        || wildcard == namespace.length() - 1,
+        "the wildcard \"%s\" may only occur at the end of namespace "
+        + "pattern \"%s\"", WILDCARD, namespace);
+  }
+
+  /**
+   * @param pattern a namespace pattern
+   * @param namespace a namespace
+   * @return {@code true} if {@code pattern} matches {@code namespace}
+   * @throws IllegalArgumentException if {@code pattern} is not a pattern
+   */
+  public static boolean matches(String pattern, String namespace) {
+    Preconditions.checkArgument(isPattern(pattern),
+        "\"%s\" is not a namespace pattern", pattern);
+    return namespace.startsWith(getPrefix(pattern));
+  }
+
+  /**
+   * Gets the indexed namespaces that match a pattern.
+   *
+   * @param pattern a namespace pattern
+   * @return the matching namespaces in lexicographic order, which is empty
+   *     if none of the namespaces match
+   * @throws IllegalArgumentException if {@code pattern} is not a pattern
+   */
+  public List<String> getMatches(String pattern) {
+    Preconditions.checkArgument(isPattern(pattern),
+        "\"%s\" is not a namespace pattern", pattern);
+    String prefix = getPrefix(pattern);
+
+    // Every namespace that starts with the prefix sorts at or after the
+    // prefix and before every namespace that does not start with it.
+    int start = Arrays.binarySearch(this.sortedNamespaces, prefix);
+    if (start < 0) {
+      start = -(start + 1);
+    }
+    int end = start;
+    while (end < this.sortedNamespaces.length
+        && this.sortedNamespaces[end].startsWith(prefix)) {
+      end++;
+    }
+    return ImmutableList.copyOf(Arrays.asList(this.sortedNamespaces)
+        .subList(start, end));
+  }
+
+  private static String getPrefix(String pattern) {
+    return pattern.substring(0, pattern.length() - WILDCARD.length());
+  }
+}
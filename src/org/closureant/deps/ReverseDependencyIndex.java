@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant.deps;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.closureant.base.ProvidesRequiresSourceFile;
+import org.closureant.util.ClosureBuildUtil;
+
+/**
+ * An index over the dependency graph of a list of sources that answers
+ * which program entry points (and therefore which outputs) transitively
+ * depend on a set of changed sources. An entry point is affected by a
+ * change if and only if one of the changed sources is in its manifest, as
+ * created by {@link ManifestBuilder} without {@code keepAllSources}, so an
+ * output whose entry points are not affected does not need to be rebuilt,
+ * even if the change is in a directory shared with other outputs.
+ *
+ * <p>Since the index only knows the current sources, a changed source that
+ * no longer provides a namespace that an entry point requires is not in the
+ * manifest of the entry point anymore. Entry points that transitively
+ * require a namespace that is never provided are therefore always affected,
+ * so that the missing provide is reported by the rebuild.</p>
+ *
+ * <p>The graph is built once, and each query walks the dependents of the
+ * changed sources (i.e. the reverse dependencies) instead of building the
+ * manifest of every entry point, so it only visits the part of the graph
+ * that depends on the changes.</p>
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ *
+ * @param <S> the type of source file, which must implement {@link
+ *     ProvidesRequiresSourceFile}
+ */
+public final class ReverseDependencyIndex<
+    S extends ProvidesRequiresSourceFile> {
+
+  private final DependencyGraph<S> graph;
+  private final Map<String, S> provideToSource;
+
+  // Closure's base.js, as well as moochers if they are kept, are entry
+  // points of every manifest.
+  private final BitSet sharedRoots;
+  private final BitSet moochers;
+  private boolean keepMoochers;
+
+  private final List<String> entryPointNames;
+  private final List<BitSet> entryPointRoots;
+
+  // Entry points that name a namespace that is never provided, which are
+  // always affected.
+  private final BitSet brokenEntryPoints;
+
+  // Sources that require a namespace that is never provided.
+  private final BitSet missingProvideSources;
+
+  private ReverseDependencyIndex(List<S> sources) {
+    this.provideToSource = ClosureBuildUtil.createMapOfProvideToSource(sources);
+    this.graph = DependencyGraph.create(sources, this.provideToSource);
+    this.sharedRoots = new BitSet(this.graph.size());
+    this.moochers = new BitSet(this.graph.size());
+    for (int id = 0; id < this.graph.size(); id++) {
+      S source = this.graph.getSource(id);
+      if (ClosureBuildUtil.isClosureBaseJs(source)) {
+        this.sharedRoots.set(id);
+      } else if (source.getProvides().isEmpty()) {
+        this.moochers.set(id);
+      }
+    }
+    this.keepMoochers = false;
+    this.entryPointNames = Lists.newArrayList();
+    this.entryPointRoots = Lists.newArrayList();
+    this.brokenEntryPoints = new BitSet();
+    this.missingProvideSources = new BitSet(this.graph.size());
+    for (int i = 0; i < this.graph.getMissingProvideCount(); i++) {
+      this.missingProvideSources.set(this.graph.getMissingProvideSource(i));
+    }
+  }
+
+  /**
+   * Creates an index over the dependency graph of the given sources.
+   *
+   * @param sources the sources in their original order
+   * @return a new index without entry points
+   * @throws MultipleProvideException if a namespace is provided by more than
+   *     one source file
+   */
+  public static <S extends ProvidesRequiresSourceFile>
+      ReverseDependencyIndex<S> create(List<S> sources) {
+    return new ReverseDependencyIndex<S>(ImmutableSet.copyOf(sources).asList());
+  }
+
+  /**
+   * Whether "moochers" are entry points of every manifest, in which case
+   * every entry point is affected by a change to a moocher or one of its
+   * transitive dependencies. See {@link ManifestBuilder#keepMoochers(boolean)}.
+   *
+   * @param keepMoochers if {@code true}, moochers are always kept. Defaults
+   *     to {@code false}.
+   * @return this {@link ReverseDependencyIndex}
+   */
+  public ReverseDependencyIndex<S> keepMoochers(boolean keepMoochers) {
+    this.keepMoochers = keepMoochers;
+    return this;
+  }
+
+  /**
+   * Adds a named program entry point. The "main" sources of an entry point
+   * are not treated as moochers.
+   *
+   * @param name the name of the entry point
+   * @param mainSources source files that must be included in the manifest of
+   *     the entry point
+   * @param namespaces namespaces whose providers must be included in the
+   *     manifest of the entry point
+   * @return this {@link ReverseDependencyIndex}
+   * @throws IllegalArgumentException if an entry point named {@code name} was
+   *     already added or if one of the main sources is not indexed
+   */
+  public ReverseDependencyIndex<S> entryPoint(String name,
+      Collection<S> mainSources, Collection<String> namespaces) {
+    Preconditions.checkArgument(!this.entryPointNames.contains(name),
+        "entry point \"%s\" was already added", name);
+    BitSet roots = this.graph.getIds(mainSources);
+    this.moochers.andNot(roots);
+    for (String namespace : namespaces) {
+      S provider = this.provideToSource.get(namespace);
+      if (provider == null) {
+        this.brokenEntryPoints.set(this.entryPointNames.size());
+      } else {
+        roots.set(this.graph.getId(provider));
+      }
+    }
+    this.entryPointNames.add(name);
+    this.entryPointRoots.add(roots);
+    return this;
+  }
+
+  /**
+   * Gets the entry points that transitively depend on at least one of the
+   * changed sources. Entry points that name or transitively require a
+   * namespace that is never provided are always affected.
+   *
+   * @param changedSources sources that were modified
+   * @return the names of the affected entry points in the order in which
+   *     they were added
+   * @throws IllegalArgumentException if one of the changed sources is not
+   *     indexed
+   */
+  public List<String> getAffectedEntryPoints(Collection<S> changedSources) {
+    BitSet dependents = this.graph.getTransitiveDependents(
+        this.graph.getIds(changedSources));
+    boolean affectsAll = dependents.intersects(this.sharedRoots)
+        || (this.keepMoochers && dependents.intersects(this.moochers));
+
+    ImmutableList.Builder<String> affected = ImmutableList.builder();
+    for (int i = 0; i < this.entryPointNames.size(); i++) {
+      if (affectsAll || this.brokenEntryPoints.get(i)
+          || dependents.intersects(this.entryPointRoots.get(i))
+          || requiresMissingProvide(i)) {
+        affected.add(this.entryPointNames.get(i));
+      }
+    }
+    return affected.build();
+  }
+
+  /**
+   * @param entryPoint the index of an entry point
+   * @return {@code true} if the manifest of the entry point contains a
+   *     source that requires a namespace that is never provided
+   */
+  private boolean requiresMissingProvide(int entryPoint) {
+    if (this.missingProvideSources.isEmpty()) {
+      return false;
+    }
+    BitSet roots = (BitSet) this.entryPointRoots.get(entryPoint).clone();
+    roots.or(this.sharedRoots);
+    if (this.keepMoochers) {
+      roots.or(this.moochers);
+    }
+    return this.graph.getTransitiveDependencies(roots).intersects(
+        this.missingProvideSources);
+  }
+
+  /**
+   * @param name the name of an entry point
+   * @param changedSources sources that were modified
+   * @return {@code true} if the entry point transitively depends on at least
+   *     one of the changed sources
+   * @throws IllegalArgumentException if there is no entry point named {@code
+   *     name} or if one of the changed sources is not indexed
+   */
+  public boolean isAffected(String name, Collection<S> changedSources) {
+    Preconditions.checkArgument(this.entryPointNames.contains(name),
+        "there is no entry point named \"%s\"", name);
+    return getAffectedEntryPoints(changedSources).contains(name);
+  }
+}
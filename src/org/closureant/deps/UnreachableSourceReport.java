@@ -0,0 +1,358 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant.deps;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.io.File;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import org.closureant.base.ProvidesRequiresSourceFile;
+import org.closureant.util.ClosureBuildUtil;
+
+/**
+ * A report of the sources that are not reachable from any program entry
+ * point, i.e. sources that are not a transitive dependency of a "main"
+ * source, of the provider of a namespace entry point, of a moocher or of
+ * Closure's base.js. Such sources are never used by a build, yet every build
+ * pays to scan them, so the report lists each of them with its size in bytes
+ * and rolls the sizes up by directory to show which directories may be
+ * excluded from the roots of the build.
+ *
+ * <p>Moochers (sources that do not provide any namespaces) are treated as
+ * entry points whether or not they are kept, since they are typically the
+ * entry points of other builds that share the same roots. Namespaces that
+ * are never provided are ignored, and when a namespace is provided by more
+ * than one source, the first source in the original order is used.</p>
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ *
+ * @param <S> the type of source file, which must implement {@link
+ *     ProvidesRequiresSourceFile}
+ */
+public final class UnreachableSourceReport<
+    S extends ProvidesRequiresSourceFile> {
+
+  private final int sourceCount;
+  private final long totalSize;
+  private final List<S> unreachableSources;
+  private final List<Long> unreachableSizes;
+  private final long unreachableSize;
+  private final List<Directory> directories;
+
+  private UnreachableSourceReport(int sourceCount, long totalSize,
+      List<S> unreachableSources, List<Long> unreachableSizes,
+      List<Directory> directories) {
+    this.sourceCount = sourceCount;
+    this.totalSize = totalSize;
+    this.unreachableSources = unreachableSources;
+    this.unreachableSizes = unreachableSizes;
+    long size = 0;
+    for (long sourceSize : unreachableSizes) {
+      size += sourceSize;
+    }
+    this.unreachableSize = size;
+    this.directories = directories;
+  }
+
+  /**
+   * Creates a report of the unreachable sources, where the size of each
+   * source is the length in bytes of its file.
+   *
+   * @param sources all scanned sources in their original order, including
+   *     the "main" sources
+   * @param mainSources the "main" sources of all entry points
+   * @param namespaces the namespace entry points, which may be patterns such
+   *     as "app.pages.*" (see {@link NamespacePatternIndex})
+   * @return a new report
+   * @throws IllegalArgumentException if a "main" source is not one of the
+   *     {@code sources}
+   */
+  public static <S extends ProvidesRequiresSourceFile>
+      UnreachableSourceReport<S> create(List<S> sources,
+          Collection<S> mainSources, Collection<String> namespaces) {
+    return create(sources, mainSources, namespaces, new Function<S, Long>() {
+      @Override public Long apply(S source) {
+        return new File(source.getAbsolutePath()).length();
+      }
+    });
+  }
+
+  /**
+   * Creates a report of the unreachable sources.
+   *
+   * @param sources all scanned sources in their original order, including
+   *     the "main" sources
+   * @param mainSources the "main" sources of all entry points
+   * @param namespaces the namespace entry points, which may be patterns such
+   *     as "app.pages.*" (see {@link NamespacePatternIndex})
+   * @param sizeFunction the function used to measure the size of a source
+   * @return a new report
+   * @throws IllegalArgumentException if a "main" source is not one of the
+   *     {@code sources}
+   */
+  public static <S extends ProvidesRequiresSourceFile>
+      UnreachableSourceReport<S> create(List<S> sources,
+          Collection<S> mainSources, Collection<String> namespaces,
+          Function<? super S, Long> sizeFunction) {
+    Preconditions.checkNotNull(sizeFunction, "sizeFunction was null");
+    List<S> distinctSources = ImmutableSet.copyOf(sources).asList();
+
+    Map<String, S> provideToSource = Maps.newHashMap();
+    for (S source : distinctSources) {
+      for (String provide : source.getProvides()) {
+        if (!provideToSource.containsKey(provide)) {
+          provideToSource.put(provide, source);
+        }
+      }
+    }
+    DependencyGraph<S> graph = DependencyGraph.create(distinctSources,
+        provideToSource);
+
+    BitSet roots = graph.getIds(ImmutableSet.copyOf(mainSources));
+    for (int id = 0; id < graph.size(); id++) {
+      S source = graph.getSource(id);
+      if (source.getProvides().isEmpty()
+          || ClosureBuildUtil.isClosureBaseJs(source)) {
+        roots.set(id);
+      }
+    }
+    NamespacePatternIndex namespaceIndex = null;
+    for (String namespace : namespaces) {
+      List<String> provides = ImmutableList.of(namespace);
+      if (NamespacePatternIndex.isPattern(namespace)) {
+        if (namespaceIndex == null) {
+          namespaceIndex = NamespacePatternIndex.create(
+              provideToSource.keySet());
+        }
+        provides = namespaceIndex.getMatches(namespace);
+      }
+      for (String provide : provides) {
+        S provider = provideToSource.get(provide);
+        if (provider != null) {
+          roots.set(graph.getId(provider));
+        }
+      }
+    }
+    BitSet reachable = graph.getTransitiveDependencies(roots);
+
+    // The sizes are rolled up into every ancestor of the directory of each
+    // source.
+    Map<String, Directory> pathToDirectory = Maps.newHashMap();
+    ImmutableList.Builder<S> unreachableSources = ImmutableList.builder();
+    ImmutableList.Builder<Long> unreachableSizes = ImmutableList.builder();
+    long totalSize = 0;
+    for (int id = 0; id < graph.size(); id++) {
+      S source = graph.getSource(id);
+      long size = sizeFunction.apply(source);
+      boolean isUnreachable = !reachable.get(id);
+      totalSize += size;
+      if (isUnreachable) {
+        unreachableSources.add(source);
+        unreachableSizes.add(size);
+      }
+      for (File dir = new File(getPath(source)).getAbsoluteFile()
+          .getParentFile(); dir != null; dir = dir.getParentFile()) {
+        Directory directory = pathToDirectory.get(dir.getPath());
+        if (directory == null) {
+          directory = new Directory(dir.getPath());
+          pathToDirectory.put(dir.getPath(), directory);
+        }
+        directory.add(size, isUnreachable);
+      }
+    }
+
+    // Directories that contain every source only repeat the totals, and the
+    // subdirectories of an unreachable directory are covered by it.
+    List<Directory> directories = Lists.newArrayList();
+    for (Directory directory : pathToDirectory.values()) {
+      if (directory.unreachableFileCount == 0
+          || directory.fileCount == graph.size()) {
+        continue;
+      }
+      Directory parent = pathToDirectory.get(
+          new File(directory.path).getParent());
+      if (parent == null || !parent.isUnreachable()
+          || parent.fileCount == graph.size()) {
+        directories.add(directory);
+      }
+    }
+    Collections.sort(directories, new Comparator<Directory>() {
+      @Override public int compare(Directory a, Directory b) {
+        if (a.unreachableSize != b.unreachableSize) {
+          return (a.unreachableSize > b.unreachableSize) ? -1 : 1;
+        }
+        return a.path.compareTo(b.path);
+      }
+    });
+
+    return new UnreachableSourceReport<S>(graph.size(), totalSize,
+        unreachableSources.build(), unreachableSizes.build(),
+        ImmutableList.copyOf(directories));
+  }
+
+  private static String getPath(ProvidesRequiresSourceFile source) {
+    return source.getAbsolutePath().isEmpty() ?
+        source.getName() : source.getAbsolutePath();
+  }
+
+  /**
+   * @return the number of sources in the report
+   */
+  public int getSourceCount() {
+    return this.sourceCount;
+  }
+
+  /**
+   * @return the total size of all sources in bytes
+   */
+  public long getTotalSize() {
+    return this.totalSize;
+  }
+
+  /**
+   * @return the unreachable sources in their original order
+   */
+  public List<S> getUnreachableSources() {
+    return this.unreachableSources;
+  }
+
+  /**
+   * @return the total size of the unreachable sources in bytes
+   */
+  public long getUnreachableSize() {
+    return this.unreachableSize;
+  }
+
+  /**
+   * Gets the directories that contain unreachable sources, excluding
+   * directories that contain every source and the subdirectories of
+   * directories in which every source is unreachable.
+   *
+   * @return the directories in descending order of the size of their
+   *     unreachable sources
+   */
+  public List<Directory> getDirectories() {
+    return this.directories;
+  }
+
+  /**
+   * @return the report as text: a summary, the directory rollups and the
+   *     unreachable sources with their sizes in bytes
+   */
+  @Override
+  public String toString() {
+    StringBuilder report = new StringBuilder();
+    report.append(String.format("Unreachable sources: %d of %d "
+        + "(%d of %d bytes)%n", this.unreachableSources.size(),
+        this.sourceCount, this.unreachableSize, this.totalSize));
+    if (!this.directories.isEmpty()) {
+      report.append(String.format("%nDirectories (unreachable bytes, "
+          + "unreachable files of scanned files):%n"));
+      for (Directory directory : this.directories) {
+        report.append(String.format("%12d  %6d of %-6d  %s%s%n",
+            directory.unreachableSize, directory.unreachableFileCount,
+            directory.fileCount, directory.path,
+            directory.isUnreachable() ? "  [unreachable]" : ""));
+      }
+    }
+    if (!this.unreachableSources.isEmpty()) {
+      report.append(String.format("%nFiles (bytes):%n"));
+      for (int i = 0; i < this.unreachableSources.size(); i++) {
+        report.append(String.format("%12d  %s%n",
+            this.unreachableSizes.get(i),
+            getPath(this.unreachableSources.get(i))));
+      }
+    }
+    return report.toString();
+  }
+
+
+  //----------------------------------------------------------------------------
+
+
+  /**
+   * The sources of a directory and its subdirectories.
+   */
+  public static final class Directory {
+    private final String path;
+    private int fileCount;
+    private long size;
+    private int unreachableFileCount;
+    private long unreachableSize;
+
+    private Directory(String path) {
+      this.path = path;
+    }
+
+    private void add(long sourceSize, boolean isUnreachable) {
+      this.fileCount++;
+      this.size += sourceSize;
+      if (isUnreachable) {
+        this.unreachableFileCount++;
+        this.unreachableSize += sourceSize;
+      }
+    }
+
+    /** @return the absolute path of the directory */
+    public String getPath() {
+      return this.path;
+    }
+
+    /** @return the number of sources in the directory tree */
+    public int getFileCount() {
+      return this.fileCount;
+    }
+
+    /** @return the size of the sources in the directory tree in bytes */
+    public long getSize() {
+      return this.size;
+    }
+
+    /** @return the number of unreachable sources in the directory tree */
+    public int getUnreachableFileCount() {
+      return this.unreachableFileCount;
+    }
+
+    /**
+     * @return the size of the unreachable sources in the directory tree in
+     *     bytes
+     */
+    public long getUnreachableSize() {
+      return this.unreachableSize;
+    }
+
+    /**
+     * @return {@code true} if every source in the directory tree is
+     *     unreachable, in which case the directory may be excluded from the
+     *     roots of the build
+     */
+    public boolean isUnreachable() {
+      return this.unreachableFileCount == this.fileCount;
+    }
+  }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant.types;
+
+import com.google.common.collect.Lists;
+
+import java.io.File;
+import java.util.List;
+
+import org.apache.tools.ant.types.DataType;
+import org.apache.tools.ant.types.FileSet;
+
+import org.closureant.util.AntUtil;
+
+/**
+ * Data type for the {@literal <entrypoint>} nested element of the {@link
+ * org.closureant.BatchManifestWriter} and {@link org.closureant.BuilderPlus}
+ * Ant tasks. An entry point has a name, the manifest file to write, and the
+ * "main" sources and namespaces for which transitive dependencies are
+ * calculated. In Builder Plus, the name of an entry point is the name of its
+ * Closure Compiler module.
+ *
+ * <ul class="blockList">
+ * <li class="blockList">
+ * <h3>Attributes</h3>
+ *
+ * <table class="overviewSummary" border="0" cellpadding="3" cellspacing="0">
+ * <col width="20%"/>
+ * <col width="60%"/>
+ * <col width="20%"/>
+ * <thead>
+ * <tr><th>Attribute Name</th><th>Description</th><th>Required</th></tr>
+ * </thead>
+ * <tbody>
+ * <tr class="altColor"><td><b>name</b></td><td>The name of the entry
+ *     point.</td><td><b>Yes</b>.</td></tr>
+ * <tr class="rowColor"><td><b>outputManifest</b></td><td>The manifest file
+ *     to write.</td><td><b>Yes</b>, for Batch Manifest Writer. Not used by
+ *     Builder Plus.</td></tr>
+ * </tbody>
+ * </table>
+ * </li>
+ * </ul>
+ *
+ *
+ * <ul class="blockList">
+ * <li class="blockList">
+ * <h3>Nested Elements</h3>
+ *
+ * <table class="overviewSummary" border="0" cellpadding="3" cellspacing="0">
+ * <col width="20%"/>
+ * <col width="80%"/>
+ * <thead>
+ * <tr><th>Element Name</th><th>Description</th></tr>
+ * </thead>
+ * <tbody>
+ * <tr class="altColor"><td><b>mainSources</b></td><td>Source files that
+ *     must be included in the manifest. The {@literal <mainSources>}
+ *     element is an Ant <a href="http://ant.apache.org/manual/Types/fileset.html">
+ *     FileSet</a>.</td></tr>
+ * <tr class="rowColor"><td><b>namespaceList</b></td><td>A list of
+ *     namespaces separated by whitespace and/or commas whose providers must
+ *     be included in the manifest. A namespace ending with a "*" wildcard,
+ *     such as "app.pages.*", matches every {@code goog.provided} namespace
+ *     that starts with the text before the wildcard. See {@link
+ *     NamespaceList}.</td></tr>
+ * </tbody>
+ * </table>
+ * </li>
+ * </ul>
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ */
+public final class EntryPoint extends DataType {
+
+  // Attributes
+
+  private String name;
+  private File outputManifest;
+
+  // Nested Elements
+
+  private final List<FileSet> mainSources;
+  private final List<String> namespaces;
+
+  public EntryPoint() {
+    this.name = null;
+    this.outputManifest = null;
+    this.mainSources = Lists.newArrayList();
+    this.namespaces = Lists.newArrayList();
+  }
+
+  /**
+   * @param name the entry point name
+   */
+  public void setName(String name) {
+    this.name = name;
+  }
+
+  /**
+   * @return the entry point name
+   */
+  public String getName() {
+    return this.name;
+  }
+
+  /**
+   * @param outputManifest the manifest file to write
+   */
+  public void setOutputManifest(File outputManifest) {
+    this.outputManifest = outputManifest;
+  }
+
+  /**
+   * @return the manifest file to write
+   */
+  public File getOutputManifest() {
+    return this.outputManifest;
+  }
+
+  /**
+   * Adds "main" sources that must be included in the manifest.
+   *
+   * @param mainSources program entry points
+   */
+  public void addMainSources(FileSet mainSources) {
+    this.mainSources.add(mainSources);
+  }
+
+  /**
+   * Adds namespaces whose providers must be included in the manifest.
+   *
+   * @param namespaces a list of Closure namespaces
+   */
+  public void addConfiguredNamespaceList(NamespaceList namespaces) {
+    this.namespaces.addAll(namespaces.getNamespaces());
+  }
+
+  /**
+   * @return a list of the absolute paths of the "main" sources
+   */
+  public List<String> getMainSources() {
+    return AntUtil.getFilePathsFromCollectionOfFileSet(getProject(),
+        this.mainSources);
+  }
+
+  /**
+   * @return a list of the namespace entry points
+   */
+  public List<String> getNamespaces() {
+    return this.namespaces;
+  }
+}
@@ -32,6 +32,9 @@ import org.apache.tools.ant.types.DirSet;
 import org.apache.tools.ant.types.FileSet;
 import org.apache.tools.ant.types.ResourceCollection;
 
+import org.closureant.base.BuildRegistry;
+import org.closureant.base.SealedSourceIndex;
+import org.closureant.util.DirectoryWalker;
 import org.closureant.util.FileUtil;
 
 /**
@@ -98,6 +101,8 @@ public final class RestrictedDirSet extends DataType
 
   private FileSet fileset;
   private boolean includesExcludesSet;
+  private boolean immutable;
+  private File sealedIndex;
 
   /**
    * Constructs a {@link RestrictedDirSet} object with the {@code
@@ -107,6 +112,8 @@ public final class RestrictedDirSet extends DataType
     super();
     this.fileset = new FileSet();
     this.includesExcludesSet = false;
+    this.immutable = false;
+    this.sealedIndex = null;
   }
 
   /**
@@ -188,6 +195,60 @@ public final class RestrictedDirSet extends DataType
     fileset.setIncludesfile(includesfile);
   }
 
+  /**
+   * Sets whether the contents of the root directory never change between
+   * builds. If {@code true}, tasks that support sealed indexes (such as
+   * {@link org.closureant.BuilderPlus}) obtain the sources under the root
+   * from a prebuilt index created with {@link
+   * org.closureant.SealedIndexWriter} instead of scanning the root. Includes
+   * and excludes patterns may not be used with immutable roots.
+   *
+   * @param immutable whether the root directory is immutable. Defaults to
+   *     {@code false}.
+   */
+  public void setImmutable(boolean immutable) {
+    this.immutable = immutable;
+  }
+
+  /** Whether the root directory is immutable. */
+  public boolean isImmutable() {
+    return this.immutable;
+  }
+
+  /**
+   * Sets the sealed index file of an immutable root directory.
+   *
+   * @param sealedIndex the sealed index file. Defaults to
+   *     "{@value org.closureant.base.SealedSourceIndex#DEFAULT_INDEX_FILE_NAME}"
+   *     in the root directory.
+   */
+  public void setSealedIndex(File sealedIndex) {
+    this.sealedIndex = sealedIndex;
+  }
+
+  /**
+   * Gets the sealed index file of an immutable root directory.
+   *
+   * @return the sealed index file or {@code null} if the root directory is
+   *     not immutable
+   * @throws BuildException if the root directory is not set or if includes
+   *     or excludes patterns were set for an immutable root
+   */
+  public File getSealedIndexFile() {
+    if (!this.immutable) {
+      return null;
+    }
+    if (this.fileset.getDir() == null) {
+      throw new BuildException("root directory not set");
+    }
+    if (this.includesExcludesSet) {
+      throw new BuildException("includes and excludes patterns may not be "
+          + "used with an immutable root directory");
+    }
+    return (this.sealedIndex != null) ? this.sealedIndex : new File(
+        this.fileset.getDir(), SealedSourceIndex.DEFAULT_INDEX_FILE_NAME);
+  }
+
   /** Whether one or more includes or excludes patterns were set. */
   public boolean isIncludesExcludesSet() {
     return this.includesExcludesSet;
@@ -224,15 +285,29 @@ public final class RestrictedDirSet extends DataType
       return directories;
     }
 
-    DirectoryScanner scanner = this.fileset.getDirectoryScanner();
-    String[] relativePaths = scanner.getIncludedDirectories();
-
     try {
+      List<File> matchedDirectories = Lists.newArrayList();
+      DirectoryWalker walker =
+          DirectoryWalker.forFileSet(getProject(), this.fileset);
+      if (walker != null && this.fileset.getDir().isDirectory()) {
+        List<String> paths = (getProject() != null)
+            ? BuildRegistry.getInstance(getProject()).findDirectories(walker,
+                this.fileset.getDir())
+            : walker.findDirectories(this.fileset.getDir());
+        for (String path : paths) {
+          matchedDirectories.add(new File(path));
+        }
+      } else {
+        DirectoryScanner scanner = this.fileset.getDirectoryScanner();
+        for (String path : scanner.getIncludedDirectories()) {
+          matchedDirectories.add(
+              new File(this.fileset.getDir(), path).getCanonicalFile());
+        }
+      }
+
       boolean rootDirectoryMatched = false;
 
-      for (String path : relativePaths) {
-        File directory =
-            new File(this.fileset.getDir(), path).getCanonicalFile();
+      for (File directory : matchedDirectories) {
         if (!this.fileset.getDir().equals(directory)) {
           directories.add(directory);
         } else {
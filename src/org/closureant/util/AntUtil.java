@@ -31,6 +31,8 @@ import org.apache.tools.ant.types.AbstractFileSet;
 import org.apache.tools.ant.types.DirSet;
 import org.apache.tools.ant.types.FileSet;
 
+import org.closureant.base.BuildRegistry;
+
 /**
  * Ant utility class.
  *
@@ -54,6 +56,14 @@ public final class AntUtil {
   public static List<File> getListOfFilesFromAntFileSet(Project project,
       AbstractFileSet fileSet) {
     List<File> files = Lists.newArrayList();
+    DirectoryWalker walker = DirectoryWalker.forFileSet(project, fileSet);
+    if (walker != null) {
+      for (String path : walkFileSet(project, fileSet, walker)) {
+        files.add(new File(path));
+      }
+      return files;
+    }
+
     DirectoryScanner scanner = fileSet.getDirectoryScanner(project);
     String[] relativePaths;
     
@@ -76,6 +86,53 @@ public final class AntUtil {
     return files;
   }
 
+  /**
+   * Finds the canonical paths of the files or directories in {@code fileSet}
+   * with a {@link DirectoryWalker}, checking the base directory the same way
+   * as {@link AbstractFileSet#getDirectoryScanner(Project)}.
+   */
+  private static List<String> walkFileSet(Project project,
+      AbstractFileSet fileSet, DirectoryWalker walker) {
+    File dir = fileSet.getDir(project);
+    if (dir == null) {
+      throw new BuildException("No directory specified for "
+          + ((fileSet instanceof DirSet) ? "dirset" : "fileset") + ".");
+    }
+    if (!dir.exists()) {
+      if (fileSet.getErrorOnMissingDir()) {
+        throw new BuildException(dir.getAbsolutePath()
+            + DirectoryScanner.DOES_NOT_EXIST_POSTFIX);
+      }
+      return Lists.newArrayList();
+    }
+    if (!dir.isDirectory()) {
+      throw new BuildException(dir.getAbsolutePath()
+          + " is not a directory.");
+    }
+
+    // Scans are shared by the tasks of a build through the build registry.
+    try {
+      if (project == null) {
+        if (fileSet instanceof FileSet) {
+          return walker.findFiles(dir);
+        } else if (fileSet instanceof DirSet) {
+          return walker.findDirectories(dir);
+        }
+      } else {
+        BuildRegistry registry = BuildRegistry.getInstance(project);
+        if (fileSet instanceof FileSet) {
+          return registry.findFiles(walker, dir);
+        } else if (fileSet instanceof DirSet) {
+          return registry.findDirectories(walker, dir);
+        }
+      }
+    } catch (IOException e) {
+      throw new BuildException(e);
+    }
+    throw new IllegalArgumentException("runtime type of AbstractFileSet["
+        + fileSet.getClass() + "] not recognized");
+  }
+
   /**
    * Creates a {@link List} of the relative file paths for the files contained
    * in an Ant {@link FileSet} or {@link DirSet}.
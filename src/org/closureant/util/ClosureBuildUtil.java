@@ -17,33 +17,27 @@
 
 package org.closureant.util;
 
-import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.HashMultimap;
-import com.google.common.collect.HashMultiset;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
-import com.google.common.collect.Multimaps;
-import com.google.common.collect.Multiset;
 import com.google.common.collect.Sets;
-import com.google.common.io.Files;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.Collection;
-import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
-import java.util.PriorityQueue;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.closureant.base.BuildSettings;
+import org.closureant.base.ContentDigests;
+import org.closureant.base.JsClosureHeaderScanner;
+import org.closureant.base.JsClosureSourceFile;
 import org.closureant.base.ProvidesRequiresSourceFile;
-import org.closureant.deps.CircularDependencyExceptionFactory;
+import org.closureant.base.SourceIndex;
+import org.closureant.deps.DependencyGraph;
 import org.closureant.deps.MissingProvideException;
 import org.closureant.deps.MultipleProvideException;
 
@@ -56,6 +50,13 @@ import org.closureant.deps.MultipleProvideException;
 public final class ClosureBuildUtil {
   private ClosureBuildUtil() {}
 
+  /**
+   * Sources modified less than this many milliseconds before the start of a
+   * build are not recorded in the content digests of the build, since they
+   * may have changed after the build read them.
+   */
+  private static final long RACY_INTERVAL_MILLIS = 2000;
+
   /**
    * Extract the {@code goog.provided} namespaces from a JavaScript source
    * file.
@@ -71,29 +72,42 @@ public final class ClosureBuildUtil {
    */
   public static List<String> extractGoogProvidedNamespaces(File sourceFile)
       throws IOException {
-    Preconditions.checkNotNull(sourceFile, "sourceFile was null");
+    return extractGoogProvidedNamespaces(sourceFile, null);
+  }
 
-    List<String> provides = Lists.newArrayList();
-    String regex = "^\\s*goog\\.provide\\(\\s*['\"](.+)['\"]\\s*\\)";
-    Pattern providePattern = Pattern.compile(regex);
-    List<String> sourceLines = Files.readLines(sourceFile, Charsets.UTF_8);
+  /**
+   * Extract the {@code goog.provided} namespaces from a JavaScript source
+   * file. The file is only scanned if it changed since it was recorded in
+   * {@code index}.
+   *
+   * @param sourceFile the JavaScript source file
+   * @param index the index of previously scanned files or {@code null} to
+   *     scan the file
+   * @return a list of {@code goog.provided} namespaces from
+   *     {@code sourceFile}. If the {@code sourceFile} does contain any
+   *     {@code goog.provided} namespaces, an empty list is returned.
+   * @throws IllegalStateException if {@code SourceFile} is Closure's "base.js"
+   *     and it {@code goog.provides} one or more namespaces
+   * @throws IOException if {@code sourceFile} cannot be read
+   * @throws NullPointerException if {@code sourceFile} is null
+   */
+  public static List<String> extractGoogProvidedNamespaces(File sourceFile,
+      SourceIndex index) throws IOException {
+    Preconditions.checkNotNull(sourceFile, "sourceFile was null");
 
-    for (String line : sourceLines) {
-      Matcher matcher = providePattern.matcher(line);
-      if (matcher.find()) {
-        provides.add(matcher.group(1));
-      }
-    }
+    JsClosureHeaderScanner.Header header = (index != null)
+        ? index.scanAndDigest(sourceFile)
+        : JsClosureHeaderScanner.scan(sourceFile);
+    List<String> provides = Lists.newArrayList(header.getProvides());
 
-    if ("base.js".equalsIgnoreCase(sourceFile.getName())) {
-      if (isClosureBaseJs(sourceFile)) {
-        if (!provides.isEmpty()) {
-          throw new IllegalStateException("base.js should not provide or "
-              + "require namespaces");
-        }
-        // Closure's base.js file implicitly provides "goog".
-        provides.add("goog");
+    if ("base.js".equalsIgnoreCase(sourceFile.getName())
+        && header.hasBaseJsMarker()) {
+      if (!provides.isEmpty()) {
+        throw new IllegalStateException("base.js should not provide or "
+            + "require namespaces");
       }
+      // Closure's base.js file implicitly provides "goog".
+      provides.add("goog");
     }
     return provides;
   }
@@ -203,17 +217,7 @@ public final class ClosureBuildUtil {
     if (!"base.js".equalsIgnoreCase(sourceFile.getName())) {
       return false;
     }
-
-    String GOOG_BASE_LINE = "var goog = goog || {}; // Identifies this file "
-        + "as the Closure base.";
-    List<String> sourceLines = Files.readLines(sourceFile, Charsets.UTF_8);
-
-    for (String line : sourceLines) {
-      if (GOOG_BASE_LINE.equals(line.trim())) {
-        return true;
-      }
-    }
-    return false;
+    return JsClosureHeaderScanner.scan(sourceFile).hasBaseJsMarker();
   }
 
   /**
@@ -224,18 +228,26 @@ public final class ClosureBuildUtil {
    */
   public static boolean isClosureBaseJs(String sourceCode) {
     Preconditions.checkNotNull(sourceCode, "sourceCode is null");
+    return JsClosureHeaderScanner.scan(null, sourceCode).hasBaseJsMarker();
+  }
 
-    String GOOG_BASE_LINE = "var goog = goog || {}; // Identifies this file "
-        + "as the Closure base.";
-    // Windows: \r\n Unix: \n Mac: \r
-    String[] lines = sourceCode.split("\\r?\\n|\\r");
-
-    for (String line : lines) {
-      if (GOOG_BASE_LINE.equals(line.trim())) {
-        return true;
-      }
+  /**
+   * Determine if a source file is Closure's base.js. For instances of {@link
+   * JsClosureSourceFile}, the flag determined when the file was scanned is
+   * used so that the source code does not need to be loaded. That flag is
+   * only set if the file is named "base.js" and contains the base.js marker
+   * line. Other source files are identified by their content, which is
+   * scanned in full regardless of the file name.
+   *
+   * @param sourceFile the source file to test
+   * @return {@code true} if the source file is base.js
+   */
+  public static boolean isClosureBaseJs(ProvidesRequiresSourceFile sourceFile) {
+    Preconditions.checkNotNull(sourceFile, "sourceFile is null");
+    if (sourceFile instanceof JsClosureSourceFile) {
+      return ((JsClosureSourceFile) sourceFile).isBaseJs();
     }
-    return false;
+    return isClosureBaseJs(sourceFile.getCode());
   }
 
   /**
@@ -251,7 +263,10 @@ public final class ClosureBuildUtil {
    * <li>the set of sources from the previous build matches the set of
    * sources for the current build</li>
    * <li>for each source file in the current build, the last modified time
-   * precedes the last modified time of the {@code outputFile}
+   * precedes the last modified time of the {@code outputFile}, or the
+   * previous build recorded the contents of the source file and of the
+   * {@code outputFile} and neither changed (see {@link
+   * #recordContentDigests(BuildSettings, BuildSettings, Iterable)})
    * </li>
    * </ol></p>
    *
@@ -263,29 +278,97 @@ public final class ClosureBuildUtil {
    */
   public static boolean outputFileUpToDate(File outputFile,
       BuildSettings previousSettings, BuildSettings currentSettings) {
+    List<String> modifiedSources = getSourcesModifiedAfterOutputFile(
+        outputFile, previousSettings, currentSettings);
+    return modifiedSources != null && modifiedSources.isEmpty();
+  }
+
+  /**
+   * Gets the sources of the current build that were modified after the
+   * {@code outputFile}, provided that the output file exists and that the
+   * command line and the set of sources match the previous build. See
+   * {@link #outputFileUpToDate(File, BuildSettings, BuildSettings)}.
+   *
+   * @param outputFile the output file
+   * @param previousSettings the settings from the previous build
+   * @param currentSettings the settings for the current build
+   * @return the paths of the sources modified after the output file, or
+   *     {@code null} if the output file does not exist or if the command
+   *     line or the set of sources changed. Sources modified after the output
+   *     file whose contents are unchanged since the previous build are not
+   *     included.
+   */
+  public static List<String> getSourcesModifiedAfterOutputFile(
+      File outputFile, BuildSettings previousSettings,
+      BuildSettings currentSettings) {
     if (outputFile == null || !outputFile.exists()) {
-      return false;
+      return null;
     }
-    if (!previousSettings.getCommandLineOrConfig()
-        .equals(currentSettings.getCommandLineOrConfig())) {
-      return false;
+    if (!previousSettings.getCommandLineOrConfigDigest()
+        .equals(currentSettings.getCommandLineOrConfigDigest())) {
+      return null;
+    }
+    if (!previousSettings.getSourcesDigest()
+        .equals(currentSettings.getSourcesDigest())) {
+      return null;
     }
 
-    Set<String> previousSources =
-        Sets.newHashSet(previousSettings.getSources());
     Set<String> currentSources = Sets.newHashSet(currentSettings.getSources());
-    if (!previousSources.equals(currentSources)) {
-      return false;
-    }
 
+    List<String> modifiedSources = Lists.newArrayList();
     Long outputFileTimestamp = outputFile.lastModified();
-    for (String filePath : currentSources) {
-      if (new File(filePath).lastModified() > outputFileTimestamp) {
-        return false;
+    ContentDigests digests = previousSettings.getContentDigests();
+    boolean outputUnchanged = false;
+    try {
+      outputUnchanged = digests != null
+          && digests.isUnchanged(outputFile.getPath());
+      for (String filePath : currentSources) {
+        if (new File(filePath).lastModified() > outputFileTimestamp
+            && !(outputUnchanged && digests.isUnchanged(filePath))) {
+          modifiedSources.add(filePath);
+        }
       }
+    } catch (IOException e) {
+      // An unreadable file is treated as modified.
+      return null;
     }
 
-    return true;
+    return modifiedSources;
+  }
+
+  /**
+   * Records the contents of the sources and of the outputs of a successful
+   * build in {@code currentSettings}, so that the next build can skip
+   * sources whose last-modified time changed but whose contents did not.
+   * Sources modified shortly before or after the build started are not
+   * recorded, since their recorded contents might not be the contents that
+   * the build read; they are treated as modified by the next build if their
+   * last-modified time is later than that of the output.
+   *
+   * @param currentSettings the settings of the current build, which must
+   *     have the sources
+   * @param previousSettings the settings from the previous build or {@code
+   *     null}. Digests recorded by the previous build are reused for files
+   *     whose size and last-modified time did not change.
+   * @param outputs the output files of the build
+   * @throws IOException if a file cannot be read
+   */
+  public static void recordContentDigests(BuildSettings currentSettings,
+      BuildSettings previousSettings, Iterable<File> outputs)
+      throws IOException {
+    ContentDigests previous = (previousSettings != null)
+        ? previousSettings.getContentDigests() : null;
+    ContentDigests digests = new ContentDigests();
+    long cutoff = currentSettings.getBuildTime() - RACY_INTERVAL_MILLIS;
+    for (String source : Sets.newHashSet(currentSettings.getSources())) {
+      if (new File(source).lastModified() < cutoff) {
+        digests.put(source, previous);
+      }
+    }
+    for (File output : outputs) {
+      digests.put(output.getPath(), previous);
+    }
+    currentSettings.setContentDigests(digests);
   }
 
   /**
@@ -305,62 +388,10 @@ public final class ClosureBuildUtil {
   public static <E extends ProvidesRequiresSourceFile> List<E> 
       topologicalStableSortKahnAlgorithm(List<E> sources,
           Multimap<E, E> sourceToDependencies) {
-    
-    if (sources.size() == 0) {
-      // Priority queue blows up if we give it a size of 0. Since we need
-      // to special case this either way, just bail out.
-      return Lists.newArrayList();
-    }
-
-    final Map<E, Integer> originalIndex = Maps.newHashMap();
-    for (int i = 0; i < sources.size(); i++) {
-      originalIndex.put(sources.get(i), i);
-    }
-
-    PriorityQueue<E> inDegreeZero = new PriorityQueue<E>(sources.size(), 
-        new Comparator<E>() {
-          @Override public int compare(E a, E b) {
-            return originalIndex.get(a) - originalIndex.get(b);
-          }
-        });
-
-    List<E> sortedSources = Lists.newArrayList();
-
-    Multiset<E> inDegree = HashMultiset.create();
-    Multimap<E, E> reverseDeps =
-        ArrayListMultimap.create();
-    Multimaps.invertFrom(sourceToDependencies, reverseDeps);
-
-    // First, add all the inputs with in-degree 0.
-    for (E sourceFile : sources) {
-      Collection<E> sourceDeps =
-          sourceToDependencies.get(sourceFile);
-      inDegree.add(sourceFile, sourceDeps.size());
-      if (sourceDeps.isEmpty()) {
-        inDegreeZero.add(sourceFile);
-      }
-    }
-
-    // Then, iterate to a fixed point over the reverse dependency graph.
-    while (!inDegreeZero.isEmpty()) {
-      E sourceFile = inDegreeZero.remove();
-      sortedSources.add(sourceFile);
-      for (E inWaiting : reverseDeps.get(sourceFile)) {
-        inDegree.remove(inWaiting, 1);
-        if (inDegree.count(inWaiting) == 0) {
-          inDegreeZero.add(inWaiting);
-        }
-      }
-    }
-
-    // The dependency graph of inputs has a cycle iff sortedSources is a
-    // proper subset of the initial source list.
-    if (sortedSources.size() < sources.size()) {
-      throw CircularDependencyExceptionFactory
-          .newCircularDependencyException(sortedSources, sources);
-    }
-
-    return sortedSources;
+    DependencyGraph<E> graph =
+        DependencyGraph.create(sources, sourceToDependencies);
+    return Lists.newArrayList(graph.getSources(
+        graph.topologicalStableSortKahnAlgorithm(graph.getAllIds())));
   }
 
   /**
@@ -380,116 +411,9 @@ public final class ClosureBuildUtil {
   public static <E extends ProvidesRequiresSourceFile> List<E> 
       topologicalStableSortDepthFirstSearch(List<E> sources,
           Multimap<E, E> sourceToDependencies) {
-    if (sources.size() == 0) {
-      // Priority queue blows up if we give it a size of 0. Since we need
-      // to special case this either way, just bail out.
-      return Lists.newArrayList();
-    }
-
-    final Map<E, Integer> originalIndex = Maps.newHashMap();
-    for (int i = 0; i < sources.size(); i++) {
-      originalIndex.put(sources.get(i), i);
-    }
-
-    PriorityQueue<E> outDegreeZero = new PriorityQueue<E>(sources.size(),
-        new Comparator<E>() {
-          @Override public int compare(E a, E b) {
-            return originalIndex.get(a) - originalIndex.get(b);
-          }
-        });
-
-    Multiset<E> outDegree = HashMultiset.create();
-    Multimap<E, E> reverseDeps
-        = ArrayListMultimap.create();
-    Multimaps.invertFrom(sourceToDependencies, reverseDeps);
-
-    E baseJs = null;
-
-    // First, add all the sources with out-degree 0 (i.e. sources that are
-    // not goog.required by any other sources).
-    for (E sourceFile : sources) {
-      if (isClosureBaseJs(sourceFile.getCode())) {
-        // If Closure's base.js is one of the sources, it should always appear
-        // first in the sorted list.
-        baseJs = sourceFile;
-      } else {
-        Collection<E> sourcesThatDependOnSource =
-            reverseDeps.get(sourceFile);
-        outDegree.add(sourceFile, sourcesThatDependOnSource.size());
-        if (sourcesThatDependOnSource.isEmpty()) {
-          outDegreeZero.add(sourceFile);
-        }
-      }
-    }
-
-    // Visit each source "n" with out-degree 0, recursively visiting each
-    // source "m" that "n" depends on (i.e. "n" contains a call to
-    // goog.require(m)).
-    Set<E> globalVisited = Sets.newHashSet();
-
-    List<E> sortedSources = Lists.newArrayList();
-    if (baseJs != null) {
-      sortedSources.add(baseJs);
-    }
-
-    for (E sourceFile : outDegreeZero) {
-      topoSortVisit(sourceFile, sortedSources, globalVisited,
-          sourceToDependencies, originalIndex);
-    }
-
-    // The dependency graph of inputs has a cycle iff sortedSources is a
-    // proper subset of the initial source list.
-    if (sortedSources.size() < sources.size()) {
-      throw CircularDependencyExceptionFactory
-          .newCircularDependencyException(sortedSources, sources);
-    }
-
-    return sortedSources;
-  }
-
-  /**
-   * Visit a source file as a part of a depth-first topological sort. See
-   * <a target="_blank" href="http://en.wikipedia.org/wiki/Topological_sorting">
-   * depth-first search</a>.
-   *
-   * @param source the source file being visited
-   * @param sortedSources list of sorted sources being generated by the
-   *     topological sort
-   * @param globalVisited set of all source files that have been visited by
-   *     all recursive call stacks
-   * @param sourceToDependencies multimap of source files to their direct
-   *     dependencies
-   * @param originalIndex map of source files to their original index order
-   */
-  private static <E extends ProvidesRequiresSourceFile> void topoSortVisit(
-      E source, List<E> sortedSources, Set<E> globalVisited,
-      final Multimap<E, E> sourceToDependencies,
-      final Map<E, Integer> originalIndex) {
-
-    if (!globalVisited.contains(source)) {
-      globalVisited.add(source);
-      Collection<E> deps = sourceToDependencies.get(source);
-
-      if (!deps.isEmpty()) {
-        // Priority queue blows up if we give it a size of 0,
-        // so we skip initialization if there are no deps.
-        PriorityQueue<E> depsInOriginalOrder = new PriorityQueue<E>(deps.size(),
-            new Comparator<E>() {
-              @Override public int compare(E a, E b) {
-                return originalIndex.get(a) - originalIndex.get(b);
-              }
-            });
-
-        for (E sourceFile : deps) {
-          depsInOriginalOrder.add(sourceFile);
-        }
-
-        for (E sourceFile : depsInOriginalOrder) {
-          topoSortVisit(sourceFile, sortedSources, globalVisited,
-              sourceToDependencies, originalIndex);
-        }
-      }
-      sortedSources.add(source);
-    }
+    DependencyGraph<E> graph =
+        DependencyGraph.create(sources, sourceToDependencies);
+    return Lists.newArrayList(graph.getSources(
+        graph.topologicalStableSortDepthFirstSearch(graph.getAllIds())));
   }
 }
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant.util;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Merges the diagnostics printed by several Closure Compiler processes, such
+ * as the processes that check the shards of a manifest in parallel. Each
+ * diagnostic starts with a line such as
+ * {@code "path/to/file.js:12: ERROR - message"}, followed by the lines that
+ * show the offending code. A diagnostic reported by more than one process,
+ * because the source it refers to was checked by each of them, is only kept
+ * once. The summary lines of the processes (for example, {@code "1 error(s),
+ * 2 warning(s)"}) are dropped in favor of a summary of the merged
+ * diagnostics, and any other output is kept in the order it was added.
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ */
+public final class CompilerDiagnostics {
+
+  private static final Pattern DIAGNOSTIC = Pattern.compile(
+      "^.+:\\d+(?::\\d+)?: (ERROR|WARNING) - .*$");
+  private static final Pattern SUMMARY = Pattern.compile(
+      "^\\d+ error\\(s\\), \\d+ warning\\(s\\).*$");
+  private static final String LINE_SEPARATOR = String.format("%n");
+
+  private final Set<String> diagnostics;
+  private final List<String> otherOutput;
+  private int errorCount;
+  private int warningCount;
+
+  /**
+   * Constructs an empty {@link CompilerDiagnostics}.
+   */
+  public CompilerDiagnostics() {
+    this.diagnostics = Sets.newLinkedHashSet();
+    this.otherOutput = Lists.newArrayList();
+    this.errorCount = 0;
+    this.warningCount = 0;
+  }
+
+  /**
+   * Adds the output of a Closure Compiler process.
+   *
+   * @param output the standard error and output of the compiler
+   * @return this {@link CompilerDiagnostics}
+   */
+  public CompilerDiagnostics add(String output) {
+    List<String> diagnostic = null;
+    boolean isError = false;
+    for (String line : output.split("\r?\n", -1)) {
+      Matcher matcher = DIAGNOSTIC.matcher(line);
+      if (matcher.matches()) {
+        addDiagnostic(diagnostic, isError);
+        diagnostic = Lists.newArrayList(line);
+        isError = "ERROR".equals(matcher.group(1));
+      } else if (line.trim().isEmpty() || SUMMARY.matcher(line).matches()) {
+        addDiagnostic(diagnostic, isError);
+        diagnostic = null;
+      } else if (diagnostic != null) {
+        diagnostic.add(line);
+      } else {
+        this.otherOutput.add(line);
+      }
+    }
+    addDiagnostic(diagnostic, isError);
+    return this;
+  }
+
+  private void addDiagnostic(List<String> diagnostic, boolean isError) {
+    if (diagnostic != null && this.diagnostics.add(
+        Joiner.on(LINE_SEPARATOR).join(diagnostic))) {
+      if (isError) {
+        this.errorCount++;
+      } else {
+        this.warningCount++;
+      }
+    }
+  }
+
+  /**
+   * @return the distinct diagnostics in the order they were first added,
+   *     each with the lines that show the offending code
+   */
+  public List<String> getDiagnostics() {
+    return ImmutableList.copyOf(this.diagnostics);
+  }
+
+  /**
+   * @return the lines of output that are neither part of a diagnostic nor a
+   *     summary, such as the stack trace of a compiler crash
+   */
+  public List<String> getOtherOutput() {
+    return ImmutableList.copyOf(this.otherOutput);
+  }
+
+  /** @return the number of distinct errors */
+  public int getErrorCount() {
+    return this.errorCount;
+  }
+
+  /** @return the number of distinct warnings */
+  public int getWarningCount() {
+    return this.warningCount;
+  }
+
+  /**
+   * @return the summary of the distinct diagnostics in the format of the
+   *     Closure Compiler, for example {@code "1 error(s), 2 warning(s)"}
+   */
+  public String getSummary() {
+    return this.errorCount + " error(s), " + this.warningCount
+        + " warning(s)";
+  }
+
+  /**
+   * @return the other output, followed by the distinct diagnostics separated
+   *     by blank lines and the summary
+   */
+  @Override
+  public String toString() {
+    StringBuilder merged = new StringBuilder();
+    for (String line : this.otherOutput) {
+      merged.append(line).append(LINE_SEPARATOR);
+    }
+    for (String diagnostic : this.diagnostics) {
+      merged.append(diagnostic).append(LINE_SEPARATOR)
+          .append(LINE_SEPARATOR);
+    }
+    merged.append(getSummary()).append(LINE_SEPARATOR);
+    return merged.toString();
+  }
+}
@@ -0,0 +1,526 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant.util;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.tools.ant.DirectoryScanner;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.types.AbstractFileSet;
+import org.apache.tools.ant.types.selectors.TokenizedPath;
+import org.apache.tools.ant.types.selectors.TokenizedPattern;
+
+/**
+ * Walks a directory tree and collects the files or directories that match
+ * Ant-style include patterns and do not match exclude patterns. This is a
+ * faster alternative to {@link DirectoryScanner} for the common case of a
+ * set of include and exclude patterns without selectors:
+ *
+ * <ul>
+ * <li>patterns are tokenized once rather than once per file</li>
+ * <li>directories that cannot contain matches are not traversed, nor are
+ *     directories whose contents are excluded by a pattern such as
+ *     "&#42;&#42;/node_modules/&#42;&#42;"</li>
+ * <li>canonical paths are resolved once per directory rather than once per
+ *     file</li>
+ * <li>directories are listed in parallel at every depth of the tree</li>
+ * </ul>
+ *
+ * <p>The results are sorted lexicographically, so they do not depend on the
+ * order in which directories are listed or on the number of threads.
+ * Symbolic links to directories are followed, except for links that form a
+ * cycle. The canonical path of a file is the canonical path of its
+ * directory followed by the file name, so a symbolic link to a file is not
+ * resolved.</p>
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ */
+public final class DirectoryWalker {
+
+  /**
+   * The default number of threads, which is the number of processors
+   * available to the Java virtual machine.
+   */
+  public static final int DEFAULT_THREADS =
+      Runtime.getRuntime().availableProcessors();
+
+  private final List<String> includePatterns;
+  private final List<String> excludePatterns;
+  private final List<TokenizedPattern> includes;
+  private final List<TokenizedPattern> excludes;
+  // The exclude patterns that end with "**" without the last token.
+  private final List<TokenizedPattern> subtreeExcludes;
+  private final boolean caseSensitive;
+  private final int threads;
+
+  /**
+   * Constructs a case-sensitive directory walker that uses {@link
+   * #DEFAULT_THREADS} threads.
+   *
+   * @param includePatterns Ant include patterns or {@code null} to include
+   *     everything
+   * @param excludePatterns Ant exclude patterns or {@code null} to exclude
+   *     nothing
+   */
+  public DirectoryWalker(Collection<String> includePatterns,
+      Collection<String> excludePatterns) {
+    this(includePatterns, excludePatterns, true, DEFAULT_THREADS);
+  }
+
+  /**
+   * @param includePatterns Ant include patterns or {@code null} to include
+   *     everything
+   * @param excludePatterns Ant exclude patterns or {@code null} to exclude
+   *     nothing
+   * @param caseSensitive whether patterns are matched case-sensitively
+   * @param threads the maximum number of threads used to traverse the
+   *     directory tree
+   * @throws IllegalArgumentException if {@code threads} is less than 1
+   */
+  public DirectoryWalker(Collection<String> includePatterns,
+      Collection<String> excludePatterns, boolean caseSensitive,
+      int threads) {
+    Preconditions.checkArgument(threads > 0,
+        "threads must be at least 1 but was %s", threads);
+    this.includePatterns = ImmutableList.copyOf((includePatterns != null)
+        ? includePatterns : ImmutableList.of("**"));
+    this.excludePatterns = ImmutableList.copyOf((excludePatterns != null)
+        ? excludePatterns : ImmutableList.<String>of());
+    this.includes = tokenizePatterns(this.includePatterns);
+    this.excludes = tokenizePatterns(this.excludePatterns);
+    this.subtreeExcludes = Lists.newArrayList();
+    for (TokenizedPattern exclude : this.excludes) {
+      if (exclude.endsWith("**")) {
+        this.subtreeExcludes.add(exclude.withoutLastToken());
+      }
+    }
+    this.caseSensitive = caseSensitive;
+    this.threads = threads;
+  }
+
+  /**
+   * Creates a directory walker with the patterns and settings of an Ant
+   * {@link AbstractFileSet}, including the default excludes if enabled.
+   *
+   * @param project the Ant project
+   * @param fileSet the Ant file set
+   * @return a new directory walker or {@code null} if the file set uses
+   *     features not supported by {@link DirectoryWalker}, namely selectors
+   *     and not following symbolic links
+   */
+  public static DirectoryWalker forFileSet(Project project,
+      AbstractFileSet fileSet) {
+    if (fileSet.hasSelectors() || !fileSet.isFollowSymlinks()) {
+      return null;
+    }
+    String[] includes = fileSet.mergeIncludes(project);
+    List<String> excludes = Lists.newArrayList();
+    String[] excludesArray = fileSet.mergeExcludes(project);
+    if (excludesArray != null) {
+      excludes.addAll(Arrays.asList(excludesArray));
+    }
+    if (fileSet.getDefaultexcludes()) {
+      excludes.addAll(Arrays.asList(DirectoryScanner.getDefaultExcludes()));
+    }
+    return new DirectoryWalker(
+        (includes != null && includes.length > 0)
+            ? Arrays.asList(includes) : null,
+        excludes, fileSet.isCaseSensitive(), DEFAULT_THREADS);
+  }
+
+  /**
+   * Finds the files under {@code dir} that match the patterns.
+   *
+   * @param dir the directory to walk
+   * @return the canonical paths of the matching files or an empty list if
+   *     {@code dir} is not a directory
+   * @throws IOException if a canonical path cannot be obtained
+   */
+  public List<String> findFiles(File dir) throws IOException {
+    return walk(dir, false, false, null);
+  }
+
+  /**
+   * Finds the files under {@code dir} that match the patterns and records
+   * the directories that were listed to find them. A later walk of {@code
+   * dir} can only produce a different result if one of these directories
+   * was modified.
+   *
+   * @param dir the directory to walk
+   * @param listedDirectories the list to which the listed directories are
+   *     added
+   * @return the canonical paths of the matching files or an empty list if
+   *     {@code dir} is not a directory
+   * @throws IOException if a canonical path cannot be obtained
+   */
+  public List<String> findFiles(File dir, List<File> listedDirectories)
+      throws IOException {
+    Preconditions.checkNotNull(listedDirectories, "listedDirectories was null");
+    return walk(dir, false, false, listedDirectories);
+  }
+
+  /**
+   * Finds the files under {@code dir} that match the patterns.
+   *
+   * @param dir the directory to walk
+   * @return the paths of the matching files relative to {@code dir} or an
+   *     empty list if {@code dir} is not a directory
+   * @throws IOException if a canonical path cannot be obtained
+   */
+  public List<String> findRelativeFilePaths(File dir) throws IOException {
+    return walk(dir, false, true, null);
+  }
+
+  /**
+   * Finds the directories under {@code dir}, including {@code dir} itself,
+   * that match the patterns.
+   *
+   * @param dir the directory to walk
+   * @return the canonical paths of the matching directories or an empty list
+   *     if {@code dir} is not a directory
+   * @throws IOException if a canonical path cannot be obtained
+   */
+  public List<String> findDirectories(File dir) throws IOException {
+    return walk(dir, true, false, null);
+  }
+
+  /**
+   * Finds the directories under {@code dir}, including {@code dir} itself,
+   * that match the patterns and records the directories that were listed to
+   * find them (see {@link #findFiles(File, List)}).
+   *
+   * @param dir the directory to walk
+   * @param listedDirectories the list to which the listed directories are
+   *     added
+   * @return the canonical paths of the matching directories or an empty list
+   *     if {@code dir} is not a directory
+   * @throws IOException if a canonical path cannot be obtained
+   */
+  public List<String> findDirectories(File dir, List<File> listedDirectories)
+      throws IOException {
+    Preconditions.checkNotNull(listedDirectories, "listedDirectories was null");
+    return walk(dir, true, false, listedDirectories);
+  }
+
+  /**
+   * Two directory walkers are equal if they have the same include patterns,
+   * exclude patterns and case sensitivity, so that they find the same files
+   * in a directory tree. The number of threads is not compared.
+   */
+  @Override
+  public boolean equals(Object o) {
+    if (o == this) {
+      return true;
+    }
+    if (!(o instanceof DirectoryWalker)) {
+      return false;
+    }
+    DirectoryWalker other = (DirectoryWalker) o;
+    return this.caseSensitive == other.caseSensitive
+        && this.includePatterns.equals(other.includePatterns)
+        && this.excludePatterns.equals(other.excludePatterns);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(this.includePatterns, this.excludePatterns,
+        this.caseSensitive);
+  }
+
+  private List<String> walk(File dir, boolean matchDirectories,
+      boolean relativePaths, List<File> listedDirectories) throws IOException {
+    if (!dir.isDirectory()) {
+      return Lists.newArrayList();
+    }
+
+    String canonicalDir = dir.getCanonicalPath();
+    List<String> matches = Lists.newArrayList();
+    if (matchDirectories && isMatch(TokenizedPath.EMPTY_PATH)) {
+      matches.add(relativePaths ? "" : canonicalDir);
+    }
+    DirectoryVisit root = new DirectoryVisit(dir, canonicalDir, "",
+        TokenizedPath.EMPTY_PATH, ImmutableSet.of(canonicalDir),
+        matchDirectories, relativePaths);
+
+    root.call();
+    List<DirectoryVisit> visits =
+        (this.threads == 1 || root.subdirectories.isEmpty())
+            ? visitSequentially(root) : visitInParallel(root);
+    for (DirectoryVisit visit : visits) {
+      matches.addAll(visit.matches);
+      if (listedDirectories != null) {
+        listedDirectories.add(visit.dir);
+      }
+    }
+    Collections.sort(matches);
+    return matches;
+  }
+
+  /**
+   * Visits the directories below {@code root} on the current thread.
+   *
+   * @param root the completed visit of the root directory
+   * @return the completed visits, including {@code root}
+   */
+  private List<DirectoryVisit> visitSequentially(DirectoryVisit root)
+      throws IOException {
+    List<DirectoryVisit> visits = Lists.newArrayList();
+    visits.add(root);
+    Deque<DirectoryVisit> pending =
+        new ArrayDeque<DirectoryVisit>(root.subdirectories);
+    while (!pending.isEmpty()) {
+      DirectoryVisit visit = pending.pop();
+      visits.add(visit.call());
+      for (DirectoryVisit subdirectory : visit.subdirectories) {
+        pending.push(subdirectory);
+      }
+    }
+    return visits;
+  }
+
+  /**
+   * Visits the directories below {@code root} with a pool of threads. Each
+   * directory is visited as a separate task, so all of the threads are used
+   * at every depth of the tree, not only for the entries of the root.
+   *
+   * @param root the completed visit of the root directory
+   * @return the completed visits, including {@code root}
+   */
+  private List<DirectoryVisit> visitInParallel(DirectoryVisit root)
+      throws IOException {
+    List<DirectoryVisit> visits = Lists.newArrayList();
+    visits.add(root);
+    ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+    try {
+      CompletionService<DirectoryVisit> completionService =
+          new ExecutorCompletionService<DirectoryVisit>(executor);
+      int pending = 0;
+      for (DirectoryVisit subdirectory : root.subdirectories) {
+        completionService.submit(subdirectory);
+        pending++;
+      }
+      while (pending > 0) {
+        DirectoryVisit visit;
+        try {
+          visit = Uninterruptibles.getUninterruptibly(
+              takeUninterruptibly(completionService));
+        } catch (ExecutionException e) {
+          Throwables.propagateIfPossible(e.getCause(), IOException.class);
+          throw Throwables.propagate(e.getCause());
+        }
+        pending--;
+        visits.add(visit);
+        for (DirectoryVisit subdirectory : visit.subdirectories) {
+          completionService.submit(subdirectory);
+          pending++;
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    return visits;
+  }
+
+  private static <T> Future<T> takeUninterruptibly(
+      CompletionService<T> completionService) {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return completionService.take();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private boolean isMatch(TokenizedPath path) {
+    boolean included = false;
+    for (TokenizedPattern include : this.includes) {
+      if (include.matchPath(path, this.caseSensitive)) {
+        included = true;
+        break;
+      }
+    }
+    if (!included) {
+      return false;
+    }
+    for (TokenizedPattern exclude : this.excludes) {
+      if (exclude.matchPath(path, this.caseSensitive)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean couldHoldIncluded(TokenizedPath path) {
+    for (TokenizedPattern include : this.includes) {
+      if (include.matchStartOf(path, this.caseSensitive)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Determines if everything below a directory is excluded, the same way as
+   * {@link DirectoryScanner}: an exclude pattern that ends with "**" excludes
+   * the contents of the directories matched by the rest of the pattern, such
+   * as "&#42;&#42;/node_modules/&#42;&#42;".
+   */
+  private boolean contentsExcluded(TokenizedPath path) {
+    for (TokenizedPattern exclude : this.subtreeExcludes) {
+      if (exclude.matchPath(path, this.caseSensitive)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  //----------------------------------------------------------------------------
+
+  /**
+   * A visit of a single directory, which matches the entries of the
+   * directory and creates the visits of the subdirectories to descend into.
+   */
+  private final class DirectoryVisit implements Callable<DirectoryVisit> {
+    final File dir;
+    final String canonicalDir;
+    final String relativeDir;
+    final TokenizedPath tokenizedDir;
+    final Set<String> ancestors;
+    final boolean matchDirectories;
+    final boolean relativePaths;
+    final List<String> matches;
+    final List<DirectoryVisit> subdirectories;
+
+    /**
+     * @param ancestors the canonical paths of the directory and of the
+     *     directories above it, to detect symbolic links that form a cycle
+     */
+    DirectoryVisit(File dir, String canonicalDir, String relativeDir,
+        TokenizedPath tokenizedDir, Set<String> ancestors,
+        boolean matchDirectories, boolean relativePaths) {
+      this.dir = dir;
+      this.canonicalDir = canonicalDir;
+      this.relativeDir = relativeDir;
+      this.tokenizedDir = tokenizedDir;
+      this.ancestors = ancestors;
+      this.matchDirectories = matchDirectories;
+      this.relativePaths = relativePaths;
+      this.matches = Lists.newArrayList();
+      this.subdirectories = Lists.newArrayList();
+    }
+
+    @Override
+    public DirectoryVisit call() throws IOException {
+      String[] names = this.dir.list();
+      if (names == null) {
+        throw new IOException("Unable to list the contents of directory \""
+            + this.dir.getAbsolutePath() + "\"");
+      }
+      for (String name : names) {
+        visitEntry(new File(this.dir, name), name);
+      }
+      return this;
+    }
+
+    private void visitEntry(File file, String name) throws IOException {
+      TokenizedPath tokenizedPath = new TokenizedPath(this.tokenizedDir, name);
+      String relativePath = this.relativeDir.isEmpty()
+          ? name : this.relativeDir + File.separator + name;
+      if (!file.isDirectory()) {
+        if (!this.matchDirectories && isMatch(tokenizedPath)) {
+          this.matches.add(this.relativePaths ? relativePath
+              : this.canonicalDir + File.separator + name);
+        }
+        return;
+      }
+
+      boolean directoryMatched =
+          this.matchDirectories && isMatch(tokenizedPath);
+      boolean descend = couldHoldIncluded(tokenizedPath)
+          && !contentsExcluded(tokenizedPath);
+      if (!directoryMatched && !descend) {
+        return;
+      }
+      String canonicalSubdirectory = file.getCanonicalPath();
+      if (this.ancestors.contains(canonicalSubdirectory)) {
+        // A symbolic link that forms a cycle.
+        return;
+      }
+      if (directoryMatched) {
+        this.matches.add(this.relativePaths ? relativePath
+            : canonicalSubdirectory);
+      }
+      if (descend) {
+        this.subdirectories.add(new DirectoryVisit(file,
+            canonicalSubdirectory, relativePath, tokenizedPath,
+            ImmutableSet.<String>builder().addAll(this.ancestors)
+                .add(canonicalSubdirectory).build(),
+            this.matchDirectories, this.relativePaths));
+      }
+    }
+  }
+
+  /**
+   * Tokenizes patterns after normalizing them the same way as {@link
+   * DirectoryScanner}: both "/" and "\" are file separators, and a pattern
+   * that ends with a separator matches everything below it.
+   */
+  private static List<TokenizedPattern> tokenizePatterns(
+      Collection<String> patterns) {
+    List<TokenizedPattern> tokenizedPatterns = Lists.newArrayList();
+    for (String pattern : patterns) {
+      String normalized = pattern.replace('/', File.separatorChar)
+          .replace('\\', File.separatorChar);
+      if (normalized.endsWith(File.separator)) {
+        normalized += "**";
+      }
+      tokenizedPatterns.add(new TokenizedPattern(normalized));
+    }
+    return tokenizedPatterns;
+  }
+}
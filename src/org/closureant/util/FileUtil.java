@@ -16,11 +16,10 @@
 
 package org.closureant.util;
 
-import com.google.common.collect.Lists;
+import com.google.common.base.Throwables;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.List;
@@ -89,13 +88,16 @@ public final class FileUtil {
   }
 
   /**
-   * Wrapper for {@link DirectoryScanner} to simplify usage.
+   * Finds the files under {@code dir} that match the include patterns and do
+   * not match the exclude patterns. All of the include patterns are matched
+   * in a single pass over the directory tree. See {@link DirectoryWalker}.
    *
    * @param dir the directory to scan
    * @param includePatterns a collection of include patterns
    * @param excludePatterns a collection of exclude patterns
    * @return a list of files that matched the include patterns and did not
    *     match the exclude patterns
+   * @throws IllegalStateException if {@code dir} is not a directory
    * @throws IOException if the canonical path is unattainable for one of the
    *     matching files
    * @see DirectoryScanner
@@ -104,53 +106,47 @@ public final class FileUtil {
       Collection<String> includePatterns, Collection<String> excludePatterns)
       throws IOException {
 
-    DirectoryScanner scanner = new DirectoryScanner();
-    if (includePatterns != null) {
-      scanner.setIncludes(includePatterns.toArray(new String[0]));
-    }
-    if (excludePatterns != null) {
-      scanner.setExcludes(excludePatterns.toArray(new String[0]));
-    }
-
-    scanner.setBasedir(dir.getAbsolutePath());
-    scanner.scan();
-    String[] relativePaths = scanner.getIncludedFiles();
-    List<String> scannedFiles = Lists.newArrayList();
-
-    for (String path : relativePaths) {
-      scannedFiles.add(new File(dir, path).getCanonicalPath());
-    }
-
-    return scannedFiles;
+    checkIsDirectory(dir);
+    return new DirectoryWalker(includePatterns, excludePatterns)
+        .findFiles(dir);
   }
 
   /**
-   * Wrapper for {@link DirectoryScanner} to simplify usage that returns
-   * relative paths to files that match the include patterns and do not match
-   * the exclude patterns.
+   * Finds the relative paths to files that match the include patterns and do
+   * not match the exclude patterns. See {@link DirectoryWalker}.
    *
    * @param dir the directory to scan
    * @param includePatterns a collection of include patterns
    * @param excludePatterns a collection of exclude patterns
    * @return a list of relative file paths to files that matched the include
    *     patterns and did not match the exclude patterns
+   * @throws IllegalStateException if {@code dir} is not a directory
    * @see DirectoryScanner
    */
   public static List<String> scanDirectoryRelativePaths(File dir,
       Collection<String> includePatterns, Collection<String> excludePatterns) {
 
-    DirectoryScanner scanner = new DirectoryScanner();
-    if (includePatterns != null) {
-      scanner.setIncludes(includePatterns.toArray(new String[0]));
-    }
-    if (excludePatterns != null) {
-      scanner.setExcludes(excludePatterns.toArray(new String[0]));
+    checkIsDirectory(dir);
+    try {
+      return new DirectoryWalker(includePatterns, excludePatterns)
+          .findRelativeFilePaths(dir);
+    } catch (IOException e) {
+      throw Throwables.propagate(e);
     }
+  }
 
-    scanner.setBasedir(dir.getAbsolutePath());
-    scanner.scan();
-    String[] relativePaths = scanner.getIncludedFiles();
-
-    return Arrays.asList(relativePaths);
+  /**
+   * Throws the same exceptions as {@link DirectoryScanner#scan()} for a
+   * missing base directory.
+   */
+  private static void checkIsDirectory(File dir) {
+    if (!dir.exists()) {
+      throw new IllegalStateException("basedir " + dir.getAbsolutePath()
+          + " does not exist.");
+    }
+    if (!dir.isDirectory()) {
+      throw new IllegalStateException("basedir " + dir.getAbsolutePath()
+          + " is not a directory.");
+    }
   }
 }
\ No newline at end of file
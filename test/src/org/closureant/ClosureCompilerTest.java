@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Target;
+import org.apache.tools.ant.Task;
+import org.apache.tools.ant.taskdefs.Java;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link ClosureCompiler}.
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ */
+@RunWith(BlockJUnit4ClassRunner.class)
+public final class ClosureCompilerTest {
+
+  private File root;
+  private Project project;
+  private ClosureCompiler compilerTask;
+
+  /** Stands in for the Closure Compiler in a forked Java process. */
+  public static final class FakeCompiler {
+    public static void main(String[] args) {
+      System.out.println("input.js:1: ERROR - fake error");
+      System.err.println("1 error(s), 0 warning(s)");
+      System.exit(1);
+    }
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    root = TempFiles.createTempDir();
+    project = new Project();
+    project.setBaseDir(root);
+    project.init();
+    Target target = new Target();
+    target.setName("build");
+    target.setProject(project);
+    Task owner = new Task() {};
+    owner.setProject(project);
+    owner.setOwningTarget(target);
+    owner.setTaskName("builderplus");
+
+    File manifest = new File(root, "manifest.txt");
+    Files.write("", manifest, Charsets.UTF_8);
+    compilerTask = new ClosureCompiler(owner);
+    compilerTask.setCompilerJar(createFakeCompilerJar());
+    compilerTask.setInputManifest(manifest.getAbsolutePath());
+  }
+
+  @After
+  public void tearDown() {
+    TempFiles.delete(root);
+  }
+
+  private File createFakeCompilerJar() throws IOException {
+    Manifest manifest = new Manifest();
+    manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS,
+        FakeCompiler.class.getName());
+    String classFile = FakeCompiler.class.getName().replace('.', '/')
+        + ".class";
+    File jar = new File(root, "fake-compiler.jar");
+    JarOutputStream out = new JarOutputStream(new FileOutputStream(jar),
+        manifest);
+    InputStream in = FakeCompiler.class.getClassLoader()
+        .getResourceAsStream(classFile);
+    try {
+      out.putNextEntry(new JarEntry(classFile));
+      ByteStreams.copy(in, out);
+      out.closeEntry();
+    } finally {
+      in.close();
+      out.close();
+    }
+    return jar;
+  }
+
+  @Test public void checksOnlyRunnerWritesDiagnosticsFile()
+      throws IOException {
+    File diagnosticsFile = new File(root, "diagnostics.txt");
+    Java runner = compilerTask.createChecksOnlyRunner("flag_file.txt",
+        diagnosticsFile, "checks.exit-code");
+    runner.execute();
+
+    assertTrue(diagnosticsFile.exists());
+    String diagnostics = Files.toString(diagnosticsFile, Charsets.UTF_8);
+    assertTrue(diagnostics.contains("input.js:1: ERROR - fake error"));
+    assertTrue(diagnostics.contains("1 error(s), 0 warning(s)"));
+    assertEquals("1", project.getProperty("checks.exit-code"));
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Static utility class for the temporary directories of unit tests.
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ */
+public final class TempFiles {
+  private TempFiles() {}
+
+  /**
+   * Creates a new temporary directory, to be deleted with {@link
+   * #delete(File)} after the test.
+   *
+   * @return the canonical path of the directory, so that it may be compared
+   *     with the canonical paths of the files in it
+   * @throws IOException if the canonical path cannot be determined
+   */
+  public static File createTempDir() throws IOException {
+    return Files.createTempDir().getCanonicalFile();
+  }
+
+  /**
+   * Deletes a file, or a directory and everything in it.
+   *
+   * @param file the file or directory
+   */
+  public static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+  /**
+   * Writes {@code contents} to a file in {@code dir}.
+   *
+   * @param dir the directory
+   * @param name the path of the file relative to {@code dir}
+   * @param contents the contents of the file
+   * @return the file
+   * @throws IOException if the file cannot be written
+   */
+  public static File write(File dir, String name, String contents)
+      throws IOException {
+    File file = new File(dir, name);
+    Files.write(contents, file, Charsets.UTF_8);
+    return file;
+  }
+}
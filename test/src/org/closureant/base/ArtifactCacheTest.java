@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant.base;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import org.closureant.TempFiles;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link ArtifactCache}.
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ */
+@RunWith(BlockJUnit4ClassRunner.class)
+public final class ArtifactCacheTest {
+
+  private File root;
+  private DirectoryArtifactStorage storage;
+  private ArtifactCache cache;
+
+  @Before
+  public void setUp() throws IOException {
+    root = TempFiles.createTempDir();
+    storage = new DirectoryArtifactStorage(new File(root, "artifacts"));
+    cache = new ArtifactCache(storage);
+  }
+
+  @After
+  public void tearDown() {
+    TempFiles.delete(root);
+  }
+
+  private String keyOf(String flags, File... files) throws IOException {
+    return ArtifactCache.newKeyBuilder().putString(flags)
+        .putFiles(ImmutableList.copyOf(files)).build();
+  }
+
+  @Test public void keyDependsOnContentsNotLastModified() throws IOException {
+    File source = TempFiles.write(root, "a.js", "var a = 1;");
+    String key = keyOf("--flag", source);
+
+    source.setLastModified(source.lastModified() - 60000);
+    assertEquals(key, keyOf("--flag", source));
+
+    TempFiles.write(root, "a.js", "var a = 2;");
+    assertFalse(key.equals(keyOf("--flag", source)));
+    assertFalse(key.equals(keyOf("--other_flag",
+        TempFiles.write(root, "a.js", "var a = 1;"))));
+    assertEquals(key, keyOf("--flag", source));
+  }
+
+  @Test public void keyIndependentOfCheckoutDirectory() throws IOException {
+    File checkout1 = new File(root, "checkout1");
+    File checkout2 = new File(root, "checkout2");
+    checkout1.mkdir();
+    checkout2.mkdir();
+    File source1 = TempFiles.write(root, "checkout1/a.js", "var a = 1;");
+    File source2 = TempFiles.write(root, "checkout2/a.js", "var a = 1;");
+
+    assertEquals(
+        ArtifactCache.newKeyBuilder().putFile(source1, checkout1)
+            .putPath(new File(checkout1, "out.js"), checkout1).build(),
+        ArtifactCache.newKeyBuilder().putFile(source2, checkout2)
+            .putPath(new File(checkout2, "out.js"), checkout2).build());
+    assertFalse(ArtifactCache.newKeyBuilder().putFile(source1).build().equals(
+        ArtifactCache.newKeyBuilder().putFile(source2).build()));
+    assertFalse(ArtifactCache.newKeyBuilder().putFile(source1, checkout1)
+        .build().equals(ArtifactCache.newKeyBuilder()
+            .putFile(source2, checkout1).build()));
+  }
+
+  @Test public void missingEntryNotRestored() throws IOException {
+    String key = keyOf("--flag");
+    File output = new File(root, "out.js");
+    assertFalse(cache.restore(key,
+        ImmutableMap.of("js_output_file", output)));
+    assertFalse(output.exists());
+  }
+
+  @Test public void storeAndRestore() throws IOException {
+    String key = keyOf("--flag", TempFiles.write(root, "a.js", "var a = 1;"));
+    File output = TempFiles.write(root, "out.js", "compiled");
+    File sourceMap = TempFiles.write(root, "out.js.map", "map");
+    Map<String, File> outputs = ImmutableMap.of("js_output_file", output,
+        "create_source_map", sourceMap);
+    cache.store(key, outputs);
+
+    // Another branch overwrites the outputs.
+    TempFiles.write(root, "out.js", "compiled on another branch");
+    sourceMap.delete();
+
+    assertTrue(cache.restore(key, outputs));
+    assertEquals("compiled", Files.toString(output, Charsets.UTF_8));
+    assertEquals("map", Files.toString(sourceMap, Charsets.UTF_8));
+    assertEquals(ImmutableList.of(key),
+        ImmutableList.copyOf(storage.getDirectory().list()));
+  }
+
+  @Test public void entryWithoutOutputNotRestored() throws IOException {
+    String key = keyOf("--flag");
+    File output = TempFiles.write(root, "out.js", "compiled");
+    cache.store(key, ImmutableMap.of("js_output_file", output));
+
+    File variableMap = new File(root, "vars.map");
+    assertFalse(cache.restore(key, ImmutableMap.of("js_output_file", output,
+        "variable_map_output_file", variableMap)));
+    assertFalse(variableMap.exists());
+
+    // Storing the missing output completes the entry.
+    TempFiles.write(root, "vars.map", "a:b");
+    cache.store(key, ImmutableMap.of("js_output_file", output,
+        "variable_map_output_file", variableMap));
+    variableMap.delete();
+    assertTrue(cache.restore(key, ImmutableMap.of("js_output_file", output,
+        "variable_map_output_file", variableMap)));
+    assertEquals("a:b", Files.toString(variableMap, Charsets.UTF_8));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void invalidRole() throws IOException {
+    cache.store(keyOf("--flag"),
+        ImmutableMap.of("../escape", TempFiles.write(root, "out.js", "")));
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant.base;
+
+import com.google.common.collect.ImmutableSet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileLock;
+
+import org.apache.tools.ant.Project;
+import org.closureant.TempFiles;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests for {@link BuildCacheEviction}.
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ */
+@RunWith(BlockJUnit4ClassRunner.class)
+public final class BuildCacheEvictionTest {
+
+  private static final long DAY_MILLIS = 24L * 60L * 60L * 1000L;
+
+  private File root;
+  private long now;
+
+  @Before
+  public void setUp() throws IOException {
+    root = TempFiles.createTempDir();
+    now = System.currentTimeMillis();
+  }
+
+  @After
+  public void tearDown() {
+    TempFiles.delete(root);
+  }
+
+  private void write(String name, int length, long ageMillis)
+      throws IOException {
+    TempFiles.write(root, name, new String(new char[length]))
+        .setLastModified(now - ageMillis);
+  }
+
+  @Test public void expiredFilesButNotLockFilesEvicted() throws IOException {
+    write("old.bin", 10, 3 * DAY_MILLIS);
+    write("old.lock", 0, 3 * DAY_MILLIS);
+    write("new.bin", 10, 1000);
+    File index = new File(root, "index");
+    index.mkdir();
+    index.setLastModified(now - 3 * DAY_MILLIS);
+
+    new BuildCacheEviction(root, 0).evict();
+    assertEquals(ImmutableSet.of("new.bin", "old.lock", "index"),
+        ImmutableSet.copyOf(root.list()));
+  }
+
+  @Test public void leastRecentlyModifiedFilesEvictedBeyondMaxBytes()
+      throws IOException {
+    write("a.txt", 100, 4000);
+    write("b.txt", 100, 3000);
+    write("c.txt", 100, 1000);
+    write("d.txt", 100, 2000);
+    write("a.lock", 0, 5000);
+
+    new BuildCacheEviction(root, 250).evict();
+    assertEquals(ImmutableSet.of("c.txt", "d.txt", "a.lock"),
+        ImmutableSet.copyOf(root.list()));
+  }
+
+  @Test public void snapshotsEvictedByAgeAndSize() throws IOException {
+    File snapshots = new File(root, "snapshots");
+    snapshots.mkdir();
+    write("snapshots/old.bin", 10, 3 * DAY_MILLIS);
+    write("snapshots/a.bin", 100, 3000);
+    write("snapshots/c.bin", 100, 1000);
+    write("b.txt", 100, 2000);
+
+    new BuildCacheEviction(root, 250).evict();
+    assertEquals(ImmutableSet.of("b.txt", "snapshots"),
+        ImmutableSet.copyOf(root.list()));
+    assertEquals(ImmutableSet.of("c.bin"),
+        ImmutableSet.copyOf(snapshots.list()));
+  }
+
+  @Test public void filesWithHeldLockNotEvicted() throws IOException {
+    write("task[a]__target[b].bin", 10, 3 * DAY_MILLIS);
+    write("task[a]__target[b].lock", 0, 3 * DAY_MILLIS);
+    write("task[c]__target[d].bin", 10, 3 * DAY_MILLIS);
+    write("task[c]__target[d].lock", 0, 3 * DAY_MILLIS);
+    File lockFile = new File(root, "task[a]__target[b].lock");
+
+    FileLock lock = CacheFileLock.lock(lockFile);
+    try {
+      new BuildCacheEviction(root, 0).evict();
+    } finally {
+      CacheFileLock.release(lock);
+    }
+    assertEquals(ImmutableSet.of("task[a]__target[b].bin",
+        "task[a]__target[b].lock", "task[c]__target[d].lock"),
+        ImmutableSet.copyOf(root.list()));
+
+    new BuildCacheEviction(root, 0).evict();
+    assertEquals(ImmutableSet.of("task[a]__target[b].lock",
+        "task[c]__target[d].lock"), ImmutableSet.copyOf(root.list()));
+  }
+
+  @Test public void evictsOncePerBuild() throws IOException {
+    Project project = new Project();
+    BuildCacheEviction.schedule(project, root);
+    Object eviction = project.getReference(BuildCacheEviction.REFERENCE_ID);
+    BuildCacheEviction.schedule(project, root);
+    assertSame(eviction,
+        project.getReference(BuildCacheEviction.REFERENCE_ID));
+
+    write("old.bin", 10, 3 * DAY_MILLIS);
+    project.fireBuildFinished(null);
+    assertEquals(ImmutableSet.of(), ImmutableSet.copyOf(root.list()));
+
+    write("old.bin", 10, 3 * DAY_MILLIS);
+    BuildCacheEviction.runScheduled(project);
+    assertEquals(ImmutableSet.of("old.bin"),
+        ImmutableSet.copyOf(root.list()));
+  }
+}
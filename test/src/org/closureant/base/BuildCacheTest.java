@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant.base;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Target;
+import org.apache.tools.ant.Task;
+import org.closureant.TempFiles;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link BuildCache}.
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ */
+@RunWith(BlockJUnit4ClassRunner.class)
+public final class BuildCacheTest {
+
+  private File root;
+  private Task task;
+
+  @Before
+  public void setUp() throws IOException {
+    root = TempFiles.createTempDir();
+    Project project = new Project();
+    project.setBaseDir(root);
+    Target target = new Target();
+    target.setName("build");
+    target.setProject(project);
+    task = new Task() {};
+    task.setProject(project);
+    task.setOwningTarget(target);
+    task.setTaskName("compile");
+  }
+
+  @After
+  public void tearDown() {
+    TempFiles.delete(root);
+  }
+
+  @Test public void noPreviousBuild() {
+    assertNull(new BuildCache(task).get());
+  }
+
+  @Test public void constructorDoesNoFileIO() {
+    BuildCache cache = new BuildCache(task);
+    assertFalse(new File(root, ".closure-ant").exists());
+    assertTrue(cache.getBaseDirectory().isDirectory());
+  }
+
+  @Test public void snapshotFilesKeyedAndEvicted() throws IOException {
+    BuildCache cache = new BuildCache(task);
+    File snapshotFile = cache.getSnapshotFile("out.js\nmain.js");
+    assertEquals(snapshotFile, cache.getSnapshotFile("out.js\nmain.js"));
+    File otherSnapshotFile = cache.getSnapshotFile("other.js");
+    assertFalse(snapshotFile.equals(otherSnapshotFile));
+    assertTrue(snapshotFile.getName().startsWith("task[compile]__"));
+
+    // A snapshot orphaned by a change of its key expires.
+    Files.write("snapshot", snapshotFile, Charsets.UTF_8);
+    snapshotFile.setLastModified(0L);
+    Files.write("snapshot", otherSnapshotFile, Charsets.UTF_8);
+    new BuildCacheEviction(cache.getBaseDirectory(), 0L).evict();
+    assertFalse(snapshotFile.exists());
+    assertTrue(otherSnapshotFile.exists());
+  }
+
+  @Test public void putAndGetDigests() {
+    BuildSettings settings = new BuildSettings("--flag=value",
+        ImmutableList.of("b.js", "a.js"));
+    settings.setBuildFailed(true);
+    new BuildCache(task).put(settings);
+
+    BuildSettings cached = new BuildCache(task).get();
+    assertTrue(cached.isDigestOnly());
+    assertTrue(cached.isBuildFailed());
+    assertEquals(settings.getBuildTime(), cached.getBuildTime());
+    assertEquals(settings.getCommandLineOrConfigDigest(),
+        cached.getCommandLineOrConfigDigest());
+    assertEquals(settings.getSourcesDigest(), cached.getSourcesDigest());
+    assertEquals(settings, cached);
+
+    // The digest of the sources does not depend on their order.
+    assertEquals(cached.getSourcesDigest(), new BuildSettings("",
+        ImmutableList.of("a.js", "b.js", "a.js")).getSourcesDigest());
+  }
+
+  @Test public void settingsEqualByDigests() {
+    BuildSettings settings = new BuildSettings("--flag=value",
+        ImmutableList.of("b.js", "a.js"));
+    BuildSettings reordered = new BuildSettings("--flag=value",
+        ImmutableList.of("a.js", "b.js"));
+    reordered.setBuildTime(settings.getBuildTime());
+    new BuildCache(task).put(settings);
+    BuildSettings cached = new BuildCache(task).get();
+
+    // Equality is transitive across full and digest-only build settings.
+    assertEquals(settings, cached);
+    assertEquals(cached, reordered);
+    assertEquals(settings, reordered);
+    assertEquals(settings.hashCode(), reordered.hashCode());
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void setNullCommandLine() {
+    new BuildSettings().setCommandLineOrConfig(null);
+  }
+
+  @Test public void putAndGetContentDigests() throws IOException {
+    File source = new File(root, "a.js");
+    Files.write("var a = 1;", source, Charsets.UTF_8);
+    BuildSettings settings = new BuildSettings("--flag=value",
+        ImmutableList.of(source.getPath()));
+    assertNull(settings.getContentDigests());
+    new BuildCache(task).put(settings);
+    assertNull(new BuildCache(task).get().getContentDigests());
+
+    settings.setContentDigests(new ContentDigests().put(source.getPath(),
+        null));
+    new BuildCache(task).put(settings);
+    BuildSettings cached = new BuildCache(task).get();
+    assertEquals(settings, cached);
+    assertEquals(1, cached.getContentDigests().size());
+    source.setLastModified(source.lastModified() + 10000);
+    assertTrue(cached.getContentDigests().isUnchanged(source.getPath()));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void digestOnlySettingsHaveNoCommandLine() {
+    new BuildCache(task).put(new BuildSettings("--flag=value",
+        ImmutableList.of("a.js")));
+    new BuildCache(task).get().getCommandLineOrConfig();
+  }
+
+  @Test public void cacheFileDoesNotStoreFullStrings() throws IOException {
+    StringBuilder commandLine = new StringBuilder();
+    List<String> sources = Lists.newArrayList();
+    for (int i = 0; i < 1000; i++) {
+      commandLine.append("--js=/a/long/path/to/source").append(i).append(' ');
+      sources.add("/a/long/path/to/source" + i + ".js");
+    }
+    BuildCache cache = new BuildCache(task);
+    cache.put(new BuildSettings(commandLine.toString(), sources));
+
+    File[] cacheFiles = cache.getBaseDirectory().listFiles();
+    long totalLength = 0;
+    for (File file : cacheFiles) {
+      totalLength += file.length();
+    }
+    assertTrue(totalLength < 200);
+  }
+
+  @Test public void corruptOrOldCacheFileIgnored() throws IOException {
+    BuildCache cache = new BuildCache(task);
+    cache.put(new BuildSettings("", ImmutableList.<String>of()));
+    File cacheFile = null;
+    for (File file : cache.getBaseDirectory().listFiles()) {
+      if (file.getName().endsWith(".bin")) {
+        cacheFile = file;
+      }
+    }
+    Files.write("not a cache file", cacheFile, Charsets.UTF_8);
+    assertNull(cache.get());
+
+    // A new put replaces the corrupt file.
+    cache.put(new BuildSettings("", ImmutableList.<String>of()));
+    assertNotNull(cache.get());
+  }
+
+  @Test public void artifactCacheMaxSize() {
+    BuildCache cache = new BuildCache(task);
+    assertEquals(DirectoryArtifactStorage.DEFAULT_MAX_BYTES,
+        ((DirectoryArtifactStorage) cache.getArtifactCache().getStorage())
+            .getMaxBytes());
+    task.getProject().setProperty(
+        SharedAntProperty.ARTIFACT_CACHE_MAX_SIZE.getName(), "0");
+    assertEquals(0,
+        ((DirectoryArtifactStorage) cache.getArtifactCache().getStorage())
+            .getMaxBytes());
+  }
+
+  @Test public void parseSize() {
+    assertEquals(0, BuildCache.parseSize(null));
+    assertEquals(512, BuildCache.parseSize("512"));
+    assertEquals(2048, BuildCache.parseSize("2k"));
+    assertEquals(10L * 1024 * 1024 * 1024, BuildCache.parseSize(" 10G "));
+    assertEquals(Long.MAX_VALUE, BuildCache.parseSize(
+        String.valueOf(Long.MAX_VALUE)));
+  }
+
+  @Test(expected = BuildException.class)
+  public void invalidSize() {
+    BuildCache.parseSize("ten gigabytes");
+  }
+
+  @Test(expected = BuildException.class)
+  public void sizeOverflowingLong() {
+    BuildCache.parseSize((Long.MAX_VALUE / 1024 + 1) + "K");
+  }
+
+  @Test public void concurrentPutsAndGets() throws InterruptedException {
+    final BuildSettings settings = new BuildSettings("--flag=value",
+        ImmutableList.of("a.js"));
+    final List<Throwable> failures =
+        Collections.synchronizedList(Lists.<Throwable>newArrayList());
+    List<Thread> threads = Lists.newArrayList();
+    for (int i = 0; i < 8; i++) {
+      Thread thread = new Thread() {
+        @Override public void run() {
+          try {
+            for (int j = 0; j < 20; j++) {
+              BuildCache cache = new BuildCache(task);
+              cache.put(settings);
+              BuildSettings cached = cache.get();
+              if (!settings.equals(cached)) {
+                failures.add(new AssertionError("torn cache file"));
+              }
+            }
+          } catch (Throwable t) {
+            failures.add(t);
+          }
+        }
+      };
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(ImmutableList.of(), failures);
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant.base;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.tools.ant.Project;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import org.closureant.TempFiles;
+import org.closureant.util.DirectoryWalker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests for {@link BuildRegistry}.
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ */
+@RunWith(BlockJUnit4ClassRunner.class)
+public final class BuildRegistryTest {
+
+  /** A last-modified time that is outside of the racy interval. */
+  private static final long OLD_TIME = 1000000000000L;
+
+  private File root;
+  private BuildRegistry registry;
+  private DirectoryWalker walker;
+
+  @Before
+  public void setUp() throws IOException {
+    root = TempFiles.createTempDir();
+    write("a.js", "goog.provide('a');\n");
+    root.setLastModified(OLD_TIME);
+    registry = BuildRegistry.getInstance(new Project());
+    walker = new DirectoryWalker(ImmutableList.of("**/*.js"), null);
+  }
+
+  @After
+  public void tearDown() {
+    TempFiles.delete(root);
+  }
+
+  private File write(String name, String code) throws IOException {
+    File file = new File(root, name);
+    Files.write(code, file, Charsets.UTF_8);
+    file.setLastModified(OLD_TIME);
+    return file;
+  }
+
+  @Test public void registryIsProjectReference() {
+    Project project = new Project();
+    BuildRegistry projectRegistry = BuildRegistry.getInstance(project);
+    assertSame(projectRegistry, BuildRegistry.getInstance(project));
+    assertSame(projectRegistry,
+        project.getReference(BuildRegistry.REFERENCE_ID));
+  }
+
+  @Test public void scanReusedUntilFileWritten() throws IOException {
+    List<String> paths = registry.findFiles(walker, root);
+    assertSame(paths, registry.findFiles(walker, root));
+    assertSame(paths, registry.findFiles(
+        new DirectoryWalker(ImmutableList.of("**/*.js"), null), root));
+
+    // Restore the last-modified time of the root so that only the explicit
+    // invalidation reveals the new file.
+    File file = write("b.js", "goog.provide('b');\n");
+    root.setLastModified(OLD_TIME);
+    assertSame(paths, registry.findFiles(walker, root));
+    registry.invalidate(file);
+    assertEquals(ImmutableList.of(root + File.separator + "a.js",
+        root + File.separator + "b.js"), registry.findFiles(walker, root));
+  }
+
+  @Test public void scanNotReusedAfterDirectoryModified() throws IOException {
+    List<String> paths = registry.findFiles(walker, root);
+    new File(root, "a.js").delete();
+    root.setLastModified(OLD_TIME + 1000);
+    assertEquals(ImmutableList.<String>of(), registry.findFiles(walker, root));
+    assertNotSame(paths, registry.findFiles(walker, root));
+  }
+
+  @Test public void sourceFileReusedUntilChanged() throws IOException {
+    File file = new File(root, "a.js");
+    JsClosureSourceFile source = registry.getLightweightSourceFiles(
+        ImmutableList.of(file), 1, null).get(0);
+    assertSame(source, registry.getLightweightSourceFiles(
+        ImmutableList.of(file), 1, null).get(0));
+
+    write("a.js", "goog.provide('changed');\n");
+    JsClosureSourceFile changed = registry.getLightweightSourceFiles(
+        ImmutableList.of(file), 1, null).get(0);
+    assertEquals(ImmutableSet.of("changed"), changed.getProvides());
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant.base;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.closureant.TempFiles;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link ContentDigests}.
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ */
+@RunWith(BlockJUnit4ClassRunner.class)
+public final class ContentDigestsTest {
+
+  private File root;
+
+  @Before
+  public void setUp() throws IOException {
+    root = TempFiles.createTempDir();
+  }
+
+  @After
+  public void tearDown() {
+    TempFiles.delete(root);
+  }
+
+  @Test public void touchedFileUnchanged() throws IOException {
+    File source = TempFiles.write(root, "a.js", "var a = 1;");
+    long lastModified = source.lastModified();
+    ContentDigests digests = new ContentDigests().put(source.getPath(), null);
+    assertEquals(1, digests.size());
+
+    source.setLastModified(lastModified + 10000);
+    assertTrue(digests.isUnchanged(source.getPath()));
+
+    // Same size, different contents.
+    TempFiles.write(root, "a.js", "var a = 2;");
+    source.setLastModified(lastModified + 10000);
+    assertFalse(digests.isUnchanged(source.getPath()));
+
+    TempFiles.write(root, "a.js", "var a = 10;");
+    assertFalse(digests.isUnchanged(source.getPath()));
+  }
+
+  @Test public void unrecordedOrMissingFileChanged() throws IOException {
+    File source = TempFiles.write(root, "a.js", "var a = 1;");
+    ContentDigests digests = new ContentDigests()
+        .put(new File(root, "missing.js").getPath(), null);
+    assertEquals(0, digests.size());
+    assertFalse(digests.isUnchanged(source.getPath()));
+
+    digests.put(source.getPath(), null);
+    source.delete();
+    assertFalse(digests.isUnchanged(source.getPath()));
+  }
+
+  @Test public void digestOfUntouchedFileReused() throws IOException {
+    File source = TempFiles.write(root, "a.js", "var a = 1;");
+    long lastModified = source.lastModified();
+    ContentDigests previous = new ContentDigests().put(source.getPath(),
+        null);
+
+    // The size and last-modified time match, so the file is not read again.
+    TempFiles.write(root, "a.js", "var a = 2;");
+    source.setLastModified(lastModified);
+    ContentDigests current = new ContentDigests().put(source.getPath(),
+        previous);
+    source.setLastModified(lastModified + 10000);
+    assertFalse(current.isUnchanged(source.getPath()));
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant.base;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.closureant.TempFiles;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link DirectoryArtifactStorage}.
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ */
+@RunWith(BlockJUnit4ClassRunner.class)
+public final class DirectoryArtifactStorageTest {
+
+  private File root;
+  private File shared;
+
+  @Before
+  public void setUp() throws IOException {
+    root = TempFiles.createTempDir();
+    shared = new File(root, "shared");
+  }
+
+  @After
+  public void tearDown() {
+    TempFiles.delete(root);
+  }
+
+  private static String key(int i) {
+    return ArtifactCache.newKeyBuilder().putString("key" + i).build();
+  }
+
+  @Test public void corruptOutputNotRestored() throws IOException {
+    DirectoryArtifactStorage storage = new DirectoryArtifactStorage(shared);
+    File output = TempFiles.write(root, "out.js", "compiled");
+    File sourceMap = TempFiles.write(root, "out.js.map", "map");
+    Map<String, File> outputs = ImmutableMap.of("js_output_file", output,
+        "create_source_map", sourceMap);
+    storage.store(key(0), outputs);
+
+    // The source map in the storage is truncated.
+    Files.write("ma", new File(new File(shared, key(0)), "create_source_map"),
+        Charsets.UTF_8);
+    TempFiles.write(root, "out.js", "compiled on another branch");
+    TempFiles.write(root, "out.js.map", "map on another branch");
+
+    assertFalse(storage.restore(key(0), outputs));
+    assertEquals("compiled on another branch",
+        Files.toString(output, Charsets.UTF_8));
+    assertEquals("map on another branch",
+        Files.toString(sourceMap, Charsets.UTF_8));
+    // The corrupt entry is evicted and no temporary files are left behind.
+    assertFalse(storage.contains(key(0), outputs.keySet()));
+    assertEquals(ImmutableSet.of("shared", "out.js", "out.js.map"),
+        ImmutableSet.copyOf(root.list()));
+  }
+
+  @Test public void restoreReplacesExistingOutputs() throws IOException {
+    DirectoryArtifactStorage storage = new DirectoryArtifactStorage(shared);
+    File output = TempFiles.write(root, "out.js", "compiled");
+    File sourceMap = TempFiles.write(root, "out.js.map", "map");
+    Map<String, File> outputs = ImmutableMap.of("js_output_file", output,
+        "create_source_map", sourceMap);
+    storage.store(key(0), outputs);
+    TempFiles.write(root, "out.js", "compiled on another branch");
+    sourceMap.delete();
+
+    assertTrue(storage.restore(key(0), outputs));
+    assertEquals("compiled", Files.toString(output, Charsets.UTF_8));
+    assertEquals("map", Files.toString(sourceMap, Charsets.UTF_8));
+    // The previous outputs moved aside during the restore are deleted.
+    assertEquals(ImmutableSet.of("shared", "out.js", "out.js.map"),
+        ImmutableSet.copyOf(root.list()));
+  }
+
+  @Test public void leastRecentlyUsedEntriesEvicted() throws IOException {
+    // Each entry has a 100 byte output and a digest file of less than 100
+    // bytes, so at most two entries fit.
+    DirectoryArtifactStorage storage = new DirectoryArtifactStorage(shared,
+        400);
+    File output = TempFiles.write(root, "out.js",
+        new String(new char[100]).replace('\0', 'x'));
+    Map<String, File> outputs = ImmutableMap.of("js_output_file", output);
+    long now = System.currentTimeMillis();
+    storage.store(key(0), outputs);
+    storage.store(key(1), outputs);
+    new File(shared, key(0)).setLastModified(now - 20000);
+    new File(shared, key(1)).setLastModified(now - 30000);
+
+    // Restoring an entry makes it the most recently used.
+    assertTrue(storage.restore(key(1), outputs));
+    storage.store(key(2), outputs);
+
+    assertFalse(storage.contains(key(0), outputs.keySet()));
+    assertTrue(storage.contains(key(1), outputs.keySet()));
+    assertTrue(storage.contains(key(2), outputs.keySet()));
+  }
+
+  @Test public void concurrentWriters() throws Exception {
+    // Two workspaces share a directory.
+    final DirectoryArtifactStorage first = new DirectoryArtifactStorage(
+        shared);
+    final DirectoryArtifactStorage second = new DirectoryArtifactStorage(
+        shared, 1024 * 1024);
+    final List<Throwable> failures =
+        Collections.synchronizedList(Lists.<Throwable>newArrayList());
+    List<Thread> threads = Lists.newArrayList();
+    for (int i = 0; i < 8; i++) {
+      final DirectoryArtifactStorage storage = (i % 2 == 0) ? first : second;
+      final File output = TempFiles.write(root, "out" + i + ".js", "compiled");
+      Thread thread = new Thread() {
+        @Override public void run() {
+          try {
+            for (int j = 0; j < 20; j++) {
+              Map<String, File> outputs =
+                  ImmutableMap.of("js_output_file", output);
+              storage.store(key(j % 4), outputs);
+              if (!storage.restore(key(j % 4), outputs)
+                  || !"compiled".equals(
+                      Files.toString(output, Charsets.UTF_8))) {
+                failures.add(new AssertionError("entry not restored"));
+              }
+            }
+          } catch (Throwable t) {
+            failures.add(t);
+          }
+        }
+      };
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(ImmutableList.of(), failures);
+    assertEquals(ImmutableSet.of(key(0), key(1), key(2), key(3)),
+        ImmutableSet.copyOf(shared.list()));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void maxBytesMustNotBeNegative() {
+    new DirectoryArtifactStorage(shared, -1);
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant.base;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link JsClosureHeaderScanner}.
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ */
+@RunWith(BlockJUnit4ClassRunner.class)
+public final class JsClosureHeaderScannerTest {
+
+  private static File sourceFile;
+  private static File baseJs;
+
+  @BeforeClass
+  public static void suiteSetup() {
+    sourceFile = new File("./tmp.js");
+    baseJs = new File("./base.js");
+    try {
+      sourceFile.createNewFile();
+      baseJs.createNewFile();
+    } catch (IOException e) {
+      throw Throwables.propagate(e);
+    }
+  }
+
+  @AfterClass
+  public static void suiteTearDown() {
+    sourceFile.delete();
+    baseJs.delete();
+  }
+
+  @Test public void headerFollowingLicenseComment() throws IOException {
+    Files.write("/*\n * License.\n */\n\n/** @fileoverview Test. */\n"
+        + "goog.provide('a.b');\n  goog.provide(\"a.c\");\n"
+        + "goog.require( 'x.y' );\n", sourceFile, Charsets.UTF_8);
+    JsClosureHeaderScanner.Header header =
+        JsClosureHeaderScanner.scan(sourceFile);
+    assertEquals(ImmutableList.of("a.b", "a.c"), header.getProvides());
+    assertEquals(ImmutableList.of("x.y"), header.getRequires());
+    assertFalse(header.hasBaseJsMarker());
+  }
+
+  @Test public void scanningStopsAfterHeader() throws IOException {
+    Files.write("goog.provide('a.b');\ngoog.setTestOnly('a.b');\n"
+        + "a.b = 42;\ngoog.require('not.in.header');\n", sourceFile,
+        Charsets.UTF_8);
+    JsClosureHeaderScanner.Header header =
+        JsClosureHeaderScanner.scan(sourceFile);
+    assertEquals(ImmutableList.of("a.b"), header.getProvides());
+    assertEquals(ImmutableList.of(), header.getRequires());
+
+    header = JsClosureHeaderScanner.scanEntireFile(sourceFile);
+    assertEquals(ImmutableList.of("not.in.header"), header.getRequires());
+  }
+
+  @Test public void windowsAndMacLineEndingsAndByteOrderMark()
+      throws IOException {
+    Files.write("\uFEFFgoog.provide('a.b');\r\ngoog.require('c');\r"
+        + "goog.require('d');", sourceFile, Charsets.UTF_8);
+    JsClosureHeaderScanner.Header header =
+        JsClosureHeaderScanner.scan(sourceFile);
+    assertEquals(ImmutableList.of("a.b"), header.getProvides());
+    assertEquals(ImmutableList.of("c", "d"), header.getRequires());
+  }
+
+  @Test public void headerLongerThanBuffer() throws IOException {
+    StringBuilder code = new StringBuilder();
+    code.append("// ").append(Strings.repeat("x", 20000)).append("\n");
+    for (int i = 0; i < 2000; i++) {
+      code.append("goog.require('ns").append(i).append("');\n");
+    }
+    Files.write(code.toString(), sourceFile, Charsets.UTF_8);
+    JsClosureHeaderScanner.Header header =
+        JsClosureHeaderScanner.scan(sourceFile);
+    assertEquals(2000, header.getRequires().size());
+    assertEquals("ns1999", header.getRequires().get(1999));
+  }
+
+  @Test public void baseJsMarkerAfterCode() throws IOException {
+    Files.write("/** @fileoverview Base. */\nvar COMPILED = false;\n\n"
+        + "var goog = goog || {}; // Identifies this file as the Closure "
+        + "base.\n", baseJs, Charsets.UTF_8);
+    assertTrue(JsClosureHeaderScanner.scan(baseJs).hasBaseJsMarker());
+  }
+
+  @Test public void baseJsMarkerIgnoredOutsideHeaderOfOtherFiles()
+      throws IOException {
+    Files.write("var COMPILED = false;\n"
+        + "var goog = goog || {}; // Identifies this file as the Closure "
+        + "base.\n", sourceFile, Charsets.UTF_8);
+    assertFalse(JsClosureHeaderScanner.scan(sourceFile).hasBaseJsMarker());
+  }
+
+  @Test public void scanSourceCode() {
+    JsClosureHeaderScanner.Header header = JsClosureHeaderScanner.scan(
+        "name.js", "goog.provide('a');\ngoog.require('b');\nvar c;");
+    assertEquals(ImmutableList.of("a"), header.getProvides());
+    assertEquals(ImmutableList.of("b"), header.getRequires());
+  }
+}
@@ -16,8 +16,10 @@
 
 package org.closureant.base;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 
+import java.io.File;
 import java.util.Collection;
 import java.util.List;
 
@@ -46,6 +48,60 @@ public class JsClosureSourceFileMock implements JsClosureSourceFile {
     this.isBaseJs = false;
   }
 
+  /**
+   * Creates a mock source file with the given provides and requires.
+   *
+   * @param name the source file name
+   * @param provides the goog.provided namespaces
+   * @param requires the goog.required namespaces
+   * @return a new mock source file
+   */
+  public static JsClosureSourceFileMock newSource(String name,
+      List<String> provides, List<String> requires) {
+    JsClosureSourceFileMock source = new JsClosureSourceFileMock(name);
+    source.setProvides(provides);
+    source.setRequires(requires);
+    return source;
+  }
+
+  /**
+   * Creates a mock source file that provides a single namespace.
+   *
+   * @param name the source file name
+   * @param provide the goog.provided namespace
+   * @param requires the goog.required namespaces
+   * @return a new mock source file
+   */
+  public static JsClosureSourceFileMock newSource(String name,
+      String provide, String... requires) {
+    return newSource(name, ImmutableList.of(provide),
+        ImmutableList.copyOf(requires));
+  }
+
+  /**
+   * Creates a mock source file whose code is {@code size} characters long.
+   * The name of the source file is the last component of {@code path}. If
+   * {@code path} has a parent directory, the absolute path of the source
+   * file is set to the absolute path of {@code path}.
+   *
+   * @param path the path of the source file
+   * @param provides the goog.provided namespaces
+   * @param requires the goog.required namespaces
+   * @param size the length of the code
+   * @return a new mock source file
+   */
+  public static JsClosureSourceFileMock newSource(String path,
+      List<String> provides, List<String> requires, int size) {
+    File file = new File(path);
+    JsClosureSourceFileMock source =
+        newSource(file.getName(), provides, requires);
+    if (file.getParent() != null) {
+      source.setAbsolutePath(file.getAbsolutePath());
+    }
+    source.setCode(new String(new char[size]));
+    return source;
+  }
+
   public String getAbsolutePath() {
     return absolutePath;
   }
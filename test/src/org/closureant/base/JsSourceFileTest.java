@@ -19,11 +19,13 @@ package org.closureant.base;
 import com.google.common.base.Charsets;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.common.io.Files;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.Collection;
+import java.util.List;
 
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
@@ -140,4 +142,69 @@ public final class JsSourceFileTest {
     Files.write("var goog = 42;", baseJs, Charsets.UTF_8);
     assertFalse(SourceFileFactory.newJsClosureSourceFile(baseJs).isBaseJs());
   }
-}
\ No newline at end of file
+
+  @Test public void lightweightInputLoadsCodeOnDemand() throws IOException {
+    String code = "goog.provide('my.namespace');" + String.format("%n")
+        + "goog.require('far.out');";
+    Files.write(code, sourceFile, Charsets.UTF_8);
+    JsClosureSourceFile input =
+        SourceFileFactory.newLightweightJsClosureSourceFile(sourceFile);
+    assertEquals(ImmutableSet.of("my.namespace"), input.getProvides());
+    assertEquals(ImmutableSet.of("far.out"), input.getRequires());
+    assertEquals(code, input.getCode());
+  }
+
+  @Test(expected = IllegalStateException.class) public void
+  lightweightInputChangedAfterScanning() throws IOException {
+    Files.write("goog.provide('my.namespace');", sourceFile, Charsets.UTF_8);
+    JsClosureSourceFile input =
+        SourceFileFactory.newLightweightJsClosureSourceFile(sourceFile);
+    Files.write("goog.provide('changed');", sourceFile, Charsets.UTF_8);
+    input.getCode();
+  }
+
+  @Test public void identityIsCanonicalPathAndContentDigest()
+      throws IOException {
+    Files.write("goog.provide('my.namespace');", sourceFile, Charsets.UTF_8);
+    Files.write("goog.provide('my.namespace');", baseJs, Charsets.UTF_8);
+    JsClosureSourceFile input =
+        SourceFileFactory.newJsClosureSourceFile(sourceFile);
+    JsClosureSourceFile sameFile =
+        SourceFileFactory.newLightweightJsClosureSourceFile(
+            new File(sourceFile.getCanonicalFile().getParentFile(),
+                "./" + sourceFile.getName()));
+    assertEquals(input, sameFile);
+    assertEquals(input.hashCode(), sameFile.hashCode());
+    assertFalse(input.equals(
+        SourceFileFactory.newJsClosureSourceFile(baseJs)));
+
+    Files.write("goog.provide('changed');", sourceFile, Charsets.UTF_8);
+    assertFalse(input.equals(
+        SourceFileFactory.newJsClosureSourceFile(sourceFile)));
+  }
+
+  @Test public void lightweightInputsScannedInParallelKeepOriginalOrder()
+      throws IOException {
+    File tempDir = Files.createTempDir();
+    try {
+      List<File> files = Lists.newArrayList();
+      for (int i = 0; i < 50; i++) {
+        File file = new File(tempDir, "source" + i + ".js");
+        Files.write("goog.provide('ns" + i + "');", file, Charsets.UTF_8);
+        files.add(file);
+      }
+      List<JsClosureSourceFile> inputs =
+          SourceFileFactory.newLightweightJsClosureSourceFiles(files, 4);
+      assertEquals(files.size(), inputs.size());
+      for (int i = 0; i < files.size(); i++) {
+        assertEquals(files.get(i).getName(), inputs.get(i).getName());
+        assertEquals(ImmutableSet.of("ns" + i), inputs.get(i).getProvides());
+      }
+    } finally {
+      for (File file : tempDir.listFiles()) {
+        file.delete();
+      }
+      tempDir.delete();
+    }
+  }
+}
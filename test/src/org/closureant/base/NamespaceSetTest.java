@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant.base;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.apache.tools.ant.Project;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link NamespaceSet}.
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ */
+@RunWith(BlockJUnit4ClassRunner.class)
+public final class NamespaceSetTest {
+
+  @Test public void sortedWithoutDuplicatesAndInterned() {
+    NamespaceTable table = new NamespaceTable();
+    NamespaceSet set = NamespaceSet.of(
+        ImmutableList.of("goog.string", "goog.array", "goog.string"), table);
+    assertEquals(ImmutableList.of("goog.array", "goog.string"),
+        ImmutableList.copyOf(set));
+    assertEquals(ImmutableSet.of("goog.array", "goog.string"), set);
+    assertTrue(set.contains("goog.string"));
+    assertFalse(set.contains("goog.dom"));
+
+    assertSame(table, set.getTable());
+    assertEquals(table.getId("goog.array"), set.getId(0));
+    assertSame(table.getNamespace(set.getId(1)), set.get(1));
+  }
+
+  @Test public void tableScopedToProject() {
+    Project project = new Project();
+    NamespaceTable table = NamespaceTable.getInstance(project);
+    assertSame(table, NamespaceTable.getInstance(project));
+    assertSame(table,
+        BuildRegistry.getInstance(project).getNamespaceTable());
+    assertNotSame(table, NamespaceTable.getInstance(new Project()));
+    assertNull(NamespaceSet.of(ImmutableList.of("a")).getTable());
+  }
+
+  @Test public void sourceFileGettersDoNotCopy() {
+    JsClosureSourceFile source = SourceFileFactory.newJsClosureSourceFile(
+        "a.js", "goog.provide('a');\ngoog.require('b');\n");
+    assertSame(source.getProvides(), source.getProvides());
+    assertSame(source.getRequires(), source.getRequires());
+    assertEquals(ImmutableSet.of("b"), source.getRequires());
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant.base;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.closureant.TempFiles;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Tests for {@link SealedSourceIndex}.
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ */
+@RunWith(BlockJUnit4ClassRunner.class)
+public final class SealedSourceIndexTest {
+
+  private File root;
+  private File subdirectory;
+  private File indexFile;
+
+  @Before
+  public void setUp() throws IOException {
+    root = TempFiles.createTempDir();
+    subdirectory = new File(root, "sub");
+    subdirectory.mkdir();
+    Files.write("goog.provide('a');\n", new File(root, "a.js"),
+        Charsets.UTF_8);
+    Files.write("goog.provide('b');\ngoog.require('a');\n",
+        new File(subdirectory, "b.js"), Charsets.UTF_8);
+    indexFile = new File(root, SealedSourceIndex.DEFAULT_INDEX_FILE_NAME);
+    SealedSourceIndex.create(root).write(indexFile);
+  }
+
+  @After
+  public void tearDown() {
+    TempFiles.delete(root);
+  }
+
+  @Test public void sourcesReadFromIndexWithoutScanning() throws IOException {
+    // Same size and last-modified time, so the index is still valid, but
+    // different content.
+    File a = new File(root, "a.js");
+    long lastModified = a.lastModified();
+    Files.write("goog.provide('x');\n", a, Charsets.UTF_8);
+    a.setLastModified(lastModified);
+
+    List<JsClosureSourceFile> sources =
+        SealedSourceIndex.readSourceFiles(root, indexFile, null);
+    assertEquals(2, sources.size());
+    assertEquals("a.js", sources.get(0).getName());
+    assertEquals(ImmutableSet.of("a"), sources.get(0).getProvides());
+    assertEquals("b.js", sources.get(1).getName());
+    assertEquals(ImmutableSet.of("b"), sources.get(1).getProvides());
+    assertEquals(ImmutableSet.of("a"), sources.get(1).getRequires());
+    assertEquals(new File(subdirectory, "b.js").getCanonicalPath(),
+        sources.get(1).getAbsolutePath());
+  }
+
+  @Test public void indexInvalidAfterFileAdded() throws IOException {
+    Files.write("goog.provide('c');\n", new File(subdirectory, "c.js"),
+        Charsets.UTF_8);
+    assertFalse(SealedSourceIndex.read(indexFile).isValidFor(root));
+  }
+
+  @Test public void indexInvalidAfterSameSizeEdit() throws IOException {
+    File a = new File(root, "a.js");
+    long lastModified = a.lastModified();
+    Files.write("goog.provide('x');\n", a, Charsets.UTF_8);
+    a.setLastModified(lastModified + 2000);
+    assertFalse(SealedSourceIndex.read(indexFile).isValidFor(root));
+  }
+
+  @Test(expected = IOException.class) public void
+  modifiedRootRejected() throws IOException {
+    Files.write("goog.provide('aa');\n", new File(root, "a.js"),
+        Charsets.UTF_8);
+    SealedSourceIndex.readSourceFiles(root, indexFile, null);
+  }
+
+  @Test(expected = IOException.class) public void
+  corruptIndexRejected() throws IOException {
+    Files.write("not an index", indexFile, Charsets.UTF_8);
+    SealedSourceIndex.read(indexFile);
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant.base;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.closureant.TempFiles;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link SourceIndex}.
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ */
+@RunWith(BlockJUnit4ClassRunner.class)
+public final class SourceIndexTest {
+
+  private File tempDir;
+  private File sourceFile;
+
+  @Before
+  public void setUp() throws IOException {
+    tempDir = TempFiles.createTempDir();
+    sourceFile = new File(tempDir, "source.js");
+    writeSource("goog.provide('a');\ngoog.require('b');\n");
+  }
+
+  @After
+  public void tearDown() {
+    TempFiles.delete(tempDir);
+  }
+
+  /**
+   * Writes {@code code} to the source file with a last-modified time that is
+   * old enough for the file to be recorded in the index.
+   */
+  private void writeSource(String code) throws IOException {
+    Files.write(code, sourceFile, Charsets.UTF_8);
+    sourceFile.setLastModified(1000000000000L);
+  }
+
+  @Test public void unchangedFileIsNotRescanned() throws IOException {
+    SourceIndex index =
+        SourceIndex.getSharedInstance(new File(tempDir, "index1.idx"));
+    assertEquals(ImmutableList.of("a"),
+        index.scanAndDigest(sourceFile).getProvides());
+
+    // Same size and last-modified time.
+    writeSource("goog.provide('x');\ngoog.require('y');\n");
+    assertEquals(ImmutableList.of("a"),
+        index.scanAndDigest(sourceFile).getProvides());
+
+    writeSource("goog.provide('changed');\n");
+    assertEquals(ImmutableList.of("changed"),
+        index.scanAndDigest(sourceFile).getProvides());
+  }
+
+  @Test public void indexPersistsAcrossInstances() throws IOException {
+    File indexFile = new File(tempDir, "index2.idx");
+    SourceIndex index = SourceIndex.getSharedInstance(indexFile);
+    String digest = index.scanAndDigest(sourceFile).getDigest();
+    index.save();
+
+    File copy = new File(tempDir, "copy.idx");
+    Files.copy(indexFile, copy);
+    writeSource("goog.provide('x');\ngoog.require('y');\n");
+    JsClosureHeaderScanner.Header header =
+        SourceIndex.getSharedInstance(copy).scanAndDigest(sourceFile);
+    assertEquals(ImmutableList.of("a"), header.getProvides());
+    assertEquals(ImmutableList.of("b"), header.getRequires());
+    assertEquals(digest, header.getDigest());
+  }
+
+  @Test public void corruptIndexIsRebuilt() throws IOException {
+    File indexFile = new File(tempDir, "index3.idx");
+    Files.write("not an index", indexFile, Charsets.UTF_8);
+    SourceIndex index = SourceIndex.getSharedInstance(indexFile);
+    assertEquals(ImmutableList.of("a"),
+        index.scanAndDigest(sourceFile).getProvides());
+    index.save();
+
+    File copy = new File(tempDir, "copy3.idx");
+    Files.copy(indexFile, copy);
+    writeSource("goog.provide('x');\ngoog.require('y');\n");
+    assertEquals(ImmutableList.of("a"), SourceIndex.getSharedInstance(copy)
+        .scanAndDigest(sourceFile).getProvides());
+  }
+
+  @Test public void saveMergesEntriesUnderLockFile() throws IOException {
+    File indexFile = new File(tempDir, "index4.idx");
+    SourceIndex index = SourceIndex.getSharedInstance(indexFile);
+    index.scanAndDigest(sourceFile);
+    index.save();
+    assertTrue(new File(tempDir, "index4.idx.lock").isFile());
+
+    // Another process adds an entry to a copy of the index.
+    File otherSource = new File(tempDir, "other.js");
+    Files.write("goog.provide('other');\n", otherSource, Charsets.UTF_8);
+    otherSource.setLastModified(1000000000000L);
+    File copy = new File(tempDir, "copy4.idx");
+    Files.copy(indexFile, copy);
+    SourceIndex other = SourceIndex.getSharedInstance(copy);
+    other.scanAndDigest(otherSource);
+    other.save();
+
+    // Entries of files that no longer exist are kept until they expire.
+    sourceFile.delete();
+    Files.write("goog.provide('x');\n", otherSource, Charsets.UTF_8);
+    otherSource.setLastModified(1000000000000L);
+    Files.copy(copy, indexFile);
+    index.scanAndDigest(otherSource);
+    index.save();
+    File copy2 = new File(tempDir, "copy5.idx");
+    Files.copy(indexFile, copy2);
+    writeSource("goog.provide('x');\ngoog.require('y');\n");
+    assertEquals(ImmutableList.of("a"), SourceIndex.getSharedInstance(copy2)
+        .scanAndDigest(sourceFile).getProvides());
+  }
+}
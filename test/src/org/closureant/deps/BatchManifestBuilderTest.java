@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant.deps;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import org.closureant.base.JsClosureSourceFileMock;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.closureant.base.JsClosureSourceFileMock.newSource;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link BatchManifestBuilder}.
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ */
+@RunWith(BlockJUnit4ClassRunner.class)
+public final class BatchManifestBuilderTest {
+
+  /**
+   * Checks that the manifest of each of more than 64 entry points is
+   * identical to the manifest of a new {@link ManifestBuilder} for the entry
+   * point.
+   */
+  @Test public void matchesManifestBuilderForEachEntryPoint() {
+    Random random = new Random(7);
+    JsClosureSourceFileMock baseJs = newSource("base.js",
+        ImmutableList.of("goog"), ImmutableList.<String>of());
+    baseJs.setBaseJs(true);
+    List<JsClosureSourceFileMock> sources = Lists.newArrayList();
+    sources.add(baseJs);
+    for (int k = 0; k < 60; k++) {
+      // Namespace "nK" only requires namespaces "nJ" with J < K, so the
+      // dependency graph is acyclic.
+      List<String> requires = Lists.newArrayList("goog");
+      for (int i = 0; i < 2 && k > 0; i++) {
+        requires.add("n" + random.nextInt(k));
+      }
+      sources.add(newSource("n" + k + ".js", ImmutableList.of("n" + k),
+          requires));
+    }
+    sources.add(newSource("moocher.js", ImmutableList.<String>of(),
+        ImmutableList.of("n3")));
+
+    for (boolean keepMoochers : new boolean[] {false, true}) {
+      BatchManifestBuilder<JsClosureSourceFileMock> builder =
+          new BatchManifestBuilder<JsClosureSourceFileMock>();
+      builder.keepMoochers(keepMoochers);
+      List<ManifestBuilder<JsClosureSourceFileMock>> expected =
+          Lists.newArrayList();
+      for (int e = 0; e < 70; e++) {
+        JsClosureSourceFileMock main = newSource("page" + e + ".js",
+            ImmutableList.<String>of(),
+            ImmutableList.of("n" + random.nextInt(60)));
+        String namespace = "n" + random.nextInt(60);
+        builder.entryPoint("page" + e, ImmutableList.of(main),
+            ImmutableList.of(namespace));
+
+        ManifestBuilder<JsClosureSourceFileMock> manifestBuilder =
+            new ManifestBuilder<JsClosureSourceFileMock>();
+        manifestBuilder.keepMoochers(keepMoochers).mainSource(main)
+            .namespace(namespace).sources(sources);
+        expected.add(manifestBuilder);
+      }
+      builder.sources(sources);
+
+      Map<String, List<JsClosureSourceFileMock>> manifests =
+          builder.toManifests();
+      assertEquals(70, manifests.size());
+      for (int e = 0; e < 70; e++) {
+        List<JsClosureSourceFileMock> manifest = manifests.get("page" + e);
+        assertEquals(expected.get(e).toManifestList(), manifest);
+        assertEquals(baseJs, manifest.get(0));
+      }
+    }
+  }
+
+  @Test public void baseJsKeptInEveryManifest() {
+    JsClosureSourceFileMock baseJs = newSource("base.js",
+        ImmutableList.of("goog"), ImmutableList.<String>of());
+    baseJs.setBaseJs(true);
+    JsClosureSourceFileMock standalone = newSource("standalone.js",
+        ImmutableList.<String>of(), ImmutableList.<String>of());
+    JsClosureSourceFileMock closure = newSource("closure.js",
+        ImmutableList.<String>of(), ImmutableList.of("goog"));
+    BatchManifestBuilder<JsClosureSourceFileMock> builder =
+        new BatchManifestBuilder<JsClosureSourceFileMock>();
+    builder.source(baseJs)
+        .entryPoint("standalone", ImmutableList.of(standalone),
+            ImmutableList.<String>of())
+        .entryPoint("closure", ImmutableList.of(closure),
+            ImmutableList.<String>of());
+
+    // Like ManifestBuilder, base.js is kept even if it is not required.
+    assertEquals(ImmutableList.of(baseJs, standalone),
+        builder.toManifestList("standalone"));
+    assertEquals(new ManifestBuilder<JsClosureSourceFileMock>()
+        .mainSource(standalone).source(baseJs).toManifestList(),
+        builder.toManifestList("standalone"));
+    assertEquals(ImmutableList.of(baseJs, closure),
+        builder.toManifestList("closure"));
+  }
+
+  @Test public void missingNamespaceOnlyFailsItsEntryPoint() {
+    JsClosureSourceFileMock a = newSource("a.js", ImmutableList.of("a"),
+        ImmutableList.<String>of());
+    BatchManifestBuilder<JsClosureSourceFileMock> builder =
+        new BatchManifestBuilder<JsClosureSourceFileMock>();
+    builder.source(a)
+        .entryPoint("good", ImmutableList.<JsClosureSourceFileMock>of(),
+            ImmutableList.of("a"))
+        .entryPoint("bad", ImmutableList.<JsClosureSourceFileMock>of(),
+            ImmutableList.of("b"));
+
+    assertEquals(ImmutableList.of(a), builder.toManifestList("good"));
+    try {
+      builder.toManifestList("bad");
+    } catch (MissingProvideException e) {
+      assertEquals("b", e.getRequiredNamespace());
+      return;
+    }
+    throw new AssertionError("expected MissingProvideException");
+  }
+}
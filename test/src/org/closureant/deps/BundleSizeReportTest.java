@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant.deps;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.closureant.base.JsClosureSourceFileMock;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import java.io.File;
+
+import static org.closureant.base.JsClosureSourceFileMock.newSource;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests for {@link BundleSizeReport}.
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ */
+@RunWith(BlockJUnit4ClassRunner.class)
+public final class BundleSizeReportTest {
+
+  // The size of a source is the length of its code.
+  private static final Function<JsClosureSourceFileMock, Long> CODE_LENGTH =
+      new Function<JsClosureSourceFileMock, Long>() {
+        @Override public Long apply(JsClosureSourceFileMock source) {
+          return (long) source.getCode().length();
+        }
+      };
+
+  @Test public void retainedSizes() {
+    JsClosureSourceFileMock d = newSource("/js/lib/d.js",
+        ImmutableList.of("d"), ImmutableList.<String>of(), 1000);
+    JsClosureSourceFileMock c = newSource("/js/lib/c.js",
+        ImmutableList.of("c"), ImmutableList.of("d"), 100);
+    JsClosureSourceFileMock e = newSource("/js/app/e.js",
+        ImmutableList.of("e"), ImmutableList.<String>of(), 5);
+    JsClosureSourceFileMock a = newSource("/js/app/a.js",
+        ImmutableList.of("a", "a.extra"), ImmutableList.of("c", "e"), 10);
+    JsClosureSourceFileMock b = newSource("/js/app/b.js",
+        ImmutableList.of("b"), ImmutableList.of("c"), 20);
+    JsClosureSourceFileMock main = newSource("/js/main.js",
+        ImmutableList.<String>of(), ImmutableList.of("a", "b"), 1);
+
+    BundleSizeReport<JsClosureSourceFileMock> report =
+        BundleSizeReport.create(ImmutableList.of(d, c, e, a, b, main),
+            ImmutableList.of(main), ImmutableList.<String>of(), CODE_LENGTH);
+
+    assertEquals(1136, report.getTotalSize());
+    assertEquals(1136, report.getRetainedSize(main));
+    // c is required by both a and b, so it is only dominated by main.
+    assertEquals(main, report.getDominator(c));
+    assertEquals(1100, report.getRetainedSize(c));
+    assertEquals(c, report.getDominator(d));
+    assertEquals(15, report.getRetainedSize(a));
+    assertEquals(a, report.getDominator(e));
+    assertEquals(20, report.getRetainedSize(b));
+    assertNull(report.getDominator(main));
+
+    assertEquals(Long.valueOf(1100), report.getDirectorySizes().get(
+        new File("/js/lib").getAbsolutePath()));
+    assertEquals(Long.valueOf(35), report.getDirectorySizes().get(
+        new File("/js/app").getAbsolutePath()));
+
+    JsonObject json = new JsonParser().parse(report.toJson())
+        .getAsJsonObject();
+    assertEquals(1136, json.get("totalSize").getAsLong());
+    assertEquals(6, json.getAsJsonArray("files").size());
+    JsonObject first = json.getAsJsonArray("files").get(0).getAsJsonObject();
+    assertEquals(main.getAbsolutePath(), first.get("path").getAsString());
+    assertEquals(6, json.getAsJsonArray("namespaces").size());
+  }
+
+  @Test public void namespaceEntryPointsAreRoots() {
+    JsClosureSourceFileMock lib = newSource("/js/lib.js",
+        ImmutableList.of("lib"), ImmutableList.<String>of(), 10);
+    JsClosureSourceFileMock page = newSource("/js/page.js",
+        ImmutableList.of("app.pages.home"), ImmutableList.of("lib"), 1);
+    JsClosureSourceFileMock widget = newSource("/js/widget.js",
+        ImmutableList.of("app.widget"), ImmutableList.of("lib"), 2);
+
+    // lib is required by page and by widget, which is also an entry point.
+    BundleSizeReport<JsClosureSourceFileMock> report =
+        BundleSizeReport.create(ImmutableList.of(lib, widget, page),
+            ImmutableList.<JsClosureSourceFileMock>of(),
+            ImmutableList.of("app.pages.*", "app.widget"), CODE_LENGTH);
+    assertNull(report.getDominator(lib));
+    assertEquals(1, report.getRetainedSize(page));
+    assertEquals(2, report.getRetainedSize(widget));
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant.deps;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+
+import org.closureant.base.JsClosureSourceFileMock;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import java.util.List;
+
+import static org.closureant.base.JsClosureSourceFileMock.newSource;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link CheckShardPartitioner}.
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ */
+@RunWith(BlockJUnit4ClassRunner.class)
+public final class CheckShardPartitionerTest {
+
+  // The size of a source is the length of its code.
+  private static final Function<JsClosureSourceFileMock, Long> CODE_LENGTH =
+      new Function<JsClosureSourceFileMock, Long>() {
+        @Override public Long apply(JsClosureSourceFileMock source) {
+          return (long) source.getCode().length();
+        }
+      };
+
+  @Test public void independentComponentsInSeparateShards() {
+    JsClosureSourceFileMock baseJs = newSource("base.js",
+        ImmutableList.<String>of(), ImmutableList.<String>of(), 10);
+    baseJs.setBaseJs(true);
+    JsClosureSourceFileMock a = newSource("a.js", ImmutableList.of("a"),
+        ImmutableList.<String>of(), 100);
+    JsClosureSourceFileMock mainA = newSource("main_a.js",
+        ImmutableList.<String>of(), ImmutableList.of("a"), 1);
+    JsClosureSourceFileMock b = newSource("b.js", ImmutableList.of("b"),
+        ImmutableList.<String>of(), 50);
+    JsClosureSourceFileMock mainB = newSource("main_b.js",
+        ImmutableList.<String>of(), ImmutableList.of("b"), 1);
+
+    List<List<JsClosureSourceFileMock>> shards =
+        CheckShardPartitioner.partition(
+            ImmutableList.of(baseJs, a, b, mainA, mainB), 4, CODE_LENGTH);
+    assertEquals(ImmutableList.of(
+        ImmutableList.of(baseJs, a, mainA),
+        ImmutableList.of(baseJs, b, mainB)), shards);
+  }
+
+  @Test public void numberOfShardsLimitedByMaxShards() {
+    JsClosureSourceFileMock lib = newSource("lib.js", ImmutableList.of("lib"),
+        ImmutableList.<String>of(), 100);
+    JsClosureSourceFileMock big = newSource("big.js", ImmutableList.of("big"),
+        ImmutableList.of("lib"), 100);
+    JsClosureSourceFileMock main = newSource("main.js",
+        ImmutableList.<String>of(), ImmutableList.of("big", "lib"), 1);
+    JsClosureSourceFileMock moocher = newSource("moocher.js",
+        ImmutableList.<String>of(), ImmutableList.of("lib"), 1);
+
+    List<JsClosureSourceFileMock> manifest =
+        ImmutableList.of(lib, big, moocher, main);
+    assertEquals(ImmutableList.of(ImmutableList.of(lib, big, main),
+        ImmutableList.of(lib, moocher)),
+        CheckShardPartitioner.partition(manifest, 4, CODE_LENGTH));
+    assertEquals(ImmutableList.of(manifest),
+        CheckShardPartitioner.partition(manifest, 1, CODE_LENGTH));
+  }
+
+  @Test public void closuresMergedIntoSmallestShard() {
+    JsClosureSourceFileMock shared = newSource("shared.js",
+        ImmutableList.of("shared"), ImmutableList.<String>of(), 100);
+    JsClosureSourceFileMock a = newSource("a.js", ImmutableList.of("a"),
+        ImmutableList.of("shared"), 300);
+    JsClosureSourceFileMock b = newSource("b.js", ImmutableList.of("b"),
+        ImmutableList.<String>of(), 200);
+    JsClosureSourceFileMock c = newSource("c.js", ImmutableList.of("c"),
+        ImmutableList.of("shared"), 10);
+
+    // Shards {shared, a} (400) and {b} (200) are opened first. The closure
+    // of c is merged into the second shard, which grows to 310 bytes, rather
+    // than into the first shard, which would grow to 410 bytes.
+    List<List<JsClosureSourceFileMock>> shards =
+        CheckShardPartitioner.partition(ImmutableList.of(shared, a, b, c), 2,
+            CODE_LENGTH);
+    assertEquals(ImmutableList.of(
+        ImmutableList.of(shared, a),
+        ImmutableList.of(shared, b, c)), shards);
+  }
+
+  @Test public void sourcesInCycleAreShardedTogether() {
+    JsClosureSourceFileMock a = newSource("a.js", ImmutableList.of("a"),
+        ImmutableList.of("b"), 10);
+    JsClosureSourceFileMock b = newSource("b.js", ImmutableList.of("b"),
+        ImmutableList.of("a"), 10);
+    JsClosureSourceFileMock c = newSource("c.js", ImmutableList.of("c"),
+        ImmutableList.<String>of(), 5);
+
+    List<List<JsClosureSourceFileMock>> shards =
+        CheckShardPartitioner.partition(ImmutableList.of(a, b, c), 4,
+            CODE_LENGTH);
+    assertEquals(ImmutableList.of(ImmutableList.of(a, b),
+        ImmutableList.of(c)), shards);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void maxShardsMustBePositive() {
+    CheckShardPartitioner.partition(
+        ImmutableList.<JsClosureSourceFileMock>of(), 0, CODE_LENGTH);
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant.deps;
+
+import com.google.common.collect.ImmutableList;
+
+import org.closureant.base.JsClosureSourceFile;
+import org.closureant.base.JsClosureSourceFileMock;
+import org.closureant.base.NamespaceTable;
+import org.closureant.base.SourceFileFactory;
+import org.closureant.util.ClosureBuildUtil;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import java.util.BitSet;
+import java.util.List;
+
+import static org.closureant.base.JsClosureSourceFileMock.newSource;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link DependencyGraph}.
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ */
+@RunWith(BlockJUnit4ClassRunner.class)
+public final class DependencyGraphTest {
+
+  private JsClosureSourceFileMock a;
+  private JsClosureSourceFileMock b;
+  private JsClosureSourceFileMock c;
+  private JsClosureSourceFileMock d;
+  private List<JsClosureSourceFileMock> sources;
+  private DependencyGraph<JsClosureSourceFileMock> graph;
+
+  @Before
+  public void setUp() {
+    // d requires c and a (twice), c requires b, b requires itself.
+    a = newSource("a.js", "a");
+    b = newSource("b.js", "b", "b");
+    c = newSource("c.js", "c", "b");
+    d = newSource("d.js", "d", "c", "a", "a", "missing");
+    sources = ImmutableList.of(d, c, b, a);
+    graph = DependencyGraph.create(sources,
+        ClosureBuildUtil.createMapOfProvideToSource(sources));
+  }
+
+  @Test public void edgesSortedWithoutDuplicatesOrSelfEdges() {
+    assertEquals(2, graph.getDependencyCount(0));
+    assertEquals(1, graph.getDependency(0, 0));
+    assertEquals(3, graph.getDependency(0, 1));
+    assertEquals(0, graph.getDependencyCount(2));
+    assertEquals(1, graph.getDependentCount(3));
+    assertEquals(0, graph.getDependent(3, 0));
+  }
+
+  @Test public void transitiveDependencies() {
+    BitSet roots = new BitSet();
+    roots.set(graph.getId(c));
+    assertEquals(ImmutableList.of(c, b),
+        graph.getSources(graph.getTransitiveDependencies(roots)));
+  }
+
+  @Test public void stableSortsKeepOriginalOrderOfIndependentSources() {
+    BitSet all = graph.getAllIds();
+    assertEquals(ImmutableList.of(b, c, a, d), graph.getSources(
+        graph.topologicalStableSortDepthFirstSearch(all)));
+    assertEquals(ImmutableList.of(b, c, a, d), graph.getSources(
+        graph.topologicalStableSortKahnAlgorithm(all)));
+  }
+
+  @Test public void selfRequireRecorded() {
+    assertEquals(1, graph.getSelfRequireCount());
+    assertEquals(2, graph.getSelfRequireSource(0));
+    assertEquals("b", graph.getSelfRequire(0));
+
+    List<JsClosureSourceFile> jsSources = ImmutableList.of(
+        SourceFileFactory.newJsClosureSourceFile("c.js",
+            "goog.provide('c');\ngoog.require('c');", new NamespaceTable()));
+    DependencyGraph<JsClosureSourceFile> jsGraph = DependencyGraph.create(
+        jsSources, ClosureBuildUtil.createMapOfProvideToSource(jsSources));
+    assertEquals(0, jsGraph.getDependencyCount(0));
+    assertEquals(1, jsGraph.getSelfRequireCount());
+    assertEquals("c", jsGraph.getSelfRequire(0));
+  }
+
+  @Test(expected = MissingProvideException.class) public void
+  missingProvideReported() {
+    graph.checkAllProvided(graph.getAllIds());
+  }
+
+  @Test public void missingProvideOutsideOfSetIgnored() {
+    BitSet ids = graph.getAllIds();
+    ids.clear(graph.getId(d));
+    graph.checkAllProvided(ids);
+    assertArrayEquals(new int[] {2, 1, 3},
+        graph.topologicalStableSortKahnAlgorithm(ids));
+  }
+
+  @Test public void internedNamespacesResolvedLikeOtherSources() {
+    NamespaceTable table = new NamespaceTable();
+    List<JsClosureSourceFile> jsSources = ImmutableList.of(
+        SourceFileFactory.newJsClosureSourceFile("d.js",
+            "goog.provide('d');\ngoog.require('c');\ngoog.require('x');",
+            table),
+        SourceFileFactory.newJsClosureSourceFile("c.js",
+            "goog.provide('c');\n", table));
+    DependencyGraph<JsClosureSourceFile> jsGraph = DependencyGraph.create(
+        jsSources, ClosureBuildUtil.createMapOfProvideToSource(jsSources));
+    assertEquals(1, jsGraph.getDependencyCount(0));
+    assertEquals(1, jsGraph.getDependency(0, 0));
+    try {
+      jsGraph.checkAllProvided(jsGraph.getAllIds());
+    } catch (MissingProvideException e) {
+      assertEquals("x", e.getRequiredNamespace());
+      return;
+    }
+    fail("expected MissingProvideException");
+  }
+
+  @Test(expected = CircularDependencyException.class) public void
+  cycleDetected() {
+    JsClosureSourceFileMock x = newSource("x.js", "x", "y");
+    JsClosureSourceFileMock y = newSource("y.js", "y", "x");
+    List<JsClosureSourceFileMock> cycle = ImmutableList.of(x, y);
+    DependencyGraph<JsClosureSourceFileMock> cyclicGraph =
+        DependencyGraph.create(cycle,
+            ClosureBuildUtil.createMapOfProvideToSource(cycle));
+    cyclicGraph.topologicalStableSortKahnAlgorithm(cyclicGraph.getAllIds());
+  }
+}
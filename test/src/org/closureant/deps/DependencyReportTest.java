@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant.deps;
+
+import com.google.common.collect.ImmutableList;
+
+import org.closureant.base.JsClosureSourceFileMock;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import java.util.List;
+
+import static org.closureant.base.JsClosureSourceFileMock.newSource;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link DependencyReport}.
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ */
+@RunWith(BlockJUnit4ClassRunner.class)
+public final class DependencyReportTest {
+
+  @Test public void noErrors() {
+    List<JsClosureSourceFileMock> sources = ImmutableList.of(
+        newSource("a.js", "a"), newSource("b.js", "b", "a"));
+    DependencyReport<JsClosureSourceFileMock> report =
+        DependencyReport.create(sources);
+    assertTrue(report.isEmpty());
+    assertEquals("", report.toString());
+  }
+
+  @Test public void allErrorsReported() {
+    // Two separate cycles (x <-> y and p -> q -> r -> p), two missing
+    // provides and a namespace provided twice.
+    JsClosureSourceFileMock x = newSource("x.js", "x", "y");
+    JsClosureSourceFileMock y = newSource("y.js", "y", "x", "missing1");
+    JsClosureSourceFileMock p = newSource("p.js", "p", "q");
+    JsClosureSourceFileMock q = newSource("q.js", "q", "r");
+    JsClosureSourceFileMock r = newSource("r.js", "r", "p", "missing2");
+    JsClosureSourceFileMock a1 = newSource("a1.js", "a");
+    JsClosureSourceFileMock a2 = newSource("a2.js", "a");
+    DependencyReport<JsClosureSourceFileMock> report =
+        DependencyReport.create(ImmutableList.of(x, y, p, q, r, a1, a2, x));
+
+    assertEquals(1, report.getMultipleProvides().size());
+    assertEquals("a", report.getMultipleProvides().get(0)
+        .getProvidedNamespace());
+    assertEquals(ImmutableList.of(a1, a2),
+        report.getMultipleProvides().get(0).getSourceFiles());
+
+    assertEquals(2, report.getMissingProvides().size());
+    assertEquals("missing1",
+        report.getMissingProvides().get(0).getRequiredNamespace());
+    assertEquals(r, report.getMissingProvides().get(1).getSourceFile());
+
+    assertEquals(ImmutableList.of(ImmutableList.of(x, y),
+        ImmutableList.of(p, q, r)), report.getCycles());
+    assertEquals("x -> y -> x",
+        report.getCircularDependencies().get(0).getMessage());
+    assertEquals("p -> q -> r -> p",
+        report.getCircularDependencies().get(1).getMessage());
+    assertEquals(5, report.getErrors().size());
+  }
+
+  @Test public void onlyErrorsReachableFromEntryPointsReported() {
+    JsClosureSourceFileMock a = newSource("a.js", "a", "b");
+    JsClosureSourceFileMock b = newSource("b.js", "b", "missing1");
+    JsClosureSourceFileMock c = newSource("c.js", "c", "missing2");
+    JsClosureSourceFileMock x = newSource("x.js", "x", "y");
+    JsClosureSourceFileMock y = newSource("y.js", "y", "x");
+    JsClosureSourceFileMock z = newSource("z.js", "z", "z");
+    List<JsClosureSourceFileMock> sources = ImmutableList.of(a, b, c, x, y, z);
+
+    DependencyReport<JsClosureSourceFileMock> report = DependencyReport.create(
+        sources, ImmutableList.of(a), ImmutableList.<String>of());
+    assertEquals(1, report.getErrors().size());
+    assertEquals(b, report.getMissingProvides().get(0).getSourceFile());
+
+    report = DependencyReport.create(sources, ImmutableList.of(a),
+        ImmutableList.of("c", "x", "notProvided"));
+    assertEquals(2, report.getMissingProvides().size());
+    assertEquals(ImmutableList.of(ImmutableList.of(x, y)), report.getCycles());
+    assertTrue(report.getSelfRequires().isEmpty());
+  }
+
+  @Test public void selfRequireReported() {
+    DependencyReport<JsClosureSourceFileMock> report = DependencyReport.create(
+        ImmutableList.of(newSource("a.js", "a", "a")));
+    assertTrue(report.getCycles().isEmpty());
+    assertEquals(1, report.getSelfRequires().size());
+    assertEquals("a -> a", report.toString());
+  }
+}
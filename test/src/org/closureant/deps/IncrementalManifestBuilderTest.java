@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant.deps;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import org.closureant.base.JsClosureSourceFileMock;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.closureant.base.JsClosureSourceFileMock.newSource;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests for {@link IncrementalManifestBuilder}.
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ */
+@RunWith(BlockJUnit4ClassRunner.class)
+public final class IncrementalManifestBuilderTest {
+
+  @Test public void addReplaceRemove() {
+    JsClosureSourceFileMock baseJs = newSource("base.js",
+        ImmutableList.of("goog"), ImmutableList.<String>of());
+    baseJs.setBaseJs(true);
+    JsClosureSourceFileMock a = newSource("a.js", ImmutableList.of("a"),
+        ImmutableList.of("goog"));
+    JsClosureSourceFileMock b = newSource("b.js", ImmutableList.of("b"),
+        ImmutableList.of("a"));
+    JsClosureSourceFileMock main = newSource("main.js",
+        ImmutableList.of("main"), ImmutableList.of("b"));
+
+    IncrementalManifestBuilder<JsClosureSourceFileMock> builder =
+        new IncrementalManifestBuilder<JsClosureSourceFileMock>();
+    builder.sources(ImmutableList.of(baseJs, a, b)).mainSource(main);
+    assertEquals(ImmutableList.of(baseJs, a, b, main),
+        builder.toManifestList());
+
+    // Editing a source without changing its dependencies keeps its place.
+    JsClosureSourceFileMock editedB = newSource("b.js",
+        ImmutableList.of("b"), ImmutableList.of("a"));
+    editedB.setCode("// edited");
+    builder.replaceSource(b, editedB);
+    List<JsClosureSourceFileMock> manifest = builder.toManifestList();
+    assertEquals(ImmutableList.of(baseJs, a, editedB, main), manifest);
+    assertSame(editedB, manifest.get(2));
+
+    // Dropping the require of "a" prunes it.
+    JsClosureSourceFileMock independentB = newSource("b.js",
+        ImmutableList.of("b"), ImmutableList.<String>of());
+    builder.replaceSource(editedB, independentB);
+    assertEquals(ImmutableList.of(baseJs, independentB, main),
+        builder.toManifestList());
+
+    builder.removeSource(independentB);
+    try {
+      builder.toManifestList();
+    } catch (MissingProvideException e) {
+      assertEquals("b", e.getRequiredNamespace());
+      assertEquals(ImmutableList.of(baseJs, a, b, main),
+          builder.source(b).toManifestList());
+      return;
+    }
+    throw new AssertionError("expected MissingProvideException");
+  }
+
+  @Test(expected = MultipleProvideException.class)
+  public void multipleProvideRejected() {
+    IncrementalManifestBuilder<JsClosureSourceFileMock> builder =
+        new IncrementalManifestBuilder<JsClosureSourceFileMock>();
+    builder.source(newSource("a.js", ImmutableList.of("a"),
+        ImmutableList.<String>of()));
+    builder.source(newSource("a2.js", ImmutableList.of("a"),
+        ImmutableList.<String>of()));
+  }
+
+  /**
+   * Applies random edits and checks that, after each edit, the manifest is
+   * identical to the manifest of a new {@link ManifestBuilder} for the same
+   * sources.
+   */
+  @Test public void matchesManifestBuilderAfterEachChange() {
+    Random random = new Random(42);
+    int namespaceCount = 40;
+    IncrementalManifestBuilder<JsClosureSourceFileMock> builder =
+        new IncrementalManifestBuilder<JsClosureSourceFileMock>();
+    builder.namespace("n" + (namespaceCount - 1));
+    List<JsClosureSourceFileMock> sources = Lists.newArrayList();
+    JsClosureSourceFileMock[] providers =
+        new JsClosureSourceFileMock[namespaceCount];
+
+    for (int step = 0; step < 400; step++) {
+      // Namespace "nK" only requires namespaces "nJ" with J < K, so the
+      // dependency graph is acyclic.
+      int k = random.nextInt(namespaceCount);
+      List<String> requires = Lists.newArrayList();
+      for (int i = 0; i < 3 && k > 0; i++) {
+        requires.add("n" + random.nextInt(k));
+      }
+      JsClosureSourceFileMock source = newSource("n" + k + "-" + step + ".js",
+          ImmutableList.of("n" + k), requires);
+
+      JsClosureSourceFileMock old = providers[k];
+      if (old == null) {
+        builder.source(source);
+        sources.add(source);
+        providers[k] = source;
+      } else if (random.nextInt(4) == 0) {
+        builder.removeSource(old);
+        sources.remove(old);
+        providers[k] = null;
+      } else {
+        builder.replaceSource(old, source);
+        sources.set(sources.indexOf(old), source);
+        providers[k] = source;
+      }
+      boolean keepAllSources = step >= 150 && step < 250;
+      builder.keepAllSources(keepAllSources);
+
+      ManifestBuilder<JsClosureSourceFileMock> expected =
+          new ManifestBuilder<JsClosureSourceFileMock>();
+      expected.namespace("n" + (namespaceCount - 1));
+      expected.keepAllSources(keepAllSources);
+      expected.sources(sources);
+      assertEquals(toManifest(expected), toManifest(builder));
+    }
+  }
+
+  private static Object toManifest(
+      ManifestBuilder<JsClosureSourceFileMock> builder) {
+    try {
+      return builder.toManifestList();
+    } catch (RuntimeException e) {
+      return e.getMessage();
+    }
+  }
+
+  private static Object toManifest(
+      IncrementalManifestBuilder<JsClosureSourceFileMock> builder) {
+    try {
+      return builder.toManifestList();
+    } catch (RuntimeException e) {
+      return e.getMessage();
+    }
+  }
+}
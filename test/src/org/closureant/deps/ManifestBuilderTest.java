@@ -246,4 +246,26 @@ public final class ManifestBuilderTest {
     builder.source(source2);
     builder.toManifestList();
   }
-}
\ No newline at end of file
+
+  @Test public void namespacePattern() {
+    ManifestBuilder<JsClosureSourceFileMock> builder =
+        new ManifestBuilder<JsClosureSourceFileMock>();
+    builder.namespace("source2*");
+    builder.source(source3);
+    builder.source(baseJs);
+    builder.source(source2);
+    builder.source(source1);
+    assertEquals(ImmutableList.of(baseJs, source1, source2),
+        builder.toManifestList());
+  }
+
+  @Test(expected = MissingProvideException.class)
+  public void namespacePatternWithoutMatches() {
+    ManifestBuilder<JsClosureSourceFileMock> builder =
+        new ManifestBuilder<JsClosureSourceFileMock>();
+    builder.namespace("source1.*");
+    builder.source(baseJs);
+    builder.source(source1);
+    builder.toManifestList();
+  }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant.deps;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+import org.closureant.TempFiles;
+import org.closureant.base.JsClosureSourceFileMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.closureant.base.JsClosureSourceFileMock.newSource;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests for {@link ManifestSnapshot}.
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ */
+@RunWith(BlockJUnit4ClassRunner.class)
+public final class ManifestSnapshotTest {
+
+  private File tempDir;
+  private File snapshotFile;
+  private JsClosureSourceFileMock baseJs;
+  private JsClosureSourceFileMock a;
+  private JsClosureSourceFileMock b;
+  private JsClosureSourceFileMock main;
+
+  @Before
+  public void setUp() throws IOException {
+    tempDir = TempFiles.createTempDir();
+    snapshotFile = new File(tempDir, "manifest.bin");
+    baseJs = newSource("base.js", ImmutableList.of("goog"),
+        ImmutableList.<String>of());
+    baseJs.setBaseJs(true);
+    a = newSource("a.js", ImmutableList.of("a"), ImmutableList.of("goog"));
+    b = newSource("b.js", ImmutableList.of("b"), ImmutableList.of("goog"));
+    main = newSource("main.js", ImmutableList.<String>of(),
+        ImmutableList.of("a"));
+  }
+
+  @After
+  public void tearDown() {
+    TempFiles.delete(tempDir);
+  }
+
+  private List<JsClosureSourceFileMock> buildManifest(
+      List<JsClosureSourceFileMock> sources) {
+    ManifestBuilder<JsClosureSourceFileMock> builder =
+        new ManifestBuilder<JsClosureSourceFileMock>();
+    builder.snapshotFile(snapshotFile).mainSource(main).sources(sources);
+    return builder.toManifestList();
+  }
+
+  /**
+   * Patches the manifest saved in the snapshot file for the given sources.
+   * As in {@link #buildManifest(List)}, the main source comes first, and
+   * base.js is a main source.
+   */
+  private int[] patch(List<JsClosureSourceFileMock> sources) {
+    ManifestSnapshot previous = ManifestSnapshot.read(snapshotFile);
+    assertNotNull(previous);
+    List<JsClosureSourceFileMock> allSources = Lists.newArrayList(main);
+    allSources.addAll(sources);
+    return ManifestSnapshot.create(false, false, false, allSources,
+        ImmutableSet.of(main, baseJs), ImmutableList.<String>of()).patch(previous);
+  }
+
+  @Test public void unrelatedChangesReuseManifest() {
+    assertEquals(ImmutableList.of(baseJs, a, main),
+        buildManifest(ImmutableList.of(baseJs, a, b)));
+
+    // b.js is not required, and neither is the new c.js.
+    JsClosureSourceFileMock c = newSource("c.js", ImmutableList.of("c"),
+        ImmutableList.of("b"));
+    b.setRequires(ImmutableList.of("goog", "c"));
+    List<JsClosureSourceFileMock> sources =
+        ImmutableList.of(c, baseJs, a, b);
+    assertArrayEquals(new int[] {2, 3, 0}, patch(sources));
+    assertEquals(ImmutableList.of(baseJs, a, main), buildManifest(sources));
+  }
+
+  @Test public void relevantChangesRebuildManifest() {
+    List<JsClosureSourceFileMock> sources = ImmutableList.of(baseJs, a, b);
+    buildManifest(sources);
+
+    // A source of the manifest requires another namespace.
+    a.setRequires(ImmutableList.of("goog", "b"));
+    assertNull(patch(sources));
+    assertEquals(ImmutableList.of(baseJs, b, a, main),
+        buildManifest(sources));
+
+    // A new source provides a namespace that is already provided.
+    JsClosureSourceFileMock duplicate = newSource("duplicate.js",
+        ImmutableList.of("c", "b"), ImmutableList.<String>of());
+    assertNull(patch(ImmutableList.of(baseJs, a, b, duplicate)));
+
+    // The provider of a required namespace moved to a new source.
+    JsClosureSourceFileMock newB = newSource("newB.js",
+        ImmutableList.of("b"), ImmutableList.<String>of());
+    b.setProvides(ImmutableList.of("oldB"));
+    sources = ImmutableList.of(baseJs, a, b, newB);
+    assertNull(patch(sources));
+    assertEquals(ImmutableList.of(baseJs, newB, a, main),
+        buildManifest(sources));
+  }
+
+  @Test public void newMatchOfNamespacePatternRebuildsManifest()
+      throws IOException {
+    List<String> patterns = ImmutableList.of("a*");
+    ManifestSnapshot snapshot = ManifestSnapshot.create(false, false, false,
+        ImmutableList.of(baseJs, a, b), ImmutableSet.of(baseJs), patterns);
+    snapshot.setManifest(new int[] {0, 1});
+    snapshot.write(snapshotFile);
+
+    JsClosureSourceFileMock c = newSource("c.js", ImmutableList.of("c"),
+        ImmutableList.<String>of());
+    assertArrayEquals(new int[] {0, 1}, ManifestSnapshot.create(false, false,
+        false, ImmutableList.of(baseJs, a, b, c), ImmutableSet.of(baseJs),
+        patterns).patch(ManifestSnapshot.read(snapshotFile)));
+    JsClosureSourceFileMock a2 = newSource("a2.js", ImmutableList.of("a2"),
+        ImmutableList.<String>of());
+    assertNull(ManifestSnapshot.create(false, false, false,
+        ImmutableList.of(baseJs, a, b, a2), ImmutableSet.of(baseJs),
+        patterns).patch(ManifestSnapshot.read(snapshotFile)));
+  }
+
+  @Test public void corruptSnapshotIsIgnored() throws IOException {
+    buildManifest(ImmutableList.of(baseJs, a, b));
+    assertNotNull(ManifestSnapshot.read(snapshotFile));
+
+    byte[] bytes = Files.toByteArray(snapshotFile);
+    Files.write(Arrays.copyOf(bytes, bytes.length / 2), snapshotFile);
+    assertNull(ManifestSnapshot.read(snapshotFile));
+    assertEquals(ImmutableList.of(baseJs, a, main),
+        buildManifest(ImmutableList.of(baseJs, a, b)));
+    assertNotNull(ManifestSnapshot.read(snapshotFile));
+  }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant.deps;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import org.closureant.base.JsClosureSourceFileMock;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import java.util.List;
+
+import static org.closureant.base.JsClosureSourceFileMock.newSource;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link ModulePartitioner}.
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ */
+@RunWith(BlockJUnit4ClassRunner.class)
+public final class ModulePartitionerTest {
+
+  private JsClosureSourceFileMock baseJs;
+  private JsClosureSourceFileMock util;
+  private JsClosureSourceFileMock widget;
+  private JsClosureSourceFileMock chart;
+  private JsClosureSourceFileMock pageA;
+  private JsClosureSourceFileMock pageB;
+  private JsClosureSourceFileMock pageC;
+
+  @Before public void setUp() {
+    this.baseJs = newSource("base.js", ImmutableList.of("goog"),
+        ImmutableList.<String>of());
+    this.baseJs.setBaseJs(true);
+    this.util = newSource("util.js", ImmutableList.of("util"),
+        ImmutableList.of("goog"));
+    this.widget = newSource("widget.js", ImmutableList.of("widget"),
+        ImmutableList.of("util"));
+    this.chart = newSource("chart.js", ImmutableList.of("chart"),
+        ImmutableList.of("util"));
+    this.pageA = newSource("pageA.js", ImmutableList.<String>of(),
+        ImmutableList.of("widget", "chart"));
+    this.pageB = newSource("pageB.js", ImmutableList.<String>of(),
+        ImmutableList.of("widget"));
+    this.pageC = newSource("pageC.js", ImmutableList.<String>of(),
+        ImmutableList.of("util"));
+  }
+
+  private ModulePartitioner<JsClosureSourceFileMock> newPartitioner() {
+    ModulePartitioner<JsClosureSourceFileMock> partitioner =
+        new ModulePartitioner<JsClosureSourceFileMock>();
+    List<String> none = ImmutableList.of();
+    partitioner.entryPoint("pageA", ImmutableList.of(this.pageA), none)
+        .entryPoint("pageB", ImmutableList.of(this.pageB), none)
+        .entryPoint("pageC", ImmutableList.of(this.pageC), none)
+        .sources(ImmutableList.of(this.baseJs, this.util, this.widget,
+            this.chart))
+        .sizeFunction(new Function<Object, Long>() {
+          @Override public Long apply(Object source) {
+            return 1L;
+          }
+        });
+    return partitioner;
+  }
+
+  @Test public void sharedSourcesMoveToCommonModules() {
+    List<CompilerModule<JsClosureSourceFileMock>> modules =
+        newPartitioner().toModules();
+
+    assertEquals(ImmutableList.of("base:2", "shared1:1:base",
+        "pageA:2:shared1", "pageB:1:shared1", "pageC:1:base"),
+        toModuleFlags(modules));
+    assertEquals(ImmutableList.of(this.baseJs, this.util),
+        modules.get(0).getSources());
+    assertEquals(ImmutableList.of(this.widget), modules.get(1).getSources());
+    assertEquals(ImmutableList.of(this.chart, this.pageA),
+        modules.get(2).getSources());
+  }
+
+  @Test public void smallSharedModulesMergedIntoBase() {
+    List<CompilerModule<JsClosureSourceFileMock>> modules =
+        newPartitioner().minSharedSize(2).toModules();
+
+    assertEquals(ImmutableList.of("base:3", "pageA:2:base", "pageB:1:base",
+        "pageC:1:base"), toModuleFlags(modules));
+    assertEquals(ImmutableList.of(this.baseJs, this.util, this.widget),
+        modules.get(0).getSources());
+  }
+
+  @Test public void unrequiredSourcesKeptInBase() {
+    JsClosureSourceFileMock extra = newSource("extra.js",
+        ImmutableList.of("extra"), ImmutableList.of("chart"));
+    List<CompilerModule<JsClosureSourceFileMock>> modules = newPartitioner()
+        .source(extra).keepAllSources(true).toModules();
+
+    // The dependencies of unrequired sources move to the base module, and
+    // the modules of the entry points still hold their own sources.
+    assertEquals(ImmutableList.of("base:4", "shared1:1:base",
+        "pageA:1:shared1", "pageB:1:shared1", "pageC:1:base"),
+        toModuleFlags(modules));
+    assertEquals(ImmutableList.of(this.baseJs, this.util, this.chart, extra),
+        modules.get(0).getSources());
+    assertEquals(ImmutableList.of(this.pageA), modules.get(2).getSources());
+  }
+
+  private static List<String> toModuleFlags(
+      List<CompilerModule<JsClosureSourceFileMock>> modules) {
+    List<String> flags = Lists.newArrayList();
+    for (CompilerModule<JsClosureSourceFileMock> module : modules) {
+      flags.add(module.toModuleFlag());
+    }
+    return flags;
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant.deps;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link NamespacePatternIndex}.
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ */
+@RunWith(BlockJUnit4ClassRunner.class)
+public final class NamespacePatternIndexTest {
+
+  @Test public void getMatches() {
+    NamespacePatternIndex index = NamespacePatternIndex.create(
+        ImmutableList.of("app.pages.home", "app", "app.pagesExtra",
+            "app.pages", "app.pages.admin.users", "goog.array", "app.util"));
+
+    assertEquals(ImmutableList.of("app.pages.admin.users", "app.pages.home"),
+        index.getMatches("app.pages.*"));
+    assertEquals(ImmutableList.of("app.pages", "app.pages.admin.users",
+        "app.pages.home", "app.pagesExtra"), index.getMatches("app.pages*"));
+    assertEquals(ImmutableList.of("goog.array"), index.getMatches("goog.*"));
+    assertEquals(7, index.getMatches("*").size());
+    assertTrue(index.getMatches("app.util.*").isEmpty());
+    assertTrue(index.getMatches("zzz*").isEmpty());
+  }
+
+  @Test public void isPattern() {
+    assertTrue(NamespacePatternIndex.isPattern("app.pages.*"));
+    assertFalse(NamespacePatternIndex.isPattern("app.pages"));
+    assertTrue(NamespacePatternIndex.matches("app.*", "app.pages"));
+    assertFalse(NamespacePatternIndex.matches("app.*", "app"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void wildcardMustBeLast() {
+    NamespacePatternIndex.checkPattern("app.pages.*");
+    NamespacePatternIndex.checkPattern("app.*.home");
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant.deps;
+
+import com.google.common.collect.ImmutableList;
+
+import org.closureant.base.JsClosureSourceFileMock;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import static org.closureant.base.JsClosureSourceFileMock.newSource;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link ReverseDependencyIndex}.
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ */
+@RunWith(BlockJUnit4ClassRunner.class)
+public final class ReverseDependencyIndexTest {
+
+  @Test public void affectedEntryPoints() {
+    JsClosureSourceFileMock baseJs = newSource("base.js",
+        ImmutableList.of("goog"), ImmutableList.<String>of());
+    baseJs.setBaseJs(true);
+    JsClosureSourceFileMock util = newSource("util.js",
+        ImmutableList.of("util"), ImmutableList.of("goog"));
+    JsClosureSourceFileMock chart = newSource("chart.js",
+        ImmutableList.of("chart"), ImmutableList.of("util"));
+    JsClosureSourceFileMock widget = newSource("widget.js",
+        ImmutableList.of("widget"), ImmutableList.of("goog"));
+    JsClosureSourceFileMock pageA = newSource("pageA.js",
+        ImmutableList.<String>of(), ImmutableList.of("chart"));
+    JsClosureSourceFileMock moocher = newSource("moocher.js",
+        ImmutableList.<String>of(), ImmutableList.of("widget"));
+
+    ReverseDependencyIndex<JsClosureSourceFileMock> index =
+        ReverseDependencyIndex.create(ImmutableList.of(baseJs, util, chart,
+            widget, pageA, moocher));
+    index.entryPoint("pageA", ImmutableList.of(pageA),
+        ImmutableList.<String>of())
+        .entryPoint("pageB", ImmutableList.<JsClosureSourceFileMock>of(),
+            ImmutableList.of("util"))
+        .entryPoint("pageC", ImmutableList.<JsClosureSourceFileMock>of(),
+            ImmutableList.of("widget"));
+
+    assertEquals(ImmutableList.of("pageA"),
+        index.getAffectedEntryPoints(ImmutableList.of(chart)));
+    assertEquals(ImmutableList.of("pageA", "pageB"),
+        index.getAffectedEntryPoints(ImmutableList.of(util)));
+    assertEquals(ImmutableList.of("pageA", "pageB", "pageC"),
+        index.getAffectedEntryPoints(ImmutableList.of(baseJs)));
+    assertEquals(ImmutableList.of("pageC"),
+        index.getAffectedEntryPoints(ImmutableList.of(widget)));
+    assertTrue(index.getAffectedEntryPoints(
+        ImmutableList.of(moocher)).isEmpty());
+    assertFalse(index.isAffected("pageB", ImmutableList.of(chart)));
+
+    // Moochers are entry points of every manifest if they are kept.
+    index.keepMoochers(true);
+    assertEquals(ImmutableList.of("pageA", "pageB", "pageC"),
+        index.getAffectedEntryPoints(ImmutableList.of(widget)));
+    assertEquals(ImmutableList.of("pageA"),
+        index.getAffectedEntryPoints(ImmutableList.of(chart)));
+  }
+
+  @Test public void removedOrRenamedProvideAffectsRequiringEntryPoints() {
+    JsClosureSourceFileMock baseJs = newSource("base.js",
+        ImmutableList.of("goog"), ImmutableList.<String>of());
+    baseJs.setBaseJs(true);
+    // util.js no longer provides "util", which chart.js still requires.
+    JsClosureSourceFileMock util = newSource("util.js",
+        ImmutableList.of("util.renamed"), ImmutableList.of("goog"));
+    JsClosureSourceFileMock chart = newSource("chart.js",
+        ImmutableList.of("chart"), ImmutableList.of("util"));
+    JsClosureSourceFileMock widget = newSource("widget.js",
+        ImmutableList.of("widget"), ImmutableList.of("goog"));
+    JsClosureSourceFileMock pageA = newSource("pageA.js",
+        ImmutableList.<String>of(), ImmutableList.of("chart"));
+    JsClosureSourceFileMock moocher = newSource("moocher.js",
+        ImmutableList.<String>of(), ImmutableList.of("util"));
+
+    ReverseDependencyIndex<JsClosureSourceFileMock> index =
+        ReverseDependencyIndex.create(ImmutableList.of(baseJs, util, chart,
+            widget, pageA, moocher));
+    index.entryPoint("pageA", ImmutableList.of(pageA),
+        ImmutableList.<String>of())
+        .entryPoint("pageC", ImmutableList.<JsClosureSourceFileMock>of(),
+            ImmutableList.of("widget"));
+
+    assertEquals(ImmutableList.of("pageA"),
+        index.getAffectedEntryPoints(ImmutableList.of(util)));
+    // The missing provide is reported whatever changed.
+    assertEquals(ImmutableList.of("pageA", "pageC"),
+        index.getAffectedEntryPoints(ImmutableList.of(widget)));
+    assertFalse(index.isAffected("pageC", ImmutableList.of(util)));
+
+    // A kept moocher that requires the removed namespace affects every
+    // entry point.
+    index.keepMoochers(true);
+    assertEquals(ImmutableList.of("pageA", "pageC"),
+        index.getAffectedEntryPoints(ImmutableList.of(util)));
+  }
+}
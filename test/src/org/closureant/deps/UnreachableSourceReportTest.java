@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant.deps;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+
+import org.closureant.base.JsClosureSourceFileMock;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import java.io.File;
+import java.util.List;
+
+import static org.closureant.base.JsClosureSourceFileMock.newSource;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link UnreachableSourceReport}.
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ */
+@RunWith(BlockJUnit4ClassRunner.class)
+public final class UnreachableSourceReportTest {
+
+  // The size of a source is the length of its code.
+  private static final Function<JsClosureSourceFileMock, Long> CODE_LENGTH =
+      new Function<JsClosureSourceFileMock, Long>() {
+        @Override public Long apply(JsClosureSourceFileMock source) {
+          return (long) source.getCode().length();
+        }
+      };
+
+  @Test public void unreachableSourcesAndDirectories() {
+    JsClosureSourceFileMock baseJs = newSource("/js/closure/base.js",
+        ImmutableList.of("goog"), ImmutableList.<String>of(), 100);
+    baseJs.setBaseJs(true);
+    JsClosureSourceFileMock array = newSource("/js/closure/array.js",
+        ImmutableList.of("goog.array"), ImmutableList.of("goog"), 50);
+    JsClosureSourceFileMock dom = newSource("/js/closure/dom.js",
+        ImmutableList.of("goog.dom"), ImmutableList.of("goog"), 70);
+    JsClosureSourceFileMock home = newSource("/js/app/pages/home.js",
+        ImmutableList.of("app.pages.home"), ImmutableList.of("goog.array"),
+        10);
+    JsClosureSourceFileMock util = newSource("/js/app/util.js",
+        ImmutableList.of("app.util"), ImmutableList.<String>of(), 20);
+    JsClosureSourceFileMock old1 = newSource("/js/app/old/old1.js",
+        ImmutableList.of("app.old1"), ImmutableList.of("goog.dom"), 5);
+    JsClosureSourceFileMock old2 = newSource("/js/app/old/deeper/old2.js",
+        ImmutableList.of("app.old2"), ImmutableList.of("app.old1"), 7);
+    JsClosureSourceFileMock moocher = newSource("/js/app/moocher.js",
+        ImmutableList.<String>of(), ImmutableList.of("app.util"), 3);
+
+    UnreachableSourceReport<JsClosureSourceFileMock> report =
+        UnreachableSourceReport.create(ImmutableList.of(baseJs, array, dom,
+            home, util, old1, old2, moocher),
+            ImmutableList.<JsClosureSourceFileMock>of(),
+            ImmutableList.of("app.pages.*"), CODE_LENGTH);
+
+    assertEquals(8, report.getSourceCount());
+    assertEquals(265, report.getTotalSize());
+    assertEquals(ImmutableList.of(dom, old1, old2),
+        report.getUnreachableSources());
+    assertEquals(82, report.getUnreachableSize());
+
+    // "/js" contains every source, and "/js/app/old/deeper" is covered by
+    // "/js/app/old".
+    List<UnreachableSourceReport.Directory> directories =
+        report.getDirectories();
+    assertEquals(3, directories.size());
+    assertEquals(new File("/js/closure").getAbsolutePath(),
+        directories.get(0).getPath());
+    assertEquals(70, directories.get(0).getUnreachableSize());
+    assertEquals(3, directories.get(0).getFileCount());
+    assertFalse(directories.get(0).isUnreachable());
+    assertEquals(new File("/js/app").getAbsolutePath(),
+        directories.get(1).getPath());
+    assertEquals(new File("/js/app/old").getAbsolutePath(),
+        directories.get(2).getPath());
+    assertEquals(2, directories.get(2).getUnreachableFileCount());
+    assertTrue(directories.get(2).isUnreachable());
+
+    assertTrue(report.toString().startsWith(
+        "Unreachable sources: 3 of 8 (82 of 265 bytes)"));
+  }
+
+  @Test public void mainSourcesAreReachable() {
+    JsClosureSourceFileMock main = newSource("/js/main.js",
+        ImmutableList.of("main"), ImmutableList.of("lib"), 1);
+    JsClosureSourceFileMock lib = newSource("/js/lib.js",
+        ImmutableList.of("lib"), ImmutableList.<String>of(), 1);
+    JsClosureSourceFileMock unused = newSource("/js/unused.js",
+        ImmutableList.of("unused"), ImmutableList.of("missing"), 1);
+
+    UnreachableSourceReport<JsClosureSourceFileMock> report =
+        UnreachableSourceReport.create(ImmutableList.of(main, lib, unused),
+            ImmutableList.of(main), ImmutableList.of("not.provided"),
+            CODE_LENGTH);
+    assertEquals(ImmutableList.of(unused), report.getUnreachableSources());
+    assertTrue(report.getDirectories().isEmpty());
+  }
+}
@@ -30,6 +30,9 @@ import java.io.File;
 import java.io.IOException;
 import java.util.List;
 
+import org.closureant.base.BuildSettings;
+import org.closureant.base.SourceFileFactory;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -136,4 +139,121 @@ public final class ClosureBuildUtilTest {
     Files.write("var goog = 42;", baseJs, Charsets.UTF_8);
     assertFalse(ClosureBuildUtil.isClosureBaseJs(baseJs));
   }
-}
\ No newline at end of file
+
+  @Test public void isBaseJs_SourceFileRequiresNameAndContent()
+      throws IOException {
+    Files.write("var goog = 42;", baseJs, Charsets.UTF_8);
+    assertFalse(ClosureBuildUtil.isClosureBaseJs(
+        SourceFileFactory.newLightweightJsClosureSourceFile(baseJs)));
+
+    Files.write("var COMPILED = false;" + String.format("%n")
+        + "var goog = goog || {}; // Identifies this file "
+        + "as the Closure base.", sourceFile, Charsets.UTF_8);
+    assertFalse(ClosureBuildUtil.isClosureBaseJs(
+        SourceFileFactory.newLightweightJsClosureSourceFile(sourceFile)));
+
+    Files.write("var COMPILED = false;" + String.format("%n")
+        + "var goog = goog || {}; // Identifies this file "
+        + "as the Closure base.", baseJs, Charsets.UTF_8);
+    assertTrue(ClosureBuildUtil.isClosureBaseJs(
+        SourceFileFactory.newLightweightJsClosureSourceFile(baseJs)));
+  }
+
+  @Test public void touchedSourceWithUnchangedContentsUpToDate()
+      throws IOException {
+    File dir = Files.createTempDir();
+    try {
+      File source = new File(dir, "a.js");
+      File output = new File(dir, "out.js");
+      Files.write("var a = 1;", source, Charsets.UTF_8);
+      Files.write("var a=1;", output, Charsets.UTF_8);
+      long now = System.currentTimeMillis();
+      source.setLastModified(now - 20000);
+      output.setLastModified(now - 10000);
+
+      BuildSettings previous = new BuildSettings("--flag",
+          ImmutableList.of(source.getPath()));
+      ClosureBuildUtil.recordContentDigests(previous, null,
+          ImmutableList.of(output));
+
+      // A checkout touches the source without changing it.
+      source.setLastModified(now);
+      BuildSettings current = new BuildSettings("--flag",
+          ImmutableList.of(source.getPath()));
+      assertTrue(ClosureBuildUtil.outputFileUpToDate(output, previous,
+          current));
+      previous.setContentDigests(null);
+      assertFalse(ClosureBuildUtil.outputFileUpToDate(output, previous,
+          current));
+    } finally {
+      for (File file : dir.listFiles()) {
+        file.delete();
+      }
+      dir.delete();
+    }
+  }
+
+  @Test public void changedSourceNotUpToDate() throws IOException {
+    File dir = Files.createTempDir();
+    try {
+      File source = new File(dir, "a.js");
+      File output = new File(dir, "out.js");
+      Files.write("var a = 1;", source, Charsets.UTF_8);
+      Files.write("var a=1;", output, Charsets.UTF_8);
+      long now = System.currentTimeMillis();
+      source.setLastModified(now - 20000);
+      output.setLastModified(now - 10000);
+
+      BuildSettings previous = new BuildSettings("--flag",
+          ImmutableList.of(source.getPath()));
+      ClosureBuildUtil.recordContentDigests(previous, null,
+          ImmutableList.of(output));
+
+      Files.write("var a = 2;", source, Charsets.UTF_8);
+      BuildSettings current = new BuildSettings("--flag",
+          ImmutableList.of(source.getPath()));
+      assertEquals(ImmutableList.of(source.getPath()),
+          ClosureBuildUtil.getSourcesModifiedAfterOutputFile(output,
+              previous, current));
+
+      // The output was replaced, so its recorded sources do not apply.
+      Files.write("var a = 1;", source, Charsets.UTF_8);
+      Files.write("var b=1;", output, Charsets.UTF_8);
+      output.setLastModified(now - 5000);
+      source.setLastModified(now);
+      assertFalse(ClosureBuildUtil.outputFileUpToDate(output, previous,
+          current));
+    } finally {
+      for (File file : dir.listFiles()) {
+        file.delete();
+      }
+      dir.delete();
+    }
+  }
+
+  @Test public void sourceModifiedDuringBuildNotRecorded()
+      throws IOException {
+    File dir = Files.createTempDir();
+    try {
+      File source = new File(dir, "a.js");
+      File output = new File(dir, "out.js");
+      Files.write("var a = 1;", source, Charsets.UTF_8);
+      Files.write("var a=1;", output, Charsets.UTF_8);
+
+      BuildSettings settings = new BuildSettings("--flag",
+          ImmutableList.of(source.getPath()));
+      ClosureBuildUtil.recordContentDigests(settings, null,
+          ImmutableList.of(output));
+      assertEquals(1, settings.getContentDigests().size());
+      assertFalse(settings.getContentDigests().isUnchanged(
+          source.getPath()));
+      assertTrue(settings.getContentDigests().isUnchanged(
+          output.getPath()));
+    } finally {
+      for (File file : dir.listFiles()) {
+        file.delete();
+      }
+      dir.delete();
+    }
+  }
+}
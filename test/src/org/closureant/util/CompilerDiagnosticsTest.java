@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant.util;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link CompilerDiagnostics}.
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ */
+@RunWith(BlockJUnit4ClassRunner.class)
+public final class CompilerDiagnosticsTest {
+
+  private static final String NL = String.format("%n");
+
+  private static final String SHARED_WARNING =
+      "lib.js:3: WARNING - dangerous use of this" + NL
+      + "  this.x = 1;" + NL
+      + "  ^";
+
+  @Test public void diagnosticsMergedAndDeduplicated() {
+    CompilerDiagnostics diagnostics = new CompilerDiagnostics()
+        .add(SHARED_WARNING + NL + NL
+            + "a.js:12: ERROR - variable foo is undeclared" + NL
+            + "foo();" + NL
+            + "^" + NL + NL
+            + "1 error(s), 1 warning(s), 90.0% typed" + NL)
+        .add(SHARED_WARNING + NL + NL
+            + "0 error(s), 1 warning(s)" + NL);
+
+    assertEquals(ImmutableList.of(SHARED_WARNING,
+        "a.js:12: ERROR - variable foo is undeclared" + NL
+        + "foo();" + NL + "^"), diagnostics.getDiagnostics());
+    assertEquals(1, diagnostics.getErrorCount());
+    assertEquals(1, diagnostics.getWarningCount());
+    assertEquals("1 error(s), 1 warning(s)", diagnostics.getSummary());
+    assertEquals(ImmutableList.<String>of(), diagnostics.getOtherOutput());
+  }
+
+  @Test public void diagnosticWithColumnNumber() {
+    CompilerDiagnostics diagnostics = new CompilerDiagnostics()
+        .add("b.js:7:4: WARNING - [JSC_UNUSED] unused variable" + NL
+            + "b.js:8:0: ERROR - [JSC_TYPE_MISMATCH] mismatch" + NL);
+
+    assertEquals(ImmutableList.of(
+        "b.js:7:4: WARNING - [JSC_UNUSED] unused variable",
+        "b.js:8:0: ERROR - [JSC_TYPE_MISMATCH] mismatch"),
+        diagnostics.getDiagnostics());
+    assertEquals(1, diagnostics.getErrorCount());
+    assertEquals(1, diagnostics.getWarningCount());
+  }
+
+  @Test public void otherOutputKept() {
+    CompilerDiagnostics diagnostics = new CompilerDiagnostics()
+        .add("java.lang.RuntimeException: boom" + NL
+            + "\tat Compiler.compile(Compiler.java:1)" + NL);
+
+    assertEquals(ImmutableList.of("java.lang.RuntimeException: boom",
+        "\tat Compiler.compile(Compiler.java:1)"),
+        diagnostics.getOtherOutput());
+    assertEquals("java.lang.RuntimeException: boom" + NL
+        + "\tat Compiler.compile(Compiler.java:1)" + NL
+        + "0 error(s), 0 warning(s)" + NL, diagnostics.toString());
+  }
+}
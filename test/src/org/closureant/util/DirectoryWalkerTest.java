@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2012 Christopher Peisert. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS-IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.closureant.util;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.tools.ant.DirectoryScanner;
+import org.closureant.TempFiles;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link DirectoryWalker}.
+ *
+ * @author cpeisert{at}gmail{dot}com (Christopher Peisert)
+ */
+@RunWith(BlockJUnit4ClassRunner.class)
+public final class DirectoryWalkerTest {
+
+  private static final String SEP = File.separator;
+
+  private File root;
+
+  @Before
+  public void setUp() throws IOException {
+    root = TempFiles.createTempDir();
+    for (String path : ImmutableList.of("a.js", "b.soy", "x/c.js",
+        "x/d.txt", "y/z/e.js", "y/f.soy", ".hidden/g.js")) {
+      File file = new File(root, path);
+      file.getParentFile().mkdirs();
+      Files.touch(file);
+    }
+  }
+
+  @After
+  public void tearDown() {
+    TempFiles.delete(root);
+  }
+
+  @Test public void multipleExtensionsMatchedInOnePass() throws IOException {
+    List<String> expected = ImmutableList.of(
+        root + SEP + "a.js",
+        root + SEP + "b.soy",
+        root + SEP + "x" + SEP + "c.js",
+        root + SEP + "y" + SEP + "f.soy",
+        root + SEP + "y" + SEP + "z" + SEP + "e.js");
+    List<String> includes = ImmutableList.of("**/*.js", "**/*.soy");
+    List<String> excludes = ImmutableList.of("**/.*/**");
+
+    assertEquals(expected,
+        new DirectoryWalker(includes, excludes, true, 4).findFiles(root));
+    assertEquals(expected,
+        new DirectoryWalker(includes, excludes, true, 1).findFiles(root));
+  }
+
+  @Test public void sameFilesAsDirectoryScanner() throws IOException {
+    List<String> includes = ImmutableList.of("x/", "**/e.*", "*.soy");
+    List<String> excludes = ImmutableList.of("**/*.txt");
+
+    DirectoryScanner scanner = new DirectoryScanner();
+    scanner.setBasedir(root);
+    scanner.setIncludes(includes.toArray(new String[0]));
+    scanner.setExcludes(excludes.toArray(new String[0]));
+    scanner.scan();
+    List<String> expected = Lists.newArrayList(scanner.getIncludedFiles());
+    Collections.sort(expected);
+
+    List<String> actual = new DirectoryWalker(includes, excludes)
+        .findRelativeFilePaths(root);
+    Collections.sort(actual);
+    assertEquals(expected, actual);
+  }
+
+  @Test public void directoriesIncludeRoot() throws IOException {
+    assertEquals(ImmutableList.of(root.getPath(), root + SEP + "y",
+        root + SEP + "y" + SEP + "z"),
+        new DirectoryWalker(null, ImmutableList.of("x", ".*"))
+            .findDirectories(root));
+  }
+
+  @Test public void excludedSubtreesAreNotListed() throws IOException {
+    List<File> listed = Lists.newArrayList();
+    assertEquals(ImmutableList.of(root + SEP + "a.js",
+        root + SEP + "x" + SEP + "c.js"),
+        new DirectoryWalker(ImmutableList.of("**/*.js"),
+            ImmutableList.of("**/y/**", ".*/**"), true, 4)
+            .findFiles(root, listed));
+    Collections.sort(listed);
+    assertEquals(ImmutableList.of(root, new File(root, "x")), listed);
+  }
+
+  @Test public void resultsSortedRegardlessOfThreads() throws IOException {
+    for (String path : ImmutableList.of("x/y/h.js", "x.js", "y/a.js")) {
+      File file = new File(root, path);
+      file.getParentFile().mkdirs();
+      Files.touch(file);
+    }
+    List<String> expected = Lists.newArrayList(
+        new DirectoryWalker(null, null, true, 1).findRelativeFilePaths(root));
+    Collections.sort(expected);
+    assertEquals(expected,
+        new DirectoryWalker(null, null, true, 1).findRelativeFilePaths(root));
+    assertEquals(expected,
+        new DirectoryWalker(null, null, true, 8).findRelativeFilePaths(root));
+  }
+}